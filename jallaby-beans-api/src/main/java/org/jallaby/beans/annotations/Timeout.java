@@ -0,0 +1,58 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.annotations;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class level annotation to be used on classes annotated with the {@link State} annotation.
+ * Once the state has been active for the given time, the given event is sent to the state
+ * machine instance, unless the state has been exited meanwhile. The event MUST be declared
+ * in the state-machine.xml file and SHOULD be referenced by a transition of the state.
+ * <p>
+ * A state may declare its timeout in the state-machine.xml file instead, with the
+ * <code>after</code> attribute in milliseconds and the <code>timeout-event</code> attribute.
+ * This annotation takes precedence over the declaration.
+ * 
+ * @author Matthias Rothe
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface Timeout {
+	
+	/**
+	 * @return the time the state may be active before the event is sent
+	 */
+	long after();
+	
+	/**
+	 * @return the unit of the time given by {@link #after()}
+	 */
+	TimeUnit unit() default TimeUnit.MILLISECONDS;
+	
+	/**
+	 * @return the name of the event to send
+	 */
+	String event();
+}
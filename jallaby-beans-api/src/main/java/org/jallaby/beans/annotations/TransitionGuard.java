@@ -26,7 +26,8 @@ import java.lang.annotation.Target;
 /**
  * Method level annotation to be used inside classes annotated with the {@link Transition}
  * annotation. Methods annotated with this annotation MUST  have a <code>boolean</code>
- * return type and MUST NOT take any arguments. The <code>boolean</code> returned decides
+ * return type and MUST either take no arguments or take the event data as their only
+ * argument, declared as a <code>Map&lt;String, Object&gt;</code>. The <code>boolean</code> returned decides
  * whether the corresponding transition will be executed or not, for values <code>true</code>
  * and <code>false</code> respectively.
  * <p>
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.wiring;
+
+/**
+ * Wires the beans of a state machine archive (SMA) without classpath scanning or reflection.
+ * <p>
+ * Implementations are generated at build time by the {@link WiringProcessor} and listed in the
+ * {@link Wiring#SERVICE_ENTRY} of the archive. Deploying an archive holding a wiring skips
+ * scanning its classes and calls the annotated methods of its beans through the lambdas
+ * registered here rather than reflectively.
+ * 
+ * @author Matthias Rothe
+ */
+public interface StateMachineWiring {
+	
+	/**
+	 * Registers the bean classes of the archive and the annotated methods of its states and
+	 * transitions with the given wiring.
+	 * 
+	 * @param wiring the wiring to register with
+	 */
+	void wire(Wiring wiring);
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.wiring;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+
+/**
+ * The bean classes of a state machine archive (SMA) and the annotated methods of its states
+ * and transitions, bound as typed lambdas. A wiring is filled in by a generated
+ * {@link StateMachineWiring}.
+ * <p>
+ * Methods are registered by the class of the bean they're called on, their name and their
+ * number of parameters, which is either 0 or 1 for those taking the event data.
+ * 
+ * @author Matthias Rothe
+ */
+public final class Wiring {
+	
+	/**
+	 * The entry of a state machine archive listing its {@link StateMachineWiring}.
+	 */
+	public static final String SERVICE_ENTRY = "META-INF/services/" + StateMachineWiring.class.getName();
+	
+	private final Set<Class<?>> states = new LinkedHashSet<>();
+	private final Set<Class<?>> transitions = new LinkedHashSet<>();
+	private final Set<Class<?>> eventValidators = new LinkedHashSet<>();
+	private final Set<Class<?>> modules = new LinkedHashSet<>();
+	private final Map<Class<?>, Map<String, Object>> methods = new HashMap<>();
+	private final Set<String> compiledClasses = new LinkedHashSet<>();
+	
+	/**
+	 * Registers a class annotated with <code>@State</code>.
+	 * 
+	 * @param stateClass the class
+	 * @return this wiring
+	 */
+	public Wiring state(final Class<?> stateClass) {
+		states.add(Objects.requireNonNull(stateClass, "stateClass must not be null"));
+		return this;
+	}
+
+	/**
+	 * Registers a class annotated with <code>@Transition</code>.
+	 * 
+	 * @param transitionClass the class
+	 * @return this wiring
+	 */
+	public Wiring transition(final Class<?> transitionClass) {
+		transitions.add(Objects.requireNonNull(transitionClass, "transitionClass must not be null"));
+		return this;
+	}
+
+	/**
+	 * Registers a class implementing <code>EventValidator</code>.
+	 * 
+	 * @param eventValidatorClass the class
+	 * @return this wiring
+	 */
+	public Wiring eventValidator(final Class<?> eventValidatorClass) {
+		eventValidators.add(Objects.requireNonNull(eventValidatorClass, "eventValidatorClass must not be null"));
+		return this;
+	}
+
+	/**
+	 * Registers a class implementing the Guice <code>Module</code>.
+	 * 
+	 * @param moduleClass the class
+	 * @return this wiring
+	 */
+	public Wiring module(final Class<?> moduleClass) {
+		modules.add(Objects.requireNonNull(moduleClass, "moduleClass must not be null"));
+		return this;
+	}
+
+	/**
+	 * Registers a top-level class compiled together with the beans, whether it's a bean or not.
+	 * An archive containing classes that aren't registered was wired from some of its sources
+	 * only, by an incremental compile, and has to be scanned instead.
+	 * 
+	 * @param className the fully qualified name of the class
+	 * @return this wiring
+	 */
+	public Wiring compiled(final String className) {
+		compiledClasses.add(Objects.requireNonNull(className, "className must not be null"));
+		return this;
+	}
+
+	/**
+	 * Registers a transition guard.
+	 * 
+	 * @param <T> the type of the bean
+	 * @param beanClass the class of the bean
+	 * @param name the name of the method
+	 * @param parameters the number of parameters of the method
+	 * @param guard the guard, calling the method on the given bean
+	 * @return this wiring
+	 */
+	public <T> Wiring guard(final Class<T> beanClass, final String name, final int parameters,
+			final BiPredicate<T, Map<String, Map<String, Object>>> guard) {
+		return register(beanClass, name, parameters, guard);
+	}
+
+	/**
+	 * Registers an action whose result, if any, is ignored.
+	 * 
+	 * @param <T> the type of the bean
+	 * @param beanClass the class of the bean
+	 * @param name the name of the method
+	 * @param parameters the number of parameters of the method
+	 * @param action the action, calling the method on the given bean
+	 * @return this wiring
+	 */
+	public <T> Wiring action(final Class<T> beanClass, final String name, final int parameters,
+			final BiConsumer<T, Map<String, Map<String, Object>>> action) {
+		return register(beanClass, name, parameters, action);
+	}
+
+	/**
+	 * Registers an action whose result is kept, like an entry action.
+	 * 
+	 * @param <T> the type of the bean
+	 * @param beanClass the class of the bean
+	 * @param name the name of the method
+	 * @param parameters the number of parameters of the method
+	 * @param function the action, calling the method on the given bean
+	 * @return this wiring
+	 */
+	public <T> Wiring function(final Class<T> beanClass, final String name, final int parameters,
+			final BiFunction<T, Map<String, Map<String, Object>>, Object> function) {
+		return register(beanClass, name, parameters, function);
+	}
+
+	private Wiring register(final Class<?> beanClass, final String name, final int parameters,
+			final Object invoker) {
+		Objects.requireNonNull(beanClass, "beanClass must not be null");
+		Objects.requireNonNull(name, "name must not be null");
+		Objects.requireNonNull(invoker, "invoker must not be null");
+		
+		methods.computeIfAbsent(beanClass, key -> new HashMap<>()).put(key(name, parameters), invoker);
+		return this;
+	}
+
+	/**
+	 * @return the classes annotated with <code>@State</code>
+	 */
+	public Set<Class<?>> getStates() {
+		return Collections.unmodifiableSet(states);
+	}
+
+	/**
+	 * @return the classes annotated with <code>@Transition</code>
+	 */
+	public Set<Class<?>> getTransitions() {
+		return Collections.unmodifiableSet(transitions);
+	}
+
+	/**
+	 * @return the classes implementing <code>EventValidator</code>
+	 */
+	public Set<Class<?>> getEventValidators() {
+		return Collections.unmodifiableSet(eventValidators);
+	}
+
+	/**
+	 * @return the classes implementing the Guice <code>Module</code>
+	 */
+	public Set<Class<?>> getModules() {
+		return Collections.unmodifiableSet(modules);
+	}
+
+	/**
+	 * @return the names of the top-level classes compiled together with the beans
+	 */
+	public Set<String> getCompiledClasses() {
+		return Collections.unmodifiableSet(compiledClasses);
+	}
+
+	/**
+	 * @param beanClass the class of the bean the method is called on
+	 * @param method the method
+	 * @return the guard registered for the method, or <code>null</code> if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public BiPredicate<Object, Map<String, Map<String, Object>>> getGuard(final Class<?> beanClass,
+			final Method method) {
+		return lookup(beanClass, method, BiPredicate.class);
+	}
+
+	/**
+	 * @param beanClass the class of the bean the method is called on
+	 * @param method the method
+	 * @return the action registered for the method, or <code>null</code> if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public BiConsumer<Object, Map<String, Map<String, Object>>> getAction(final Class<?> beanClass,
+			final Method method) {
+		return lookup(beanClass, method, BiConsumer.class);
+	}
+
+	/**
+	 * @param beanClass the class of the bean the method is called on
+	 * @param method the method
+	 * @return the function registered for the method, or <code>null</code> if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public BiFunction<Object, Map<String, Map<String, Object>>, Object> getFunction(final Class<?> beanClass,
+			final Method method) {
+		return lookup(beanClass, method, BiFunction.class);
+	}
+
+	private <T> T lookup(final Class<?> beanClass, final Method method, final Class<T> type) {
+		Object invoker = methods.getOrDefault(beanClass, Collections.emptyMap())
+				.get(key(method.getName(), method.getParameterCount()));
+		return type.isInstance(invoker) ? type.cast(invoker) : null;
+	}
+
+	private static String key(final String name, final int parameters) {
+		return name + "/" + parameters;
+	}
+}
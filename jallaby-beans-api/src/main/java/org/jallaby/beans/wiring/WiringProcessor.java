@@ -0,0 +1,385 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.wiring;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+
+import org.jallaby.beans.annotations.EntryAction;
+import org.jallaby.beans.annotations.ExitAction;
+import org.jallaby.beans.annotations.State;
+import org.jallaby.beans.annotations.Transition;
+import org.jallaby.beans.annotations.TransitionAction;
+import org.jallaby.beans.annotations.TransitionGuard;
+
+/**
+ * Generates the {@link StateMachineWiring} of a state machine archive (SMA) at build time.
+ * <p>
+ * The processor collects the classes annotated with {@link State} and {@link Transition} and
+ * those implementing <code>EventValidator</code> or the Guice <code>Module</code> from the
+ * sources compiled, and generates a class named <code>JallabyWiring</code> into the package of
+ * the first of them, registering each class and binding each annotated method as a lambda. The
+ * class is listed in the {@link Wiring#SERVICE_ENTRY} of the class output, so it ends up in the
+ * archive. Being discovered on the class path like any annotation processor, it runs whenever
+ * the beans of an archive are compiled against <code>jallaby-beans-api</code>.
+ * <p>
+ * The wiring is generated in the first round compiling any states or transitions rather than
+ * once processing is over, so it's compiled and processed like any other source. Classes
+ * generated by other processors in later rounds are still collected, but as the wiring can't
+ * include them anymore, a warning is issued and the archive is scanned on deployment. The wiring
+ * also lists every top-level class compiled, which lets a wiring generated by an incremental
+ * compile of some of the sources be detected on deployment, in which case the archive is scanned
+ * instead. If any of the classes isn't public, no wiring is generated and the archive is scanned
+ * as well.
+ * 
+ * @author Matthias Rothe
+ */
+@SupportedAnnotationTypes("*")
+public class WiringProcessor extends AbstractProcessor {
+	private static final String CLASS_NAME = "JallabyWiring";
+	private static final String EVENT_VALIDATOR = "org.jallaby.event.EventValidator";
+	private static final String MODULE = "com.google.inject.Module";
+	private static final int STATEMENTS_PER_METHOD = 500;
+	
+	private final Set<TypeElement> states = new TreeSet<>(byName());
+	private final Set<TypeElement> transitions = new TreeSet<>(byName());
+	private final Set<TypeElement> eventValidators = new TreeSet<>(byName());
+	private final Set<TypeElement> modules = new TreeSet<>(byName());
+	private final Set<String> stateNames = new TreeSet<>();
+	private final Set<String> transitionNames = new TreeSet<>();
+	private final Set<String> eventValidatorNames = new TreeSet<>();
+	private final Set<String> moduleNames = new TreeSet<>();
+	private final Set<String> compiledClasses = new TreeSet<>();
+	private boolean decided;
+	private String wiringName;
+	
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+		if (roundEnv.processingOver()) {
+			return false;
+		}
+		
+		int collected = stateNames.size() + transitionNames.size() + eventValidatorNames.size()
+				+ moduleNames.size();
+		
+		for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+			if (wiringName == null || !type.getQualifiedName().contentEquals(wiringName)) {
+				compiledClasses.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+				collect(type);
+			}
+		}
+		
+		if (!decided) {
+			generateIfAccessible();
+		} else if (wiringName != null && stateNames.size() + transitionNames.size() + eventValidatorNames.size()
+				+ moduleNames.size() > collected) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, String.format("The state"
+					+ " machine wiring [%s] doesn't include the classes generated after it. The archive will"
+					+ " be scanned on deployment instead.", wiringName));
+		}
+		
+		return false;
+	}
+
+	private void generateIfAccessible() {
+		resolve(stateNames, states);
+		resolve(transitionNames, transitions);
+		resolve(eventValidatorNames, eventValidators);
+		resolve(moduleNames, modules);
+		
+		if (states.isEmpty() && transitions.isEmpty()) {
+			return;
+		}
+		
+		decided = true;
+		List<TypeElement> inaccessible = new ArrayList<>();
+		
+		for (Set<TypeElement> types : List.of(states, transitions, eventValidators, modules)) {
+			types.stream().filter(type -> !isAccessible(type)).forEach(inaccessible::add);
+		}
+		
+		if (inaccessible.isEmpty()) {
+			generate();
+		} else {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, String.format("No state"
+					+ " machine wiring generated as these classes aren't public: %s. The archive will be"
+					+ " scanned on deployment instead.", inaccessible));
+		}
+	}
+
+	private void collect(final TypeElement type) {
+		if (type.getKind() == ElementKind.CLASS && !type.getModifiers().contains(Modifier.ABSTRACT)) {
+			String name = type.getQualifiedName().toString();
+			
+			if (type.getAnnotation(State.class) != null) {
+				stateNames.add(name);
+			}
+			
+			if (type.getAnnotation(Transition.class) != null) {
+				transitionNames.add(name);
+			}
+			
+			if (implementsType(type, EVENT_VALIDATOR)) {
+				eventValidatorNames.add(name);
+			}
+			
+			if (implementsType(type, MODULE)) {
+				moduleNames.add(name);
+			}
+		}
+		
+		for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+			collect(nested);
+		}
+	}
+
+	private void resolve(final Set<String> names, final Set<TypeElement> types) {
+		for (String name : names) {
+			TypeElement type = processingEnv.getElementUtils().getTypeElement(name);
+			
+			if (type != null) {
+				types.add(type);
+			}
+		}
+	}
+
+	private boolean implementsType(final TypeElement type, final String interfaceName) {
+		TypeElement interfaceType = processingEnv.getElementUtils().getTypeElement(interfaceName);
+		Types types = processingEnv.getTypeUtils();
+		
+		return interfaceType != null && types.isAssignable(types.erasure(type.asType()),
+				types.erasure(interfaceType.asType()));
+	}
+
+	private boolean isAccessible(final TypeElement type) {
+		if (!type.getModifiers().contains(Modifier.PUBLIC)) {
+			return false;
+		}
+		
+		if (type.getNestingKind() == NestingKind.MEMBER) {
+			return type.getModifiers().contains(Modifier.STATIC)
+					&& isAccessible((TypeElement) type.getEnclosingElement());
+		}
+		
+		return type.getNestingKind() == NestingKind.TOP_LEVEL;
+	}
+
+	private void generate() {
+		Elements elements = processingEnv.getElementUtils();
+		TypeElement first = states.isEmpty() ? transitions.iterator().next() : states.iterator().next();
+		String packageName = elements.getPackageOf(first).getQualifiedName().toString();
+		String className = packageName.isEmpty() ? CLASS_NAME : packageName + "." + CLASS_NAME;
+		Element[] originatingElements = originatingElements();
+		
+		try (Writer source = processingEnv.getFiler().createSourceFile(className, originatingElements)
+				.openWriter()) {
+			source.write(source(packageName, statements()));
+			wiringName = className;
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					String.format("Unable to write the state machine wiring [%s]: %s", className, e));
+			return;
+		}
+		
+		try (Writer service = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+				Wiring.SERVICE_ENTRY, originatingElements).openWriter()) {
+			service.write(className + "\n");
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					String.format("Unable to list the state machine wiring [%s]: %s", className, e));
+		}
+	}
+
+	private Element[] originatingElements() {
+		List<Element> originatingElements = new ArrayList<>();
+		
+		for (Set<TypeElement> types : List.of(states, transitions, eventValidators, modules)) {
+			originatingElements.addAll(types);
+		}
+		
+		return originatingElements.toArray(new Element[0]);
+	}
+
+	private List<String> statements() {
+		List<String> statements = new ArrayList<>();
+		
+		for (TypeElement state : states) {
+			String name = state.getQualifiedName().toString();
+			statements.add(String.format("wiring.state(%s.class);", name));
+			
+			for (ExecutableElement method : methods(state)) {
+				if (method.getAnnotation(EntryAction.class) != null && takesEventDataOnly(method)) {
+					statements.add(function(name, method));
+				}
+				
+				if (method.getAnnotation(ExitAction.class) != null && takesEventDataOnly(method)) {
+					statements.add(invoker("action", name, method));
+				}
+			}
+		}
+		
+		for (TypeElement transition : transitions) {
+			String name = transition.getQualifiedName().toString();
+			statements.add(String.format("wiring.transition(%s.class);", name));
+			
+			for (ExecutableElement method : methods(transition)) {
+				if (method.getAnnotation(TransitionGuard.class) != null && takesEventDataOrNothing(method)
+						&& returnsBoolean(method)) {
+					statements.add(invoker("guard", name, method));
+				}
+				
+				if (method.getAnnotation(TransitionAction.class) != null && takesEventDataOrNothing(method)) {
+					statements.add(invoker("action", name, method));
+				}
+			}
+		}
+		
+		eventValidators.forEach(type -> statements.add(String.format("wiring.eventValidator(%s.class);",
+				type.getQualifiedName())));
+		modules.forEach(type -> statements.add(String.format("wiring.module(%s.class);",
+				type.getQualifiedName())));
+		compiledClasses.forEach(name -> statements.add(String.format("wiring.compiled(\"%s\");", name)));
+		return statements;
+	}
+
+	private List<ExecutableElement> methods(final TypeElement type) {
+		List<ExecutableElement> methods = new ArrayList<>();
+		
+		for (ExecutableElement method : ElementFilter.methodsIn(
+				processingEnv.getElementUtils().getAllMembers(type))) {
+			if (method.getModifiers().contains(Modifier.PUBLIC) && !method.getModifiers().contains(Modifier.STATIC)) {
+				methods.add(method);
+			}
+		}
+		
+		return methods;
+	}
+
+	private String invoker(final String kind, final String className, final ExecutableElement method) {
+		return String.format("wiring.%s(%s.class, \"%s\", %d, (bean, eventData) -> bean.%s(%s));",
+				kind, className, method.getSimpleName(), method.getParameters().size(), method.getSimpleName(),
+				arguments(method));
+	}
+
+	private String function(final String className, final ExecutableElement method) {
+		if (method.getReturnType().getKind() != TypeKind.VOID) {
+			return invoker("function", className, method);
+		}
+		
+		return String.format("wiring.function(%s.class, \"%s\", %d, (bean, eventData) -> {"
+				+ " bean.%s(%s); return null; });", className, method.getSimpleName(),
+				method.getParameters().size(), method.getSimpleName(), arguments(method));
+	}
+
+	private String arguments(final ExecutableElement method) {
+		return method.getParameters().isEmpty() ? "" : "eventData";
+	}
+
+	private boolean takesEventDataOrNothing(final ExecutableElement method) {
+		return method.getParameters().isEmpty() || takesEventDataOnly(method);
+	}
+
+	private boolean takesEventDataOnly(final ExecutableElement method) {
+		if (method.getParameters().size() != 1) {
+			return false;
+		}
+		
+		Elements elements = processingEnv.getElementUtils();
+		Types types = processingEnv.getTypeUtils();
+		TypeElement map = elements.getTypeElement("java.util.Map");
+		TypeMirror string = elements.getTypeElement("java.lang.String").asType();
+		TypeMirror eventData = types.getDeclaredType(map, string, types.getDeclaredType(map, string,
+				elements.getTypeElement("java.lang.Object").asType()));
+		
+		return types.isSameType(method.getParameters().get(0).asType(), eventData);
+	}
+
+	private boolean returnsBoolean(final ExecutableElement method) {
+		TypeMirror returnType = method.getReturnType();
+		
+		return returnType.getKind() == TypeKind.BOOLEAN || processingEnv.getTypeUtils().isSameType(returnType,
+				processingEnv.getElementUtils().getTypeElement("java.lang.Boolean").asType());
+	}
+
+	private String source(final String packageName, final List<String> statements) {
+		StringBuilder source = new StringBuilder();
+		
+		if (!packageName.isEmpty()) {
+			source.append("package ").append(packageName).append(";\n\n");
+		}
+		
+		source.append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n")
+		.append("public final class ").append(CLASS_NAME)
+		.append(" implements org.jallaby.beans.wiring.StateMachineWiring {\n\n")
+		.append("\t@Override\n")
+		.append("\tpublic void wire(final org.jallaby.beans.wiring.Wiring wiring) {\n");
+		
+		int chunks = (statements.size() + STATEMENTS_PER_METHOD - 1) / STATEMENTS_PER_METHOD;
+		
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			source.append("\t\twire").append(chunk).append("(wiring);\n");
+		}
+		
+		source.append("\t}\n");
+		
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			source.append("\n\tprivate static void wire").append(chunk)
+			.append("(final org.jallaby.beans.wiring.Wiring wiring) {\n");
+			
+			for (String statement : statements.subList(chunk * STATEMENTS_PER_METHOD,
+					Math.min(statements.size(), (chunk + 1) * STATEMENTS_PER_METHOD))) {
+				source.append("\t\t").append(statement).append('\n');
+			}
+			
+			source.append("\t}\n");
+		}
+		
+		return source.append("}\n").toString();
+	}
+
+	private static Comparator<TypeElement> byName() {
+		return Comparator.comparing(type -> type.getQualifiedName().toString());
+	}
+}
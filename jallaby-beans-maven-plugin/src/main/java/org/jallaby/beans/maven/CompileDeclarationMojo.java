@@ -0,0 +1,113 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.maven;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.sourcing.CompiledDeclarationProvider;
+import org.jallaby.beans.xml.sourcing.InvalidStateMachineException;
+import org.jallaby.beans.xml.sourcing.XmlDeclarationProvider;
+import org.jdom2.JDOMException;
+
+/**
+ * Compiles the XML declaration of a state machine archive (SMA) at build time. The declaration
+ * is parsed, resolved and validated just as on deployment and written next to itself in its
+ * compiled form, which the runtime then loads instead of the XML declaration as long as the
+ * latter doesn't change.
+ * 
+ * @author Matthias Rothe
+ */
+@Mojo(name = "compile-declaration", defaultPhase = LifecyclePhase.PROCESS_CLASSES, threadSafe = true)
+public class CompileDeclarationMojo extends AbstractMojo {
+	private static final String DECLARATION_ENTRY = "META-INF/state-machine.xml";
+	
+	/**
+	 * The directory holding the contents of the state machine archive.
+	 */
+	@Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+	private File classesDirectory;
+	
+	/**
+	 * Whether to skip compiling the declaration.
+	 */
+	@Parameter(property = "jallaby.compile-declaration.skip", defaultValue = "false")
+	private boolean skip;
+	
+	/**
+	 * Compiles the declaration, if the archive has one.
+	 * 
+	 * @throws MojoExecutionException if the declaration can't be read or the compiled form can't
+	 *                                be written
+	 * @throws MojoFailureException if the declaration is invalid
+	 */
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		Path declarationFile = classesDirectory.toPath().resolve(DECLARATION_ENTRY);
+		
+		if (skip) {
+			getLog().info("Skipping compiling the state machine declaration");
+			return;
+		}
+		
+		if (!Files.isRegularFile(declarationFile)) {
+			getLog().info(String.format("No state machine declaration found at [%s]", declarationFile));
+			return;
+		}
+		
+		Path compiledFile = classesDirectory.toPath().resolve(CompiledDeclarationProvider.ENTRY);
+		
+		try {
+			byte[] declaration = Files.readAllBytes(declarationFile);
+			EffectiveXmlStateMachine stateMachine = new XmlDeclarationProvider().provide(
+					new ByteArrayInputStream(declaration));
+			Path temporaryFile = Files.createTempFile(compiledFile.getParent(), "state-machine", ".tmp");
+			
+			try {
+				try (OutputStream out = Files.newOutputStream(temporaryFile)) {
+					new CompiledDeclarationProvider().compile(stateMachine, declaration, out);
+				}
+				
+				Files.move(temporaryFile, compiledFile, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temporaryFile);
+			}
+			
+			getLog().info(String.format("Compiled the declaration of state machine [%s] into [%s]",
+					stateMachine.getName(), compiledFile));
+		} catch (InvalidStateMachineException | JDOMException e) {
+			throw new MojoFailureException(String.format("The state machine declaration [%s] is invalid: %s",
+					declarationFile, e.getMessage()), e);
+		} catch (IOException e) {
+			throw new MojoExecutionException(String.format("Unable to compile the state machine"
+					+ " declaration [%s]", declarationFile), e);
+		}
+	}
+}
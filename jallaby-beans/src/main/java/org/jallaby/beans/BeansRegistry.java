@@ -16,46 +16,135 @@
 
 package org.jallaby.beans;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jallaby.beans.metamodel.LifecycleBean;
 import org.jallaby.beans.metamodel.MetaState;
 import org.jallaby.beans.metamodel.MetaTransition;
 
+/**
+ * Holds the meta states and meta transitions built for the deployed state machines. They are
+ * kept in one namespace per state machine, so equally named states of different state machines
+ * don't collide, and indexed by state name and by source and target state respectively.
+ * <p>
+ * Lookups don't lock and registrations may happen concurrently. If two equal beans are
+ * registered concurrently the first one wins.
+ * 
+ * @author Matthias Rothe
+ */
 public class BeansRegistry {
-	private final Set<MetaState> states = new CopyOnWriteArraySet<>();
-	private final Set<MetaTransition> transitions = new CopyOnWriteArraySet<>();
+	private final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
 	
-	public synchronized Set<LifecycleBean> getAllLifecycleBeans() {
+	/**
+	 * Returns all beans registered for any state machine.
+	 * 
+	 * @return the beans
+	 */
+	public Set<LifecycleBean> getAllLifecycleBeans() {
 		HashSet<LifecycleBean> beans = new HashSet<>();
 		
-		beans.addAll(states);
-		beans.addAll(transitions);
+		for (Namespace namespace : namespaces.values()) {
+			namespace.addLifecycleBeansTo(beans);
+		}
 		
 		return beans;
 	}
 	
-	public synchronized void registerState(final MetaState state) {
+	/**
+	 * Registers the given state for the given state machine.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param state the state
+	 */
+	public void registerState(final String stateMachineName, final MetaState state) {
+		Objects.requireNonNull(stateMachineName, "stateMachineName must not be null");
 		Objects.requireNonNull(state, "state must not be null");
-		states.add(state);
+		
+		namespace(stateMachineName).states.putIfAbsent(state.getName(), state);
 	}
 	
-	public synchronized void registerTransition(final MetaTransition transition) {
+	/**
+	 * Registers the given transition for the given state machine.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param transition the transition
+	 */
+	public void registerTransition(final String stateMachineName, final MetaTransition transition) {
+		Objects.requireNonNull(stateMachineName, "stateMachineName must not be null");
 		Objects.requireNonNull(transition, "transition must not be null");
-		transitions.add(transition);
+		
+		namespace(stateMachineName).transitions
+				.computeIfAbsent(transition.fromState(), fromState -> new ConcurrentHashMap<>())
+				.putIfAbsent(transition.toState(), transition);
 	}
 
-	public synchronized MetaState getState(String name) {
-		return states.stream().filter(state ->
-		Objects.equals(state.getName(), name)).findFirst().orElse(null);
+	/**
+	 * Returns the state with the given name of the given state machine.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param name the name of the state
+	 * @return the state or <code>null</code> if it hasn't been registered
+	 */
+	public MetaState getState(final String stateMachineName, final String name) {
+		Namespace namespace = namespaces.get(stateMachineName);
+		return namespace == null ? null : namespace.states.get(name);
 	}
 
-	public synchronized MetaTransition getTransition(final String fromState, String toState) {
-		return transitions.stream().filter(transition ->
-		Objects.equals(transition.fromState(), fromState) &&
-		Objects.equals(transition.toState(), toState)).findFirst().orElse(null);
+	/**
+	 * Returns the transition between the given states of the given state machine.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param fromState the name of the source state
+	 * @param toState the name of the target state
+	 * @return the transition or <code>null</code> if it hasn't been registered
+	 */
+	public MetaTransition getTransition(final String stateMachineName, final String fromState,
+			final String toState) {
+		Namespace namespace = namespaces.get(stateMachineName);
+		
+		if (namespace == null) {
+			return null;
+		}
+		
+		Map<String, MetaTransition> transitions = namespace.transitions.get(fromState);
+		return transitions == null ? null : transitions.get(toState);
+	}
+
+	/**
+	 * Drops all beans registered for the given state machine.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @return the dropped beans
+	 */
+	public Set<LifecycleBean> unregisterStateMachine(final String stateMachineName) {
+		Objects.requireNonNull(stateMachineName, "stateMachineName must not be null");
+		Namespace namespace = namespaces.remove(stateMachineName);
+		
+		if (namespace == null) {
+			return Collections.emptySet();
+		}
+		
+		HashSet<LifecycleBean> beans = new HashSet<>();
+		namespace.addLifecycleBeansTo(beans);
+		return beans;
+	}
+
+	private Namespace namespace(final String stateMachineName) {
+		return namespaces.computeIfAbsent(stateMachineName, name -> new Namespace());
+	}
+
+	private static final class Namespace {
+		private final Map<String, MetaState> states = new ConcurrentHashMap<>();
+		private final Map<String, Map<String, MetaTransition>> transitions = new ConcurrentHashMap<>();
+		
+		private void addLifecycleBeansTo(final Set<LifecycleBean> beans) {
+			beans.addAll(states.values());
+			transitions.values().forEach(toStates -> beans.addAll(toStates.values()));
+		}
 	}
 }
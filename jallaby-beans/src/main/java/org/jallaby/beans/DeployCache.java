@@ -0,0 +1,260 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.jallaby.JallabyConfiguration;
+import org.jallaby.beans.metamodel.sourcing.BeanClasses;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.sourcing.CompiledDeclarationProvider;
+import org.jallaby.event.EventValidator;
+
+import com.google.inject.Module;
+
+/**
+ * Caches the results of scanning and validating state machine archives on disk, keyed by the
+ * SHA-256 hash of their contents, so redeploying an unchanged archive, typically on restart,
+ * neither scans it nor parses its declaration again. The declaration is cached in the compiled
+ * form of the {@link CompiledDeclarationProvider}, next to the entry.
+ * <p>
+ * The cache is configured by the settings <code>deploy.cache.enabled</code> and
+ * <code>deploy.cache.directory</code>. Entries written by another version of Jallaby Beans are
+ * ignored. Entries are only written for archives which have been deployed successfully.
+ * 
+ * @author Matthias Rothe
+ */
+final class DeployCache {
+	private static final String VERSION = String.valueOf(DeployCache.class.getPackage().getImplementationVersion());
+	private static final String STATES = "states";
+	private static final String TRANSITIONS = "transitions";
+	private static final String EVENT_VALIDATORS = "event-validators";
+	private static final String MODULES = "modules";
+	
+	private final Path directory;
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param directory the directory holding the cache
+	 */
+	DeployCache(final Path directory) {
+		Objects.requireNonNull(directory, "directory must not be null");
+		this.directory = directory;
+	}
+
+	/**
+	 * Creates the cache described by the given configuration.
+	 * 
+	 * @param configuration the configuration
+	 * @return the cache or {@code null} if caching isn't enabled
+	 */
+	static DeployCache from(final JallabyConfiguration configuration) {
+		if (!configuration.getBoolean("deploy.cache.enabled", false)) {
+			return null;
+		}
+		
+		return new DeployCache(Paths.get(configuration.getString("deploy.cache.directory",
+				Paths.get(System.getProperty("user.dir"), "data", "deploy-cache").toString())));
+	}
+
+	/**
+	 * @param file the file to hash
+	 * @return the hex encoded SHA-256 hash of the contents of the file
+	 * @throws IOException if the file can't be read
+	 */
+	static String hash(final Path file) throws IOException {
+		MessageDigest digest;
+		
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		byte[] buffer = new byte[1 << 16];
+		
+		try (InputStream in = Files.newInputStream(file)) {
+			int read = in.read(buffer);
+			
+			while (read >= 0) {
+				digest.update(buffer, 0, read);
+				read = in.read(buffer);
+			}
+		}
+		
+		StringBuilder hash = new StringBuilder();
+		
+		for (byte b : digest.digest()) {
+			hash.append(String.format("%02x", b));
+		}
+		
+		return hash.toString();
+	}
+
+	/**
+	 * @param hash the hash of the archive
+	 * @return the entry of the archive or {@code null} if there is none
+	 * @throws IOException if the entry can't be read
+	 */
+	Entry load(final String hash) throws IOException {
+		Path file = fileOf(hash, ".properties");
+		
+		if (!Files.isReadable(file)) {
+			return null;
+		}
+		
+		Properties properties = new Properties();
+		
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		}
+		
+		if (!VERSION.equals(properties.getProperty("version"))) {
+			return null;
+		}
+		
+		return new Entry(properties, fileOf(hash, ".bin"));
+	}
+
+	/**
+	 * Stores the entry of an archive deployed successfully.
+	 * 
+	 * @param hash the hash of the archive
+	 * @param beanClasses the bean classes of the archive, which are only stored unless they have
+	 * been provided by a wiring
+	 * @param stateMachine the state machine, as provided from the given declaration
+	 * @param declaration the XML declaration of the state machine
+	 * @throws IOException if the entry can't be written
+	 */
+	void store(final String hash, final BeanClasses beanClasses, final EffectiveXmlStateMachine stateMachine,
+			final byte[] declaration) throws IOException {
+		ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+		new CompiledDeclarationProvider().compile(stateMachine, declaration, compiled);
+		
+		Properties properties = new Properties();
+		properties.setProperty("version", VERSION);
+		
+		if (beanClasses.getWiring() == null) {
+			properties.setProperty(STATES, namesOf(beanClasses.getStates()));
+			properties.setProperty(TRANSITIONS, namesOf(beanClasses.getTransitions()));
+			properties.setProperty(EVENT_VALIDATORS, namesOf(beanClasses.getEventValidators()));
+			properties.setProperty(MODULES, namesOf(beanClasses.getModules()));
+		}
+		
+		ByteArrayOutputStream entry = new ByteArrayOutputStream();
+		properties.store(entry, null);
+		
+		Files.createDirectories(directory);
+		write(fileOf(hash, ".bin"), compiled.toByteArray());
+		write(fileOf(hash, ".properties"), entry.toByteArray());
+	}
+
+	private static void write(final Path file, final byte[] contents) throws IOException {
+		Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(temporaryFile, contents);
+		Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Path fileOf(final String hash, final String extension) {
+		return directory.resolve(hash + extension);
+	}
+
+	private static String namesOf(final Set<? extends Class<?>> classes) {
+		return classes.stream().map(Class::getName).sorted().collect(Collectors.joining(","));
+	}
+
+	/**
+	 * The cached results of deploying an archive, whose declaration has been validated.
+	 */
+	static final class Entry {
+		private final Properties properties;
+		private final Path compiledFile;
+		
+		private Entry(final Properties properties, final Path compiledFile) {
+			this.properties = properties;
+			this.compiledFile = compiledFile;
+		}
+
+		/**
+		 * Loads the compiled declaration of the archive.
+		 * 
+		 * @param declaration the XML declaration of the archive
+		 * @return the declaration or {@code null} if it hasn't been stored or is stale or corrupt
+		 * @throws IOException if the compiled declaration can't be read
+		 */
+		EffectiveXmlStateMachine loadDeclaration(final byte[] declaration) throws IOException {
+			if (!Files.isReadable(compiledFile)) {
+				return null;
+			}
+			
+			try {
+				return new CompiledDeclarationProvider().provide(ByteBuffer.wrap(Files.readAllBytes(compiledFile)),
+						declaration);
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Loads the bean classes found by scanning the archive.
+		 * 
+		 * @param classLoader the class loader of the archive
+		 * @return the bean classes or {@code null} if they haven't been scanned
+		 * @throws ClassNotFoundException if one of the classes can't be loaded
+		 */
+		BeanClasses loadBeanClasses(final ClassLoader classLoader) throws ClassNotFoundException {
+			if (properties.getProperty(STATES) == null) {
+				return null;
+			}
+			
+			BeanClasses beanClasses = new BeanClasses();
+			beanClasses.setStates(load(STATES, Object.class, classLoader));
+			beanClasses.setTransitions(load(TRANSITIONS, Object.class, classLoader));
+			beanClasses.setEventValidators(load(EVENT_VALIDATORS, EventValidator.class, classLoader));
+			beanClasses.setModules(load(MODULES, Module.class, classLoader));
+			
+			return beanClasses;
+		}
+
+		private <T> Set<Class<? extends T>> load(final String key, final Class<T> type,
+				final ClassLoader classLoader) throws ClassNotFoundException {
+			String names = properties.getProperty(key, "");
+			Set<Class<? extends T>> classes = new HashSet<>();
+			
+			for (String name : names.isEmpty() ? new String[0] : names.split(",")) {
+				classes.add(Class.forName(name, false, classLoader).asSubclass(type));
+			}
+			
+			return classes;
+		}
+	}
+}
@@ -33,22 +33,41 @@ import java.nio.file.WatchService;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jetty.util.resource.PathResource;
+import org.jallaby.JallabyConfiguration;
 import org.jallaby.JallabyRegistry;
 import org.jallaby.beans.classloader.StateMachineClassLoader;
 import org.jallaby.beans.classloader.StateMachineContext;
+import org.jallaby.beans.metamodel.LifecycleBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Watches the deploy directory and deploys the state machine archives (SMAs) found in it.
+ * <p>
+ * The archives are built on a pool of <code>deploy.threads</code> threads. Archives without a
+ * wiring are scanned for their beans, which extcos only allows one at a time, so the pool only
+ * parallelizes the stages after scanning for such archives: parsing the declaration, building
+ * the meta model and warming it up. Archives with a wiring aren't scanned at all.
+ * 
+ * @author Matthias Rothe
+ */
 public class JallabyBeansWorker extends Thread {
 	private static final Logger LOGGER = LoggerFactory.getLogger(JallabyBeansWorker.class);
 	
 	private final JallabyRegistry jallabyRegistry;
 	private final BeansRegistry beansRegistry;
 	private final Map<Path, String> stateMachines = new ConcurrentHashMap<>();
+	private final Map<Path, CompletableFuture<Void>> deployments = new ConcurrentHashMap<>();
 	private final Object abortMutex = new Object();
+	private final ExecutorService deployer;
+	private final DeployCache deployCache;
 	
 	private boolean abort;
 
@@ -60,6 +79,17 @@ public class JallabyBeansWorker extends Thread {
 		
 		this.jallabyRegistry = jallabyRegistry;
 		this.beansRegistry = beansRegistry;
+		
+		JallabyConfiguration configuration = JallabyConfiguration.getInstance();
+		AtomicInteger builders = new AtomicInteger();
+		
+		deployer = Executors.newFixedThreadPool(Math.max(1, configuration.getInt("deploy.threads",
+				Runtime.getRuntime().availableProcessors())), runnable -> {
+					Thread thread = new Thread(runnable, "StateMachineBuilder-" + builders.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		deployCache = DeployCache.from(configuration);
 	}
 
 	public void abort() {
@@ -121,6 +151,7 @@ public class JallabyBeansWorker extends Thread {
 			}
 
 			watcher.close();
+			deployer.shutdown();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -138,10 +169,12 @@ public class JallabyBeansWorker extends Thread {
 			if (kind == ENTRY_CREATE) {
 				createStateMachine(file);
 			} else if (kind == ENTRY_MODIFY) {
-				unregisterStateMachine(file);
-				createStateMachine(file);
+				deploy(file, () -> {
+					unregisterStateMachine(file);
+					buildStateMachine(file);
+				});
 			} else if (kind == ENTRY_DELETE) {
-				unregisterStateMachine(file);
+				deploy(file, () -> unregisterStateMachine(file));
 			}
 		}
 	}
@@ -164,14 +197,37 @@ public class JallabyBeansWorker extends Thread {
 	}
 
 	private void createStateMachine(Path file) {
+		deploy(file, () -> buildStateMachine(file));
+	}
+
+	/**
+	 * Runs the given task on the deployer once the tasks run for the same file before have
+	 * completed, so a file modified several times in a row is never built concurrently.
+	 */
+	private void deploy(final Path file, final Runnable task) {
+		CompletableFuture<Void> deployment = deployments.compute(file, (path, previous) -> previous == null
+				? CompletableFuture.runAsync(task, deployer)
+				: previous.exceptionally(failure -> null).thenRunAsync(task, deployer));
+		deployment.whenComplete((result, failure) -> deployments.remove(file, deployment));
+	}
+
+	private void buildStateMachine(Path file) {
 		try {
 			StateMachineContext context = new StateMachineContext();
 			context.setExtraClasspath(Arrays.asList(new PathResource(file)));
 			
+			StateMachineClassLoader classLoader = new StateMachineClassLoader(context);
 			StateMachineBuilder builder = new StateMachineBuilder(
-					jallabyRegistry, beansRegistry, stateMachines, file);
-			builder.setContextClassLoader(new StateMachineClassLoader(context));
-			builder.start();
+					jallabyRegistry, beansRegistry, stateMachines, file, deployCache);
+			Thread thread = Thread.currentThread();
+			ClassLoader previous = thread.getContextClassLoader();
+			thread.setContextClassLoader(classLoader);
+			
+			try {
+				builder.run();
+			} finally {
+				thread.setContextClassLoader(previous);
+			}
 		} catch (IOException e) {
 			LOGGER.warn(String.format("Couldn't build state machine for file [%s]", file), e);
 		}
@@ -179,7 +235,13 @@ public class JallabyBeansWorker extends Thread {
 
 	private void unregisterStateMachine(Path file) {
 		if (stateMachines.containsKey(file)) {
-			jallabyRegistry.unregister(stateMachines.get(file));
+			String stateMachineName = stateMachines.get(file);
+			jallabyRegistry.unregister(stateMachineName);
+			
+			for (LifecycleBean bean : beansRegistry.unregisterStateMachine(stateMachineName)) {
+				bean.preDestroy();
+			}
+			
 			LOGGER.info(String.format("Unregistered state machine from file [%s] successfully!", 
 					file.toString()));
 		}
@@ -16,28 +16,45 @@
 
 package org.jallaby.beans;
 
-import java.io.File;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
+import org.jallaby.JallabyConfiguration;
 import org.jallaby.JallabyRegistry;
+import org.jallaby.beans.metamodel.DispatchTable;
 import org.jallaby.beans.metamodel.MetaState;
+import org.jallaby.beans.metamodel.MetaTransition;
+import org.jallaby.beans.metamodel.WarmUp;
 import org.jallaby.beans.metamodel.sourcing.BeanClasses;
 import org.jallaby.beans.metamodel.sourcing.BeanClassesProvider;
+import org.jallaby.beans.wiring.StateMachineWiring;
+import org.jallaby.beans.wiring.Wiring;
 import org.jallaby.beans.xml.model.effective.EffectiveXmlEvent;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
 import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.sourcing.CompiledDeclarationProvider;
+import org.jallaby.beans.xml.sourcing.StreamingXmlDeclarationProvider;
 import org.jallaby.beans.xml.sourcing.XmlDeclarationProvider;
 import org.jallaby.event.EventValidator;
 import org.jallaby.execution.StateMachine;
+import org.jallaby.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,13 +67,14 @@ import com.google.inject.Module;
  * 
  * @author Matthias Rothe
  */
-public class StateMachineBuilder extends Thread {
+public class StateMachineBuilder implements Runnable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(StateMachineBuilder.class);
 	
 	private final JallabyRegistry jallabyRegistry;
 	private final BeansRegistry beansRegistry;
 	private final Map<Path, String> stateMachines;
 	private final Path path;
+	private final DeployCache deployCache;
 	
 	/**
 	 * Ctor.
@@ -68,8 +86,20 @@ public class StateMachineBuilder extends Thread {
 	 */
 	public StateMachineBuilder(final JallabyRegistry jallabyRegistry, final BeansRegistry beansRegistry,
 			final Map<Path, String> stateMachines, final Path path) {
-		super("StateMachineBuilder");
+		this(jallabyRegistry, beansRegistry, stateMachines, path, null);
+	}
 
+	/**
+	 * Ctor.
+	 * 
+	 * @param jallabyRegistry the jallaby registry
+	 * @param beansRegistry the beans registry
+	 * @param stateMachines the state machines
+	 * @param path The file to build the state machine from
+	 * @param deployCache the cache of scanned bean classes and compiled declarations, may be <code>null</code>
+	 */
+	StateMachineBuilder(final JallabyRegistry jallabyRegistry, final BeansRegistry beansRegistry,
+			final Map<Path, String> stateMachines, final Path path, final DeployCache deployCache) {
 		Objects.requireNonNull(jallabyRegistry, "jallabyRegistry must not be null");
 		Objects.requireNonNull(beansRegistry, "beansRegistry must not be null");
 		Objects.requireNonNull(stateMachines, "stateMachines must not be null");
@@ -79,46 +109,291 @@ public class StateMachineBuilder extends Thread {
 		this.beansRegistry = beansRegistry;
 		this.stateMachines = stateMachines;
 		this.path = path;
+		this.deployCache = deployCache;
 	}
 
 	/**
-	 * Builds a state machine from the deployed SMA (State Machine Archive) file.
+	 * Builds a state machine from the deployed SMA (State Machine Archive) file. The classes of
+	 * the archive are loaded through the context class loader of the calling thread.
 	 */
 	@Override
 	public void run() {
-		File smaFile = path.toFile();
-
-		try (JarFile jarFile = new JarFile(smaFile)) {
-			Attributes attributes = jarFile.getManifest().getMainAttributes();
-			String[] basePackages = attributes.getValue("base-packages").split(", ");
+		try (JarFile jarFile = new JarFile(path.toFile())) {
+			String hash = deployCache == null ? null : DeployCache.hash(path);
+			DeployCache.Entry cached = hash == null ? null : deployCache.load(hash);
 			
-			URL smaUrl = new URL("jar:file:" + smaFile.getPath() + "!/");
+			if (cached != null) {
+				LOGGER.info(String.format("Deploying the unchanged state machine archive [%s] without"
+						+ " scanning or validating it", path));
+			}
 			
-			BeanClasses beanClasses = new BeanClassesProvider()
-					.provideFrom(smaUrl, basePackages);
+			byte[] declaration;
 			
-			JarEntry stateMachineXmlEntry =
-					jarFile.getJarEntry("META-INF/state-machine.xml");
+			try (InputStream is = jarFile.getInputStream(jarFile.getJarEntry("META-INF/state-machine.xml"))) {
+				declaration = is.readAllBytes();
+			}
+			
+			BeanClasses beanClasses = provideBeanClasses(jarFile, cached);
+			EffectiveXmlStateMachine exsm = provideDeclaration(jarFile, declaration, cached);
+			StateMachine stateMachine = buildStateMachineUsing(beanClasses, exsm);
+			registerStateMachine(stateMachine);
 			
-			try (InputStream is = jarFile.getInputStream(stateMachineXmlEntry)) {
-				EffectiveXmlStateMachine exsm = new XmlDeclarationProvider().provide(is);
-				StateMachine stateMachine = buildStateMachineUsing(beanClasses, exsm);
-				registerStateMachine(stateMachine);
+			if (hash != null && cached == null) {
+				deployCache.store(hash, beanClasses, exsm, declaration);
 			}
 		} catch (Exception e) {
-			LOGGER.warn("Failed building the state machine", e);
+			LOGGER.warn(String.format("Failed building the state machine from file [%s]", path), e);
 		}
 	}
 
+	/**
+	 * Provides the bean classes from the wiring of the archive, if any, from the cache or by
+	 * scanning the archive, in this order.
+	 */
+	private BeanClasses provideBeanClasses(final JarFile jarFile, final DeployCache.Entry cached)
+			throws IOException, ReflectiveOperationException {
+		Wiring wiring = loadWiring(jarFile);
+		
+		if (wiring != null) {
+			return new BeanClassesProvider().provideFrom(wiring);
+		}
+		
+		BeanClasses beanClasses = cached == null ? null
+				: cached.loadBeanClasses(Thread.currentThread().getContextClassLoader());
+		
+		if (beanClasses != null) {
+			return beanClasses;
+		}
+		
+		URL smaUrl = new URL("jar:file:" + path.toFile().getPath() + "!/");
+		
+		return new BeanClassesProvider().provideFrom(smaUrl, basePackages(jarFile));
+	}
+
+	private static String[] basePackages(final JarFile jarFile) throws IOException {
+		Attributes attributes = jarFile.getManifest().getMainAttributes();
+		return attributes.getValue("base-packages").split(", ");
+	}
+
+	/**
+	 * Provides the declaration of the state machine from its compiled form, if the archive or the
+	 * cache holds an up to date one, or else from its XML declaration, skipping its validation if
+	 * it has been validated before. The XML declaration is parsed in a single pass with StAX if so
+	 * configured.
+	 */
+	private EffectiveXmlStateMachine provideDeclaration(final JarFile jarFile, final byte[] declaration,
+			final DeployCache.Entry cached) throws Exception {
+		EffectiveXmlStateMachine compiled = provideCompiledDeclaration(jarFile, declaration);
+		
+		if (compiled == null && cached != null) {
+			compiled = cached.loadDeclaration(declaration);
+		}
+		
+		if (compiled != null) {
+			return compiled;
+		}
+		
+		try (InputStream is = new ByteArrayInputStream(declaration)) {
+			if (JallabyConfiguration.getInstance().getBoolean("deploy.declaration.streaming", false)) {
+				StreamingXmlDeclarationProvider provider = new StreamingXmlDeclarationProvider();
+				return cached != null ? provider.provideValidated(is) : provider.provide(is);
+			}
+			
+			if (cached != null) {
+				return new XmlDeclarationProvider().provideValidated(is);
+			}
+			
+			return new XmlDeclarationProvider().provide(is);
+		}
+	}
+
+	/**
+	 * Provides the declaration of the state machine from its compiled form, returning
+	 * <code>null</code> if the archive holds none or a stale or corrupt one. The entry is read
+	 * into memory rather than mapped, as entries of an archive are usually deflated and their
+	 * offsets within it aren't exposed by {@link JarFile}. Being a few kilobytes at most, reading
+	 * it costs about as much as mapping it would.
+	 */
+	private EffectiveXmlStateMachine provideCompiledDeclaration(final JarFile jarFile, final byte[] declaration)
+			throws IOException {
+		JarEntry compiledEntry = jarFile.getJarEntry(CompiledDeclarationProvider.ENTRY);
+		
+		if (compiledEntry == null) {
+			return null;
+		}
+		
+		try (InputStream is = jarFile.getInputStream(compiledEntry)) {
+			EffectiveXmlStateMachine compiled = new CompiledDeclarationProvider().provide(
+					ByteBuffer.wrap(is.readAllBytes()), declaration);
+			
+			if (compiled == null) {
+				LOGGER.info(String.format("The compiled declaration of the state machine archive [%s] is stale,"
+						+ " providing the XML declaration instead", path));
+			}
+			
+			return compiled;
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn(String.format("The compiled declaration of the state machine archive [%s] is corrupt,"
+					+ " providing the XML declaration instead", path), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Loads the wiring generated for the archive at build time, if any, through the class loader
+	 * of the archive. A wiring not listing all classes of the base packages was generated by an
+	 * incremental compile of some of the sources only and isn't used.
+	 */
+	private Wiring loadWiring(final JarFile jarFile) throws IOException, ReflectiveOperationException {
+		JarEntry serviceEntry = jarFile.getJarEntry(Wiring.SERVICE_ENTRY);
+		
+		if (serviceEntry == null) {
+			return null;
+		}
+		
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				jarFile.getInputStream(serviceEntry), StandardCharsets.UTF_8))) {
+			String className = reader.lines().map(String::trim)
+					.filter(line -> !line.isEmpty() && !line.startsWith("#")).findFirst().orElse(null);
+			
+			if (className == null) {
+				return null;
+			}
+			
+			StateMachineWiring stateMachineWiring = (StateMachineWiring) Class.forName(className, true,
+					Thread.currentThread().getContextClassLoader()).getDeclaredConstructor().newInstance();
+			Wiring wiring = new Wiring();
+			stateMachineWiring.wire(wiring);
+			String unlisted = findUnlistedClass(jarFile, wiring, className);
+			
+			if (unlisted != null) {
+				LOGGER.info(String.format("The wiring [%s] of the state machine archive [%s] doesn't list the class"
+						+ " [%s] and is incomplete, scanning the archive instead", className, path, unlisted));
+				return null;
+			}
+			
+			LOGGER.info(String.format("Wiring the state machine archive [%s] with [%s]", path, className));
+			return wiring;
+		}
+	}
+
+	/**
+	 * Finds a top-level class of the base packages of the archive not listed by its wiring.
+	 * 
+	 * @param jarFile the archive
+	 * @param wiring the wiring of the archive
+	 * @param wiringClassName the name of the class generated for the wiring
+	 * @return the name of the class, or <code>null</code> if all classes are listed
+	 * @throws IOException if the manifest of the archive can't be read
+	 */
+	static String findUnlistedClass(final JarFile jarFile, final Wiring wiring, final String wiringClassName)
+			throws IOException {
+		String[] basePackages = basePackages(jarFile);
+		
+		for (JarEntry entry : (Iterable<JarEntry>) jarFile.stream()::iterator) {
+			String name = entry.getName();
+			
+			if (!name.endsWith(".class") || name.indexOf('$') >= 0 || name.endsWith("-info.class")) {
+				continue;
+			}
+			
+			String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+			
+			if (!className.equals(wiringClassName) && isInAnyOf(className, basePackages)
+					&& !wiring.getCompiledClasses().contains(className)) {
+				return className;
+			}
+		}
+		
+		return null;
+	}
+
+	private static boolean isInAnyOf(final String className, final String[] basePackages) {
+		for (String basePackage : basePackages) {
+			if (className.startsWith(basePackage + ".")) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+
 	private StateMachine buildStateMachineUsing(final BeanClasses beanClasses,
 			final EffectiveXmlStateMachine xmlStateMachine) {
 		Injector injector = Guice.createInjector(instantiateModules(beanClasses.getModules()));
 		
+		DispatchTable dispatchTable = new DispatchTable(xmlStateMachine);
 		MetaState initialState = new MetaState(xmlStateMachine.getInitialState(), beanClasses,
-				xmlStateMachine, beansRegistry, injector);
+				xmlStateMachine, beansRegistry, injector, dispatchTable);
+		
+		dispatchTable.link((fromState, toState) -> buildTransition(fromState, toState, beanClasses,
+				xmlStateMachine, injector, dispatchTable));
+		
+		Function<String, MetaState> stateResolver =
+				stateName -> buildState(stateName, beanClasses, xmlStateMachine, injector, dispatchTable);
+		JallabyConfiguration configuration = JallabyConfiguration.getInstance();
+		
+		if (configuration.getBoolean("deploy.eager", false)) {
+			for (EffectiveXmlState xmlState : xmlStateMachine.getStates()) {
+				stateResolver.apply(xmlState.getName());
+			}
+		}
+		
+		warmUp(beanClasses, xmlStateMachine, injector, configuration.getInt("deploy.warm-up.events", 0));
 		
 		return new StateMachine(xmlStateMachine.getName(),
-				initialState, buildEventValidator(beanClasses, xmlStateMachine.getEvents()));
+				initialState, buildEventValidator(beanClasses, xmlStateMachine.getEvents()), stateResolver::apply);
+	}
+
+	/**
+	 * Drives the given number of events through a scratch state machine built from the same
+	 * declaration with stubbed beans. The scratch state machine has a name of its own, so its
+	 * metrics can be dropped afterwards.
+	 */
+	private void warmUp(final BeanClasses beanClasses, final EffectiveXmlStateMachine xmlStateMachine,
+			final Injector injector, final int events) {
+		if (events <= 0) {
+			return;
+		}
+		
+		String scratchName = xmlStateMachine.getName() + "/warm-up";
+		long start = System.nanoTime();
+		
+		try {
+			int transitions = new WarmUp().run(scratchName, beanClasses, xmlStateMachine, injector, events);
+			LOGGER.info(String.format("Warmed up state machine [%s] taking [%d] transitions in [%d] ms",
+					xmlStateMachine.getName(), transitions, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		} catch (RuntimeException e) {
+			LOGGER.warn(String.format("Failed warming up state machine [%s]", xmlStateMachine.getName()), e);
+		} finally {
+			Metrics.getInstance().remove(scratchName);
+		}
+	}
+
+	private MetaState buildState(final String stateName, final BeanClasses beanClasses,
+			final EffectiveXmlStateMachine xmlStateMachine, final Injector injector,
+			final DispatchTable dispatchTable) {
+		MetaState state = beansRegistry.getState(xmlStateMachine.getName(), stateName);
+		
+		if (state != null) {
+			return state;
+		} else {
+			return new MetaState(stateName, beanClasses, xmlStateMachine, beansRegistry, injector,
+					dispatchTable);
+		}
+	}
+
+	private MetaTransition buildTransition(final String fromState, final String toState,
+			final BeanClasses beanClasses, final EffectiveXmlStateMachine xmlStateMachine,
+			final Injector injector, final DispatchTable dispatchTable) {
+		MetaTransition transition = beansRegistry.getTransition(xmlStateMachine.getName(), fromState, toState);
+		
+		if (transition != null) {
+			return transition;
+		} else {
+			return new MetaTransition(fromState, toState, beanClasses, xmlStateMachine, beansRegistry,
+					injector, dispatchTable);
+		}
 	}
 
 	private Set<Module> instantiateModules(final Set<Class<? extends Module>> moduleClasses) {
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.metamodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+
+import org.jallaby.beans.xml.model.effective.EffectiveXmlEvent;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlTransition;
+import org.jallaby.execution.Transition;
+
+/**
+ * The transitions of a state machine compiled into tables indexed by dense state and event ids.
+ * <p>
+ * Within a state, each event referenced by its transitions is assigned a bit, so the events
+ * offered to a state so far form a bit mask. A transition is a candidate as long as its events
+ * include all offered events, and it's taken once they're exactly its events. Transitions
+ * referencing a single event are found by a plain array lookup; looking up a transition never
+ * allocates.
+ * <p>
+ * The bit mask of a state whose transitions reference more than 64 events spans several words.
+ * Such states are offered their events as a <code>long[]</code> mask instead, see
+ * {@link #getMaskWords(int)}.
+ * <p>
+ * The table is built in two steps: the ids are assigned on construction, so states can refer
+ * to the table while the transitions are built by {@link #link(BiFunction)}.
+ * 
+ * @author Matthias Rothe
+ */
+public final class DispatchTable {
+	private final Map<String, Integer> stateIds = new HashMap<>();
+	private final Map<String, Integer> eventIds = new HashMap<>();
+	private final Row[] rows;
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param xmlStateMachine the state machine to compile
+	 */
+	public DispatchTable(final EffectiveXmlStateMachine xmlStateMachine) {
+		this(xmlStateMachine.getStates(), xmlStateMachine.getEvents());
+	}
+
+	DispatchTable(final Collection<EffectiveXmlState> states, final Collection<EffectiveXmlEvent> events) {
+		Objects.requireNonNull(states, "states must not be null");
+		Objects.requireNonNull(events, "events must not be null");
+		
+		for (EffectiveXmlEvent event : events) {
+			eventIds.putIfAbsent(event.getName(), eventIds.size());
+		}
+		
+		for (EffectiveXmlState state : states) {
+			for (EffectiveXmlTransition transition : state.getTransitions()) {
+				transition.getEventRefs().forEach(eventRef -> eventIds.putIfAbsent(eventRef, eventIds.size()));
+			}
+		}
+		
+		rows = new Row[states.size()];
+		
+		for (EffectiveXmlState state : states) {
+			int stateId = stateIds.size();
+			stateIds.put(state.getName(), stateId);
+			rows[stateId] = new Row(state, eventIds);
+		}
+	}
+
+	/**
+	 * Builds the transitions of all states.
+	 * 
+	 * @param transitionFactory provides the transition from the state with the first name to the
+	 * state with the second name
+	 */
+	public void link(final BiFunction<String, String, Transition> transitionFactory) {
+		Objects.requireNonNull(transitionFactory, "transitionFactory must not be null");
+		
+		for (Row row : rows) {
+			row.link(transitionFactory, eventIds);
+		}
+	}
+
+	/**
+	 * @param stateName the name of a state
+	 * @return the id of the state or {@code -1} if the state is unknown
+	 */
+	public int getStateId(final String stateName) {
+		Integer stateId = stateIds.get(stateName);
+		return stateId == null ? -1 : stateId;
+	}
+
+	/**
+	 * @param eventName the name of an event
+	 * @return the id of the event or {@code -1} if the event is unknown
+	 */
+	public int getEventId(final String eventName) {
+		Integer eventId = eventIds.get(eventName);
+		return eventId == null ? -1 : eventId;
+	}
+
+	/**
+	 * @param stateId the id of the state
+	 * @return the number of words of the bit mask of the events offered to the state, which is
+	 * {@code 1} unless its transitions reference more than 64 events, in which case the events are
+	 * offered by {@link #offer(int, long[], int)}
+	 */
+	public int getMaskWords(final int stateId) {
+		return stateId < 0 ? 1 : rows[stateId].words;
+	}
+
+	/**
+	 * Adds an event to the events offered to a state so far.
+	 * 
+	 * @param stateId the id of the state, whose bit mask must be a single word
+	 * @param offered the bit mask of the events offered so far
+	 * @param eventId the id of the event offered now
+	 * @return the bit mask including the event offered now, or {@code 0} if no transition of the
+	 * state references all of these events
+	 */
+	public long offer(final int stateId, final long offered, final int eventId) {
+		if (stateId < 0 || eventId < 0) {
+			return 0;
+		}
+		
+		Row row = rows[stateId];
+		
+		if (row.words > 1) {
+			throw new IllegalArgumentException(String.format("The bit mask of state [%s] spans %d words",
+					row.stateName, row.words));
+		}
+		
+		long bit = row.bits[eventId];
+		
+		if (bit == 0) {
+			return 0;
+		}
+		
+		long mask = offered | bit;
+		
+		if (mask == bit) {
+			return mask;
+		}
+		
+		for (long eventMask : row.eventMasks) {
+			if ((mask & ~eventMask) == 0) {
+				return mask;
+			}
+		}
+		
+		return 0;
+	}
+
+	/**
+	 * Adds an event to the events offered to a state so far, for a state whose bit mask spans
+	 * several words.
+	 * 
+	 * @param stateId the id of the state
+	 * @param offered the bit mask of the events offered so far, of {@link #getMaskWords(int)} words,
+	 * which the event offered now is added to
+	 * @param eventId the id of the event offered now
+	 * @return whether a transition of the state references all of these events, the bit mask being
+	 * left unchanged if not
+	 */
+	public boolean offer(final int stateId, final long[] offered, final int eventId) {
+		if (stateId < 0 || eventId < 0) {
+			return false;
+		}
+		
+		Row row = rows[stateId];
+		int bitIndex = row.bitIndexes[eventId];
+		
+		if (bitIndex < 0) {
+			return false;
+		}
+		
+		int word = bitIndex >>> 6;
+		long previous = offered[word];
+		offered[word] |= 1L << bitIndex;
+		
+		for (long[] eventMask : row.wideEventMasks) {
+			if (includes(eventMask, offered)) {
+				return true;
+			}
+		}
+		
+		offered[word] = previous;
+		return false;
+	}
+
+	private static boolean includes(final long[] eventMask, final long[] offered) {
+		for (int word = 0; word < offered.length; word++) {
+			if ((offered[word] & ~eventMask[word]) != 0) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+
+	/**
+	 * @param stateId the id of the state, whose bit mask must be a single word
+	 * @param offered the bit mask of the events offered so far, as returned by
+	 * {@link #offer(int, long, int)}
+	 * @param eventId the id of the event offered last
+	 * @return the transition referencing exactly the offered events or {@code null} if there is none
+	 */
+	public Transition getTransition(final int stateId, final long offered, final int eventId) {
+		Row row = rows[stateId];
+		
+		if ((offered & (offered - 1)) == 0) {
+			return row.singleEventTransitions[eventId];
+		}
+		
+		for (int i = 0; i < row.eventMasks.length; i++) {
+			if (row.eventMasks[i] == offered) {
+				return row.transitions[i];
+			}
+		}
+		
+		return null;
+	}
+
+	/**
+	 * @param stateId the id of the state, whose bit mask spans several words
+	 * @param offered the bit mask of the events offered so far, as built by
+	 * {@link #offer(int, long[], int)}
+	 * @param eventId the id of the event offered last
+	 * @return the transition referencing exactly the offered events or {@code null} if there is none
+	 */
+	public Transition getTransition(final int stateId, final long[] offered, final int eventId) {
+		Row row = rows[stateId];
+		int bits = 0;
+		
+		for (long word : offered) {
+			bits += Long.bitCount(word);
+		}
+		
+		if (bits == 1) {
+			return row.singleEventTransitions[eventId];
+		}
+		
+		for (int i = 0; i < row.wideEventMasks.length; i++) {
+			if (Arrays.equals(row.wideEventMasks[i], offered)) {
+				return row.transitions[i];
+			}
+		}
+		
+		return null;
+	}
+
+	/**
+	 * The compiled transitions of a single state.
+	 */
+	private static final class Row {
+		private final String stateName;
+		private final List<EffectiveXmlTransition> xmlTransitions;
+		private final int[] bitIndexes;
+		private final int words;
+		private final long[] bits;
+		private final long[] eventMasks;
+		private final long[][] wideEventMasks;
+		private final Transition[] transitions;
+		private final Transition[] singleEventTransitions;
+		
+		private Row(final EffectiveXmlState state, final Map<String, Integer> eventIds) {
+			stateName = state.getName();
+			xmlTransitions = new ArrayList<>(state.getTransitions());
+			bitIndexes = new int[eventIds.size()];
+			transitions = new Transition[xmlTransitions.size()];
+			singleEventTransitions = new Transition[eventIds.size()];
+			
+			Arrays.fill(bitIndexes, -1);
+			int nextBit = 0;
+			
+			for (EffectiveXmlTransition xmlTransition : xmlTransitions) {
+				for (String eventRef : xmlTransition.getEventRefs()) {
+					int eventId = eventIds.get(eventRef);
+					
+					if (bitIndexes[eventId] < 0) {
+						bitIndexes[eventId] = nextBit++;
+					}
+				}
+			}
+			
+			words = Math.max(1, (nextBit + Long.SIZE - 1) / Long.SIZE);
+			bits = words == 1 ? new long[eventIds.size()] : null;
+			eventMasks = words == 1 ? new long[xmlTransitions.size()] : null;
+			wideEventMasks = words == 1 ? null : new long[xmlTransitions.size()][words];
+			
+			for (int i = 0; i < xmlTransitions.size(); i++) {
+				for (String eventRef : xmlTransitions.get(i).getEventRefs()) {
+					int eventId = eventIds.get(eventRef);
+					int bitIndex = bitIndexes[eventId];
+					
+					if (words == 1) {
+						bits[eventId] = 1L << bitIndex;
+						eventMasks[i] |= bits[eventId];
+					} else {
+						wideEventMasks[i][bitIndex >>> 6] |= 1L << bitIndex;
+					}
+				}
+			}
+		}
+
+		private void link(final BiFunction<String, String, Transition> transitionFactory,
+				final Map<String, Integer> eventIds) {
+			for (int i = 0; i < transitions.length; i++) {
+				EffectiveXmlTransition xmlTransition = xmlTransitions.get(i);
+				transitions[i] = transitionFactory.apply(stateName, xmlTransition.getTo());
+				
+				if (xmlTransition.getEventRefs().size() == 1) {
+					int eventId = eventIds.get(xmlTransition.getEventRefs().iterator().next());
+					
+					if (singleEventTransitions[eventId] == null) {
+						singleEventTransitions[eventId] = transitions[i];
+					}
+				}
+			}
+		}
+	}
+}
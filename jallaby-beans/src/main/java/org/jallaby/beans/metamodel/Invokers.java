@@ -0,0 +1,441 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.metamodel;
+
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.jallaby.beans.metamodel.sourcing.BeanClasses;
+import org.jallaby.beans.util.TypeToken;
+import org.jallaby.beans.wiring.Wiring;
+
+/**
+ * Binds annotated bean methods into direct calls.
+ * <p>
+ * Each method is resolved once, when its state or transition is built, and bound through
+ * {@link LambdaMetafactory} into an instance of a functional interface of the JDK, which is
+ * visible to the class loaders of all state machine archives. Calling a bound method thus costs
+ * an interface call, without the access checks, varargs arrays and boxing of
+ * {@link Method#invoke(Object, Object...)}. Methods registered with the {@link Wiring} generated
+ * for a state machine archive are called through their generated lambdas instead. Bean methods
+ * may either take the event data as their only parameter or no parameter at all; the latter are
+ * adapted to take and ignore it.
+ * 
+ * @author Matthias Rothe
+ */
+final class Invokers {
+	private static final Type EVENT_DATA_TYPE = new TypeToken<Map<String, Map<String, Object>>>() {}.getType();
+	
+	private Invokers() {
+	}
+
+	/**
+	 * @param method the method to check
+	 * @return whether the method takes the event data as its only parameter
+	 */
+	static boolean takesEventDataAsOnlyParameter(final Method method) {
+		Type[] parameterTypes = method.getGenericParameterTypes();
+		return parameterTypes.length == 1 && parameterTypes[0].equals(EVENT_DATA_TYPE);
+	}
+
+	/**
+	 * @param method the method to check
+	 * @return whether the method takes either the event data as its only parameter or no
+	 * parameter at all
+	 */
+	static boolean takesEventDataOrNoParameter(final Method method) {
+		return method.getParameterCount() == 0 || takesEventDataAsOnlyParameter(method);
+	}
+
+	/**
+	 * Binds a guard method returning either <code>boolean</code> or <code>Boolean</code>.
+	 * 
+	 * @param instance the bean to call the method on
+	 * @param method the method
+	 * @return the bound method
+	 * @throws IllegalArgumentException if the method has neither of the supported shapes or
+	 * doesn't return a boolean
+	 */
+	static Predicate<Map<String, Map<String, Object>>> bindGuard(final Object instance, final Method method) {
+		if (method.getReturnType() != boolean.class && method.getReturnType() != Boolean.class) {
+			throw new IllegalArgumentException(String.format("Method [%s] of class [%s] must return a boolean",
+					method.getName(), method.getDeclaringClass().getCanonicalName()));
+		}
+		
+		if (!takesEventDataOrNoParameter(method)) {
+			throw new IllegalArgumentException(unsupported(method));
+		}
+		
+		if (method.getParameterCount() == 0) {
+			BooleanSupplier guard = bind(BooleanSupplier.class, "getAsBoolean",
+					MethodType.methodType(boolean.class), instance, method, Invokers::exactBooleanSupplier);
+			return eventData -> guard.getAsBoolean();
+		}
+		
+		return bind(Predicate.class, "test", MethodType.methodType(boolean.class, Object.class),
+				instance, method, Invokers::exactPredicate);
+	}
+
+	/**
+	 * Binds an action method, ignoring its result.
+	 * 
+	 * @param instance the bean to call the method on
+	 * @param method the method
+	 * @return the bound method
+	 * @throws IllegalArgumentException if the method has neither of the supported shapes
+	 */
+	static Consumer<Map<String, Map<String, Object>>> bindAction(final Object instance, final Method method) {
+		if (!takesEventDataOrNoParameter(method)) {
+			throw new IllegalArgumentException(unsupported(method));
+		}
+		
+		if (method.getParameterCount() == 0) {
+			Runnable action = bind(Runnable.class, "run", MethodType.methodType(void.class), instance, method,
+					Invokers::exactRunnable);
+			return eventData -> action.run();
+		}
+		
+		return bind(Consumer.class, "accept", MethodType.methodType(void.class, Object.class), instance, method,
+				Invokers::exactConsumer);
+	}
+
+	/**
+	 * Binds an action method, keeping its result. Methods returning <code>void</code> yield
+	 * <code>null</code>.
+	 * 
+	 * @param instance the bean to call the method on
+	 * @param method the method
+	 * @return the bound method
+	 * @throws IllegalArgumentException if the method has neither of the supported shapes
+	 */
+	static Function<Map<String, Map<String, Object>>, Object> bindFunction(final Object instance,
+			final Method method) {
+		if (method.getReturnType() == void.class) {
+			Consumer<Map<String, Map<String, Object>>> action = bindAction(instance, method);
+			return eventData -> {
+				action.accept(eventData);
+				return null;
+			};
+		}
+		
+		if (!takesEventDataOrNoParameter(method)) {
+			throw new IllegalArgumentException(unsupported(method));
+		}
+		
+		if (method.getParameterCount() == 0) {
+			Supplier<?> function = bind(Supplier.class, "get", MethodType.methodType(Object.class),
+					instance, method, Invokers::exactSupplier);
+			return eventData -> function.get();
+		}
+		
+		return bind(Function.class, "apply", MethodType.methodType(Object.class, Object.class),
+				instance, method, Invokers::exactFunction);
+	}
+
+	/**
+	 * Binds a guard method through the wiring of the given bean classes, or as a stub letting
+	 * the transition proceed if they're stubbed.
+	 * 
+	 * @param beanClasses the bean classes of the state machine
+	 * @param beanClass the annotated class of the bean
+	 * @param instance the bean to call the method on
+	 * @param method the method
+	 * @return the bound method
+	 * @throws IllegalArgumentException if the method isn't wired and has neither of the supported
+	 * shapes or doesn't return a boolean
+	 */
+	static Predicate<Map<String, Map<String, Object>>> bindGuard(final BeanClasses beanClasses,
+			final Class<?> beanClass, final Object instance, final Method method) {
+		if (beanClasses.isStubbed()) {
+			return eventData -> true;
+		}
+		
+		return bindGuard(beanClasses.getWiring(), beanClass, instance, method);
+	}
+
+	/**
+	 * Binds an action method through the wiring of the given bean classes, or as a stub doing
+	 * nothing if they're stubbed.
+	 * 
+	 * @param beanClasses the bean classes of the state machine
+	 * @param beanClass the annotated class of the bean
+	 * @param instance the bean to call the method on
+	 * @param method the method
+	 * @return the bound method
+	 * @throws IllegalArgumentException if the method isn't wired and has neither of the supported
+	 * shapes
+	 */
+	static Consumer<Map<String, Map<String, Object>>> bindAction(final BeanClasses beanClasses,
+			final Class<?> beanClass, final Object instance, final Method method) {
+		if (beanClasses.isStubbed()) {
+			return eventData -> { };
+		}
+		
+		return bindAction(beanClasses.getWiring(), beanClass, instance, method);
+	}
+
+	/**
+	 * Binds an action method keeping its result through the wiring of the given bean classes, or
+	 * as a stub doing nothing and returning <code>null</code> if they're stubbed.
+	 * 
+	 * @param beanClasses the bean classes of the state machine
+	 * @param beanClass the annotated class of the bean
+	 * @param instance the bean to call the method on
+	 * @param method the method
+	 * @return the bound method
+	 * @throws IllegalArgumentException if the method isn't wired and has neither of the supported
+	 * shapes
+	 */
+	static Function<Map<String, Map<String, Object>>, Object> bindFunction(final BeanClasses beanClasses,
+			final Class<?> beanClass, final Object instance, final Method method) {
+		if (beanClasses.isStubbed()) {
+			return eventData -> null;
+		}
+		
+		return bindFunction(beanClasses.getWiring(), beanClass, instance, method);
+	}
+
+	/**
+	 * Binds a guard method, preferring the lambda registered with the given wiring, if any.
+	 * 
+	 * @param wiring the wiring of the state machine archive, may be <code>null</code>
+	 * @param beanClass the annotated class of the bean
+	 * @param instance the bean to call the method on
+	 * @param method the method
+	 * @return the bound method
+	 * @throws IllegalArgumentException if the method isn't wired and has neither of the supported
+	 * shapes or doesn't return a boolean
+	 */
+	static Predicate<Map<String, Map<String, Object>>> bindGuard(final Wiring wiring, final Class<?> beanClass,
+			final Object instance, final Method method) {
+		BiPredicate<Object, Map<String, Map<String, Object>>> guard =
+				wiring == null ? null : wiring.getGuard(beanClass, method);
+		
+		if (guard == null) {
+			return bindGuard(instance, method);
+		}
+		
+		return eventData -> guard.test(instance, eventData);
+	}
+
+	/**
+	 * Binds an action method, preferring the lambda registered with the given wiring, if any.
+	 * 
+	 * @param wiring the wiring of the state machine archive, may be <code>null</code>
+	 * @param beanClass the annotated class of the bean
+	 * @param instance the bean to call the method on
+	 * @param method the method
+	 * @return the bound method
+	 * @throws IllegalArgumentException if the method isn't wired and has neither of the supported
+	 * shapes
+	 */
+	static Consumer<Map<String, Map<String, Object>>> bindAction(final Wiring wiring, final Class<?> beanClass,
+			final Object instance, final Method method) {
+		BiConsumer<Object, Map<String, Map<String, Object>>> action =
+				wiring == null ? null : wiring.getAction(beanClass, method);
+		
+		if (action == null) {
+			return bindAction(instance, method);
+		}
+		
+		return eventData -> action.accept(instance, eventData);
+	}
+
+	/**
+	 * Binds an action method keeping its result, preferring the lambda registered with the given
+	 * wiring, if any.
+	 * 
+	 * @param wiring the wiring of the state machine archive, may be <code>null</code>
+	 * @param beanClass the annotated class of the bean
+	 * @param instance the bean to call the method on
+	 * @param method the method
+	 * @return the bound method
+	 * @throws IllegalArgumentException if the method isn't wired and has neither of the supported
+	 * shapes
+	 */
+	static Function<Map<String, Map<String, Object>>, Object> bindFunction(final Wiring wiring,
+			final Class<?> beanClass, final Object instance, final Method method) {
+		BiFunction<Object, Map<String, Map<String, Object>>, Object> function =
+				wiring == null ? null : wiring.getFunction(beanClass, method);
+		
+		if (function == null) {
+			return bindFunction(instance, method);
+		}
+		
+		return eventData -> function.apply(instance, eventData);
+	}
+
+	/**
+	 * Binds the given method through {@link LambdaMetafactory}, using a lookup teleported into the
+	 * bean class by {@link MethodHandles#privateLookupIn(Class, MethodHandles.Lookup)}.
+	 * <p>
+	 * Bean classes loaded by the class loader of a state machine archive live in another module
+	 * than this class, so the teleported lookup lacks the module access the metafactory asks for.
+	 * Such methods are bound by the given adapter instead, which wraps the method handle into a
+	 * lambda invoking it exactly, and methods the lookup can't be teleported to at all are made
+	 * accessible through reflection first.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T bind(final Class<? super T> type, final String name, final MethodType samType,
+			final Object instance, final Method method, final Function<MethodHandle, T> adapter) {
+		Class<?> declaringClass = method.getDeclaringClass();
+		boolean isStatic = Modifier.isStatic(method.getModifiers());
+		
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(declaringClass, MethodHandles.lookup());
+			MethodHandle target = lookup.unreflect(method);
+			MethodType instantiatedType = MethodType.methodType(samType.returnType(),
+					(isStatic ? target.type() : target.type().dropParameterTypes(0, 1)).parameterArray());
+			
+			try {
+				MethodHandle factory = LambdaMetafactory.metafactory(lookup, name,
+						isStatic ? MethodType.methodType(type) : MethodType.methodType(type, declaringClass),
+						samType, target, instantiatedType).getTarget();
+				
+				return (T) (isStatic ? factory.invoke() : factory.invoke(instance));
+			} catch (LambdaConversionException e) {
+				return adapter.apply(isStatic ? target : target.bindTo(instance));
+			}
+		} catch (IllegalAccessException e) {
+			return bindReflectively(instance, method, adapter);
+		} catch (Throwable e) {
+			throw cannotBind(method, e);
+		}
+	}
+
+	private static <T> T bindReflectively(final Object instance, final Method method,
+			final Function<MethodHandle, T> adapter) {
+		try {
+			method.setAccessible(true);
+			MethodHandle target = MethodHandles.lookup().unreflect(method);
+			
+			return adapter.apply(Modifier.isStatic(method.getModifiers()) ? target : target.bindTo(instance));
+		} catch (RuntimeException | IllegalAccessException e) {
+			throw cannotBind(method, e);
+		}
+	}
+
+	private static BooleanSupplier exactBooleanSupplier(final MethodHandle target) {
+		MethodHandle exact = target.asType(MethodType.methodType(boolean.class));
+		
+		return () -> {
+			try {
+				return (boolean) exact.invokeExact();
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		};
+	}
+
+	private static Predicate<Map<String, Map<String, Object>>> exactPredicate(final MethodHandle target) {
+		MethodHandle exact = target.asType(MethodType.methodType(boolean.class, Map.class));
+		
+		return eventData -> {
+			try {
+				return (boolean) exact.invokeExact(eventData);
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		};
+	}
+
+	private static Runnable exactRunnable(final MethodHandle target) {
+		MethodHandle exact = target.asType(MethodType.methodType(void.class));
+		
+		return () -> {
+			try {
+				exact.invokeExact();
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		};
+	}
+
+	private static Consumer<Map<String, Map<String, Object>>> exactConsumer(final MethodHandle target) {
+		MethodHandle exact = target.asType(MethodType.methodType(void.class, Map.class));
+		
+		return eventData -> {
+			try {
+				exact.invokeExact(eventData);
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		};
+	}
+
+	private static Supplier<?> exactSupplier(final MethodHandle target) {
+		MethodHandle exact = target.asType(MethodType.methodType(Object.class));
+		
+		return () -> {
+			try {
+				return (Object) exact.invokeExact();
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		};
+	}
+
+	private static Function<Map<String, Map<String, Object>>, Object> exactFunction(final MethodHandle target) {
+		MethodHandle exact = target.asType(MethodType.methodType(Object.class, Map.class));
+		
+		return eventData -> {
+			try {
+				return (Object) exact.invokeExact(eventData);
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		};
+	}
+
+	private static RuntimeException rethrow(final Throwable e) {
+		if (e instanceof Error) {
+			throw (Error) e;
+		}
+		
+		if (e instanceof RuntimeException) {
+			return (RuntimeException) e;
+		}
+		
+		return new UndeclaredThrowableException(e);
+	}
+
+	private static IllegalStateException cannotBind(final Method method, final Throwable cause) {
+		return new IllegalStateException(String.format("Unable to bind method [%s] of class [%s]",
+				method.getName(), method.getDeclaringClass().getCanonicalName()), cause);
+	}
+
+	private static String unsupported(final Method method) {
+		return String.format("Method [%s] of class [%s] must take either no parameter or the event data"
+				+ " as its only parameter", method.getName(), method.getDeclaringClass().getCanonicalName());
+	}
+}
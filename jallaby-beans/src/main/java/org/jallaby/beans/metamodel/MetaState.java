@@ -18,17 +18,13 @@ package org.jallaby.beans.metamodel;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -36,17 +32,19 @@ import javax.annotation.PreDestroy;
 import org.jallaby.beans.BeansRegistry;
 import org.jallaby.beans.annotations.EntryAction;
 import org.jallaby.beans.annotations.ExitAction;
+import org.jallaby.beans.annotations.Timeout;
 import org.jallaby.beans.metamodel.sourcing.BeanClasses;
-import org.jallaby.beans.util.TypeToken;
 import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
 import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
-import org.jallaby.beans.xml.model.effective.EffectiveXmlTransition;
 import org.jallaby.event.Event;
 import org.jallaby.event.EventProcessingException;
-import org.jallaby.event.InvalidEventException;
+import org.jallaby.event.EventRejection;
 import org.jallaby.execution.FinishState;
 import org.jallaby.execution.State;
+import org.jallaby.execution.StateMachine;
+import org.jallaby.execution.StateTimeout;
 import org.jallaby.execution.Transition;
+import org.jallaby.jfr.ActionExecuted;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +52,9 @@ import com.google.inject.Injector;
 
 /**
  * A state instance that binds XML data to bean classes.
+ * <p>
+ * It's shared by all instances of its state machine, so it never keeps the events offered to
+ * it by a single instance.
  * 
  * @author Matthias Rothe
  */
@@ -66,13 +67,16 @@ public class MetaState implements LifecycleBean, State {
 	private final BeansRegistry beansRegistry;
 	private final Injector injector;
 	
-	private final List<Event> offeredEvents = new ArrayList<>();
-	private List<EffectiveXmlTransition> candidateXmlTransitions = new ArrayList<>();
+	private final DispatchTable dispatchTable;
+	private final int stateId;
 	
 	private EffectiveXmlState xmlState;
 	private Method preDestroyMethod;
 	private Method entryActionMethod;
 	private Method exitActionMethod;
+	private Function<Map<String, Map<String, Object>>, Object> entryAction;
+	private Consumer<Map<String, Map<String, Object>>> exitAction;
+	private StateTimeout timeout;
 	private Object instance;
 	
 	/**
@@ -83,39 +87,48 @@ public class MetaState implements LifecycleBean, State {
 	 * @param xmlStateMachine the XML state machine
 	 * @param beansRegistry the beans registry
 	 * @param injector the injector
+	 * @param dispatchTable the compiled transitions of the state machine
 	 */
 	public MetaState(final String name, final BeanClasses beanClasses,
 			final EffectiveXmlStateMachine xmlStateMachine, final BeansRegistry beansRegistry,
-			final Injector injector) {
+			final Injector injector, final DispatchTable dispatchTable) {
 		Objects.requireNonNull(name, "name must not be null");
 		Objects.requireNonNull(beanClasses, "beanClasses must not be null");
 		Objects.requireNonNull(xmlStateMachine, "xmlStateMachine must not be null");
 		Objects.requireNonNull(beansRegistry, "beansRegistry must not be null");
 		Objects.requireNonNull(injector, "injector must not be null");
+		Objects.requireNonNull(dispatchTable, "dispatchTable must not be null");
 		
 		this.name = name;
 		this.beanClasses = beanClasses;
 		this.xmlStateMachine = xmlStateMachine;
 		this.beansRegistry = beansRegistry;
 		this.injector = injector;
+		this.dispatchTable = dispatchTable;
+		this.stateId = dispatchTable.getStateId(name);
 		
 		postConstruct();
 	}
 
 	@Override
 	public void postConstruct() {
-		beansRegistry.registerState(this);
+		beansRegistry.registerState(xmlStateMachine.getName(), this);
 		xmlState = xmlStateMachine.getStateByName(name);
 		
 		Class<?> stateClass = findStateClass();
-		instance = injector.getInstance(stateClass);
+		instance = beanClasses.isStubbed() ? new Object() : injector.getInstance(stateClass);
 		Method postConstructMethod = findPostConstructMethod(stateClass);
-		preDestroyMethod = findPreDestroyMethod(stateClass);
+		preDestroyMethod = beanClasses.isStubbed() ? null : findPreDestroyMethod(stateClass);
 		entryActionMethod = findEntryActionMethod(stateClass);
 		exitActionMethod = findExitActionMethod(stateClass);
+		entryAction = entryActionMethod == null ? null
+				: Invokers.bindFunction(beanClasses, stateClass, instance, entryActionMethod);
+		exitAction = exitActionMethod == null ? null
+				: Invokers.bindAction(beanClasses, stateClass, instance, exitActionMethod);
+		timeout = buildTimeout(stateClass);
 		
 		try {
-			if (postConstructMethod != null) {
+			if (postConstructMethod != null && !beanClasses.isStubbed()) {
 				postConstructMethod.invoke(instance, (Object[]) null);
 			}
 		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
@@ -139,6 +152,31 @@ public class MetaState implements LifecycleBean, State {
 		}
 	}
 
+	private StateTimeout buildTimeout(final Class<?> stateClass) {
+		Timeout annotation = stateClass.getAnnotation(Timeout.class);
+		StateTimeout timeout;
+		
+		if (annotation != null) {
+			if (xmlState.getAfter() != null) {
+				LOGGER.warn(String.format("The state [%s] declares a timeout both in the state-machine.xml"
+						+ " file and with the @Timeout annotation. The annotation takes precedence.", name));
+			}
+			
+			timeout = new StateTimeout(annotation.unit().toMillis(annotation.after()), annotation.event());
+		} else if (xmlState.getAfter() != null) {
+			timeout = new StateTimeout(xmlState.getAfter(), xmlState.getTimeoutEvent());
+		} else {
+			return null;
+		}
+		
+		if (dispatchTable.getEventId(timeout.getEventName()) < 0) {
+			LOGGER.warn(String.format("The timeout event [%s] of state [%s] isn't referenced by any"
+					+ " transition.", timeout.getEventName(), name));
+		}
+		
+		return timeout;
+	}
+
 	private Method findPostConstructMethod(Class<?> stateClass) {
 		Method[] methods = stateClass.getMethods();
 		
@@ -173,7 +211,7 @@ public class MetaState implements LifecycleBean, State {
 		for (Method method : methods) {
 			EntryAction entryAction = method.getAnnotation(EntryAction.class);
 			
-			if (entryAction != null && takesEventDataAsOnlyParameter(method)) {
+			if (entryAction != null && Invokers.takesEventDataAsOnlyParameter(method)) {
 				return method;
 			}
 		}
@@ -187,7 +225,7 @@ public class MetaState implements LifecycleBean, State {
 		for (Method method : methods) {
 			ExitAction exitAction = method.getAnnotation(ExitAction.class);
 			
-			if (exitAction != null && takesEventDataAsOnlyParameter(method)) {
+			if (exitAction != null && Invokers.takesEventDataAsOnlyParameter(method)) {
 				return method;
 			}
 		}
@@ -195,88 +233,67 @@ public class MetaState implements LifecycleBean, State {
 		return null;
 	}
 
-	private boolean takesEventDataAsOnlyParameter(Method method) {
-		TypeToken<Map<String, Map<String, Object>>> token =
-				new TypeToken<Map<String, Map<String, Object>>>(){};
-		
-		Type[] parameterTypes = method.getGenericParameterTypes();
-		
-		return parameterTypes.length == 1 && parameterTypes[0].equals(token.getType());
-	}
-
 	@Override
-	public Transition offerEvent(Event event) throws EventProcessingException {
-		Set<EffectiveXmlTransition> xmlTransitions;
+	public Transition offerEvent(Event event, List<Event> offeredEvents) throws EventProcessingException {
+		int maskWords = dispatchTable.getMaskWords(stateId);
 		
-		if (this.candidateXmlTransitions.isEmpty()) {
-			xmlTransitions = xmlState.getTransitions();
-		} else {
-			xmlTransitions = new HashSet<>(this.candidateXmlTransitions);
+		if (maskWords > 1) {
+			return offerEvent(event, offeredEvents, new long[maskWords]);
 		}
 		
-		List<EffectiveXmlTransition> candidateXmlTransitions =
-		xmlTransitions.stream()
-		.filter(xmlTransition -> xmlTransition.getEventRefs().contains(event.getEventName()))
-		.collect(Collectors.toList());
+		long offered = 0;
 		
-		if (candidateXmlTransitions.isEmpty()) {
-			throw new InvalidEventException("There is no transition referencing the event"
-					+ " named " + event.getEventName());
+		for (int i = 0; i < offeredEvents.size(); i++) {
+			offered = dispatchTable.offer(stateId, offered,
+					dispatchTable.getEventId(offeredEvents.get(i).getEventName()));
 		}
 		
-		offeredEvents.add(event);
-
-		for (EffectiveXmlTransition xmlTransition : candidateXmlTransitions) {
-			if (transitionMatchesExactly(xmlTransition, event, offeredEvents)) {
-				MetaTransition transition = beansRegistry.getTransition(name, xmlTransition.getTo());
-				
-				if (transition != null) {
-					return transition;
-				} else {
-					return new MetaTransition(name, xmlTransition.getTo(), beanClasses,
-							xmlStateMachine, beansRegistry, injector);
-				}
-			}
+		int eventId = dispatchTable.getEventId(event.getEventName());
+		offered = dispatchTable.offer(stateId, offered, eventId);
+		
+		if (offered == 0) {
+			throw EventRejection.INVALID_EVENT.toException(event);
 		}
 		
-		this.candidateXmlTransitions = candidateXmlTransitions;		
-		return null;
+		return dispatchTable.getTransition(stateId, offered, eventId);
 	}
 
-	private boolean transitionMatchesExactly(EffectiveXmlTransition xmlTransition, Event event,
-			List<Event> offeredEvents) {
-		List<Event> allEvents = new ArrayList<>(offeredEvents);
-		allEvents.add(event);
+	private Transition offerEvent(final Event event, final List<Event> offeredEvents, final long[] offered)
+			throws EventProcessingException {
+		for (int i = 0; i < offeredEvents.size(); i++) {
+			dispatchTable.offer(stateId, offered, dispatchTable.getEventId(offeredEvents.get(i).getEventName()));
+		}
 		
-		List<String> allEventRefs = allEvents.stream()
-		.map(e -> e.getEventName()).distinct().collect(Collectors.toList());
+		int eventId = dispatchTable.getEventId(event.getEventName());
+		
+		if (!dispatchTable.offer(stateId, offered, eventId)) {
+			throw EventRejection.INVALID_EVENT.toException(event);
+		}
 		
-		return xmlTransition.getEventRefs().containsAll(allEventRefs) &&
-				xmlTransition.getEventRefs().size() == allEventRefs.size();
+		return dispatchTable.getTransition(stateId, offered, eventId);
 	}
 
 	@Override
-	public Map<String, Map<String, Object>> getEventData() {
-		Map<String, Map<String, Object>> eventData = new HashMap<>();
+	public FinishState performEntryAction(Map<String, Map<String, Object>> eventData) {
+		ActionExecuted executed = new ActionExecuted();
 		
-		for (Event event : offeredEvents) {
-			eventData.put(event.getEventName(), event.getPayload());
+		if (entryAction == null || !executed.isEnabled()) {
+			return enter(eventData);
 		}
 		
-		return eventData;
+		executed.begin();
+		FinishState finishState = enter(eventData);
+		executed.complete(xmlStateMachine.getName(), StateMachine.getProcessingInstanceId(), "entry", name,
+				instance.getClass(), entryActionMethod.getName());
+		return finishState;
 	}
 
-	@Override
-	public FinishState performEntryAction(Map<String, Map<String, Object>> eventData) {
+	private FinishState enter(final Map<String, Map<String, Object>> eventData) {
 		try {
-			if (entryActionMethod != null) {
-				Object result = entryActionMethod.invoke(instance, eventData);
-				
-				if (result != null && result == FinishState.FINISHED) {
-					return (FinishState) result;
-				}
+			if (entryAction != null && entryAction.apply(eventData) == FinishState.FINISHED) {
+				return FinishState.FINISHED;
 			}
-		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+		} catch (Exception e) {
 			LOGGER.warn("Unable to execute entry action method", e);
 		}
 		
@@ -285,13 +302,25 @@ public class MetaState implements LifecycleBean, State {
 
 	@Override
 	public void performExitAction(Map<String, Map<String, Object>> eventData) {
-		offeredEvents.clear();
+		ActionExecuted executed = new ActionExecuted();
+		
+		if (exitAction == null || !executed.isEnabled()) {
+			exit(eventData);
+			return;
+		}
+		
+		executed.begin();
+		exit(eventData);
+		executed.complete(xmlStateMachine.getName(), StateMachine.getProcessingInstanceId(), "exit", name,
+				instance.getClass(), exitActionMethod.getName());
+	}
 
+	private void exit(final Map<String, Map<String, Object>> eventData) {
 		try {
-			if (exitActionMethod != null) {
-				exitActionMethod.invoke(instance, eventData);
+			if (exitAction != null) {
+				exitAction.accept(eventData);
 			}
-		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+		} catch (Exception e) {
 			LOGGER.warn("Unable to execute exit action method", e);
 		}
 	}
@@ -301,6 +330,11 @@ public class MetaState implements LifecycleBean, State {
 		return name;
 	}
 
+	@Override
+	public StateTimeout getTimeout() {
+		return timeout;
+	}
+
 	@Override
 	public void preDestroy() {
 		try {
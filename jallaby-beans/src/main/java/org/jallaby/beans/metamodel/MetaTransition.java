@@ -18,15 +18,16 @@ package org.jallaby.beans.metamodel;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -35,16 +36,18 @@ import org.jallaby.beans.BeansRegistry;
 import org.jallaby.beans.annotations.ActionGroup;
 import org.jallaby.beans.annotations.Concurrency;
 import org.jallaby.beans.metamodel.sourcing.BeanClasses;
-import org.jallaby.beans.util.TypeToken;
 import org.jallaby.beans.xml.model.XmlStateInfo;
 import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
 import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
 import org.jallaby.execution.State;
 import org.jallaby.execution.StateInfo;
+import org.jallaby.execution.StateMachine;
 import org.jallaby.execution.Transition;
 import org.jallaby.execution.TransitionAction;
 import org.jallaby.execution.TransitionActionGroup;
 import org.jallaby.execution.TransitionGuard;
+import org.jallaby.jfr.ActionExecuted;
+import org.jallaby.jfr.GuardEvaluated;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,32 +62,35 @@ public class MetaTransition implements LifecycleBean, Transition {
 	private class MetaTransitionGuard implements TransitionGuard {
 		private final Object instance;
 		private final Method guardMethod;
+		private final Predicate<Map<String, Map<String, Object>>> guard;
 		
-		MetaTransitionGuard(final Object instance, final Method guardMethod) {
+		MetaTransitionGuard(final Class<?> beanClass, final Object instance, final Method guardMethod) {
 			Objects.requireNonNull(instance, "instance must not be null");
 			Objects.requireNonNull(guardMethod, "guardMethod must not be null");
 			
 			this.instance = instance;
 			this.guardMethod = guardMethod;
+			this.guard = Invokers.bindGuard(beanClasses, beanClass, instance, guardMethod);
 		}
 
 		@Override
 		public boolean canProceed(final Map<String, Map<String, Object>> eventData) {
+			GuardEvaluated evaluated = new GuardEvaluated();
+			
+			if (!evaluated.isEnabled()) {
+				return evaluate(eventData);
+			}
+			
+			evaluated.begin();
+			boolean result = evaluate(eventData);
+			evaluated.complete(xmlStateMachine.getName(), StateMachine.getProcessingInstanceId(), fromState,
+					toState, instance.getClass(), guardMethod.getName(), result);
+			return result;
+		}
+
+		private boolean evaluate(final Map<String, Map<String, Object>> eventData) {
 			try {
-				Parameter[] parameters = guardMethod.getParameters();
-				
-				if (parameters.length == 0) {
-					return (boolean) guardMethod.invoke(instance, (Object[]) null);
-				} else if (parameters.length == 1 && isEventDataParameter(
-						parameters[0].getParameterizedType())) {
-					return (boolean) guardMethod.invoke(instance, eventData);
-				} else {
-					LOGGER.warn(String.format("Transition guard invocation failed."
-							+ " Class: [%s], Method: [%s]. Transition will not proceed!",
-							instance.getClass().getCanonicalName(),	guardMethod.getName()));
-					return false;
-					
-				}
+				return guard.test(eventData);
 			} catch (Exception e) {
 				LOGGER.warn(String.format("Transition guard invocation failed."
 						+ " Class: [%s], Method: [%s]. Transition will not proceed!",
@@ -126,31 +132,36 @@ public class MetaTransition implements LifecycleBean, Transition {
 	private class MetaTransitionAction implements TransitionAction {
 		private final Object instance;
 		private final Method actionMethod;
+		private final Consumer<Map<String, Map<String, Object>>> action;
 		
-		MetaTransitionAction(final Object instance, final Method actionMethod) {
+		MetaTransitionAction(final Class<?> beanClass, final Object instance, final Method actionMethod) {
 			Objects.requireNonNull(instance, "instance must not be null");
 			Objects.requireNonNull(actionMethod, "actionMethod must not be null");
 			
 			this.instance = instance;
 			this.actionMethod = actionMethod;
+			this.action = Invokers.bindAction(beanClasses, beanClass, instance, actionMethod);
 		}
 		
 		@Override
 		public void run(final Map<String, Map<String, Object>> eventData) {
+			ActionExecuted executed = new ActionExecuted();
+			
+			if (!executed.isEnabled()) {
+				execute(eventData);
+				return;
+			}
+			
+			executed.begin();
+			execute(eventData);
+			executed.complete(xmlStateMachine.getName(), StateMachine.getProcessingInstanceId(), "transition",
+					fromState + " -> " + toState, instance.getClass(), actionMethod.getName());
+		}
+
+		private void execute(final Map<String, Map<String, Object>> eventData) {
 			try {
-				Parameter[] parameters = actionMethod.getParameters();
-				
-				if (parameters.length == 0) {
-					actionMethod.invoke(instance, (Object[]) null);
-				} else if (parameters.length == 1 && isEventDataParameter(
-						parameters[0].getParameterizedType())) {
-					actionMethod.invoke(instance, eventData);
-				} else {
-					LOGGER.warn(String.format("Transition action invocation failed."
-							+ " Class: [%s], Method: [%s]",
-							instance.getClass().getCanonicalName(),	actionMethod.getName()));
-				}
-			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+				action.accept(eventData);
+			} catch (Exception e) {
 				LOGGER.warn(String.format("Transition action invocation failed."
 						+ " Class: [%s], Method: [%s]",
 						instance.getClass().getCanonicalName(),	actionMethod.getName()), e);
@@ -187,23 +198,25 @@ public class MetaTransition implements LifecycleBean, Transition {
 	private final EffectiveXmlStateMachine xmlStateMachine;
 	private final BeansRegistry beansRegistry;
 	private final Injector injector;
+	private final DispatchTable dispatchTable;
 	
 	private boolean virtual;
 	private Object instance;
 	private Method preDestroyMethod;
 	private StateInfo stateInfo;
-	private final List<TransitionGuard> transitionGuards = new ArrayList<>();
-	private final List<TransitionActionGroup> transitionActionGroups = new ArrayList<>();
+	private List<TransitionGuard> transitionGuards = Collections.emptyList();
+	private List<TransitionActionGroup> transitionActionGroups = Collections.emptyList();
 	
 	public MetaTransition(final String fromState, final String toState, final BeanClasses beanClasses,
 			final EffectiveXmlStateMachine xmlStateMachine,	final BeansRegistry beansRegistry,
-			final Injector injector) {
+			final Injector injector, final DispatchTable dispatchTable) {
 		Objects.requireNonNull(fromState, "fromState must not be null");
 		Objects.requireNonNull(toState, "toState must not be null");
 		Objects.requireNonNull(beanClasses, "beanClasses must not be null");
 		Objects.requireNonNull(xmlStateMachine, "xmlStateMachine must not be null");
 		Objects.requireNonNull(beansRegistry, "beansRegistry must not be null");
 		Objects.requireNonNull(injector, "injector must not be null");
+		Objects.requireNonNull(dispatchTable, "dispatchTable must not be null");
 		
 		this.fromState = fromState;
 		this.toState = toState;
@@ -211,25 +224,26 @@ public class MetaTransition implements LifecycleBean, Transition {
 		this.xmlStateMachine = xmlStateMachine;
 		this.beansRegistry = beansRegistry;
 		this.injector = injector;
+		this.dispatchTable = dispatchTable;
 		
 		postConstruct();
 	}
 
 	@Override
 	public void postConstruct() {
-		beansRegistry.registerTransition(this);
+		beansRegistry.registerTransition(xmlStateMachine.getName(), this);
 		
 		Class<?> transitionClass = findTransitionClass();
 		
 		if (transitionClass != null) {
-			instance = injector.getInstance(transitionClass);
-			transitionGuards.addAll(buildMetaTransitionGuards(transitionClass));
-			transitionActionGroups.addAll(buildTransitionActionGroups(transitionClass));
+			instance = beanClasses.isStubbed() ? new Object() : injector.getInstance(transitionClass);
+			transitionGuards = Collections.unmodifiableList(buildMetaTransitionGuards(transitionClass));
+			transitionActionGroups = Collections.unmodifiableList(buildTransitionActionGroups(transitionClass));
 			Method postConstructMethod = findPostConstructMethod(transitionClass);
-			preDestroyMethod = findPreDestroyMethod(transitionClass);
+			preDestroyMethod = beanClasses.isStubbed() ? null : findPreDestroyMethod(transitionClass);
 			
 			try {
-				if (postConstructMethod != null) {
+				if (postConstructMethod != null && !beanClasses.isStubbed()) {
 					postConstructMethod.invoke(instance, (Object[]) null);
 				}
 			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
@@ -262,14 +276,37 @@ public class MetaTransition implements LifecycleBean, Transition {
 			org.jallaby.beans.annotations.TransitionGuard transitionGuard =
 					method.getAnnotation(org.jallaby.beans.annotations.TransitionGuard.class);
 			
-			if (transitionGuard != null && method.getParameterCount() == 0) {
-				metaTransitionGuards.add(new MetaTransitionGuard(instance, method));
+			if (transitionGuard != null && isInvocableGuard(method)) {
+				metaTransitionGuards.add(new MetaTransitionGuard(transitionClass, instance, method));
 			}
 		}
 		
 		return metaTransitionGuards;
 	}
 
+	private boolean isInvocableGuard(final Method method) {
+		if (Invokers.takesEventDataOrNoParameter(method)
+				&& (method.getReturnType() == boolean.class || method.getReturnType() == Boolean.class)) {
+			return true;
+		}
+		
+		LOGGER.warn(String.format("Transition guard ignored as it must return a boolean and take either"
+				+ " no parameter or the event data. Class: [%s], Method: [%s]",
+				method.getDeclaringClass().getCanonicalName(), method.getName()));
+		return false;
+	}
+
+	private boolean isInvocableAction(final Method method) {
+		if (Invokers.takesEventDataOrNoParameter(method)) {
+			return true;
+		}
+		
+		LOGGER.warn(String.format("Transition action ignored as it must take either no parameter or"
+				+ " the event data. Class: [%s], Method: [%s]",
+				method.getDeclaringClass().getCanonicalName(), method.getName()));
+		return false;
+	}
+
 	private List<MetaTransitionActionGroup> buildTransitionActionGroups(final Class<?> transitionClass) {
 		org.jallaby.beans.annotations.Transition transitionAnnotation =
 				transitionClass.getAnnotation(org.jallaby.beans.annotations.Transition.class);
@@ -306,8 +343,9 @@ public class MetaTransition implements LifecycleBean, Transition {
 			org.jallaby.beans.annotations.TransitionAction actionAnnotation =
 					method.getAnnotation(org.jallaby.beans.annotations.TransitionAction.class);
 			
-			if (actionAnnotation != null && actionAnnotation.group().equals(group)) {
-				actions.add(new MetaTransitionAction(instance, method));
+			if (actionAnnotation != null && actionAnnotation.group().equals(group)
+					&& isInvocableAction(method)) {
+				actions.add(new MetaTransitionAction(transitionClass, instance, method));
 			}
 		}
 		
@@ -322,9 +360,10 @@ public class MetaTransition implements LifecycleBean, Transition {
 			org.jallaby.beans.annotations.TransitionAction actionAnnotation =
 					method.getAnnotation(org.jallaby.beans.annotations.TransitionAction.class);
 			
-			if (actionAnnotation != null && actionAnnotation.group().equals(group)) {
+			if (actionAnnotation != null && actionAnnotation.group().equals(group)
+					&& isInvocableAction(method)) {
 				orderedActions.add(new OrderedMetaTransitionAction(actionAnnotation.order(),
-						new MetaTransitionAction(instance, method)));
+						new MetaTransitionAction(transitionClass, instance, method)));
 			}
 		}
 		
@@ -389,13 +428,13 @@ public class MetaTransition implements LifecycleBean, Transition {
 	}
 
 	private MetaState buildState(EffectiveXmlState xmlState) {
-		MetaState state = beansRegistry.getState(xmlState.getName());
+		MetaState state = beansRegistry.getState(xmlStateMachine.getName(), xmlState.getName());
 		
 		if (state != null) {
 			return state;
 		} else {
 			return new MetaState(xmlState.getName(), beanClasses,
-					xmlStateMachine, beansRegistry, injector);
+					xmlStateMachine, beansRegistry, injector, dispatchTable);
 		}
 	}
 
@@ -432,8 +471,4 @@ public class MetaTransition implements LifecycleBean, Transition {
 	public String toState() {
 		return toState;
 	}
-	
-	private boolean isEventDataParameter(final Type type) {
-		return new TypeToken<Map<String, Map<String, Object>>>() {}.equals(TypeToken.of(type));
-	}
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.metamodel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import org.jallaby.beans.BeansRegistry;
+import org.jallaby.beans.metamodel.sourcing.BeanClasses;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlTransition;
+import org.jallaby.event.Event;
+import org.jallaby.event.EventProcessingException;
+import org.jallaby.event.EventResult;
+import org.jallaby.execution.StateMachine;
+
+import com.google.inject.Injector;
+
+/**
+ * Drives synthetic events through scratch instances of a freshly built state machine before it's
+ * registered, so the JIT compiler has compiled the paths processing events by the time the first
+ * real event arrives.
+ * <p>
+ * The events are driven through a scratch state machine built from the same declaration with
+ * its own states and transitions, whose beans are stubbed: they aren't instantiated, their
+ * guards let the transitions proceed and their actions do nothing. So the beans of the state
+ * machine are never called, and its states and transitions check for no warm-up. The instances
+ * walk the declared transitions round robin and are retired afterwards, so timeouts armed
+ * meanwhile never fire.
+ * <p>
+ * This only warms up the paths of the engine, not those of the beans. The call sites invoking
+ * guards and actions in {@link MetaTransition} and {@link MetaState} get profiled against the
+ * stubs, so once real events call the bound beans these sites turn polymorphic or get
+ * deoptimized and compiled again. Neither are the beans instantiated by Guice nor their
+ * <code>PostConstruct</code> methods called, nor their bindings invoked. Warming up the state
+ * machine itself would call beans whose actions have side effects, which the declaration
+ * gives no way to tell from those without.
+ * 
+ * @author Matthias Rothe
+ */
+public final class WarmUp {
+	
+	/**
+	 * Drives the given number of events through instances of a scratch state machine.
+	 * 
+	 * @param scratchName the name of the scratch state machine, which must differ from the name of
+	 * the state machine to warm up
+	 * @param beanClasses the bean classes of the state machine to warm up
+	 * @param xmlStateMachine the declaration of the state machine
+	 * @param injector the injector of the state machine
+	 * @param events the number of events
+	 * @return the number of transitions taken
+	 */
+	public int run(final String scratchName, final BeanClasses beanClasses,
+			final EffectiveXmlStateMachine xmlStateMachine, final Injector injector, final int events) {
+		Objects.requireNonNull(scratchName, "scratchName must not be null");
+		Objects.requireNonNull(beanClasses, "beanClasses must not be null");
+		Objects.requireNonNull(xmlStateMachine, "xmlStateMachine must not be null");
+		Objects.requireNonNull(injector, "injector must not be null");
+		
+		Map<String, List<EffectiveXmlTransition>> transitions = new HashMap<>();
+		
+		for (EffectiveXmlState xmlState : xmlStateMachine.getStates()) {
+			transitions.put(xmlState.getName(), new ArrayList<>(xmlState.getTransitions()));
+		}
+		
+		BeanClasses stubbed = beanClasses.stubbed();
+		BeansRegistry beansRegistry = new BeansRegistry();
+		DispatchTable dispatchTable = new DispatchTable(xmlStateMachine);
+		MetaState initialState = new MetaState(xmlStateMachine.getInitialState(), stubbed, xmlStateMachine,
+				beansRegistry, injector, dispatchTable);
+		dispatchTable.link((fromState, toState) -> new MetaTransition(fromState, toState, stubbed,
+				xmlStateMachine, beansRegistry, injector, dispatchTable));
+		
+		return walk(new StateMachine(scratchName, initialState, event -> true), xmlStateMachine.getInitialState(),
+				transitions, events);
+	}
+
+	private int walk(final StateMachine stateMachine, final String initialState,
+			final Map<String, List<EffectiveXmlTransition>> transitions, final int events) {
+		StateMachine instance = stateMachine.newInstance();
+		String instanceId = UUID.randomUUID().toString();
+		String currentState = initialState;
+		int sent = 0;
+		int round = 0;
+		int taken = 0;
+		
+		while (sent < events) {
+			List<EffectiveXmlTransition> candidates = transitions.get(currentState);
+			
+			if (candidates == null || candidates.isEmpty()) {
+				if (initialState.equals(currentState)) {
+					break;
+				}
+				
+				retire(instance);
+				instance = stateMachine.newInstance();
+				instanceId = UUID.randomUUID().toString();
+				currentState = initialState;
+				continue;
+			}
+			
+			EffectiveXmlTransition transition = candidates.get(round++ % candidates.size());
+			EventResult result = null;
+			
+			for (String eventRef : transition.getEventRefs()) {
+				result = offer(instance, new Event(stateMachine.getName(), instanceId, eventRef, null));
+				sent++;
+				
+				if (result == null) {
+					break;
+				}
+			}
+			
+			if (result != null) {
+				taken++;
+				currentState = result.getCurrentStateName();
+			} else {
+				currentState = null;
+			}
+		}
+		
+		retire(instance);
+		return taken;
+	}
+
+	private EventResult offer(final StateMachine instance, final Event event) {
+		try {
+			return instance.processEvent(event);
+		} catch (EventProcessingException e) {
+			return null;
+		}
+	}
+
+	private void retire(final StateMachine instance) {
+		instance.passivate(snapshot -> true);
+	}
+}
@@ -18,6 +18,7 @@ package org.jallaby.beans.metamodel.sourcing;
 
 import java.util.Set;
 
+import org.jallaby.beans.wiring.Wiring;
 import org.jallaby.event.EventValidator;
 
 import com.google.inject.Module;
@@ -27,6 +28,8 @@ public class BeanClasses {
 	private Set<Class<?>> transitions;
 	private Set<Class<? extends EventValidator>> eventValidators;
 	private Set<Class<? extends Module>> modules;
+	private Wiring wiring;
+	private boolean stubbed;
 	
 	/**
 	 * @return the states
@@ -83,4 +86,42 @@ public class BeanClasses {
 	public void setModules(Set<Class<? extends Module>> modules) {
 		this.modules = modules;
 	}
+
+	/**
+	 * @return the wiring the bean classes were provided from, or <code>null</code> if they were
+	 * scanned
+	 */
+	public Wiring getWiring() {
+		return wiring;
+	}
+
+	/**
+	 * @param wiring the wiring to set
+	 */
+	public void setWiring(Wiring wiring) {
+		this.wiring = wiring;
+	}
+
+	/**
+	 * @return <code>true</code> if and only if the beans are stubbed: they're neither instantiated
+	 * nor called, guards letting their transitions proceed
+	 */
+	public boolean isStubbed() {
+		return stubbed;
+	}
+
+	/**
+	 * @return a copy of these bean classes whose beans are stubbed, to build a scratch state
+	 * machine from
+	 */
+	public BeanClasses stubbed() {
+		BeanClasses copy = new BeanClasses();
+		copy.setStates(states);
+		copy.setTransitions(transitions);
+		copy.setEventValidators(eventValidators);
+		copy.setModules(modules);
+		copy.setWiring(wiring);
+		copy.stubbed = true;
+		return copy;
+	}
 }
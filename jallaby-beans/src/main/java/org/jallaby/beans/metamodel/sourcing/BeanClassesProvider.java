@@ -22,6 +22,7 @@ import java.util.Set;
 
 import org.jallaby.beans.annotations.State;
 import org.jallaby.beans.annotations.Transition;
+import org.jallaby.beans.wiring.Wiring;
 import org.jallaby.event.EventValidator;
 
 import com.google.inject.Module;
@@ -38,7 +39,9 @@ public class BeanClassesProvider {
 	private static final Object MUTEX = new Object();
 	
 	/**
-	 * Provide the bean classes from the given URL and base packages.
+	 * Provide the bean classes from the given URL and base packages. The classes are scanned for
+	 * one URL at a time, as the component scanner of extcos isn't safe to use concurrently, even
+	 * with an instance per call.
 	 * 
 	 * @param url the URL to provide the bean classes from
 	 * @param basePackages the base packages to provide the bean classes from
@@ -76,4 +79,28 @@ public class BeanClassesProvider {
 		
 		return beanClasses;
 	}
+
+	/**
+	 * Provide the bean classes registered with the given wiring, without scanning.
+	 * 
+	 * @param wiring the wiring generated for the state machine archive
+	 * @return the bean classes
+	 */
+	public BeanClasses provideFrom(Wiring wiring) {
+		BeanClasses beanClasses = new BeanClasses();
+		
+		Set<Class<? extends EventValidator>> eventValidators = new HashSet<>();
+		Set<Class<? extends Module>> modules = new HashSet<>();
+		
+		wiring.getEventValidators().forEach(clazz -> eventValidators.add(clazz.asSubclass(EventValidator.class)));
+		wiring.getModules().forEach(clazz -> modules.add(clazz.asSubclass(Module.class)));
+		
+		beanClasses.setStates(new HashSet<>(wiring.getStates()));
+		beanClasses.setTransitions(new HashSet<>(wiring.getTransitions()));
+		beanClasses.setEventValidators(eventValidators);
+		beanClasses.setModules(modules);
+		beanClasses.setWiring(wiring);
+		
+		return beanClasses;
+	}
 }
@@ -149,10 +149,7 @@ public class TypeToken<T> {
 		if (this == obj) {
 			return true;
 		}
-		if (obj == null) {
-			return false;
-		}
-		if (getClass() != obj.getClass()) {
+		if (!(obj instanceof TypeToken)) {
 			return false;
 		}
 		@SuppressWarnings("rawtypes")
@@ -30,6 +30,8 @@ public class XmlState implements Serializable {
 	private String name;
 	private String xmlExtends;
 	private XmlModifier modifier;
+	private Long after;
+	private String timeoutEvent;
 	private Set<XmlTransition> transitions;
 
 	/**
@@ -74,6 +76,36 @@ public class XmlState implements Serializable {
 		this.modifier = modifier;
 	}
 
+	/**
+	 * @return the time in milliseconds the state may be active before its timeout event is sent,
+	 * <code>null</code> if the state has no timeout
+	 */
+	public Long getAfter() {
+		return after;
+	}
+
+	/**
+	 * @param after the after to set
+	 */
+	public void setAfter(Long after) {
+		this.after = after;
+	}
+
+	/**
+	 * @return the name of the event sent once the state has been active for {@link #getAfter()},
+	 * <code>null</code> if the state has no timeout
+	 */
+	public String getTimeoutEvent() {
+		return timeoutEvent;
+	}
+
+	/**
+	 * @param timeoutEvent the timeoutEvent to set
+	 */
+	public void setTimeoutEvent(String timeoutEvent) {
+		this.timeoutEvent = timeoutEvent;
+	}
+
 	/**
 	 * @return the transitions
 	 */
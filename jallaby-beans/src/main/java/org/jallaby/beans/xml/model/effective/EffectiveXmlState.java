@@ -26,6 +26,8 @@ public class EffectiveXmlState {
 	private EffectiveXmlState parent;
 	private String name;
 	private Set<EffectiveXmlTransition> transitions;
+	private Long after;
+	private String timeoutEvent;
 	
 	/**
 	 * @param parent the parent state
@@ -33,12 +35,28 @@ public class EffectiveXmlState {
 	 * @param transitions the transitions of the state, if any
 	 */
 	public EffectiveXmlState(EffectiveXmlState parent, String name, Set<EffectiveXmlTransition> transitions) {
+		this(parent, name, transitions, null, null);
+	}
+
+	/**
+	 * @param parent the parent state
+	 * @param name the name of the state
+	 * @param transitions the transitions of the state, if any
+	 * @param after the time in milliseconds the state may be active before its timeout event is
+	 * sent, <code>null</code> if the state has no timeout
+	 * @param timeoutEvent the name of the timeout event, <code>null</code> if the state has no
+	 * timeout
+	 */
+	public EffectiveXmlState(EffectiveXmlState parent, String name, Set<EffectiveXmlTransition> transitions,
+			Long after, String timeoutEvent) {
 		Objects.requireNonNull(name, "name must not be null");
 		Objects.requireNonNull(transitions, "transitions must not be null, however it can be empty");
 		
 		this.parent = parent;
 		this.name = name;
 		this.transitions = transitions;
+		this.after = after;
+		this.timeoutEvent = timeoutEvent;
 	}
 
 	/**
@@ -62,6 +80,22 @@ public class EffectiveXmlState {
 		return transitions;
 	}
 
+	/**
+	 * @return the time in milliseconds the state may be active before its timeout event is sent,
+	 * <code>null</code> if the state has no timeout
+	 */
+	public Long getAfter() {
+		return after;
+	}
+
+	/**
+	 * @return the name of the event sent once the state has been active for {@link #getAfter()},
+	 * <code>null</code> if the state has no timeout
+	 */
+	public String getTimeoutEvent() {
+		return timeoutEvent;
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#hashCode()
 	 */
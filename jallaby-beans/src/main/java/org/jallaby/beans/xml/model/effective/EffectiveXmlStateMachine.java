@@ -20,6 +20,7 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.BiFunction;
 
 import org.jallaby.beans.xml.model.XmlStateInfo;
 import org.jallaby.beans.xml.tree.XmlStateTreePool;
@@ -34,7 +35,8 @@ public class EffectiveXmlStateMachine {
 	private final String initialState;
 	private final Set<EffectiveXmlEvent> events;
 	private final Set<EffectiveXmlState> states;
-	private final XmlStateTreePool stateTreePool;
+	private final BiFunction<String, String, XmlStateInfo> targetStateInfoResolver;
+	
 	/**
 	 * @param name the name of the state machine
 	 * @param initialState the initial state
@@ -45,17 +47,32 @@ public class EffectiveXmlStateMachine {
 	public EffectiveXmlStateMachine(final String name, final String initialState,
 			final Set<EffectiveXmlEvent> events, final Set<EffectiveXmlState> states,
 			final XmlStateTreePool stateTreePool) {
+		this(name, initialState, events, states, Objects.requireNonNull(stateTreePool,
+				"stateTreePool must not be null")::getXmlTargetStateInfo);
+	}
+
+	/**
+	 * @param name the name of the state machine
+	 * @param initialState the initial state
+	 * @param events the declared events
+	 * @param states the declared states
+	 * @param targetStateInfoResolver resolves the target state info of a transition from the name
+	 *                                of its from state and the name of its to state
+	 */
+	public EffectiveXmlStateMachine(final String name, final String initialState,
+			final Set<EffectiveXmlEvent> events, final Set<EffectiveXmlState> states,
+			final BiFunction<String, String, XmlStateInfo> targetStateInfoResolver) {
 		Objects.requireNonNull(name, "name must not be null");
 		Objects.requireNonNull(initialState, "initialState must not be null");
 		Assert.notEmpty(events, IllegalArgumentException.class, "events must not be null or empty");
 		Assert.notEmpty(states, IllegalArgumentException.class, "states must not be null or empty");
-		Objects.requireNonNull(stateTreePool, "stateTreePool must not be null");
+		Objects.requireNonNull(targetStateInfoResolver, "targetStateInfoResolver must not be null");
 		
 		this.name = name;
 		this.initialState = initialState;
 		this.events = events;
 		this.states = states;
-		this.stateTreePool = stateTreePool;
+		this.targetStateInfoResolver = targetStateInfoResolver;
 	}
 
 	/**
@@ -99,6 +116,6 @@ public class EffectiveXmlStateMachine {
 	}
 
 	public XmlStateInfo getXmlTargetStateInfo(final String fromState, final String toState) {
-		return stateTreePool.getXmlTargetStateInfo(fromState, toState);
+		return targetStateInfoResolver.apply(fromState, toState);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.xml.sourcing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import org.jallaby.beans.xml.model.XmlStateInfo;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlEvent;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlProperty;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlTransition;
+
+/**
+ * Writes an {@link EffectiveXmlStateMachine} provided by the {@link XmlDeclarationProvider} in a
+ * compact binary form and reads it back, so a state machine archive can ship its declaration
+ * parsed, resolved and validated at build time.
+ * <p>
+ * The compiled form holds a table of all strings, the events and states referring to it by
+ * index and the target state info of every transition. It is bound to the format version and to
+ * the SHA-256 hash of the XML declaration it has been compiled from, so a compiled form which
+ * doesn't match the declaration next to it is recognized as stale.
+ * 
+ * @author Matthias Rothe
+ */
+public class CompiledDeclarationProvider {
+	
+	/**
+	 * The entry of a state machine archive holding the compiled declaration.
+	 */
+	public static final String ENTRY = "META-INF/state-machine.bin";
+	
+	private static final int MAGIC = 0x4A534D42;
+	/**
+	 * Version 2 records the target state info resolved along the indexed state hierarchy, which
+	 * differs from the one version 1 recorded for some transitions. Version 3 records the timeouts
+	 * of the states.
+	 */
+	private static final int FORMAT_VERSION = 3;
+	private static final int NONE = -1;
+	
+	/**
+	 * Writes the compiled form of the given state machine to the given OutputStream. The stream
+	 * is not closed.
+	 * 
+	 * @param stateMachine the state machine, as provided from the given declaration
+	 * @param declaration the XML declaration of the state machine
+	 * @param out the OutputStream to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void compile(final EffectiveXmlStateMachine stateMachine, final byte[] declaration,
+			final OutputStream out) throws IOException {
+		Objects.requireNonNull(stateMachine, "stateMachine must not be null");
+		Objects.requireNonNull(declaration, "declaration must not be null");
+		Objects.requireNonNull(out, "out must not be null");
+		
+		Map<String, Integer> strings = new LinkedHashMap<>();
+		List<EffectiveXmlState> states = sortParentsFirst(stateMachine.getStates());
+		Map<String, Integer> stateIds = new HashMap<>();
+		
+		for (EffectiveXmlState state : states) {
+			stateIds.put(state.getName(), stateIds.size());
+		}
+		
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(FORMAT_VERSION);
+		data.write(hash(declaration));
+		
+		Body body = new Body();
+		body.writeInt(intern(stateMachine.getName(), strings));
+		body.writeInt(intern(stateMachine.getInitialState(), strings));
+		body.writeInt(stateMachine.getEvents().size());
+		
+		for (EffectiveXmlEvent event : stateMachine.getEvents()) {
+			body.writeInt(intern(event.getName(), strings));
+			
+			if (event.getProperties() == null) {
+				body.writeInt(NONE);
+			} else {
+				body.writeInt(event.getProperties().size());
+				
+				for (EffectiveXmlProperty property : event.getProperties()) {
+					body.writeInt(intern(property.getName(), strings));
+					body.writeInt(intern(property.getType(), strings));
+				}
+			}
+		}
+		
+		body.writeInt(states.size());
+		
+		for (EffectiveXmlState state : states) {
+			writeState(stateMachine, state, stateIds, strings, body);
+		}
+		
+		data.writeInt(strings.size());
+		
+		for (String string : strings.keySet()) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			data.writeInt(bytes.length);
+			data.write(bytes);
+		}
+		
+		body.writeTo(data);
+		data.flush();
+	}
+
+	private void writeState(final EffectiveXmlStateMachine stateMachine, final EffectiveXmlState state,
+			final Map<String, Integer> stateIds, final Map<String, Integer> strings, final Body body)
+			throws IOException {
+		body.writeInt(intern(state.getName(), strings));
+		body.writeInt(state.getParent() == null ? NONE : stateIds.get(state.getParent().getName()));
+		body.writeLong(state.getAfter() == null ? NONE : state.getAfter());
+		body.writeInt(intern(state.getTimeoutEvent(), strings));
+		body.writeInt(state.getTransitions().size());
+		
+		for (EffectiveXmlTransition transition : state.getTransitions()) {
+			body.writeInt(intern(transition.getTo(), strings));
+			body.writeInt(transition.getEventRefs().size());
+			
+			for (String eventRef : transition.getEventRefs()) {
+				body.writeInt(intern(eventRef, strings));
+			}
+			
+			XmlStateInfo stateInfo = stateMachine.getXmlTargetStateInfo(state.getName(), transition.getTo());
+			body.writeInt(stateInfo.getStatesToExit());
+			body.writeInt(stateInfo.getXmlStates().size());
+			
+			for (EffectiveXmlState xmlState : stateInfo.getXmlStates()) {
+				body.writeInt(xmlState == null ? NONE : stateIds.get(xmlState.getName()));
+			}
+		}
+	}
+
+	/**
+	 * Reads the state machine from the given compiled form. Neither the DTD nor the
+	 * {@link org.jallaby.beans.xml.sourcing.validation.StateMachineValidator}s are applied again.
+	 * 
+	 * @param compiled the compiled form
+	 * @param declaration the XML declaration the compiled form is expected to have been compiled from
+	 * @return the {@link EffectiveXmlStateMachine}, or <code>null</code> if the compiled form is of
+	 *         another format version or has been compiled from another declaration
+	 * @throws IllegalArgumentException if the compiled form is corrupt
+	 */
+	public EffectiveXmlStateMachine provide(final ByteBuffer compiled, final byte[] declaration) {
+		Objects.requireNonNull(compiled, "compiled must not be null");
+		Objects.requireNonNull(declaration, "declaration must not be null");
+		
+		try {
+			if (compiled.getInt() != MAGIC || compiled.getInt() != FORMAT_VERSION) {
+				return null;
+			}
+			
+			byte[] hash = new byte[32];
+			compiled.get(hash);
+			
+			if (!Arrays.equals(hash, hash(declaration))) {
+				return null;
+			}
+			
+			return read(compiled);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new IllegalArgumentException("The compiled declaration is corrupt", e);
+		}
+	}
+
+	private EffectiveXmlStateMachine read(final ByteBuffer compiled) {
+		String[] strings = new String[compiled.getInt()];
+		
+		for (int i = 0; i < strings.length; i++) {
+			int length = compiled.getInt();
+			ByteBuffer bytes = compiled.slice();
+			bytes.limit(length);
+			strings[i] = StandardCharsets.UTF_8.decode(bytes).toString().intern();
+			compiled.position(compiled.position() + length);
+		}
+		
+		String name = strings[compiled.getInt()];
+		String initialState = strings[compiled.getInt()];
+		Set<EffectiveXmlEvent> events = new HashSet<>();
+		
+		for (int i = compiled.getInt(); i > 0; i--) {
+			String eventName = strings[compiled.getInt()];
+			int propertyCount = compiled.getInt();
+			Set<EffectiveXmlProperty> properties = propertyCount == NONE ? null : new HashSet<>();
+			
+			for (int j = 0; j < propertyCount; j++) {
+				properties.add(new EffectiveXmlProperty(string(strings, compiled.getInt()),
+						string(strings, compiled.getInt())));
+			}
+			
+			events.add(new EffectiveXmlEvent(eventName, properties));
+		}
+		
+		EffectiveXmlState[] states = new EffectiveXmlState[compiled.getInt()];
+		Map<String, Map<String, int[]>> targetStateInfos = new HashMap<>();
+		
+		for (int i = 0; i < states.length; i++) {
+			String stateName = strings[compiled.getInt()];
+			int parent = compiled.getInt();
+			long after = compiled.getLong();
+			String timeoutEvent = string(strings, compiled.getInt());
+			Set<EffectiveXmlTransition> transitions = new HashSet<>();
+			Map<String, int[]> stateTargetInfos = new HashMap<>();
+			
+			for (int j = compiled.getInt(); j > 0; j--) {
+				String to = strings[compiled.getInt()];
+				Set<String> eventRefs = new HashSet<>();
+				
+				for (int k = compiled.getInt(); k > 0; k--) {
+					eventRefs.add(strings[compiled.getInt()]);
+				}
+				
+				transitions.add(new EffectiveXmlTransition(to, eventRefs));
+				
+				int statesToExit = compiled.getInt();
+				int[] targetStateInfo = new int[compiled.getInt() + 1];
+				targetStateInfo[0] = statesToExit;
+				
+				for (int k = 1; k < targetStateInfo.length; k++) {
+					targetStateInfo[k] = compiled.getInt();
+				}
+				
+				stateTargetInfos.put(to, targetStateInfo);
+			}
+			
+			states[i] = new EffectiveXmlState(parent == NONE ? null : states[parent], stateName, transitions,
+					after == NONE ? null : after, timeoutEvent);
+			targetStateInfos.put(stateName, stateTargetInfos);
+		}
+		
+		return new EffectiveXmlStateMachine(name, initialState, events, new HashSet<>(Arrays.asList(states)),
+				(fromState, toState) -> buildXmlStateInfo(fromState, toState, targetStateInfos, states));
+	}
+
+	private XmlStateInfo buildXmlStateInfo(final String fromState, final String toState,
+			final Map<String, Map<String, int[]>> targetStateInfos, final EffectiveXmlState[] states) {
+		int[] targetStateInfo = targetStateInfos.getOrDefault(fromState, Map.of()).get(toState);
+		
+		if (targetStateInfo == null) {
+			throw new NoSuchElementException(String.format("There is no transition from [%s] to [%s]"
+					+ " in this state machine", fromState, toState));
+		}
+		
+		Deque<EffectiveXmlState> xmlStates = new LinkedList<>();
+		
+		for (int i = 1; i < targetStateInfo.length; i++) {
+			xmlStates.addLast(targetStateInfo[i] == NONE ? null : states[targetStateInfo[i]]);
+		}
+		
+		return new XmlStateInfo(targetStateInfo[0], xmlStates);
+	}
+
+	private List<EffectiveXmlState> sortParentsFirst(final Set<EffectiveXmlState> states) {
+		Map<String, EffectiveXmlState> unsorted = new LinkedHashMap<>();
+		List<EffectiveXmlState> sorted = new ArrayList<>(states.size());
+		
+		for (EffectiveXmlState state : states) {
+			unsorted.put(state.getName(), state);
+		}
+		
+		for (EffectiveXmlState state : states) {
+			addParentsFirst(state, unsorted, sorted);
+		}
+		
+		return sorted;
+	}
+
+	private void addParentsFirst(final EffectiveXmlState state, final Map<String, EffectiveXmlState> unsorted,
+			final List<EffectiveXmlState> sorted) {
+		if (unsorted.remove(state.getName()) == null) {
+			return;
+		}
+		
+		EffectiveXmlState parent = state.getParent() == null ? null : unsorted.get(state.getParent().getName());
+		
+		if (parent != null) {
+			addParentsFirst(parent, unsorted, sorted);
+		}
+		
+		sorted.add(state);
+	}
+
+	private static int intern(final String string, final Map<String, Integer> strings) {
+		return string == null ? NONE : strings.computeIfAbsent(string, key -> strings.size());
+	}
+
+	private static String string(final String[] strings, final int index) {
+		return index == NONE ? null : strings[index];
+	}
+
+	private static byte[] hash(final byte[] declaration) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(declaration);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported", e);
+		}
+	}
+
+	/**
+	 * Buffers the body of the compiled form, which refers to the string table by index, so the
+	 * string table can be written in front of it once it's complete.
+	 */
+	private static final class Body extends ByteArrayOutputStream {
+		private final DataOutputStream data = new DataOutputStream(this);
+		
+		void writeInt(final int value) throws IOException {
+			data.writeInt(value);
+		}
+		
+		void writeLong(final long value) throws IOException {
+			data.writeLong(value);
+		}
+	}
+}
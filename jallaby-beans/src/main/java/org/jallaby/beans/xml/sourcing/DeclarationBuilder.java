@@ -0,0 +1,560 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.xml.sourcing;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.jallaby.beans.util.StringUtils;
+import org.jallaby.beans.xml.model.XmlEvent;
+import org.jallaby.beans.xml.model.XmlModifier;
+import org.jallaby.beans.xml.model.XmlProperty;
+import org.jallaby.beans.xml.model.XmlState;
+import org.jallaby.beans.xml.model.XmlTransition;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlEvent;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.sourcing.StateMachineValidationError.ValidationSection;
+import org.jallaby.beans.xml.sourcing.validation.AllStatesReachableValidator;
+import org.jallaby.beans.xml.sourcing.validation.StateMachineValidator;
+import org.jallaby.beans.xml.sourcing.validation.TransitionsValidator;
+import org.jallaby.beans.xml.tree.XmlEventTreePool;
+import org.jallaby.beans.xml.tree.XmlStateTreePool;
+
+/**
+ * Builds an {@link EffectiveXmlStateMachine} from the elements of a state-machine.xml file,
+ * which are fed to it in document order by a parser. Each element is passed as a function from
+ * the names of its attributes to their values and fed straight into the event and state tree
+ * pools, so no tree of the whole document is needed.
+ * <p>
+ * All events are expected before the first state, as the DTD demands.
+ * 
+ * @author Matthias Rothe
+ */
+final class DeclarationBuilder {
+	private final List<StateMachineValidationError> validationErrors = new ArrayList<>();
+	private final XmlEventTreePool eventPool = new XmlEventTreePool();
+	private final XmlStateTreePool stateTreePool = new XmlStateTreePool();
+	
+	private String name;
+	private String initialState;
+	private Set<EffectiveXmlEvent> events;
+	
+	private int numberOfAbstractEvents;
+	private int numberOfTotalEvents;
+	private XmlEvent event;
+	private boolean addEvent;
+	private Set<XmlProperty> properties;
+	
+	private int numberOfAbstractStates;
+	private int numberOfTotalStates;
+	private XmlState state;
+	private boolean addState;
+	private Set<XmlTransition> transitions;
+	
+	private XmlTransition transition;
+	private boolean addTransition;
+	private Set<String> eventRefs;
+	
+	void stateMachine(final Function<String, String> attributes) {
+		name = attributes.apply("name");
+		initialState = attributes.apply("initial-state");
+	}
+
+	void startEvent(final Function<String, String> attributes) {
+		addEvent = true;
+		numberOfTotalEvents++;
+		
+		event = new XmlEvent();
+		properties = new HashSet<>();
+		
+		String eventName = attributes.apply("name");
+		
+		if (StringUtils.isBlank(eventName)) {
+			addEvent = false;
+			validationErrors.add(new StateMachineValidationError(ValidationSection.EVENT,
+					"The state machine definition contains an event with the name set"
+					+ " to null, an empty string or a string that only contains whitespace."
+					+ " This event is invalid."));
+		} else {
+			event.setName(eventName);
+		}
+		
+		String xmlExtends = attributes.apply("extends");
+		
+		if (xmlExtends == null || !StringUtils.isBlank(xmlExtends)) {
+			event.setXmlExtends(xmlExtends);
+		} else {
+			addEvent = false;
+			validationErrors.add(new StateMachineValidationError(ValidationSection.EVENT,
+					String.format("The event [%s] has the extends attribute set"
+					+ " to an empty string or a string that only contains whitespace."
+					+ " This event is invalid.", event.getName())));
+		}
+		
+		String modifier = attributes.apply("modifier");
+		
+		if (modifier != null) {
+			XmlModifier xmlModifier = XmlModifier.by(modifier);
+			
+			if (xmlModifier != null) {
+				event.setModifier(xmlModifier);
+				
+				if (xmlModifier == XmlModifier.xmlAbstract) {
+					numberOfAbstractEvents++;
+				}
+			} else {
+				addEvent = false;
+				validationErrors.add(new StateMachineValidationError(ValidationSection.EVENT,
+						String.format("The event [%s] has the modifier attribute set"
+						+ " to [%s] but only the values 'abstract' and 'final' are"
+						+ " allowed. This event is invalid.", event.getName(), modifier)));
+			}
+		}
+	}
+
+	void property(final Function<String, String> attributes) {
+		boolean addProperty = true;
+		XmlProperty property = new XmlProperty();
+		
+		String propertyName = attributes.apply("name");
+		
+		if (StringUtils.isBlank(propertyName)) {
+			addProperty = false;
+			validationErrors.add(new StateMachineValidationError(ValidationSection.EVENT_PROPERTY,
+					String.format("The event [%s] contains a property with the name set"
+					+ " to null, an empty string or a string that only contains whitespace."
+					+ " This property is invalid.", event.getName())));
+		} else {
+			property.setName(propertyName);
+		}
+		
+		String visibility = attributes.apply("visibility");
+		
+		if (visibility != null) {
+			if (visibility.equalsIgnoreCase("private")) {
+				if (event.getModifier() == XmlModifier.xmlAbstract) {
+					addProperty = false;
+					validationErrors.add(new StateMachineValidationError(
+							ValidationSection.EVENT_PROPERTY,
+							String.format("Private properties are not allowed"
+									+ " for abstract events. Abstract event: [%s],"
+									+ " Disallowed property: [%s]",  event.getName(),
+									property.getName())));
+				} else {
+					property.setXmlPrivate(true);
+				}
+			} else {
+				addProperty = false;
+				validationErrors.add(new StateMachineValidationError(
+						ValidationSection.EVENT_PROPERTY,
+						String.format("The property [%s] of the event [%s] has its"
+								+ " visibility attribute set to [%s]. This renders"
+								+ " the property invalid. The only valid value for"
+								+ " that attribute is 'private'.", property.getName(),
+								event.getName(), visibility)));
+			}
+		}
+		
+		String type = attributes.apply("type");
+		
+		if (isValidPropertyType(type)) {
+			property.setType(type);
+		} else {
+			addProperty = false;
+			validationErrors.add(
+					new StateMachineValidationError(ValidationSection.EVENT_PROPERTY,
+							String.format("The property [%s] of the event [%s] has the"
+									+ " type attribute set to [%s]. This renders the"
+									+ " property invalid. The allowed values for this"
+									+ " attribute are ['int', 'long', 'double', 'boolean',"
+									+ " 'string', 'list', 'map'].", property.getName(),
+									event.getName(), type)));
+		}
+		
+		if (addProperty) {
+			properties.add(property);
+		}
+	}
+
+	void endEvent() {
+		event.setProperties(properties);
+		
+		if (addEvent) {
+			eventPool.add(event);
+		}
+		
+		event = null;
+		properties = null;
+	}
+
+	private boolean isValidPropertyType(String type) {
+		if (StringUtils.isBlank(type)) {
+			return false;
+		}
+		
+		switch (type) {
+		//fall-through
+		case "int":
+		case "long":
+		case "double":
+		case "boolean":
+		case "string":
+		case "list":
+		case "map":
+			return true;
+		//else
+		default:
+			return false;
+		}
+	}
+
+	private Set<EffectiveXmlEvent> resolveEvents() {
+		if (events != null) {
+			return events;
+		}
+		
+		if (numberOfTotalEvents == 0) {
+			validationErrors.add(new StateMachineValidationError(ValidationSection.EVENT,
+					"There are no events defined. Please define at least one"
+					+ " non-abstract event for the state machine to be able to function."));
+			
+			events = new HashSet<>();
+		} else if (numberOfAbstractEvents == numberOfTotalEvents) {
+			validationErrors.add(new StateMachineValidationError(ValidationSection.EVENT,
+					"There are only abstract events defined. Please define at least one"
+					+ " non-abstract event for the state machine to be able to function."));
+			
+			events = new HashSet<>();
+		} else {
+			events = eventPool.calculateEffectiveEvents();
+		}
+		
+		return events;
+	}
+
+	void startState(final Function<String, String> attributes) {
+		resolveEvents();
+		
+		addState = true;
+		numberOfTotalStates++;
+		
+		state = new XmlState();
+		transitions = new HashSet<>();
+		
+		String stateName = attributes.apply("name");
+		
+		if (StringUtils.isBlank(stateName)) {
+			addState = false;
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE,
+					"The state machine definition contains a state with the name set"
+					+ " to null, an empty string or a string that only contains whitespace."
+					+ " This state is invalid."));
+		} else {
+			state.setName(stateName);
+		}
+		
+		String xmlExtends = attributes.apply("extends");
+		
+		if (xmlExtends == null || !StringUtils.isBlank(xmlExtends)) {
+			state.setXmlExtends(xmlExtends);
+		} else {
+			addState = false;
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE,
+					String.format("The state [%s] has the extends attribute set"
+					+ " to an empty string or a string that only contains whitespace."
+					+ " This state is invalid.", state.getName())));
+		}
+		
+		String modifier = attributes.apply("modifier");
+		
+		if (modifier != null) {
+			XmlModifier xmlModifier = XmlModifier.by(modifier);
+			
+			if (xmlModifier != null) {
+				state.setModifier(xmlModifier);
+				
+				if (xmlModifier == XmlModifier.xmlAbstract) {
+					numberOfAbstractStates++;
+				}
+			} else {
+				addState = false;
+				validationErrors.add(new StateMachineValidationError(ValidationSection.STATE,
+						String.format("The state [%s] has the modifier attribute set"
+						+ " to [%s] but only the values 'abstract' and 'final' are"
+						+ " allowed. This state is invalid.", state.getName(), modifier)));
+			}
+		}
+		
+		timeout(attributes.apply("after"), attributes.apply("timeout-event"));
+	}
+
+	private void timeout(final String after, final String timeoutEvent) {
+		if (after == null && timeoutEvent == null) {
+			return;
+		}
+		
+		if (state.getModifier() == XmlModifier.xmlAbstract) {
+			addState = false;
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE,
+					"Timeouts are not allowed for abstract states. Abstract state: " + state.getName()));
+		} else if (after == null || timeoutEvent == null) {
+			addState = false;
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE,
+					String.format("The state [%s] has only one of the 'after' and 'timeout-event'"
+					+ " attributes set but a timeout needs both. This state is invalid.", state.getName())));
+		} else if (parseAfter(after) < 0) {
+			addState = false;
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE,
+					String.format("The state [%s] has the after attribute set to [%s] but only a"
+					+ " non-negative number of milliseconds is allowed. This state is invalid.",
+					state.getName(), after)));
+		} else if (!eventsContainEventRef(events, timeoutEvent)) {
+			addState = false;
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE,
+					String.format("The timeout event [%s] of the state [%s] does not reference"
+					+ " an existing event.", timeoutEvent, state.getName())));
+		} else {
+			state.setAfter(parseAfter(after));
+			state.setTimeoutEvent(timeoutEvent);
+		}
+	}
+
+	private long parseAfter(final String after) {
+		try {
+			return Long.parseLong(after.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	void startTransition(final Function<String, String> attributes) {
+		addTransition = true;
+		transition = new XmlTransition();
+		eventRefs = new HashSet<>();
+		
+		String visibility = attributes.apply("visibility");
+		
+		if (visibility != null) {
+			if (visibility.equalsIgnoreCase("private")) {
+				if (state.getModifier() == XmlModifier.xmlAbstract) {
+					addTransition = false;
+					validationErrors.add(
+							new StateMachineValidationError(ValidationSection.TRANSITION,
+									"Private transitions are not allowed for abstract states. "
+									+ "Abstract state: " + state.getName()));
+				} else {
+					transition.setXmlPrivate(true);
+				}
+			} else {
+				addTransition = false;
+				validationErrors.add(new StateMachineValidationError(
+						ValidationSection.TRANSITION,
+						String.format("The transition to [%s] of the state [%s] has its"
+								+ " visibility attribute set to [%s]. This renders"
+								+ " the transition invalid. The only valid value for"
+								+ " that attribute is 'private'.", transition.getTo(),
+								state.getName(), visibility)));
+			}
+		}
+		
+		String to = attributes.apply("to");
+		
+		if (StringUtils.isBlank(to)) {
+			addTransition = false;
+			validationErrors.add(new StateMachineValidationError(ValidationSection.TRANSITION,
+					String.format("The state [%s] contains a transition with the 'to'"
+					+ " attribute set to null, an empty string or a string that only"
+					+ " contains whitespace. This transition is invalid.", state.getName())));
+		} else {
+			transition.setTo(to);
+		}
+	}
+
+	void eventRef(final Function<String, String> attributes) {
+		String eventRef = attributes.apply("name");
+		
+		if (eventsContainEventRef(events, eventRef)) {
+			eventRefs.add(eventRef);
+		} else {
+			validationErrors.add(new StateMachineValidationError(
+					ValidationSection.EVENT_REF,
+					String.format("Event reference [%s] for transition to"
+							+ " [%s] on state [%s] does not reference an existing event.",
+							eventRef, transition.getTo(), state.getName())));
+		}
+	}
+
+	private boolean eventsContainEventRef(Set<EffectiveXmlEvent> events, String eventRef) {
+		for (EffectiveXmlEvent event : events) {
+			if (event.getName().equalsIgnoreCase(eventRef)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void endTransition() {
+		transition.setEvents(eventRefs);
+		
+		if (addTransition) {
+			transitions.add(transition);
+		}
+		
+		transition = null;
+		eventRefs = null;
+	}
+
+	void endState() {
+		state.setTransitions(transitions);
+		
+		if (addState) {
+			stateTreePool.add(state);
+		}
+		
+		state = null;
+		transitions = null;
+	}
+
+	private Set<EffectiveXmlState> resolveStates() {
+		if (numberOfTotalStates < 2) {
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE,
+					"There are less than two states defined. Please define at least two"
+					+ " non-abstract states for the state machine to be able to function."));
+			
+			return new HashSet<>();
+		} else if (numberOfAbstractStates == numberOfTotalStates) {
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE,
+					"There are only abstract states defined. Please define at least two"
+					+ " non-abstract states for the state machine to be able to function."));
+			
+			return new HashSet<>();
+		} else if (numberOfAbstractStates == numberOfTotalStates - 1) {
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE,
+					"There is only one non-abstract state defined. Please define at least two"
+					+ " non-abstract states for the state machine to be able to function."));
+			
+			return new HashSet<>();
+		} else {
+			return stateTreePool.calculateEffectiveStates();
+		}
+	}
+
+	/**
+	 * Builds the state machine from all elements fed.
+	 * 
+	 * @param validate whether to apply the {@link StateMachineValidator}s
+	 * @return the state machine
+	 * @throws InvalidStateMachineException if the state machine is invalid
+	 */
+	EffectiveXmlStateMachine build(final boolean validate) throws InvalidStateMachineException {
+		Set<EffectiveXmlEvent> events = resolveEvents();
+		Set<EffectiveXmlState> states = resolveStates();
+		
+		boolean throwAfterPrevalidation = false;
+		
+		if (StringUtils.isBlank(name)) {
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE_MACHINE,
+					"The state machine's name must not be null, empty or only whitespace."));
+			throwAfterPrevalidation = true;
+		}
+		
+		
+		if (StringUtils.isBlank(initialState)) {
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE_MACHINE,
+					"The state machine's initial-state must not be null,"
+					+ " empty or only whitespace."));
+			throwAfterPrevalidation = true;
+		}
+		
+		if (events.isEmpty()) {
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE_MACHINE,
+					"The state machine definition contains no instantiable"
+					+ " events and is therefore invalid."));
+			throwAfterPrevalidation = true;
+		}
+		
+		if (states.isEmpty()) {
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE_MACHINE,
+					"The state machine definition contains no instantiable"
+					+ " states and is therefore invalid."));
+			throwAfterPrevalidation = true;
+		}
+		
+		if (throwAfterPrevalidation) {
+			throw new InvalidStateMachineException(validationErrors);
+		}
+		
+		if (validationErrors.isEmpty()) {
+			EffectiveXmlStateMachine stateMachine =
+					new EffectiveXmlStateMachine(name, initialState, events, states, stateTreePool);
+			
+			if (validate) {
+				validationErrors.addAll(validate(stateMachine));
+			}
+			
+			if (validationErrors.isEmpty()) {
+				return stateMachine;
+			} else {
+				throw new InvalidStateMachineException(validationErrors);
+			}
+		} else {
+			throw new InvalidStateMachineException(validationErrors);
+		}
+	}
+
+	/**
+	 * Turns an exception thrown while feeding or building the state machine into an
+	 * {@link InvalidStateMachineException} carrying all validation errors found so far.
+	 * 
+	 * @param e the exception
+	 * @return the {@link InvalidStateMachineException}
+	 */
+	InvalidStateMachineException invalid(final Exception e) {
+		if (e instanceof InvalidStateMachineException) {
+			return (InvalidStateMachineException) e;
+		} else {
+			validationErrors.add(new StateMachineValidationError(ValidationSection.STATE_MACHINE,
+					"Invalid state machine."));
+			
+			return new InvalidStateMachineException(validationErrors, e);
+		}
+	}
+
+	private List<StateMachineValidationError> validate(EffectiveXmlStateMachine stateMachine) {
+		List<StateMachineValidationError> validationErrors = new ArrayList<>();
+		
+		// validate
+		// - that the two required states are not parent and child and that there is more
+		//   variety than just one single chain of direct inheritance (child-parent-grandparent etc)
+		// - there is no event that extends from any of its children
+		//   (write at least a test case, as the XmlEventTree class might already assure that)
+		// - there is no state that extends from any of its children
+		//   (write at least a test case, as the XmlStateTree class might already assure that)
+		
+		List<StateMachineValidator> validators = new ArrayList<StateMachineValidator>();
+		validators.add(new TransitionsValidator());
+		validators.add(new AllStatesReachableValidator()); // must be the last validator
+		
+		validators.forEach(validator -> validator.validate(stateMachine, validationErrors));
+		
+		return validationErrors;
+	}
+}
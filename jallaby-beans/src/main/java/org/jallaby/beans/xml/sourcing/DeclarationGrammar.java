@@ -0,0 +1,338 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.xml.sourcing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The grammar of state-machine.xml files, parsed once from the DTD bundled with Jallaby Beans.
+ * It validates documents while they are streamed, so neither the DTD has to be resolved nor the
+ * document has to be held in memory to validate it.
+ * <p>
+ * Only the subset of DTD syntax the bundled DTD uses is understood: element declarations of
+ * <code>EMPTY</code> elements or of sequences of child elements, each optionally marked with
+ * <code>?</code>, <code>*</code> or <code>+</code>, and attribute list declarations of
+ * <code>CDATA</code> or enumerated attributes, which are either <code>#REQUIRED</code> or
+ * <code>#IMPLIED</code>.
+ * 
+ * @author Matthias Rothe
+ */
+final class DeclarationGrammar {
+	private static final String DTD_RESOURCE = "/org/jallaby/jallaby-beans/jallaby-beans-1.0.dtd";
+	private static final String ROOT_ELEMENT = "state-machine";
+	
+	private static final Pattern ELEMENT = Pattern.compile("<!ELEMENT\\s+(\\S+)\\s+(EMPTY|\\(([^)]*)\\))\\s*>");
+	private static final Pattern ATTLIST = Pattern.compile("<!ATTLIST\\s+(\\S+)\\s+([^>]*)>");
+	private static final Pattern ATTRIBUTE = Pattern.compile(
+			"(\\S+)\\s+(CDATA|\\(([^)]*)\\))\\s+(#REQUIRED|#IMPLIED)");
+	private static final Pattern PARTICLE = Pattern.compile("([^\\s?*+]+)([?*+]?)");
+	
+	private final String rootElement;
+	private final Map<String, ElementDeclaration> elements;
+	
+	private DeclarationGrammar(final String rootElement, final Map<String, ElementDeclaration> elements) {
+		this.rootElement = rootElement;
+		this.elements = elements;
+	}
+
+	/**
+	 * @return the grammar of the DTD bundled with Jallaby Beans
+	 */
+	static DeclarationGrammar getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Parses the given DTD.
+	 * 
+	 * @param dtd the DTD
+	 * @param rootElement the name of the root element
+	 * @return the grammar
+	 * @throws IllegalArgumentException if the DTD declares no elements
+	 */
+	static DeclarationGrammar parse(final String dtd, final String rootElement) {
+		Objects.requireNonNull(dtd, "dtd must not be null");
+		Objects.requireNonNull(rootElement, "rootElement must not be null");
+		
+		Map<String, ElementDeclaration> elements = new HashMap<>();
+		Matcher element = ELEMENT.matcher(dtd);
+		
+		while (element.find()) {
+			List<Particle> content = new ArrayList<>();
+			
+			if (element.group(3) != null) {
+				for (String particle : element.group(3).split(",")) {
+					Matcher matcher = PARTICLE.matcher(particle.trim());
+					
+					if (!matcher.matches()) {
+						throw new IllegalArgumentException(String.format("Unsupported content particle [%s]",
+								particle));
+					}
+					
+					content.add(new Particle(matcher.group(1), matcher.group(2)));
+				}
+			}
+			
+			elements.put(element.group(1), new ElementDeclaration(content));
+		}
+		
+		if (elements.isEmpty()) {
+			throw new IllegalArgumentException("The DTD declares no elements");
+		}
+		
+		Matcher attlist = ATTLIST.matcher(dtd);
+		
+		while (attlist.find()) {
+			ElementDeclaration declaration = elements.get(attlist.group(1));
+			Matcher attribute = ATTRIBUTE.matcher(attlist.group(2));
+			
+			while (declaration != null && attribute.find()) {
+				Set<String> values = attribute.group(3) == null ? null
+						: Set.of(attribute.group(3).trim().split("\\s*\\|\\s*"));
+				
+				declaration.attributes.put(attribute.group(1),
+						new AttributeDeclaration("#REQUIRED".equals(attribute.group(4)), values));
+			}
+		}
+		
+		return new DeclarationGrammar(rootElement, elements);
+	}
+
+	/**
+	 * @return a new validator of a single document
+	 */
+	Validator newValidator() {
+		return new Validator();
+	}
+
+	/**
+	 * Validates a single document against the grammar. The validator is fed the events of an
+	 * {@link XMLStreamReader} in document order and throws an {@link XMLStreamException} at the
+	 * location of the first violation.
+	 */
+	final class Validator {
+		private final Deque<Frame> frames = new ArrayDeque<>();
+		private boolean rootSeen;
+		
+		/**
+		 * Validates the element the reader is positioned at the start of.
+		 * 
+		 * @param reader the reader
+		 * @throws XMLStreamException if the element isn't allowed there or its attributes are invalid
+		 */
+		void startElement(final XMLStreamReader reader) throws XMLStreamException {
+			String name = reader.getLocalName();
+			ElementDeclaration declaration = elements.get(name);
+			
+			if (declaration == null) {
+				throw new XMLStreamException(String.format("Element [%s] is not declared", name),
+						reader.getLocation());
+			}
+			
+			if (frames.isEmpty()) {
+				if (rootSeen || !rootElement.equals(name)) {
+					throw new XMLStreamException(String.format("Element [%s] is not allowed as root element",
+							name), reader.getLocation());
+				}
+				
+				rootSeen = true;
+			} else {
+				frames.peek().accept(name, reader);
+			}
+			
+			validateAttributes(name, declaration, reader);
+			frames.push(new Frame(name, declaration));
+		}
+
+		/**
+		 * Validates that the element the reader is positioned at the end of is complete.
+		 * 
+		 * @param reader the reader
+		 * @throws XMLStreamException if the element lacks required child elements
+		 */
+		void endElement(final XMLStreamReader reader) throws XMLStreamException {
+			frames.pop().complete(reader);
+		}
+
+		/**
+		 * Validates the text the reader is positioned at.
+		 * 
+		 * @param reader the reader
+		 * @throws XMLStreamException if the text isn't whitespace
+		 */
+		void characters(final XMLStreamReader reader) throws XMLStreamException {
+			if (!frames.isEmpty() && !reader.isWhiteSpace()) {
+				throw new XMLStreamException(String.format("Element [%s] must not contain text",
+						frames.peek().name), reader.getLocation());
+			}
+		}
+
+		/**
+		 * Validates that the document had a root element.
+		 * 
+		 * @param reader the reader
+		 * @throws XMLStreamException if it hadn't
+		 */
+		void endDocument(final XMLStreamReader reader) throws XMLStreamException {
+			if (!rootSeen) {
+				throw new XMLStreamException(String.format("Element [%s] is missing", rootElement),
+						reader.getLocation());
+			}
+		}
+
+		private void validateAttributes(final String name, final ElementDeclaration declaration,
+				final XMLStreamReader reader) throws XMLStreamException {
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				String attributeName = reader.getAttributeLocalName(i);
+				AttributeDeclaration attribute = declaration.attributes.get(attributeName);
+				
+				if (attribute == null) {
+					throw new XMLStreamException(String.format("Attribute [%s] is not declared for element [%s]",
+							attributeName, name), reader.getLocation());
+				}
+				
+				if (attribute.values != null && !attribute.values.contains(reader.getAttributeValue(i))) {
+					throw new XMLStreamException(String.format("Attribute [%s] of element [%s] must be one of %s",
+							attributeName, name, attribute.values), reader.getLocation());
+				}
+			}
+			
+			for (Map.Entry<String, AttributeDeclaration> attribute : declaration.attributes.entrySet()) {
+				if (attribute.getValue().required && reader.getAttributeValue(null, attribute.getKey()) == null) {
+					throw new XMLStreamException(String.format("Attribute [%s] is required for element [%s]",
+							attribute.getKey(), name), reader.getLocation());
+				}
+			}
+		}
+	}
+
+	/**
+	 * An open element and how far its content has been matched against its content model.
+	 */
+	private static final class Frame {
+		private final String name;
+		private final ElementDeclaration declaration;
+		private int particle;
+		private int count;
+		
+		private Frame(final String name, final ElementDeclaration declaration) {
+			this.name = name;
+			this.declaration = declaration;
+		}
+
+		private void accept(final String child, final XMLStreamReader reader) throws XMLStreamException {
+			List<Particle> content = declaration.content;
+			
+			while (particle < content.size()) {
+				Particle current = content.get(particle);
+				
+				if (current.name.equals(child) && (current.unbounded || count == 0)) {
+					count++;
+					return;
+				}
+				
+				if (count < current.min) {
+					break;
+				}
+				
+				particle++;
+				count = 0;
+			}
+			
+			throw new XMLStreamException(String.format("Element [%s] is not allowed here in element [%s]",
+					child, name), reader.getLocation());
+		}
+
+		private void complete(final XMLStreamReader reader) throws XMLStreamException {
+			List<Particle> content = declaration.content;
+			
+			for (int i = particle; i < content.size(); i++) {
+				if ((i == particle ? count : 0) < content.get(i).min) {
+					throw new XMLStreamException(String.format("Element [%s] requires element [%s]",
+							name, content.get(i).name), reader.getLocation());
+				}
+			}
+		}
+	}
+
+	private static final class ElementDeclaration {
+		private final List<Particle> content;
+		private final Map<String, AttributeDeclaration> attributes = new HashMap<>();
+		
+		private ElementDeclaration(final List<Particle> content) {
+			this.content = content;
+		}
+	}
+
+	private static final class Particle {
+		private final String name;
+		private final int min;
+		private final boolean unbounded;
+		
+		private Particle(final String name, final String occurrence) {
+			this.name = name;
+			this.min = occurrence.isEmpty() || "+".equals(occurrence) ? 1 : 0;
+			this.unbounded = "*".equals(occurrence) || "+".equals(occurrence);
+		}
+	}
+
+	private static final class AttributeDeclaration {
+		private final boolean required;
+		private final Set<String> values;
+		
+		private AttributeDeclaration(final boolean required, final Set<String> values) {
+			this.required = required;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * Parses the bundled DTD on first use.
+	 */
+	private static final class Holder {
+		private static final DeclarationGrammar INSTANCE = load();
+		
+		private static DeclarationGrammar load() {
+			try (InputStream in = DeclarationGrammar.class.getResourceAsStream(DTD_RESOURCE)) {
+				if (in == null) {
+					throw new IllegalStateException(String.format("The DTD [%s] is missing", DTD_RESOURCE));
+				}
+				
+				return parse(StandardCharsets.UTF_8.decode(ByteBuffer.wrap(in.readAllBytes())).toString(), ROOT_ELEMENT);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
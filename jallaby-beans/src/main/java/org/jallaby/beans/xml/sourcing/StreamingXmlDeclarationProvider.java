@@ -0,0 +1,177 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.xml.sourcing;
+
+import java.io.InputStream;
+import java.util.function.Function;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.sourcing.validation.StateMachineValidator;
+
+/**
+ * This class reads the state-machine.xml file from an InputStream in a single pass with StAX
+ * and feeds its elements straight into an {@link EffectiveXmlStateMachine} object, without
+ * building a tree of the whole document like the {@link XmlDeclarationProvider} does.
+ * <p>
+ * The document is validated against the DTD bundled with Jallaby Beans, which is parsed only
+ * once. The document type declaration of the document itself is neither resolved nor applied.
+ * 
+ * @author Matthias Rothe
+ */
+public class StreamingXmlDeclarationProvider {
+	private static final XMLInputFactory INPUT_FACTORY = newInputFactory();
+	
+	/**
+	 * Reads the state-machine.xml file from the given InputStream and
+	 * parses its contents into an {@link EffectiveXmlStateMachine} object.
+	 * 
+	 * @param in the InputStream to read from
+	 * @return the {@link EffectiveXmlStateMachine}
+	 * @throws InvalidStateMachineException if the state machine to be provided is invalid
+	 * @throws XMLStreamException if the XML state machine declaration is malformed or doesn't
+	 *                            conform to the DTD
+	 */
+	public EffectiveXmlStateMachine provide(InputStream in)
+			throws InvalidStateMachineException, XMLStreamException {
+		return provide(in, true);
+	}
+
+	/**
+	 * Reads a state-machine.xml file, which has been provided successfully before, from the given
+	 * InputStream. Neither the DTD nor the {@link StateMachineValidator}s are applied again.
+	 * 
+	 * @param in the InputStream to read from
+	 * @return the {@link EffectiveXmlStateMachine}
+	 * @throws InvalidStateMachineException if the state machine to be provided is invalid
+	 * @throws XMLStreamException if the XML state machine declaration is malformed
+	 */
+	public EffectiveXmlStateMachine provideValidated(InputStream in)
+			throws InvalidStateMachineException, XMLStreamException {
+		return provide(in, false);
+	}
+
+	private EffectiveXmlStateMachine provide(InputStream in, boolean validate)
+			throws InvalidStateMachineException, XMLStreamException {
+		XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+		DeclarationGrammar.Validator validator = validate ? DeclarationGrammar.getInstance().newValidator() : null;
+		DeclarationBuilder builder = new DeclarationBuilder();
+		Function<String, String> attributes = name -> reader.getAttributeValue(null, name);
+		
+		try {
+			while (reader.hasNext()) {
+				next(reader, validator, builder, attributes);
+			}
+			
+			if (validator != null) {
+				validator.endDocument(reader);
+			}
+			
+			return builder.build(validate);
+		} catch (XMLStreamException e) {
+			throw e;
+		} catch (Exception e) {
+			throw builder.invalid(e);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void next(XMLStreamReader reader, DeclarationGrammar.Validator validator,
+			DeclarationBuilder builder, Function<String, String> attributes) throws XMLStreamException {
+		switch (reader.next()) {
+		case XMLStreamConstants.START_ELEMENT:
+			if (validator != null) {
+				validator.startElement(reader);
+			}
+			
+			startElement(reader.getLocalName(), attributes, builder);
+			break;
+		case XMLStreamConstants.END_ELEMENT:
+			if (validator != null) {
+				validator.endElement(reader);
+			}
+			
+			endElement(reader.getLocalName(), builder);
+			break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.CDATA:
+			if (validator != null) {
+				validator.characters(reader);
+			}
+			break;
+		//else
+		default:
+			break;
+		}
+	}
+
+	private void startElement(String name, Function<String, String> attributes, DeclarationBuilder builder) {
+		switch (name) {
+		case "state-machine":
+			builder.stateMachine(attributes);
+			break;
+		case "event":
+			builder.startEvent(attributes);
+			break;
+		case "property":
+			builder.property(attributes);
+			break;
+		case "state":
+			builder.startState(attributes);
+			break;
+		case "transition":
+			builder.startTransition(attributes);
+			break;
+		case "event-ref":
+			builder.eventRef(attributes);
+			break;
+		//else
+		default:
+			break;
+		}
+	}
+
+	private void endElement(String name, DeclarationBuilder builder) {
+		switch (name) {
+		case "event":
+			builder.endEvent();
+			break;
+		case "state":
+			builder.endState();
+			break;
+		case "transition":
+			builder.endTransition();
+			break;
+		//else
+		default:
+			break;
+		}
+	}
+
+	private static XMLInputFactory newInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newFactory();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return factory;
+	}
+}
@@ -105,12 +105,18 @@ class XmlStateTree {
 		return root.getState().getXmlExtends();
 	}
 
+	XmlStateTreeNode getRoot() {
+		return root;
+	}
+
 	void addSubTree(XmlStateTree tree) {
 		if (root == null) {
 			root = tree.root;
 		} else {
 			root.getChildren().add(tree.root);
 		}
+		
+		resetEffectiveXmlStates();
 	}
 
 	Set<EffectiveXmlState> calculateEffectiveStates() {
@@ -154,7 +160,8 @@ class XmlStateTree {
 			transitions.addAll(calculateEffectiveTransitions(parentNode.getState().getTransitions(), false));
 		}
 
-		return new EffectiveXmlState(parent, state.getName(), transitions);
+		return new EffectiveXmlState(parent, state.getName(), transitions, state.getAfter(),
+				state.getTimeoutEvent());
 	}
 
 	private Set<EffectiveXmlTransition> calculateEffectiveTransitions(Set<XmlTransition> transitions,
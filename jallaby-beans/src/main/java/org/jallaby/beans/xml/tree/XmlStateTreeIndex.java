@@ -0,0 +1,232 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.xml.tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.jallaby.beans.xml.model.XmlModifier;
+import org.jallaby.beans.xml.model.XmlStateInfo;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
+
+/**
+ * An immutable index of the state hierarchy of an {@link XmlStateTreePool}, built once all the
+ * states have been added. Every state is numbered in depth first order and its parent, its depth
+ * and the number of non abstract states on its path from the root are kept in arrays, next to the
+ * ancestors at every power of two distance for finding the lowest common ancestor of two states by
+ * binary lifting.
+ * <p>
+ * Whether a state is a descendant of another one and how many states have to be exited on a
+ * transition is thus answered in <code>O(log n)</code>, while the states to enter are collected
+ * on the path from the target state up to the lowest common ancestor only.
+ * 
+ * @author Matthias Rothe
+ */
+final class XmlStateTreeIndex {
+	private static final int NONE = -1;
+	
+	private final Map<String, Integer> ids = new HashMap<>();
+	private final int[] parents;
+	private final int[] depths;
+	private final int[] concreteDepths;
+	private final boolean[] concrete;
+	private final EffectiveXmlState[] effectiveStates;
+	private final int[][] ancestors;
+	
+	/**
+	 * Indexes the given trees.
+	 * 
+	 * @param trees the trees holding all the states
+	 * @param effectiveXmlStates the effective states calculated from the trees
+	 */
+	XmlStateTreeIndex(final Collection<XmlStateTree> trees, final Collection<EffectiveXmlState> effectiveXmlStates) {
+		List<XmlStateTreeNode> nodes = new ArrayList<>();
+		List<Integer> parentIds = new ArrayList<>();
+		Deque<XmlStateTreeNode> stack = new ArrayDeque<>();
+		Deque<Integer> parentStack = new ArrayDeque<>();
+		
+		for (XmlStateTree tree : trees) {
+			stack.push(tree.getRoot());
+			parentStack.push(NONE);
+			
+			while (!stack.isEmpty()) {
+				XmlStateTreeNode node = stack.pop();
+				int id = nodes.size();
+				
+				nodes.add(node);
+				parentIds.add(parentStack.pop());
+				ids.putIfAbsent(node.getState().getName(), id);
+				
+				for (XmlStateTreeNode child : node.getChildren()) {
+					stack.push(child);
+					parentStack.push(id);
+				}
+			}
+		}
+		
+		Map<String, EffectiveXmlState> effectiveStatesByName = new HashMap<>();
+		
+		for (EffectiveXmlState effectiveXmlState : effectiveXmlStates) {
+			effectiveStatesByName.put(effectiveXmlState.getName(), effectiveXmlState);
+		}
+		
+		int size = nodes.size();
+		parents = new int[size];
+		depths = new int[size];
+		concreteDepths = new int[size];
+		concrete = new boolean[size];
+		effectiveStates = new EffectiveXmlState[size];
+		
+		for (int id = 0; id < size; id++) {
+			XmlStateTreeNode node = nodes.get(id);
+			int parent = parentIds.get(id);
+			
+			parents[id] = parent;
+			concrete[id] = node.getState().getModifier() != XmlModifier.xmlAbstract;
+			depths[id] = parent == NONE ? 0 : depths[parent] + 1;
+			concreteDepths[id] = (parent == NONE ? 0 : concreteDepths[parent]) + (concrete[id] ? 1 : 0);
+			effectiveStates[id] = effectiveStatesByName.get(node.getState().getName());
+		}
+		
+		ancestors = calculateAncestors(parents);
+	}
+
+	private static int[][] calculateAncestors(final int[] parents) {
+		int levels = 1;
+		
+		while ((1 << levels) < parents.length) {
+			levels++;
+		}
+		
+		int[][] ancestors = new int[levels][];
+		ancestors[0] = parents;
+		
+		for (int level = 1; level < levels; level++) {
+			int[] previous = ancestors[level - 1];
+			int[] current = new int[parents.length];
+			
+			for (int id = 0; id < parents.length; id++) {
+				current[id] = previous[id] == NONE ? NONE : previous[previous[id]];
+			}
+			
+			ancestors[level] = current;
+		}
+		
+		return ancestors;
+	}
+
+	/**
+	 * Calculates which states have to be exited and which have to be entered on a transition.
+	 * 
+	 * @param fromStateName the name of the state the transition starts at
+	 * @param toStateName the name of the state the transition leads to
+	 * @return the {@link XmlStateInfo}
+	 * @throws NoSuchElementException if either state doesn't exist
+	 */
+	XmlStateInfo getXmlTargetStateInfo(final String fromStateName, final String toStateName) {
+		int from = id(fromStateName);
+		int to = id(toStateName);
+		Deque<EffectiveXmlState> states = new LinkedList<>();
+		
+		if (from == to) {
+			states.add(effectiveStates[from]);
+			return new XmlStateInfo(1, states);
+		}
+		
+		int statesToExit;
+		int ancestor;
+		
+		if (isAncestorOf(from, to)) {
+			statesToExit = 0;
+			ancestor = from;
+		} else {
+			ancestor = lowestCommonAncestor(from, to);
+			
+			if (ancestor == to) {
+				ancestor = parents[to];
+			}
+			
+			statesToExit = 1 + concreteDepth(parents[from]) - concreteDepth(ancestor);
+		}
+		
+		for (int node = to; node != ancestor; node = parents[node]) {
+			if (concrete[node] || node == to) {
+				states.addFirst(effectiveStates[node]);
+			}
+		}
+		
+		return new XmlStateInfo(statesToExit, states);
+	}
+
+	private int id(final String stateName) {
+		Integer id = ids.get(stateName);
+		
+		if (id == null) {
+			throw new NoSuchElementException(String.format("The state [%s] is not present in this state machine",
+					stateName));
+		}
+		
+		return id;
+	}
+
+	private int concreteDepth(final int id) {
+		return id == NONE ? 0 : concreteDepths[id];
+	}
+
+	private boolean isAncestorOf(final int ancestor, final int id) {
+		return depths[id] > depths[ancestor] && ancestorAt(id, depths[id] - depths[ancestor]) == ancestor;
+	}
+
+	private int ancestorAt(final int id, final int distance) {
+		int ancestor = id;
+		
+		for (int level = 0; ancestor != NONE && (distance >> level) != 0; level++) {
+			if (((distance >> level) & 1) != 0) {
+				ancestor = ancestors[level][ancestor];
+			}
+		}
+		
+		return ancestor;
+	}
+
+	private int lowestCommonAncestor(final int first, final int second) {
+		int deeper = depths[first] >= depths[second] ? first : second;
+		int other = deeper == first ? second : first;
+		
+		deeper = ancestorAt(deeper, depths[deeper] - depths[other]);
+		
+		if (deeper == other) {
+			return deeper;
+		}
+		
+		for (int level = ancestors.length - 1; level >= 0; level--) {
+			if (ancestors[level][deeper] != ancestors[level][other]) {
+				deeper = ancestors[level][deeper];
+				other = ancestors[level][other];
+			}
+		}
+		
+		return parents[deeper];
+	}
+}
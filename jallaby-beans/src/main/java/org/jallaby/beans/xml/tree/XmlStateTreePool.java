@@ -16,14 +16,10 @@
 
 package org.jallaby.beans.xml.tree;
 
-import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Objects;
 import java.util.Set;
 
-import org.jallaby.beans.xml.model.XmlModifier;
 import org.jallaby.beans.xml.model.XmlState;
 import org.jallaby.beans.xml.model.XmlStateInfo;
 import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
@@ -33,8 +29,11 @@ import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
  */
 public class XmlStateTreePool {
 	private final Set<XmlStateTree> trees = new HashSet<>();
+	private XmlStateTreeIndex index;
 	
 	public void add(XmlState state) {
+		index = null;
+		
 		if (trees.isEmpty()) {
 			addTreeForState(state);
 		} else {
@@ -85,108 +84,10 @@ public class XmlStateTreePool {
 	}
 
 	public XmlStateInfo getXmlTargetStateInfo(final String fromStateName, final String toStateName) {
-		int statesToExit = 0;
-		Deque<EffectiveXmlState> states = new LinkedList<>();
-		
-		XmlStateTreeNode fromStateNode = findStateNode(fromStateName);
-		
-		if (Objects.equals(fromStateName, toStateName)) {
-			statesToExit = 1;
-			states.add(makeEffectiveXmlState(fromStateNode));
-		} else if (isDescendantOf(toStateName, fromStateNode)) {
-			states.addAll(findEffectiveXmlStates(fromStateNode, toStateName));
-		} else {
-			statesToExit++;
-			XmlStateTreeNode parentNode = fromStateNode;
-			
-			while ((parentNode = parentNode.getParent()) != null) {
-				if (isDescendantOf(toStateName, parentNode)) {
-					states.addAll(findEffectiveXmlStates(parentNode, toStateName));
-					break;
-				} else {
-					if (parentNode.getState().getModifier() != XmlModifier.xmlAbstract) {
-						statesToExit++;
-					}
-				}
-			}
-			
-			if (parentNode == null) {
-				states.addAll(findEffectiveXmlStates(toStateName));
-			}
-		}
-		
-		return new XmlStateInfo(statesToExit, states);
-	}
-
-	private XmlStateTreeNode findStateNode(final String stateName) {
-		for (XmlStateTree tree : trees) {
-			XmlStateTreeNode node = tree.findNode(stateName);
-			
-			if (node != null) {
-				return node;
-			}
-		}
-		
-		return null;
-	}
-
-	private EffectiveXmlState makeEffectiveXmlState(XmlStateTreeNode node) {
-		Set<EffectiveXmlState> states = node.getTree().calculateEffectiveStates();
-		
-		return states.stream().filter(state -> state.getName().equals(node.getState().getName()))
-				.findFirst().orElse(null);
-	}
-
-	private boolean isDescendantOf(final String stateName, XmlStateTreeNode node) {
-		boolean isDescendantOf = false;
-		
-		for (XmlStateTreeNode child : node.getChildren()) {
-			if (child.getState().getName().equals(stateName)) {
-				return true;
-			} else {
-				isDescendantOf = isDescendantOf(stateName, child);
-			}
-		}
-		
-		return isDescendantOf;
-	}
-
-	private Deque<EffectiveXmlState> findEffectiveXmlStates(final XmlStateTreeNode fromStateNode,
-			String toStateName) {
-		Deque<EffectiveXmlState> states = new LinkedList<>();
-		XmlStateTreeNode toStateNode = findStateNode(toStateName);
-		
-		states.addFirst(makeEffectiveXmlState(toStateNode));
-		
-		XmlStateTreeNode parentNode = toStateNode;
-		
-		//CHECKSTYLE:OFF
-		while (!isFinalNode(parentNode = parentNode.getParent(), fromStateNode)) {
-		//CHECKSTYLE:ON
-			if (parentNode.getState().getModifier() != XmlModifier.xmlAbstract) {
-				states.addFirst(makeEffectiveXmlState(parentNode));
-			}
-		}
-		
-		return states;
-	}
-
-	private boolean isFinalNode(XmlStateTreeNode node, XmlStateTreeNode fromStateNode) {
-		return node == null || node.equals(fromStateNode);
-	}
-
-	private Deque<EffectiveXmlState> findEffectiveXmlStates(String toStateName) {
-		Deque<EffectiveXmlState> states = new LinkedList<>();
-		XmlStateTreeNode toStateNode = findStateNode(toStateName);
-		
-		states.addFirst(makeEffectiveXmlState(toStateNode));
-		
-		XmlStateTreeNode parentNode = toStateNode;
-		
-		while ((parentNode = parentNode.getParent()) != null) {
-			states.addFirst(makeEffectiveXmlState(parentNode));
+		if (index == null) {
+			index = new XmlStateTreeIndex(trees, calculateEffectiveStates());
 		}
 		
-		return states;
+		return index.getXmlTargetStateInfo(fromStateName, toStateName);
 	}
 }
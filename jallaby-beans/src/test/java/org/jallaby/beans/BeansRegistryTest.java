@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.Set;
+
+import org.jallaby.beans.metamodel.MetaState;
+import org.jallaby.beans.metamodel.MetaTransition;
+import org.testng.annotations.Test;
+
+/**
+ * @author Matthias Rothe
+ */
+public class BeansRegistryTest {
+	
+	@Test
+	public void testKeepingEquallyNamedStatesOfDifferentStateMachinesApart() {
+		BeansRegistry beansRegistry = new BeansRegistry();
+		MetaState orderIdle = state("idle");
+		MetaState paymentIdle = state("idle");
+		
+		beansRegistry.registerState("Order", orderIdle);
+		beansRegistry.registerState("Payment", paymentIdle);
+		
+		assertSame(beansRegistry.getState("Order", "idle"), orderIdle);
+		assertSame(beansRegistry.getState("Payment", "idle"), paymentIdle);
+		assertNull(beansRegistry.getState("Order", "busy"));
+		assertNull(beansRegistry.getState("Shipping", "idle"));
+	}
+
+	@Test
+	public void testFindingTransitionsBySourceAndTargetState() {
+		BeansRegistry beansRegistry = new BeansRegistry();
+		MetaTransition idleToBusy = transition("idle", "busy");
+		MetaTransition idleToDone = transition("idle", "done");
+		
+		beansRegistry.registerTransition("Order", idleToBusy);
+		beansRegistry.registerTransition("Order", idleToDone);
+		
+		assertSame(beansRegistry.getTransition("Order", "idle", "busy"), idleToBusy);
+		assertSame(beansRegistry.getTransition("Order", "idle", "done"), idleToDone);
+		assertNull(beansRegistry.getTransition("Order", "busy", "idle"));
+		assertNull(beansRegistry.getTransition("Payment", "idle", "busy"));
+	}
+
+	@Test
+	public void testKeepingTheFirstOfEqualBeans() {
+		BeansRegistry beansRegistry = new BeansRegistry();
+		MetaState first = state("idle");
+		
+		beansRegistry.registerState("Order", first);
+		beansRegistry.registerState("Order", state("idle"));
+		
+		assertSame(beansRegistry.getState("Order", "idle"), first);
+	}
+
+	@Test
+	public void testUnregisteringAStateMachine() {
+		BeansRegistry beansRegistry = new BeansRegistry();
+		MetaState orderIdle = state("idle");
+		MetaTransition orderIdleToBusy = transition("idle", "busy");
+		MetaState paymentIdle = state("idle");
+		
+		beansRegistry.registerState("Order", orderIdle);
+		beansRegistry.registerTransition("Order", orderIdleToBusy);
+		beansRegistry.registerState("Payment", paymentIdle);
+		
+		assertEquals(beansRegistry.unregisterStateMachine("Order"), Set.of(orderIdle, orderIdleToBusy));
+		assertEquals(beansRegistry.unregisterStateMachine("Order"), Set.of());
+		assertNull(beansRegistry.getState("Order", "idle"));
+		assertNull(beansRegistry.getTransition("Order", "idle", "busy"));
+		assertEquals(beansRegistry.getAllLifecycleBeans(), Set.of(paymentIdle));
+	}
+
+	private MetaState state(final String name) {
+		MetaState state = mock(MetaState.class);
+		when(state.getName()).thenReturn(name);
+		return state;
+	}
+
+	private MetaTransition transition(final String fromState, final String toState) {
+		MetaTransition transition = mock(MetaTransition.class);
+		when(transition.fromState()).thenReturn(fromState);
+		when(transition.toState()).thenReturn(toState);
+		return transition;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+
+import org.jallaby.beans.metamodel.sourcing.BeanClasses;
+import org.jallaby.beans.wiring.Wiring;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.sourcing.XmlDeclarationProvider;
+import org.jallaby.event.Event;
+import org.jallaby.event.EventValidator;
+import org.testng.annotations.Test;
+
+import com.google.inject.AbstractModule;
+
+/**
+ * @author Matthias Rothe
+ */
+public class DeployCacheTest {
+	private static final byte[] DECLARATION = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE state-machine [\n"
+			+ "<!ELEMENT state-machine (event+, state+)>\n"
+			+ "<!ATTLIST state-machine name CDATA #REQUIRED initial-state CDATA #REQUIRED>\n"
+			+ "<!ELEMENT event EMPTY>\n"
+			+ "<!ATTLIST event name CDATA #REQUIRED>\n"
+			+ "<!ELEMENT state (transition*)>\n"
+			+ "<!ATTLIST state name CDATA #REQUIRED>\n"
+			+ "<!ELEMENT transition (event-ref+)>\n"
+			+ "<!ATTLIST transition to CDATA #REQUIRED>\n"
+			+ "<!ELEMENT event-ref EMPTY>\n"
+			+ "<!ATTLIST event-ref name CDATA #REQUIRED>\n"
+			+ "]>\n"
+			+ "<state-machine name=\"Order\" initial-state=\"waiting\">\n"
+			+ "<event name=\"pay\"/>\n"
+			+ "<state name=\"waiting\"><transition to=\"paid\"><event-ref name=\"pay\"/></transition></state>\n"
+			+ "<state name=\"paid\"/>\n"
+			+ "</state-machine>\n").getBytes(StandardCharsets.UTF_8);
+	
+	@Test
+	public void testHashingTheContentsOfFiles() throws Exception {
+		Path directory = Files.createTempDirectory("deploy-cache");
+		Path first = Files.write(directory.resolve("first.sma"), "first".getBytes(StandardCharsets.UTF_8));
+		Path second = Files.write(directory.resolve("second.sma"), "second".getBytes(StandardCharsets.UTF_8));
+		Path copy = Files.write(directory.resolve("copy.sma"), "first".getBytes(StandardCharsets.UTF_8));
+		
+		assertEquals(DeployCache.hash(first), DeployCache.hash(copy));
+		assertNotEquals(DeployCache.hash(first), DeployCache.hash(second));
+		assertEquals(DeployCache.hash(first).length(), 64);
+	}
+
+	@Test
+	public void testLoadingTheScannedBeanClasses() throws Exception {
+		DeployCache deployCache = new DeployCache(Files.createTempDirectory("deploy-cache"));
+		BeanClasses beanClasses = new BeanClasses();
+		beanClasses.setStates(Set.of(String.class, Integer.class));
+		beanClasses.setTransitions(Collections.emptySet());
+		beanClasses.setEventValidators(Set.of(Validator.class));
+		beanClasses.setModules(Set.of(Module.class));
+		
+		assertNull(deployCache.load("cafe"));
+		deployCache.store("cafe", beanClasses, provide(), DECLARATION);
+		BeanClasses loaded = deployCache.load("cafe").loadBeanClasses(getClass().getClassLoader());
+		
+		assertEquals(loaded.getStates(), beanClasses.getStates());
+		assertEquals(loaded.getTransitions(), beanClasses.getTransitions());
+		assertEquals(loaded.getEventValidators(), beanClasses.getEventValidators());
+		assertEquals(loaded.getModules(), beanClasses.getModules());
+	}
+
+	@Test
+	public void testNotStoringWiredBeanClasses() throws Exception {
+		DeployCache deployCache = new DeployCache(Files.createTempDirectory("deploy-cache"));
+		BeanClasses beanClasses = new BeanClasses();
+		beanClasses.setWiring(new Wiring());
+		
+		deployCache.store("cafe", beanClasses, provide(), DECLARATION);
+		DeployCache.Entry entry = deployCache.load("cafe");
+		
+		assertNotNull(entry);
+		assertNull(entry.loadBeanClasses(getClass().getClassLoader()));
+	}
+
+	@Test
+	public void testLoadingTheCompiledDeclaration() throws Exception {
+		DeployCache deployCache = new DeployCache(Files.createTempDirectory("deploy-cache"));
+		BeanClasses beanClasses = new BeanClasses();
+		beanClasses.setWiring(new Wiring());
+		EffectiveXmlStateMachine stateMachine = provide();
+		
+		deployCache.store("cafe", beanClasses, stateMachine, DECLARATION);
+		DeployCache.Entry entry = deployCache.load("cafe");
+		EffectiveXmlStateMachine loaded = entry.loadDeclaration(DECLARATION);
+		
+		assertNotNull(loaded);
+		assertEquals(loaded.getName(), stateMachine.getName());
+		assertEquals(loaded.getStates(), stateMachine.getStates());
+		assertNull(entry.loadDeclaration(new String(DECLARATION, StandardCharsets.UTF_8).replace("pay", "ship")
+				.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static EffectiveXmlStateMachine provide() throws Exception {
+		return new XmlDeclarationProvider().provide(new ByteArrayInputStream(DECLARATION));
+	}
+
+	/**
+	 * @author Matthias Rothe
+	 */
+	public static class Validator implements EventValidator {
+		
+		@Override
+		public boolean isValidEvent(final Event event) {
+			return true;
+		}
+	}
+
+	/**
+	 * @author Matthias Rothe
+	 */
+	public static class Module extends AbstractModule {
+	}
+}
@@ -16,12 +16,23 @@
 
 package org.jallaby.beans;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 import org.jallaby.JallabyRegistry;
+import org.jallaby.beans.wiring.Wiring;
 import org.testng.annotations.Test;
 
 /**
@@ -39,18 +50,33 @@ public class StateMachineBuilderTest {
 		Path path = Paths.get(currentDirectory + "\\deploy\\sample\\sample.sma");
 		
 		StateMachineBuilder builder = new StateMachineBuilder(jallabyRegistry, beansRegistry, stateMachines, path);
-		builder.start();
-		
-		waitForBuilderToFinish(builder);
+		builder.run();
 	}
 
-	private void waitForBuilderToFinish(StateMachineBuilder builder) {
-		while (builder.isAlive()) {
-			try {
-				Thread.sleep(500);
-			} catch (InterruptedException e) {
-				return;
+	@Test
+	public void shouldFindClassesOfTheBasePackagesNotListedByTheWiring() throws IOException {
+		Path archive = Files.createTempFile("partial", ".sma");
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue("base-packages", "com.example");
+		
+		try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(archive), manifest)) {
+			for (String entry : new String[] {"com/example/JallabyWiring.class", "com/example/Idle.class",
+					"com/example/Idle$Helper.class", "com/example/Busy.class", "org/other/Library.class"}) {
+				jar.putNextEntry(new JarEntry(entry));
+				jar.closeEntry();
 			}
 		}
+		
+		try (JarFile jarFile = new JarFile(archive.toFile())) {
+			Wiring wiring = new Wiring().compiled("com.example.Idle");
+			assertEquals(StateMachineBuilder.findUnlistedClass(jarFile, wiring, "com.example.JallabyWiring"),
+					"com.example.Busy");
+			
+			wiring.compiled("com.example.Busy");
+			assertNull(StateMachineBuilder.findUnlistedClass(jarFile, wiring, "com.example.JallabyWiring"));
+		} finally {
+			Files.delete(archive);
+		}
 	}
 }
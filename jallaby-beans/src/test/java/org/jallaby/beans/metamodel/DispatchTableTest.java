@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.metamodel;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jallaby.beans.xml.model.effective.EffectiveXmlEvent;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlTransition;
+import org.jallaby.execution.Transition;
+import org.testng.annotations.Test;
+
+/**
+ * @author Matthias Rothe
+ */
+public class DispatchTableTest {
+	
+	@Test
+	public void testDispatchingSingleAndCombinedEvents() {
+		EffectiveXmlState waiting = new EffectiveXmlState(null, "waiting", Set.of(
+				new EffectiveXmlTransition("paid", Set.of("pay")),
+				new EffectiveXmlTransition("shipped", Set.of("pack", "label"))));
+		EffectiveXmlState paid = new EffectiveXmlState(null, "paid", Set.of());
+		
+		DispatchTable table = new DispatchTable(List.of(waiting, paid), List.of(
+				new EffectiveXmlEvent("pay", Set.of()), new EffectiveXmlEvent("pack", Set.of()),
+				new EffectiveXmlEvent("label", Set.of())));
+		
+		Map<String, Transition> transitions = new HashMap<>();
+		table.link((from, to) -> transitions.computeIfAbsent(from + "->" + to,
+				name -> mock(Transition.class)));
+		
+		int state = table.getStateId("waiting");
+		int pay = table.getEventId("pay");
+		int pack = table.getEventId("pack");
+		int label = table.getEventId("label");
+		
+		long offered = table.offer(state, 0, pay);
+		assertNotEquals(offered, 0L);
+		assertSame(table.getTransition(state, offered, pay), transitions.get("waiting->paid"));
+		
+		offered = table.offer(state, 0, pack);
+		assertNotEquals(offered, 0L);
+		assertNull(table.getTransition(state, offered, pack));
+		assertEquals(table.offer(state, offered, pay), 0L);
+		
+		offered = table.offer(state, offered, label);
+		assertSame(table.getTransition(state, offered, label), transitions.get("waiting->shipped"));
+		
+		assertEquals(table.offer(table.getStateId("paid"), 0, pay), 0L);
+		assertEquals(table.offer(state, 0, table.getEventId("unknown")), 0L);
+	}
+
+	@Test
+	public void testDispatchingEventsOfStateReferencingMoreThan64Events() {
+		Set<EffectiveXmlTransition> xmlTransitions = new HashSet<>();
+		List<EffectiveXmlEvent> events = new ArrayList<>();
+		
+		for (int i = 0; i < 70; i++) {
+			xmlTransitions.add(new EffectiveXmlTransition("single" + i, Set.of("event" + i)));
+			events.add(new EffectiveXmlEvent("event" + i, Set.of()));
+		}
+		
+		xmlTransitions.add(new EffectiveXmlTransition("combined", Set.of("event3", "event66")));
+		EffectiveXmlState busy = new EffectiveXmlState(null, "busy", xmlTransitions);
+		
+		DispatchTable table = new DispatchTable(List.of(busy), events);
+		
+		Map<String, Transition> transitions = new HashMap<>();
+		table.link((from, to) -> transitions.computeIfAbsent(to, name -> mock(Transition.class)));
+		
+		int state = table.getStateId("busy");
+		assertEquals(table.getMaskWords(state), 2);
+		
+		for (int i = 0; i < 70; i++) {
+			long[] offered = new long[2];
+			int event = table.getEventId("event" + i);
+			
+			assertTrue(table.offer(state, offered, event));
+			assertSame(table.getTransition(state, offered, event), transitions.get("single" + i));
+		}
+		
+		long[] offered = new long[2];
+		assertTrue(table.offer(state, offered, table.getEventId("event66")));
+		assertFalse(table.offer(state, offered, table.getEventId("event5")));
+		assertTrue(table.offer(state, offered, table.getEventId("event3")));
+		assertSame(table.getTransition(state, offered, table.getEventId("event3")), transitions.get("combined"));
+		assertFalse(table.offer(state, new long[2], table.getEventId("unknown")));
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.metamodel;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.jallaby.beans.wiring.Wiring;
+import org.jallaby.execution.FinishState;
+import org.testng.annotations.Test;
+
+/**
+ * @author Matthias Rothe
+ */
+public class InvokersTest {
+	private static final Map<String, Map<String, Object>> EVENT_DATA = Map.of("pay", Map.of("amount", 42));
+	
+	@Test
+	public void testBindingGuardsWithAndWithoutEventData() throws Exception {
+		Bean bean = new Bean();
+		
+		assertTrue(Invokers.bindGuard(bean, Bean.class.getMethod("isPaid", Map.class)).test(EVENT_DATA));
+		assertFalse(Invokers.bindGuard(bean, Bean.class.getMethod("isShipped")).test(EVENT_DATA));
+		assertTrue(Invokers.bindGuard(bean, Bean.class.getMethod("isBoxed")).test(EVENT_DATA));
+	}
+
+	@Test
+	public void testBindingActionsWithAndWithoutEventData() throws Exception {
+		Bean bean = new Bean();
+		
+		Invokers.bindAction(bean, Bean.class.getMethod("pay", Map.class)).accept(EVENT_DATA);
+		Invokers.bindAction(bean, Bean.class.getMethod("ship")).accept(EVENT_DATA);
+		
+		assertEquals(bean.calls, List.of("pay 42", "ship"));
+	}
+
+	@Test
+	public void testBindingFunctionsKeepingTheirResult() throws Exception {
+		Bean bean = new Bean();
+		
+		assertSame(Invokers.bindFunction(bean, Bean.class.getMethod("finish", Map.class)).apply(EVENT_DATA),
+				FinishState.FINISHED);
+		assertNull(Invokers.bindFunction(bean, Bean.class.getMethod("pay", Map.class)).apply(EVENT_DATA));
+	}
+
+	@Test
+	public void testCheckingTheShapeOfMethods() throws Exception {
+		assertTrue(Invokers.takesEventDataAsOnlyParameter(Bean.class.getMethod("pay", Map.class)));
+		assertFalse(Invokers.takesEventDataAsOnlyParameter(Bean.class.getMethod("ship")));
+		assertTrue(Invokers.takesEventDataOrNoParameter(Bean.class.getMethod("ship")));
+		assertFalse(Invokers.takesEventDataOrNoParameter(Bean.class.getMethod("label", String.class)));
+	}
+
+	@Test
+	public void testBindingBeansOfOtherClassLoaders() throws Exception {
+		URL classes = Counter.class.getProtectionDomain().getCodeSource().getLocation();
+		
+		try (URLClassLoader classLoader = new URLClassLoader(new URL[] {classes},
+				ClassLoader.getPlatformClassLoader())) {
+			Class<?> counterClass = classLoader.loadClass(Counter.class.getName());
+			Object counter = counterClass.getConstructor().newInstance();
+			
+			Invokers.bindAction(counter, counterClass.getMethod("increment")).accept(EVENT_DATA);
+			Invokers.bindAction(counter, counterClass.getMethod("increment")).accept(EVENT_DATA);
+			
+			assertEquals(counterClass.getMethod("getCount").invoke(counter), 2);
+		}
+	}
+
+	@Test
+	public void testPreferringWiredMethods() throws Exception {
+		Bean bean = new Bean();
+		Wiring wiring = new Wiring()
+				.guard(Bean.class, "isShipped", 0, (target, eventData) -> true)
+				.action(Bean.class, "ship", 0, (target, eventData) -> target.calls.add("wired ship"));
+		
+		assertTrue(Invokers.bindGuard(wiring, Bean.class, bean, Bean.class.getMethod("isShipped"))
+				.test(EVENT_DATA));
+		Invokers.bindAction(wiring, Bean.class, bean, Bean.class.getMethod("ship")).accept(EVENT_DATA);
+		Invokers.bindAction(wiring, Bean.class, bean, Bean.class.getMethod("pay", Map.class)).accept(EVENT_DATA);
+		
+		assertEquals(bean.calls, List.of("wired ship", "pay 42"));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testRejectingUnsupportedShapes() throws Exception {
+		Invokers.bindAction(new Bean(), Bean.class.getMethod("label", String.class));
+	}
+
+	/**
+	 * @author Matthias Rothe
+	 */
+	public static class Bean {
+		private final List<String> calls = new ArrayList<>();
+		
+		public boolean isPaid(final Map<String, Map<String, Object>> eventData) {
+			return eventData.containsKey("pay");
+		}
+
+		public boolean isShipped() {
+			return false;
+		}
+
+		public Boolean isBoxed() {
+			return Boolean.TRUE;
+		}
+
+		public void pay(final Map<String, Map<String, Object>> eventData) {
+			calls.add("pay " + eventData.get("pay").get("amount"));
+		}
+
+		public void ship() {
+			calls.add("ship");
+		}
+
+		public FinishState finish(final Map<String, Map<String, Object>> eventData) {
+			return FinishState.FINISHED;
+		}
+
+		public void label(final String label) {
+			calls.add(label);
+		}
+	}
+
+	/**
+	 * @author Matthias Rothe
+	 */
+	public static class Counter {
+		private int count;
+		
+		public void increment() {
+			count++;
+		}
+
+		public int getCount() {
+			return count;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.metamodel;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jallaby.beans.BeansRegistry;
+import org.jallaby.beans.annotations.ActionGroup;
+import org.jallaby.beans.annotations.Concurrency;
+import org.jallaby.beans.annotations.EntryAction;
+import org.jallaby.beans.annotations.State;
+import org.jallaby.beans.annotations.Transition;
+import org.jallaby.beans.annotations.TransitionAction;
+import org.jallaby.beans.annotations.TransitionGuard;
+import org.jallaby.beans.metamodel.sourcing.BeanClasses;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.sourcing.XmlDeclarationProvider;
+import org.testng.annotations.Test;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+/**
+ * @author Matthias Rothe
+ */
+public class WarmUpTest {
+	private static final List<String> CALLS = Collections.synchronizedList(new ArrayList<>());
+	private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE state-machine [\n"
+			+ "<!ELEMENT state-machine (event+, state+)>\n"
+			+ "<!ATTLIST state-machine name CDATA #REQUIRED initial-state CDATA #REQUIRED>\n"
+			+ "<!ELEMENT event EMPTY>\n"
+			+ "<!ATTLIST event name CDATA #REQUIRED>\n"
+			+ "<!ELEMENT state (transition*)>\n"
+			+ "<!ATTLIST state name CDATA #REQUIRED>\n"
+			+ "<!ELEMENT transition (event-ref+)>\n"
+			+ "<!ATTLIST transition to CDATA #REQUIRED>\n"
+			+ "<!ELEMENT event-ref EMPTY>\n"
+			+ "<!ATTLIST event-ref name CDATA #REQUIRED>\n"
+			+ "]>\n"
+			+ "<state-machine name=\"Order\" initial-state=\"waiting\">\n"
+			+ "<event name=\"pay\"/><event name=\"pack\"/><event name=\"label\"/>\n"
+			+ "<state name=\"waiting\"><transition to=\"paid\"><event-ref name=\"pay\"/></transition></state>\n"
+			+ "<state name=\"paid\"><transition to=\"shipped\"><event-ref name=\"pack\"/>"
+			+ "<event-ref name=\"label\"/></transition></state>\n"
+			+ "<state name=\"shipped\"/>\n"
+			+ "</state-machine>\n";
+	
+	@Test
+	public void testWalkingTheStateMachineWithoutCallingTheBeans() throws Exception {
+		EffectiveXmlStateMachine xmlStateMachine = new XmlDeclarationProvider().provide(
+				new ByteArrayInputStream(DECLARATION.getBytes(StandardCharsets.UTF_8)));
+		BeanClasses beanClasses = new BeanClasses();
+		beanClasses.setStates(Set.of(Waiting.class, Paid.class, Shipped.class));
+		beanClasses.setTransitions(Set.of(Shipping.class));
+		beanClasses.setEventValidators(Collections.emptySet());
+		beanClasses.setModules(Collections.emptySet());
+		
+		BeansRegistry beansRegistry = new BeansRegistry();
+		Injector injector = Guice.createInjector();
+		DispatchTable dispatchTable = new DispatchTable(xmlStateMachine);
+		MetaState waiting = new MetaState("waiting", beanClasses, xmlStateMachine, beansRegistry, injector,
+				dispatchTable);
+		dispatchTable.link((fromState, toState) -> new MetaTransition(fromState, toState, beanClasses,
+				xmlStateMachine, beansRegistry, injector, dispatchTable));
+		CALLS.clear();
+		
+		int transitions = new WarmUp().run("Order/warm-up", beanClasses, xmlStateMachine, injector, 30);
+		
+		assertEquals(transitions, 20);
+		assertEquals(CALLS, Collections.emptyList());
+		assertSame(beansRegistry.getState("Order", "waiting"), waiting);
+		assertFalse(beanClasses.isStubbed());
+	}
+
+	/**
+	 * @author Matthias Rothe
+	 */
+	@State(name = "waiting")
+	public static class Waiting {
+		
+		@EntryAction
+		public void enter(final Map<String, Map<String, Object>> eventData) {
+			CALLS.add("enter waiting");
+		}
+	}
+
+	/**
+	 * @author Matthias Rothe
+	 */
+	@State(name = "paid")
+	public static class Paid {
+		
+		@EntryAction
+		public void enter(final Map<String, Map<String, Object>> eventData) {
+			CALLS.add("enter paid");
+		}
+	}
+
+	/**
+	 * @author Matthias Rothe
+	 */
+	@State(name = "shipped")
+	public static class Shipped {
+	}
+
+	/**
+	 * @author Matthias Rothe
+	 */
+	@Transition(fromState = "paid", toState = "shipped", actionGroups = @ActionGroup(name = "ship",
+		concurrency = Concurrency.SEQUENTIAL))
+	public static class Shipping {
+		
+		@TransitionGuard
+		public boolean isLabelled() {
+			CALLS.add("guard");
+			return false;
+		}
+
+		@TransitionAction(group = "ship")
+		public void ship() {
+			CALLS.add("ship");
+		}
+	}
+}
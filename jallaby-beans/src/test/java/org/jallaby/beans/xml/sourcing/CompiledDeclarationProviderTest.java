@@ -0,0 +1,144 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.xml.sourcing;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import org.jallaby.beans.xml.model.XmlStateInfo;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlTransition;
+import org.testng.annotations.Test;
+
+/**
+ * @author Matthias Rothe
+ */
+public class CompiledDeclarationProviderTest {
+	private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE state-machine [\n"
+			+ "<!ELEMENT state-machine (event+, state+)>\n"
+			+ "<!ATTLIST state-machine name CDATA #REQUIRED initial-state CDATA #REQUIRED>\n"
+			+ "<!ELEMENT event (property*)>\n"
+			+ "<!ATTLIST event name CDATA #REQUIRED>\n"
+			+ "<!ELEMENT property EMPTY>\n"
+			+ "<!ATTLIST property name CDATA #REQUIRED type CDATA #REQUIRED>\n"
+			+ "<!ELEMENT state (transition*)>\n"
+			+ "<!ATTLIST state name CDATA #REQUIRED extends CDATA #IMPLIED modifier CDATA #IMPLIED"
+			+ " after CDATA #IMPLIED timeout-event CDATA #IMPLIED>\n"
+			+ "<!ELEMENT transition (event-ref+)>\n"
+			+ "<!ATTLIST transition to CDATA #REQUIRED>\n"
+			+ "<!ELEMENT event-ref EMPTY>\n"
+			+ "<!ATTLIST event-ref name CDATA #REQUIRED>\n"
+			+ "]>\n"
+			+ "<state-machine name=\"CoffeeMachine\" initial-state=\"SwitchedOff\">\n"
+			+ "<event name=\"switchOn\"/><event name=\"switchOff\"/><event name=\"finish\"/>\n"
+			+ "<event name=\"makeCoffee\"><property name=\"sugar\" type=\"boolean\"/></event>\n"
+			+ "<state name=\"SwitchedOff\"><transition to=\"Idle\"><event-ref name=\"switchOn\"/></transition></state>\n"
+			+ "<state name=\"SwitchedOn\"><transition to=\"SwitchedOff\"><event-ref name=\"switchOff\"/>"
+			+ "</transition></state>\n"
+			+ "<state name=\"Idle\" extends=\"SwitchedOn\" after=\"60000\" timeout-event=\"switchOff\">"
+			+ "<transition to=\"MakingCoffee\">"
+			+ "<event-ref name=\"makeCoffee\"/></transition></state>\n"
+			+ "<state name=\"Finishable\" extends=\"SwitchedOn\" modifier=\"abstract\"><transition to=\"Idle\">"
+			+ "<event-ref name=\"finish\"/></transition></state>\n"
+			+ "<state name=\"MakingCoffee\" extends=\"Finishable\"/>\n"
+			+ "</state-machine>\n";
+	
+	@Test
+	public void shouldProvideTheCompiledStateMachine() throws Exception {
+		byte[] declaration = DECLARATION.getBytes(StandardCharsets.UTF_8);
+		EffectiveXmlStateMachine expected = new XmlDeclarationProvider().provide(
+				new ByteArrayInputStream(declaration));
+		
+		EffectiveXmlStateMachine actual = new CompiledDeclarationProvider().provide(
+				ByteBuffer.wrap(compile(expected, declaration)), declaration);
+		
+		assertNotNull(actual);
+		assertEquals(actual.getName(), expected.getName());
+		assertEquals(actual.getInitialState(), expected.getInitialState());
+		assertEquals(actual.getEvents(), expected.getEvents());
+		assertEquals(actual.getStates(), expected.getStates());
+		assertEquals(actual.getStateByName("Idle").getAfter(), Long.valueOf(60000));
+		
+		for (EffectiveXmlState expectedState : expected.getStates()) {
+			EffectiveXmlState actualState = actual.getStateByName(expectedState.getName());
+			assertEquals(actualState.getTransitions(), expectedState.getTransitions());
+			assertEquals(actualState.getAfter(), expectedState.getAfter());
+			assertEquals(actualState.getTimeoutEvent(), expectedState.getTimeoutEvent());
+			
+			for (EffectiveXmlTransition transition : expectedState.getTransitions()) {
+				XmlStateInfo expectedInfo = expected.getXmlTargetStateInfo(expectedState.getName(),
+						transition.getTo());
+				XmlStateInfo actualInfo = actual.getXmlTargetStateInfo(expectedState.getName(),
+						transition.getTo());
+				
+				assertEquals(actualInfo.getStatesToExit(), expectedInfo.getStatesToExit());
+				assertEquals(names(actualInfo), names(expectedInfo));
+			}
+		}
+	}
+
+	@Test
+	public void shouldNotProvideFromStaleCompiledDeclaration() throws Exception {
+		byte[] declaration = DECLARATION.getBytes(StandardCharsets.UTF_8);
+		byte[] compiled = compile(new XmlDeclarationProvider().provide(
+				new ByteArrayInputStream(declaration)), declaration);
+		byte[] changedDeclaration = DECLARATION.replace("sugar", "milk").getBytes(StandardCharsets.UTF_8);
+		
+		assertNull(new CompiledDeclarationProvider().provide(ByteBuffer.wrap(compiled), changedDeclaration));
+	}
+
+	@Test
+	public void shouldNotProvideFromCompiledDeclarationOfAnotherFormatVersion() throws Exception {
+		byte[] declaration = DECLARATION.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer compiled = ByteBuffer.wrap(compile(new XmlDeclarationProvider().provide(
+				new ByteArrayInputStream(declaration)), declaration));
+		compiled.putInt(Integer.BYTES, 2);
+		
+		assertNull(new CompiledDeclarationProvider().provide(compiled, declaration));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void shouldNotProvideFromCorruptCompiledDeclaration() throws Exception {
+		byte[] declaration = DECLARATION.getBytes(StandardCharsets.UTF_8);
+		byte[] compiled = compile(new XmlDeclarationProvider().provide(
+				new ByteArrayInputStream(declaration)), declaration);
+		
+		new CompiledDeclarationProvider().provide(ByteBuffer.wrap(Arrays.copyOf(compiled, compiled.length - 1)),
+				declaration);
+	}
+
+	private byte[] compile(final EffectiveXmlStateMachine stateMachine, final byte[] declaration)
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new CompiledDeclarationProvider().compile(stateMachine, declaration, out);
+		return out.toByteArray();
+	}
+
+	private String names(final XmlStateInfo stateInfo) {
+		return stateInfo.getXmlStates().stream().map(EffectiveXmlState::getName).collect(Collectors.joining(","));
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.beans.xml.sourcing;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * @author Matthias Rothe
+ */
+public class StreamingXmlDeclarationProviderTest {
+	private static final String STATE_MACHINE = "<state-machine name=\"CoffeeMachine\" initial-state=\"SwitchedOff\">\n"
+			+ "<event name=\"switchOn\"/><event name=\"switchOff\"/><event name=\"finish\"/>\n"
+			+ "<event name=\"makeCoffee\"><property name=\"sugar\" type=\"boolean\"/></event>\n"
+			+ "<state name=\"SwitchedOff\"><transition to=\"Idle\"><event-ref name=\"switchOn\"/></transition></state>\n"
+			+ "<state name=\"SwitchedOn\"><transition to=\"SwitchedOff\"><event-ref name=\"switchOff\"/>"
+			+ "</transition></state>\n"
+			+ "<state name=\"Idle\" extends=\"SwitchedOn\"><transition to=\"MakingCoffee\">"
+			+ "<event-ref name=\"makeCoffee\"/></transition></state>\n"
+			+ "<state name=\"Finishable\" extends=\"SwitchedOn\" modifier=\"abstract\"><transition to=\"Idle\">"
+			+ "<event-ref name=\"finish\"/></transition></state>\n"
+			+ "<state name=\"MakingCoffee\" extends=\"Finishable\"/>\n"
+			+ "</state-machine>\n";
+	
+	private String doctype;
+	
+	@BeforeClass
+	public void readDtd() throws Exception {
+		try (InputStream in = getClass().getResourceAsStream("/org/jallaby/jallaby-beans/jallaby-beans-1.0.dtd")) {
+			doctype = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!DOCTYPE state-machine [\n"
+					+ StandardCharsets.UTF_8.decode(ByteBuffer.wrap(in.readAllBytes())) + "\n]>\n";
+		}
+	}
+
+	@Test
+	public void shouldProvideTheSameStateMachineAsTheTreeBuildingProvider() throws Exception {
+		EffectiveXmlStateMachine expected = new XmlDeclarationProvider().provide(stream(doctype + STATE_MACHINE));
+		EffectiveXmlStateMachine actual = new StreamingXmlDeclarationProvider().provide(
+				stream(doctype + STATE_MACHINE));
+		
+		assertEquals(actual.getName(), expected.getName());
+		assertEquals(actual.getInitialState(), expected.getInitialState());
+		assertEquals(actual.getEvents(), expected.getEvents());
+		assertEquals(actual.getStates(), expected.getStates());
+		
+		for (EffectiveXmlState state : expected.getStates()) {
+			assertEquals(actual.getStateByName(state.getName()).getTransitions(), state.getTransitions());
+		}
+	}
+
+	@Test(expectedExceptions = XMLStreamException.class)
+	public void shouldNotProvideStateMachineWithStateBeforeEvent() throws Exception {
+		new StreamingXmlDeclarationProvider().provide(stream(STATE_MACHINE.replace(
+				"<event name=\"switchOn\"/>", "<state name=\"Early\"/><event name=\"switchOn\"/>")));
+	}
+
+	@Test(expectedExceptions = XMLStreamException.class)
+	public void shouldNotProvideStateMachineWithUndeclaredModifier() throws Exception {
+		new StreamingXmlDeclarationProvider().provide(stream(STATE_MACHINE.replace("abstract", "sealed")));
+	}
+
+	@Test(expectedExceptions = XMLStreamException.class)
+	public void shouldNotProvideStateMachineWithTransitionWithoutEventRef() throws Exception {
+		new StreamingXmlDeclarationProvider().provide(stream(STATE_MACHINE.replace(
+				"<event-ref name=\"finish\"/>", "")));
+	}
+
+	@Test(expectedExceptions = InvalidStateMachineException.class)
+	public void shouldNotProvideStateMachineWithUnknownEventRef() throws Exception {
+		new StreamingXmlDeclarationProvider().provide(stream(STATE_MACHINE.replace(
+				"<event-ref name=\"finish\"/>", "<event-ref name=\"unknown\"/>")));
+	}
+
+	@Test
+	public void shouldProvideValidatedStateMachineWithoutApplyingTheDtd() throws Exception {
+		EffectiveXmlStateMachine stateMachine = new StreamingXmlDeclarationProvider().provideValidated(
+				stream(STATE_MACHINE.replace("<state name=\"MakingCoffee\"",
+						"<state name=\"MakingCoffee\" color=\"brown\"")));
+		
+		assertEquals(stateMachine.getName(), "CoffeeMachine");
+	}
+
+	private InputStream stream(final String declaration) {
+		return new ByteArrayInputStream(declaration.getBytes(StandardCharsets.UTF_8));
+	}
+}
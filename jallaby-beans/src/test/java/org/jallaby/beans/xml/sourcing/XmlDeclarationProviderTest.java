@@ -16,6 +16,7 @@
 
 package org.jallaby.beans.xml.sourcing;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 
 import java.util.ArrayList;
@@ -23,6 +24,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.jallaby.beans.xml.model.XmlModifier;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
 import org.jdom2.Element;
 import org.testng.annotations.Test;
 
@@ -175,6 +177,45 @@ public class XmlDeclarationProviderTest {
 		provider.provideFromRootElement(root);
 	}
 
+	@Test
+	public void testStateWithTimeout() throws InvalidStateMachineException {
+		Element root = new Element("state-machine");
+		
+		root.setAttribute("name", "CoffeeMachine");
+		root.setAttribute("initial-state", "SwitchedOff");
+		
+		List<Element> events = buildEventElements();
+		List<Element> states = buildStateElements();
+		states.get(2).setAttribute("after", "60000").setAttribute("timeout-event", "switchOff");
+		
+		root.addContent(events);
+		root.addContent(states);
+		
+		XmlDeclarationProvider provider = new XmlDeclarationProvider();
+		EffectiveXmlState idle = provider.provideFromRootElement(root).getStateByName("Idle");
+		
+		assertEquals(idle.getAfter(), Long.valueOf(60000));
+		assertEquals(idle.getTimeoutEvent(), "switchOff");
+	}
+
+	@Test(expectedExceptions = InvalidStateMachineException.class)
+	public void testStateWithTimeoutMissingItsEvent() throws InvalidStateMachineException {
+		Element root = new Element("state-machine");
+		
+		root.setAttribute("name", "CoffeeMachine");
+		root.setAttribute("initial-state", "SwitchedOff");
+		
+		List<Element> events = buildEventElements();
+		List<Element> states = buildStateElements();
+		states.get(2).setAttribute("after", "60000");
+		
+		root.addContent(events);
+		root.addContent(states);
+		
+		XmlDeclarationProvider provider = new XmlDeclarationProvider();
+		provider.provideFromRootElement(root);
+	}
+
 	private List<Element> buildEventElements() {
 		List<Element> events = new ArrayList<>();
 		
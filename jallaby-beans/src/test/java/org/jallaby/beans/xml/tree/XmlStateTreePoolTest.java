@@ -69,6 +69,55 @@ public class XmlStateTreePoolTest {
 		assertEquals(stateInfo.getXmlStates().poll().getName(), "SwitchedOff");
 	}
 	
+	@Test(dataProvider = "provideDeepXmlStateTreePool")
+	public void testGetXmlTargetStateInfoBranchToTwig(final XmlStateTreePool pool) {
+		XmlStateInfo stateInfo = pool.getXmlTargetStateInfo("Branch", "Twig");
+		
+		assertEquals(stateInfo.getStatesToExit(), 0);
+		assertEquals(stateInfo.getXmlStates().size(), 2);
+		assertEquals(stateInfo.getXmlStates().poll().getName(), "Leaf");
+		assertEquals(stateInfo.getXmlStates().poll().getName(), "Twig");
+	}
+
+	@Test(dataProvider = "provideDeepXmlStateTreePool")
+	public void testGetXmlTargetStateInfoSiblingToTwig(final XmlStateTreePool pool) {
+		XmlStateInfo stateInfo = pool.getXmlTargetStateInfo("Sibling0", "Twig");
+		
+		assertEquals(stateInfo.getStatesToExit(), 1);
+		assertEquals(stateInfo.getXmlStates().size(), 2);
+		assertEquals(stateInfo.getXmlStates().poll().getName(), "Leaf");
+		assertEquals(stateInfo.getXmlStates().poll().getName(), "Twig");
+	}
+
+	@Test(dataProvider = "provideDeepXmlStateTreePool")
+	public void testGetXmlTargetStateInfoTwigToSibling(final XmlStateTreePool pool) {
+		XmlStateInfo stateInfo = pool.getXmlTargetStateInfo("Twig", "Sibling9");
+		
+		assertEquals(stateInfo.getStatesToExit(), 2);
+		assertEquals(stateInfo.getXmlStates().size(), 1);
+		assertEquals(stateInfo.getXmlStates().poll().getName(), "Sibling9");
+	}
+
+	@Test(dataProvider = "provideDeepXmlStateTreePool")
+	public void testGetXmlTargetStateInfoOtherToTwig(final XmlStateTreePool pool) {
+		XmlStateInfo stateInfo = pool.getXmlTargetStateInfo("Other", "Twig");
+		
+		assertEquals(stateInfo.getStatesToExit(), 1);
+		assertEquals(stateInfo.getXmlStates().size(), 3);
+		assertEquals(stateInfo.getXmlStates().poll().getName(), "Branch");
+		assertEquals(stateInfo.getXmlStates().poll().getName(), "Leaf");
+		assertEquals(stateInfo.getXmlStates().poll().getName(), "Twig");
+	}
+
+	@Test(dataProvider = "provideDeepXmlStateTreePool")
+	public void testGetXmlTargetStateInfoTwigToOther(final XmlStateTreePool pool) {
+		XmlStateInfo stateInfo = pool.getXmlTargetStateInfo("Twig", "Other");
+		
+		assertEquals(stateInfo.getStatesToExit(), 3);
+		assertEquals(stateInfo.getXmlStates().size(), 1);
+		assertEquals(stateInfo.getXmlStates().poll().getName(), "Other");
+	}
+
 	@DataProvider
 	public Object[][] provideXmlStateTreePool() {
 		XmlTransition switchedOffToIdle = new XmlTransition();
@@ -120,4 +169,29 @@ public class XmlStateTreePoolTest {
 
 		return new Object[][] {{ pool }};
 	}
+
+	@DataProvider
+	public Object[][] provideDeepXmlStateTreePool() {
+		XmlStateTreePool pool = new XmlStateTreePool();
+		pool.add(makeState("Twig", "Leaf", null));
+		pool.add(makeState("Leaf", "Branch", null));
+		pool.add(makeState("Branch", "Group", null));
+		pool.add(makeState("Group", null, XmlModifier.xmlAbstract));
+		pool.add(makeState("Other", null, null));
+		
+		for (int i = 0; i < 10; i++) {
+			pool.add(makeState("Sibling" + i, "Branch", null));
+		}
+		
+		return new Object[][] {{ pool }};
+	}
+
+	private XmlState makeState(final String name, final String xmlExtends, final XmlModifier modifier) {
+		XmlState state = new XmlState();
+		state.setName(name);
+		state.setXmlExtends(xmlExtends);
+		state.setModifier(modifier);
+		state.setTransitions(new HashSet<>());
+		return state;
+	}
 }
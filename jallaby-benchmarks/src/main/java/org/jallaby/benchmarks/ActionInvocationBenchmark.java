@@ -0,0 +1,130 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jallaby.benchmarks;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.jallaby.benchmarks.beans.OrderActions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the ways of invoking an action method of a bean: reflectively, as the beans
+ * invoke their actions today, through a method handle, through a class generated by the
+ * {@link LambdaMetafactory}, and directly as the baseline.
+ * 
+ * @author Matthias Rothe
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ActionInvocationBenchmark {
+	private static final Method METHOD;
+	private static final MethodHandle HANDLE;
+	private static final BiConsumer<OrderActions, Map<String, Map<String, Object>>> GENERATED;
+	
+	private final OrderActions bean = new OrderActions();
+	private final Map<String, Map<String, Object>> eventData = Collections.emptyMap();
+	
+	static {
+		try {
+			METHOD = OrderActions.class.getMethod("ship", Map.class);
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			HANDLE = lookup.unreflect(METHOD);
+			GENERATED = generate(lookup, HANDLE);
+		} catch (Throwable t) {
+			throw new ExceptionInInitializerError(t);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static BiConsumer<OrderActions, Map<String, Map<String, Object>>> generate(
+			final MethodHandles.Lookup lookup, final MethodHandle handle) throws Throwable {
+		return (BiConsumer<OrderActions, Map<String, Map<String, Object>>>) LambdaMetafactory.metafactory(
+				lookup, "accept", MethodType.methodType(BiConsumer.class),
+				MethodType.methodType(void.class, Object.class, Object.class), handle,
+				handle.type()).getTarget().invoke();
+	}
+
+	/**
+	 * @throws Exception if the invocation fails
+	 */
+	@Benchmark
+	public void reflective() throws Exception {
+		METHOD.invoke(bean, eventData);
+	}
+
+	/**
+	 * @throws Throwable if the invocation fails
+	 */
+	@Benchmark
+	public void methodHandle() throws Throwable {
+		HANDLE.invokeExact(bean, eventData);
+	}
+
+	/**
+	 * Invokes the action through the generated class.
+	 */
+	@Benchmark
+	public void generated() {
+		GENERATED.accept(bean, eventData);
+	}
+
+	/**
+	 * Invokes the action directly.
+	 */
+	@Benchmark
+	public void direct() {
+		bean.ship(eventData);
+	}
+
+	/**
+	 * @throws Exception if the invocation fails
+	 */
+	@Benchmark
+	@Threads(4)
+	public void reflectiveContended() throws Exception {
+		METHOD.invoke(bean, eventData);
+	}
+
+	/**
+	 * Invokes the action through the generated class.
+	 */
+	@Benchmark
+	@Threads(4)
+	public void generatedContended() {
+		GENERATED.accept(bean, eventData);
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jallaby.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jallaby.beans.BeansRegistry;
+import org.jallaby.beans.metamodel.DispatchTable;
+import org.jallaby.beans.metamodel.MetaState;
+import org.jallaby.beans.metamodel.sourcing.BeanClasses;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.sourcing.XmlDeclarationProvider;
+import org.jallaby.execution.FinishState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.inject.Guice;
+
+/**
+ * Compares invoking the entry action of a state whose bean is loaded by the class loader of a
+ * generated state machine archive, as bound by {@link MetaState} without the wiring of the
+ * archive, to invoking it reflectively. Unlike the beans of {@link ActionInvocationBenchmark},
+ * such beans live in another module than the beans layer, just like the beans of a deployed
+ * state machine archive.
+ * 
+ * @author Matthias Rothe
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchiveActionBenchmark {
+	private static final String NAME = "ArchiveActionBenchmark";
+	
+	private final Map<String, Map<String, Object>> eventData = Collections.emptyMap();
+	
+	private Path directory;
+	private Path archive;
+	private URLClassLoader classLoader;
+	private MetaState state;
+	private Object bean;
+	private Method entryAction;
+	
+	/**
+	 * Generates the archive and builds its initial state from the bean loaded by the class loader
+	 * of the archive.
+	 * 
+	 * @throws Exception if the archive can't be generated or its bean can't be loaded
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		MachineShape shape = new MachineShape(NAME, 1, 2, 1, 0);
+		SmaGenerator generator = new SmaGenerator();
+		directory = Files.createTempDirectory("jallaby-benchmark");
+		archive = generator.generate(shape, directory);
+		classLoader = new URLClassLoader(new URL[] {archive.toUri().toURL()}, getClass().getClassLoader());
+		
+		String packageName = "loadgen." + NAME.toLowerCase(Locale.ROOT);
+		Class<?> initialClass = classLoader.loadClass(packageName + ".S0");
+		Class<?> nextClass = classLoader.loadClass(packageName + ".S1");
+		EffectiveXmlStateMachine xmlStateMachine = new XmlDeclarationProvider().provide(
+				new ByteArrayInputStream(generator.declaration(shape).getBytes(StandardCharsets.UTF_8)));
+		BeanClasses beanClasses = new BeanClasses();
+		beanClasses.setStates(Set.of(initialClass, nextClass));
+		beanClasses.setTransitions(Collections.emptySet());
+		beanClasses.setEventValidators(Collections.emptySet());
+		beanClasses.setModules(Collections.emptySet());
+		
+		state = new MetaState("s0", beanClasses, xmlStateMachine, new BeansRegistry(), Guice.createInjector(),
+				new DispatchTable(xmlStateMachine));
+		bean = initialClass.getConstructor().newInstance();
+		entryAction = initialClass.getMethod("enter", Map.class);
+	}
+
+	/**
+	 * Deletes the archive.
+	 * 
+	 * @throws Exception if the archive can't be deleted
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		classLoader.close();
+		Files.delete(archive);
+		Files.delete(directory);
+	}
+
+	/**
+	 * @return the finish state of the entry action
+	 */
+	@Benchmark
+	public FinishState bound() {
+		return state.performEntryAction(eventData);
+	}
+
+	/**
+	 * @return the result of the entry action
+	 * @throws Exception if the invocation fails
+	 */
+	@Benchmark
+	public Object reflective() throws Exception {
+		return entryAction.invoke(bean, eventData);
+	}
+}
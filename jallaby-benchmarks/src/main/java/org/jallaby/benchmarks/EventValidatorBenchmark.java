@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jallaby.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.jallaby.beans.DefaultEventValidator;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.sourcing.XmlDeclarationProvider;
+import org.jallaby.event.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link DefaultEventValidator#isValidEvent(Event)} on state machines declaring an
+ * increasing number of events. The event validated is the last one declared and carries a
+ * declared property.
+ * 
+ * @author Matthias Rothe
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventValidatorBenchmark {
+	
+	@Param({"10", "100", "1000"})
+	private int events;
+	
+	private DefaultEventValidator validator;
+	private Event event;
+	
+	/**
+	 * Builds the validator from the declaration of the state machine.
+	 * 
+	 * @throws Exception if the declaration is invalid
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		EffectiveXmlStateMachine xmlStateMachine = new XmlDeclarationProvider().provide(
+				new ByteArrayInputStream(StateMachines.ringDeclaration(events).getBytes(StandardCharsets.UTF_8)));
+		validator = new DefaultEventValidator(xmlStateMachine.getEvents());
+		event = new Event(xmlStateMachine.getName(), UUID.randomUUID().toString(), "event" + (events - 1),
+				Map.of("value", "42"));
+	}
+
+	/**
+	 * @return whether the event is valid
+	 */
+	@Benchmark
+	public boolean isValidEvent() {
+		return validator.isValidEvent(event);
+	}
+
+	/**
+	 * @return whether the event is valid
+	 */
+	@Benchmark
+	@Threads(4)
+	public boolean isValidEventContended() {
+		return validator.isValidEvent(event);
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.benchmarks;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives events over HTTP to instances of a state machine of a given {@link MachineShape} at a
+ * fixed arrival rate.
+ * <p>
+ * The driver is open-loop: requests are sent on schedule no matter how many responses are still
+ * outstanding, and latencies are measured from the scheduled send times (see
+ * {@link LoadReport}). The instances are addressed round-robin, each of them walking the ring of
+ * its state machine event by event. As long as an instance is addressed less often than its
+ * events take to process, its events thus arrive in order and are accepted.
+ * 
+ * @author Matthias Rothe
+ */
+final class LoadDriver {
+	private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+	
+	private final HttpClient client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(10))
+			.build();
+	private final AtomicLong outstanding = new AtomicLong();
+	private final URI baseUri;
+	private final MachineShape shape;
+	private final double rate;
+	private final UUID[] instances;
+	private final int[] positions;
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param baseUri the base URI of the Jallaby HTTP transport
+	 * @param shape the shape of the state machine to drive
+	 * @param rate the arrival rate in requests per second
+	 * @param instances the number of instances to spread the requests over
+	 */
+	LoadDriver(final URI baseUri, final MachineShape shape, final double rate, final int instances) {
+		Objects.requireNonNull(baseUri, "baseUri must not be null");
+		Objects.requireNonNull(shape, "shape must not be null");
+		
+		if (rate <= 0 || instances < 1) {
+			throw new IllegalArgumentException(String.format("rate [%s] or instances [%s] out of range",
+					rate, instances));
+		}
+		
+		this.baseUri = baseUri;
+		this.shape = shape;
+		this.rate = rate;
+		this.instances = new UUID[instances];
+		this.positions = new int[instances];
+		
+		for (int instance = 0; instance < instances; instance++) {
+			this.instances[instance] = UUID.randomUUID();
+		}
+	}
+
+	/**
+	 * Sends requests for the given warm-up and measurement phases and waits for the responses
+	 * still outstanding at the end, up to 30 seconds.
+	 * 
+	 * @param warmup the duration of the warm-up phase, whose responses are reported apart
+	 * @param duration the duration of the measurement phase
+	 * @return the reports of the warm-up and the measurement phase, in this order
+	 * @throws InterruptedException if interrupted while waiting for outstanding responses
+	 */
+	LoadReport[] run(final Duration warmup, final Duration duration) throws InterruptedException {
+		long warmupNanos = warmup.toNanos();
+		long endNanos = warmupNanos + duration.toNanos();
+		long start = System.nanoTime();
+		LoadReport warmupReport = new LoadReport(rate, start);
+		LoadReport report = new LoadReport(rate, start + warmupNanos);
+		
+		for (long request = 0;; request++) {
+			long offset = (long) (request * 1e9 / rate);
+			
+			if (offset >= endNanos) {
+				break;
+			}
+			
+			long intended = start + offset;
+			waitUntil(intended);
+			send((int) (request % instances.length), intended, offset < warmupNanos ? warmupReport : report);
+		}
+		
+		long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+		
+		while (outstanding.get() > 0 && System.nanoTime() - drainDeadline < 0) {
+			Thread.sleep(10);
+		}
+		
+		return new LoadReport[] {warmupReport, report};
+	}
+
+	private void waitUntil(final long intended) {
+		long remaining = intended - System.nanoTime();
+		
+		while (remaining > 0) {
+			if (remaining > SPIN_THRESHOLD_NANOS) {
+				LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+			} else {
+				Thread.onSpinWait();
+			}
+			
+			remaining = intended - System.nanoTime();
+		}
+	}
+
+	private void send(final int instance, final long intended, final LoadReport report) {
+		String eventName = shape.getEventNameAt(positions[instance]);
+		positions[instance] = (positions[instance] + 1) % shape.getEventsPerTurn();
+		
+		HttpRequest request = HttpRequest.newBuilder(baseUri.resolve(String.format("%s/%s/%s",
+				shape.getName(), instances[instance], eventName)))
+				.header("Content-Type", "application/json")
+				.PUT(HttpRequest.BodyPublishers.ofString("{}"))
+				.build();
+		
+		outstanding.incrementAndGet();
+		client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+		.whenComplete((response, throwable) -> {
+			report.record(intended, throwable == null ? response.statusCode() : -1);
+			outstanding.decrementAndGet();
+		});
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.benchmarks;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.jallaby.JallabyRegistry;
+import org.jallaby.beans.JallabyBeansLifecycleHook;
+import org.jallaby.launcher.Launcher;
+
+/**
+ * A standalone load test for the Jallaby container.
+ * <p>
+ * Generates the archive of a state machine of configurable shape (see {@link MachineShape}) into
+ * the <code>deploy</code> directory below the working directory, deploys it into an in-process
+ * container, drives events to it over HTTP at a fixed arrival rate and reports throughput and
+ * latency percentiles corrected for coordinated omission. Given a <code>--url</code>, the
+ * events go to an already running container instead, which the archive has to be deployed
+ * into beforehand.
+ * <p>
+ * Options, given as <code>--name=value</code>:
+ * <ul>
+ * <li><code>name</code> the name of the state machine, defaults to <code>LoadTest</code></li>
+ * <li><code>depth</code> the depth of the state hierarchy, defaults to 2</li>
+ * <li><code>fan-out</code> the number of children per abstract state, defaults to 4</li>
+ * <li><code>events-per-transition</code> the number of events per transition, defaults to 1</li>
+ * <li><code>action-micros</code> the cost of each transition action, defaults to 0</li>
+ * <li><code>rate</code> the arrival rate in requests per second, defaults to 1000</li>
+ * <li><code>instances</code> the number of instances to address, defaults to 10000</li>
+ * <li><code>warmup-seconds</code> the duration of the warm-up, defaults to 10</li>
+ * <li><code>duration-seconds</code> the duration of the measurement, defaults to 60</li>
+ * <li><code>url</code> the base URL of a running container, in-process if absent</li>
+ * </ul>
+ * 
+ * @author Matthias Rothe
+ */
+public final class LoadGenerator {
+	private static final long DEPLOY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+	
+	private final Map<String, String> options;
+	
+	LoadGenerator(final Map<String, String> options) {
+		this.options = options;
+	}
+
+	/**
+	 * Runs the load test.
+	 * 
+	 * @param out the stream to write the progress and the reports to
+	 * @throws Exception if the load test fails
+	 */
+	void run(final PrintStream out) throws Exception {
+		MachineShape shape = new MachineShape(options.getOrDefault("name", "LoadTest"),
+				getInt("depth", 2), getInt("fan-out", 4), getInt("events-per-transition", 1),
+				getInt("action-micros", 0));
+		Path deployDirectory = Paths.get(System.getProperty("user.dir"), "deploy");
+		Path archive = new SmaGenerator().generate(shape, deployDirectory);
+		out.println(String.format("Generated [%s] with %d states", archive, shape.getLeaves().size()));
+		
+		JallabyBeansLifecycleHook hook = null;
+		String url = options.get("url");
+		
+		if (url == null) {
+			hook = new JallabyBeansLifecycleHook();
+			hook.start(JallabyRegistry.getInstance());
+			url = Launcher.startHttpServer();
+			awaitDeployment(shape.getName());
+		}
+		
+		try {
+			LoadDriver driver = new LoadDriver(URI.create(url), shape, getInt("rate", 1000),
+					getInt("instances", 10000));
+			out.println(String.format("Driving events to [%s]", url));
+			LoadReport[] reports = driver.run(Duration.ofSeconds(getInt("warmup-seconds", 10)),
+					Duration.ofSeconds(getInt("duration-seconds", 60)));
+			
+			reports[0].writeTo("Warm-up", out);
+			reports[1].writeTo("Measurement", out);
+		} finally {
+			if (hook != null) {
+				hook.stop();
+			}
+		}
+	}
+
+	private void awaitDeployment(final String name) throws InterruptedException {
+		long deadline = System.nanoTime() + DEPLOY_TIMEOUT_NANOS;
+		
+		while (JallabyRegistry.getInstance().get(name, UUID.randomUUID()) == null) {
+			if (System.nanoTime() - deadline > 0) {
+				throw new IllegalStateException(String.format("State machine [%s] wasn't deployed"
+						+ " within %d seconds", name, TimeUnit.NANOSECONDS.toSeconds(DEPLOY_TIMEOUT_NANOS)));
+			}
+			
+			Thread.sleep(100);
+		}
+	}
+
+	private int getInt(final String name, final int defaultValue) {
+		String value = options.get(name);
+		
+		try {
+			return value == null ? defaultValue : Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("Option [%s] must be a number, was [%s]",
+					name, value), e);
+		}
+	}
+
+	static Map<String, String> parse(final String[] args) {
+		Map<String, String> options = new HashMap<>();
+		
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			
+			if (!arg.startsWith("--") || separator < 0) {
+				throw new IllegalArgumentException(String.format("Option [%s] must look like --name=value",
+						arg));
+			}
+			
+			options.put(arg.substring(2, separator), arg.substring(separator + 1));
+		}
+		
+		return options;
+	}
+
+	/**
+	 * Main method.
+	 * 
+	 * @param args the options
+	 * @throws Exception if the load test fails
+	 */
+	// CHECKSTYLE:OFF
+	public static void main(String[] args) throws Exception {
+		new LoadGenerator(parse(args)).run(System.out);
+		System.exit(0);
+	}
+	// CHECKSTYLE:ON
+}
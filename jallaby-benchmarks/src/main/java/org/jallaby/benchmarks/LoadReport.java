@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.benchmarks;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jallaby.metrics.LatencyHistogram;
+
+/**
+ * Collects the outcome of the requests sent during one phase of a load test.
+ * <p>
+ * Latencies are measured from the time a request was due to be sent at the intended arrival
+ * rate rather than from the time it was actually sent. A stalled server thus holds back the
+ * requests queued up behind a slow one and their latencies include the stall, which corrects
+ * the measurement for coordinated omission.
+ * 
+ * @author Matthias Rothe
+ */
+final class LoadReport {
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 0.9999, 1};
+	
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final LongAdder processed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final AtomicLong lastResponseNanos;
+	private final double intendedRate;
+	private final long startNanos;
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param intendedRate the intended arrival rate in requests per second
+	 * @param startNanos the {@link System#nanoTime()} the phase starts at
+	 */
+	LoadReport(final double intendedRate, final long startNanos) {
+		this.intendedRate = intendedRate;
+		this.startNanos = startNanos;
+		this.lastResponseNanos = new AtomicLong(startNanos);
+	}
+
+	/**
+	 * Records the response to a request.
+	 * 
+	 * @param intendedNanos the {@link System#nanoTime()} the request was due to be sent at
+	 * @param status the HTTP status of the response, or -1 if no response was received
+	 */
+	void record(final long intendedNanos, final int status) {
+		long now = System.nanoTime();
+		latencies.record(now - intendedNanos);
+		lastResponseNanos.accumulateAndGet(now, Math::max);
+		
+		if (status >= 200 && status < 300) {
+			processed.increment();
+		} else if (status == 900) {
+			rejected.increment();
+		} else {
+			failed.increment();
+		}
+	}
+
+	/**
+	 * Writes the report in a human readable form.
+	 * 
+	 * @param title the title of the report
+	 * @param out the stream to write to
+	 */
+	void writeTo(final String title, final PrintStream out) {
+		double seconds = Math.max(1, lastResponseNanos.get() - startNanos)
+				/ (double) TimeUnit.SECONDS.toNanos(1);
+		long count = latencies.getCount();
+		
+		out.println(title);
+		out.println(String.format("  intended rate  %12.1f req/s", intendedRate));
+		out.println(String.format("  throughput     %12.1f req/s", count / seconds));
+		out.println(String.format("  processed      %12d", processed.sum()));
+		out.println(String.format("  rejected (900) %12d", rejected.sum()));
+		out.println(String.format("  failed         %12d", failed.sum()));
+		out.println("  latency, corrected for coordinated omission:");
+		
+		if (count > 0) {
+			out.println(String.format("    mean         %12.3f ms", latencies.getSumNanos() / 1e6 / count));
+		}
+		
+		for (double quantile : QUANTILES) {
+			out.println(String.format("    %-12s %12.3f ms", quantile == 1 ? "max" : "p" + quantile * 100,
+					latencies.getValueAtQuantile(quantile) / 1e6));
+		}
+	}
+}
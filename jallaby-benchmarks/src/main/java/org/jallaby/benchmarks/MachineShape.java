@@ -0,0 +1,171 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The shape of a state machine generated for load tests.
+ * <p>
+ * The states form a hierarchy of the given depth, in which every state above the leaves is an
+ * abstract state with as many children as the fan-out. Only the leaves are concrete, so there
+ * are fan-out to the power of depth of them. The leaves form a ring: each one moves on to the
+ * next one once it has received all the events of its transition, the last one back to the
+ * first one. Every transition runs an action busy for the given number of microseconds.
+ * 
+ * @author Matthias Rothe
+ */
+final class MachineShape {
+	private static final int MAX_LEAVES = 100000;
+	
+	private final String name;
+	private final int depth;
+	private final int fanOut;
+	private final int eventsPerTransition;
+	private final long actionMicros;
+	private final List<String> leaves;
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param name the name of the state machine
+	 * @param depth the depth of the state hierarchy, 1 for a flat state machine
+	 * @param fanOut the number of children of each state above the leaves
+	 * @param eventsPerTransition the number of events each transition waits for
+	 * @param actionMicros the time each transition action is busy for, in microseconds
+	 * @throws IllegalArgumentException if any of the numbers is out of range
+	 */
+	MachineShape(final String name, final int depth, final int fanOut, final int eventsPerTransition,
+			final long actionMicros) {
+		Objects.requireNonNull(name, "name must not be null");
+		
+		if (!name.matches("[A-Za-z][A-Za-z0-9]*")) {
+			throw new IllegalArgumentException(String.format("name [%s] must be alphanumeric", name));
+		}
+		
+		if (depth < 1 || fanOut < 2 || eventsPerTransition < 1 || actionMicros < 0) {
+			throw new IllegalArgumentException(String.format("depth [%s], fan-out [%s], events per"
+					+ " transition [%s] or action micros [%s] out of range",
+					depth, fanOut, eventsPerTransition, actionMicros));
+		}
+		
+		if (Math.pow(fanOut, depth) > MAX_LEAVES) {
+			throw new IllegalArgumentException(String.format("fan-out [%s] to the power of depth [%s]"
+					+ " must not exceed %s states", fanOut, depth, MAX_LEAVES));
+		}
+		
+		this.name = name;
+		this.depth = depth;
+		this.fanOut = fanOut;
+		this.eventsPerTransition = eventsPerTransition;
+		this.actionMicros = actionMicros;
+		
+		List<String> names = new ArrayList<>();
+		collectLeaves("s", 1, names);
+		this.leaves = Collections.unmodifiableList(names);
+	}
+
+	private void collectLeaves(final String prefix, final int level, final List<String> names) {
+		for (int child = 0; child < fanOut; child++) {
+			String childName = prefix + child;
+			
+			if (level == depth) {
+				names.add(childName);
+			} else {
+				collectLeaves(childName + "_", level + 1, names);
+			}
+		}
+	}
+
+	/**
+	 * @return the name of the state machine
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the depth of the state hierarchy
+	 */
+	int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return the number of children of each state above the leaves
+	 */
+	int getFanOut() {
+		return fanOut;
+	}
+
+	/**
+	 * @return the number of events each transition waits for
+	 */
+	int getEventsPerTransition() {
+		return eventsPerTransition;
+	}
+
+	/**
+	 * @return the time each transition action is busy for, in microseconds
+	 */
+	long getActionMicros() {
+		return actionMicros;
+	}
+
+	/**
+	 * @return the names of the concrete states in ring order, the first one being the initial
+	 * state
+	 */
+	List<String> getLeaves() {
+		return leaves;
+	}
+
+	/**
+	 * @param leaf the index of the leaf in ring order
+	 * @return the name of the leaf following the given one in the ring
+	 */
+	String getNextLeaf(final int leaf) {
+		return leaves.get((leaf + 1) % leaves.size());
+	}
+
+	/**
+	 * @param leaf the index of the leaf in ring order
+	 * @param event the index of the event within the transition of the leaf
+	 * @return the name of the event
+	 */
+	String getEventName(final int leaf, final int event) {
+		return "e" + leaf + "_" + event;
+	}
+
+	/**
+	 * @return the number of events an instance receives for one full turn of the ring
+	 */
+	int getEventsPerTurn() {
+		return leaves.size() * eventsPerTransition;
+	}
+
+	/**
+	 * @param position the position within a turn of the ring
+	 * @return the name of the event to send an instance at that position
+	 */
+	String getEventNameAt(final int position) {
+		return getEventName(position / eventsPerTransition, position % eventsPerTransition);
+	}
+}
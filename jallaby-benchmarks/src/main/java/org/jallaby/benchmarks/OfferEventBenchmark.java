@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jallaby.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.jallaby.beans.BeansRegistry;
+import org.jallaby.beans.metamodel.DispatchTable;
+import org.jallaby.beans.metamodel.MetaState;
+import org.jallaby.beans.metamodel.MetaTransition;
+import org.jallaby.beans.metamodel.sourcing.BeanClasses;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.sourcing.XmlDeclarationProvider;
+import org.jallaby.benchmarks.beans.Paid;
+import org.jallaby.benchmarks.beans.Shipped;
+import org.jallaby.benchmarks.beans.Waiting;
+import org.jallaby.event.Event;
+import org.jallaby.execution.Transition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+/**
+ * Measures {@link MetaState#offerEvent(Event, List)} for a transition triggered by a single
+ * event and for one triggered by two events, offering the second of them. The state is
+ * shared by all threads, just like the states of a deployed state machine are shared by all
+ * of its instances.
+ * 
+ * @author Matthias Rothe
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OfferEventBenchmark {
+	private static final String NAME = "OfferEventBenchmark";
+	
+	private MetaState waiting;
+	private Event pay;
+	private Event label;
+	private List<Event> packed;
+	
+	/**
+	 * Builds the state machine the way a deployment does, from its XML declaration.
+	 * 
+	 * @throws Exception if the declaration is invalid
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		EffectiveXmlStateMachine xmlStateMachine = new XmlDeclarationProvider().provide(
+				new ByteArrayInputStream(StateMachines.orderDeclaration(NAME).getBytes(StandardCharsets.UTF_8)));
+		BeanClasses beanClasses = new BeanClasses();
+		beanClasses.setStates(Set.of(Waiting.class, Paid.class, Shipped.class));
+		beanClasses.setTransitions(Collections.emptySet());
+		beanClasses.setEventValidators(Collections.emptySet());
+		beanClasses.setModules(Collections.emptySet());
+		
+		BeansRegistry beansRegistry = new BeansRegistry();
+		Injector injector = Guice.createInjector();
+		DispatchTable dispatchTable = new DispatchTable(xmlStateMachine);
+		waiting = new MetaState("waiting", beanClasses, xmlStateMachine, beansRegistry, injector,
+				dispatchTable);
+		dispatchTable.link((fromState, toState) -> new MetaTransition(fromState, toState, beanClasses,
+				xmlStateMachine, beansRegistry, injector, dispatchTable));
+		
+		String instanceId = UUID.randomUUID().toString();
+		pay = new Event(NAME, instanceId, "pay", null);
+		label = new Event(NAME, instanceId, "label", null);
+		packed = List.of(new Event(NAME, instanceId, "pack", null));
+	}
+
+	/**
+	 * @return the transition triggered by the event
+	 * @throws Exception if the event is invalid
+	 */
+	@Benchmark
+	public Transition offerSingleEvent() throws Exception {
+		return waiting.offerEvent(pay, Collections.emptyList());
+	}
+
+	/**
+	 * @return the transition triggered by the events
+	 * @throws Exception if the event is invalid
+	 */
+	@Benchmark
+	public Transition offerCombinedEvents() throws Exception {
+		return waiting.offerEvent(label, packed);
+	}
+
+	/**
+	 * @return the transition triggered by the event
+	 * @throws Exception if the event is invalid
+	 */
+	@Benchmark
+	@Threads(4)
+	public Transition offerSingleEventContended() throws Exception {
+		return waiting.offerEvent(pay, Collections.emptyList());
+	}
+
+	/**
+	 * @return the transition triggered by the events
+	 * @throws Exception if the event is invalid
+	 */
+	@Benchmark
+	@Threads(4)
+	public Transition offerCombinedEventsContended() throws Exception {
+		return waiting.offerEvent(label, packed);
+	}
+}
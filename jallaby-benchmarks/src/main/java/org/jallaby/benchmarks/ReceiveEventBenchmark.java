@@ -0,0 +1,109 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jallaby.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.jallaby.Jallaby;
+import org.jallaby.JallabyRegistry;
+import org.jallaby.event.Event;
+import org.jallaby.event.EventResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Jallaby#receiveEvent(Event)} end to end, from looking up the instance until
+ * the instance has processed the event, on a state machine without any bean code.
+ * <p>
+ * The uncontended benchmark sends each thread's events to an instance of its own, the
+ * contended one sends the events of all threads to the same instance.
+ * 
+ * @author Matthias Rothe
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReceiveEventBenchmark {
+	private static final String NAME = "ReceiveEventBenchmark";
+	
+	private final Jallaby jallaby = new Jallaby();
+	private Event sharedEvent;
+	
+	/**
+	 * The event sent by a single thread.
+	 */
+	@State(Scope.Thread)
+	public static class ThreadEvent {
+		private Event event;
+		
+		/**
+		 * Creates the event, addressing an instance of its own.
+		 */
+		@Setup
+		public void setUp() {
+			event = new Event(NAME, UUID.randomUUID().toString(), "tick", null);
+		}
+	}
+
+	/**
+	 * Registers the state machine.
+	 */
+	@Setup
+	public void setUp() {
+		JallabyRegistry.getInstance().register(StateMachines.looping(NAME));
+		sharedEvent = new Event(NAME, UUID.randomUUID().toString(), "tick", null);
+	}
+
+	/**
+	 * Unregisters the state machine.
+	 */
+	@TearDown
+	public void tearDown() {
+		JallabyRegistry.getInstance().unregister(NAME);
+	}
+
+	/**
+	 * @param threadEvent the event of the calling thread
+	 * @return the result of processing the event
+	 */
+	@Benchmark
+	public EventResult receiveEvent(final ThreadEvent threadEvent) {
+		return jallaby.receiveEvent(threadEvent.event).toCompletableFuture().join();
+	}
+
+	/**
+	 * @return the result of processing the event
+	 */
+	@Benchmark
+	@Threads(4)
+	public EventResult receiveEventContended() {
+		return jallaby.receiveEvent(sharedEvent).toCompletableFuture().join();
+	}
+}
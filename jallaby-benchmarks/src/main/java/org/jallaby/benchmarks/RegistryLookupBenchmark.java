@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jallaby.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jallaby.JallabyRegistry;
+import org.jallaby.execution.StateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures looking up existing instances by {@link JallabyRegistry#get(String, UUID)}, with a
+ * million instances by default. Each thread walks the instance ids from a random start, so
+ * the threads of the contended benchmark hit different parts of the instance table.
+ * 
+ * @author Matthias Rothe
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class RegistryLookupBenchmark {
+	private static final String NAME = "RegistryLookupBenchmark";
+	
+	@Param("1000000")
+	private int instances;
+	
+	private UUID[] instanceIds;
+	private JallabyRegistry registry;
+	
+	/**
+	 * The position of a single thread within the instance ids.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next = -1;
+	}
+
+	/**
+	 * Registers the state machine and creates its instances.
+	 */
+	@Setup
+	public void setUp() {
+		registry = JallabyRegistry.getInstance();
+		registry.register(StateMachines.looping(NAME));
+		instanceIds = new UUID[instances];
+		
+		for (int i = 0; i < instances; i++) {
+			instanceIds[i] = UUID.randomUUID();
+			registry.get(NAME, instanceIds[i]);
+		}
+	}
+
+	/**
+	 * Unregisters the state machine together with its instances.
+	 */
+	@TearDown
+	public void tearDown() {
+		registry.unregister(NAME);
+	}
+
+	/**
+	 * @param cursor the position of the calling thread
+	 * @return the instance looked up
+	 */
+	@Benchmark
+	public StateMachine get(final Cursor cursor) {
+		return registry.get(NAME, instanceIds[advance(cursor)]);
+	}
+
+	/**
+	 * @param cursor the position of the calling thread
+	 * @return the instance looked up
+	 */
+	@Benchmark
+	@Threads(4)
+	public StateMachine getContended(final Cursor cursor) {
+		return registry.get(NAME, instanceIds[advance(cursor)]);
+	}
+
+	private int advance(final Cursor cursor) {
+		if (cursor.next < 0) {
+			cursor.next = ThreadLocalRandom.current().nextInt(instanceIds.length);
+		}
+		
+		cursor.next = cursor.next + 1 == instanceIds.length ? 0 : cursor.next + 1;
+		return cursor.next;
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.jallaby.beans.xml.sourcing.CompiledDeclarationProvider;
+import org.jallaby.beans.xml.sourcing.InvalidStateMachineException;
+import org.jallaby.beans.xml.sourcing.XmlDeclarationProvider;
+import org.jdom2.JDOMException;
+
+/**
+ * Generates state machine archives (SMAs) of a given {@link MachineShape}.
+ * <p>
+ * An archive holds the XML declaration of the state machine along with its compiled form, as
+ * written by the Jallaby Beans Maven plugin, an <code>@State</code> bean per concrete state and
+ * an <code>@Transition</code> bean per transition. The beans are generated
+ * as Java sources and compiled with the system Java compiler against the class path of the
+ * running JVM, so the generator needs a JDK rather than a JRE.
+ * 
+ * @author Matthias Rothe
+ */
+final class SmaGenerator {
+	private static final String DECLARATION_ENTRY = "META-INF/state-machine.xml";
+	
+	/**
+	 * Generates the archive of a state machine of the given shape into the given directory,
+	 * replacing any archive of the same name.
+	 * 
+	 * @param shape the shape of the state machine
+	 * @param directory the directory to generate the archive into
+	 * @return the archive
+	 * @throws IOException if the archive can't be written
+	 * @throws IllegalStateException if no Java compiler is available, the beans don't compile or
+	 *                               the declaration is invalid
+	 */
+	Path generate(final MachineShape shape, final Path directory) throws IOException {
+		Objects.requireNonNull(shape, "shape must not be null");
+		Objects.requireNonNull(directory, "directory must not be null");
+		
+		Path workDirectory = Files.createTempDirectory("jallaby-sma");
+		
+		try {
+			Path classes = compile(shape, workDirectory);
+			Path archive = workDirectory.resolve(shape.getName() + ".sma");
+			writeArchive(shape, classes, archive);
+			
+			Files.createDirectories(directory);
+			return Files.move(archive, directory.resolve(archive.getFileName()),
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			delete(workDirectory);
+		}
+	}
+
+	/**
+	 * Generates the XML declaration of a state machine of the given shape.
+	 * 
+	 * @param shape the shape of the state machine
+	 * @return the XML declaration
+	 */
+	String declaration(final MachineShape shape) {
+		List<String> leaves = shape.getLeaves();
+		StringBuilder xml = new StringBuilder(StateMachines.DOCTYPE)
+				.append("<state-machine name=\"").append(shape.getName())
+				.append("\" initial-state=\"").append(leaves.get(0)).append("\">\n");
+		
+		for (int leaf = 0; leaf < leaves.size(); leaf++) {
+			for (int event = 0; event < shape.getEventsPerTransition(); event++) {
+				xml.append("\t<event name=\"").append(shape.getEventName(leaf, event)).append("\"/>\n");
+			}
+		}
+		
+		appendGroups(shape, "s", 1, null, xml);
+		
+		for (int leaf = 0; leaf < leaves.size(); leaf++) {
+			String name = leaves.get(leaf);
+			xml.append("\t<state name=\"").append(name).append('"');
+			
+			if (shape.getDepth() > 1) {
+				xml.append(" extends=\"").append(name, 0, name.lastIndexOf('_')).append('"');
+			}
+			
+			xml.append(">\n\t\t<transition to=\"").append(shape.getNextLeaf(leaf)).append("\">");
+			
+			for (int event = 0; event < shape.getEventsPerTransition(); event++) {
+				xml.append("<event-ref name=\"").append(shape.getEventName(leaf, event)).append("\"/>");
+			}
+			
+			xml.append("</transition>\n\t</state>\n");
+		}
+		
+		return xml.append("</state-machine>\n").toString();
+	}
+
+	private void appendGroups(final MachineShape shape, final String prefix, final int level,
+			final String parent, final StringBuilder xml) {
+		if (level == shape.getDepth()) {
+			return;
+		}
+		
+		for (int child = 0; child < shape.getFanOut(); child++) {
+			String name = prefix + child;
+			xml.append("\t<state name=\"").append(name).append('"');
+			
+			if (parent != null) {
+				xml.append(" extends=\"").append(parent).append('"');
+			}
+			
+			xml.append(" modifier=\"abstract\"/>\n");
+			appendGroups(shape, name + "_", level + 1, name, xml);
+		}
+	}
+
+	private Path compile(final MachineShape shape, final Path workDirectory) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		
+		if (compiler == null) {
+			throw new IllegalStateException("No Java compiler available. Please run on a JDK.");
+		}
+		
+		Path sources = Files.createDirectories(workDirectory.resolve("sources"));
+		Path classes = Files.createDirectories(workDirectory.resolve("classes"));
+		Path generated = Files.createDirectories(workDirectory.resolve("generated"));
+		List<Path> files = writeSources(shape, sources);
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		
+		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics,
+				Locale.ROOT, StandardCharsets.UTF_8)) {
+			List<String> options = List.of("--release", "11", "-d", classes.toString(), "-s", generated.toString(),
+					"-classpath", System.getProperty("java.class.path"));
+			Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromPaths(files);
+			
+			if (!compiler.getTask(null, fileManager, diagnostics, options, null, units).call()) {
+				throw new IllegalStateException(String.format("Unable to compile the beans of [%s]: %s",
+						shape.getName(), diagnostics.getDiagnostics().stream()
+						.filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+						.map(diagnostic -> diagnostic.getMessage(Locale.ROOT))
+						.collect(Collectors.joining("; "))));
+			}
+		}
+		
+		return classes;
+	}
+
+	private List<Path> writeSources(final MachineShape shape, final Path sources) throws IOException {
+		String packageName = basePackage(shape);
+		Path packageDirectory = Files.createDirectories(sources.resolve(packageName.replace('.', '/')));
+		List<String> leaves = shape.getLeaves();
+		List<Path> files = new ArrayList<>();
+		
+		for (int leaf = 0; leaf < leaves.size(); leaf++) {
+			String className = className(leaves.get(leaf));
+			
+			files.add(Files.writeString(packageDirectory.resolve(className + ".java"),
+					stateSource(packageName, className, leaves.get(leaf))));
+			files.add(Files.writeString(packageDirectory.resolve(className + "Transition.java"),
+					transitionSource(packageName, className, leaves.get(leaf), shape.getNextLeaf(leaf),
+							shape.getActionMicros())));
+		}
+		
+		return files;
+	}
+
+	private String stateSource(final String packageName, final String className, final String state) {
+		return "package " + packageName + ";\n\n"
+				+ "import java.util.Map;\n\n"
+				+ "import org.jallaby.beans.annotations.EntryAction;\n"
+				+ "import org.jallaby.beans.annotations.State;\n\n"
+				+ "@State(name = \"" + state + "\")\n"
+				+ "public class " + className + " {\n\n"
+				+ "\t@EntryAction\n"
+				+ "\tpublic void enter(Map<String, Map<String, Object>> eventData) {\n"
+				+ "\t}\n"
+				+ "}\n";
+	}
+
+	private String transitionSource(final String packageName, final String className, final String from,
+			final String to, final long actionMicros) {
+		return "package " + packageName + ";\n\n"
+				+ "import java.util.Map;\n\n"
+				+ "import org.jallaby.beans.annotations.ActionGroup;\n"
+				+ "import org.jallaby.beans.annotations.Concurrency;\n"
+				+ "import org.jallaby.beans.annotations.Transition;\n"
+				+ "import org.jallaby.beans.annotations.TransitionAction;\n\n"
+				+ "@Transition(fromState = \"" + from + "\", toState = \"" + to + "\",\n"
+				+ "\t\tactionGroups = @ActionGroup(name = \"work\", concurrency = Concurrency.SEQUENTIAL))\n"
+				+ "public class " + className + "Transition {\n\n"
+				+ "\t@TransitionAction(group = \"work\")\n"
+				+ "\tpublic void work(Map<String, Map<String, Object>> eventData) {\n"
+				+ "\t\tlong deadline = System.nanoTime() + " + actionMicros * 1000 + "L;\n\n"
+				+ "\t\twhile (System.nanoTime() - deadline < 0) {\n"
+				+ "\t\t\tThread.onSpinWait();\n"
+				+ "\t\t}\n"
+				+ "\t}\n"
+				+ "}\n";
+	}
+
+	private void writeArchive(final MachineShape shape, final Path classes, final Path archive)
+			throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue("base-packages", basePackage(shape));
+		
+		try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(archive), manifest);
+				Stream<Path> files = Files.walk(classes)) {
+			byte[] declaration = declaration(shape).getBytes(StandardCharsets.UTF_8);
+			jar.putNextEntry(new JarEntry(DECLARATION_ENTRY));
+			jar.write(declaration);
+			jar.closeEntry();
+			
+			jar.putNextEntry(new JarEntry(CompiledDeclarationProvider.ENTRY));
+			compileDeclaration(shape, declaration, jar);
+			jar.closeEntry();
+			
+			for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+				jar.putNextEntry(new JarEntry(classes.relativize(file).toString().replace('\\', '/')));
+				Files.copy(file, jar);
+				jar.closeEntry();
+			}
+		}
+	}
+
+	private void compileDeclaration(final MachineShape shape, final byte[] declaration, final JarOutputStream jar)
+			throws IOException {
+		try {
+			new CompiledDeclarationProvider().compile(new XmlDeclarationProvider().provide(
+					new ByteArrayInputStream(declaration)), declaration, jar);
+		} catch (InvalidStateMachineException | JDOMException e) {
+			throw new IllegalStateException(String.format("The declaration of [%s] is invalid",
+					shape.getName()), e);
+		}
+	}
+
+	private void delete(final Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private static String basePackage(final MachineShape shape) {
+		return "loadgen." + shape.getName().toLowerCase(Locale.ROOT);
+	}
+
+	private static String className(final String state) {
+		return Character.toUpperCase(state.charAt(0)) + state.substring(1);
+	}
+}
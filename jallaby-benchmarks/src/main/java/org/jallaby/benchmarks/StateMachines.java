@@ -0,0 +1,172 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.benchmarks;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import org.jallaby.event.Event;
+import org.jallaby.execution.FinishState;
+import org.jallaby.execution.State;
+import org.jallaby.execution.StateInfo;
+import org.jallaby.execution.StateMachine;
+import org.jallaby.execution.Transition;
+import org.jallaby.execution.TransitionActionGroup;
+import org.jallaby.execution.TransitionGuard;
+
+/**
+ * Builds the state machines the benchmarks run on.
+ * 
+ * @author Matthias Rothe
+ */
+final class StateMachines {
+	static final String DOCTYPE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<!DOCTYPE state-machine [\n"
+			+ "<!ELEMENT state-machine (event+, state+)>\n"
+			+ "<!ATTLIST state-machine name CDATA #REQUIRED initial-state CDATA #REQUIRED>\n"
+			+ "<!ELEMENT event (property*)>\n"
+			+ "<!ATTLIST event name CDATA #REQUIRED extends CDATA #IMPLIED modifier CDATA #IMPLIED>\n"
+			+ "<!ELEMENT property EMPTY>\n"
+			+ "<!ATTLIST property name CDATA #REQUIRED type CDATA #IMPLIED visibility CDATA #IMPLIED>\n"
+			+ "<!ELEMENT state (transition*)>\n"
+			+ "<!ATTLIST state name CDATA #REQUIRED extends CDATA #IMPLIED modifier CDATA #IMPLIED>\n"
+			+ "<!ELEMENT transition (event-ref+)>\n"
+			+ "<!ATTLIST transition to CDATA #REQUIRED visibility CDATA #IMPLIED>\n"
+			+ "<!ELEMENT event-ref EMPTY>\n"
+			+ "<!ATTLIST event-ref name CDATA #REQUIRED>\n"
+			+ "]>\n";
+	
+	private StateMachines() {
+	}
+
+	/**
+	 * Builds a state machine with a single state, which loops back to itself on every event.
+	 * Processing an event thus exits and enters a state without running any bean code, so
+	 * benchmarks on it measure the engine alone.
+	 * 
+	 * @param name the name of the state machine
+	 * @return the state machine
+	 */
+	static StateMachine looping(final String name) {
+		return new StateMachine(name, new LoopingState(), event -> true);
+	}
+
+	/**
+	 * Generates the XML declaration of a state machine with the given number of states. Each
+	 * state moves on to the next one on an event of its own, the last one back to the first
+	 * one. The declaration carries its DTD as internal subset, so it can be parsed validating.
+	 * 
+	 * @param states the number of states
+	 * @return the XML declaration
+	 */
+	static String ringDeclaration(final int states) {
+		StringBuilder xml = new StringBuilder(DOCTYPE.length() + states * 160);
+		xml.append(DOCTYPE)
+		.append("<state-machine name=\"Ring").append(states).append("\" initial-state=\"state0\">\n");
+		
+		for (int i = 0; i < states; i++) {
+			xml.append("\t<event name=\"event").append(i).append("\">\n")
+			.append("\t\t<property name=\"value\" type=\"string\"/>\n")
+			.append("\t</event>\n");
+		}
+		
+		for (int i = 0; i < states; i++) {
+			xml.append("\t<state name=\"state").append(i).append("\">\n")
+			.append("\t\t<transition to=\"state").append((i + 1) % states).append("\">\n")
+			.append("\t\t\t<event-ref name=\"event").append(i).append("\"/>\n")
+			.append("\t\t</transition>\n")
+			.append("\t</state>\n");
+		}
+		
+		return xml.append("</state-machine>\n").toString();
+	}
+
+	/**
+	 * Generates the XML declaration of an order state machine. A waiting order gets paid on a
+	 * single event and shipped once it has been both packed and labelled, in any order.
+	 * 
+	 * @param name the name of the state machine
+	 * @return the XML declaration
+	 */
+	static String orderDeclaration(final String name) {
+		return DOCTYPE
+				+ "<state-machine name=\"" + name + "\" initial-state=\"waiting\">\n"
+				+ "\t<event name=\"pay\"/>\n"
+				+ "\t<event name=\"pack\"/>\n"
+				+ "\t<event name=\"label\"/>\n"
+				+ "\t<state name=\"waiting\">\n"
+				+ "\t\t<transition to=\"paid\"><event-ref name=\"pay\"/></transition>\n"
+				+ "\t\t<transition to=\"shipped\"><event-ref name=\"pack\"/><event-ref name=\"label\"/></transition>\n"
+				+ "\t</state>\n"
+				+ "\t<state name=\"paid\">\n"
+				+ "\t\t<transition to=\"shipped\"><event-ref name=\"pack\"/><event-ref name=\"label\"/></transition>\n"
+				+ "\t</state>\n"
+				+ "\t<state name=\"shipped\"/>\n"
+				+ "</state-machine>\n";
+	}
+
+	private static final class LoopingState implements State, Transition, StateInfo {
+		private final Deque<State> states = new ArrayDeque<>(List.of(this));
+		
+		@Override
+		public Transition offerEvent(final Event event, final List<Event> offeredEvents) {
+			return this;
+		}
+
+		@Override
+		public FinishState performEntryAction(final Map<String, Map<String, Object>> eventData) {
+			return FinishState.ONGOING;
+		}
+
+		@Override
+		public void performExitAction(final Map<String, Map<String, Object>> eventData) {
+		}
+
+		@Override
+		public String getName() {
+			return "looping";
+		}
+
+		@Override
+		public List<TransitionGuard> getTransitionGuards() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public List<TransitionActionGroup> getTransitionActionGroups() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public StateInfo getTargetStateInfo() {
+			return this;
+		}
+
+		@Override
+		public int getStatesToExit() {
+			return 1;
+		}
+
+		@Override
+		public Deque<State> getStates() {
+			return states;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.jallaby.beans.xml.model.XmlStateInfo;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlState;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.model.effective.EffectiveXmlTransition;
+import org.jallaby.beans.xml.sourcing.XmlDeclarationProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures resolving the states to exit and to enter of every transition of a generated
+ * hierarchical state machine by
+ * {@link EffectiveXmlStateMachine#getXmlTargetStateInfo(String, String)}, as done once per
+ * transition when a state machine is built on deployment. The leaves of the generated state
+ * machines form a ring, so most transitions cross one or more levels of the hierarchy.
+ * 
+ * @author Matthias Rothe
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TargetStateInfoBenchmark {
+	private static final int FAN_OUT = 4;
+	
+	@Param({"2", "3", "4"})
+	private int depth;
+	
+	private EffectiveXmlStateMachine stateMachine;
+	
+	/**
+	 * Generates the declaration and provides the state machine declared.
+	 * 
+	 * @throws Exception if the declaration is invalid
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		MachineShape shape = new MachineShape("Hierarchy", depth, FAN_OUT, 1, 0);
+		stateMachine = new XmlDeclarationProvider().provide(new ByteArrayInputStream(
+				new SmaGenerator().declaration(shape).getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * @param blackhole the blackhole consuming the resolved states
+	 */
+	@Benchmark
+	public void resolveTargets(final Blackhole blackhole) {
+		for (EffectiveXmlState state : stateMachine.getStates()) {
+			for (EffectiveXmlTransition transition : state.getTransitions()) {
+				XmlStateInfo stateInfo = stateMachine.getXmlTargetStateInfo(state.getName(), transition.getTo());
+				blackhole.consume(stateInfo);
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jallaby.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.jallaby.beans.xml.model.effective.EffectiveXmlStateMachine;
+import org.jallaby.beans.xml.sourcing.CompiledDeclarationProvider;
+import org.jallaby.beans.xml.sourcing.StreamingXmlDeclarationProvider;
+import org.jallaby.beans.xml.sourcing.XmlDeclarationProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing, validating and resolving the XML declaration of generated state machines
+ * of increasing size by {@link XmlDeclarationProvider#provide(java.io.InputStream)}, as done
+ * for every deployment. The contended benchmark deploys on several threads at once. The compiled
+ * benchmark reads the compiled form of the same declaration instead, as done for archives built
+ * with the Jallaby Beans Maven plugin, and the streaming benchmark parses it in a single pass
+ * with the {@link StreamingXmlDeclarationProvider}. Run them with <code>-prof gc</code> to
+ * compare the memory allocated per declaration as well.
+ * 
+ * @author Matthias Rothe
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XmlDeclarationBenchmark {
+	
+	@Param({"10", "100", "1000"})
+	private int states;
+	
+	private byte[] declaration;
+	private byte[] compiled;
+	
+	/**
+	 * Generates the declaration and compiles it.
+	 * 
+	 * @throws Exception if the declaration is invalid
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		declaration = StateMachines.ringDeclaration(states).getBytes(StandardCharsets.UTF_8);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new CompiledDeclarationProvider().compile(new XmlDeclarationProvider().provide(
+				new ByteArrayInputStream(declaration)), declaration, out);
+		compiled = out.toByteArray();
+	}
+
+	/**
+	 * @return the state machine declared
+	 * @throws Exception if the declaration is invalid
+	 */
+	@Benchmark
+	public EffectiveXmlStateMachine provide() throws Exception {
+		return new XmlDeclarationProvider().provide(new ByteArrayInputStream(declaration));
+	}
+
+	/**
+	 * @return the state machine declared
+	 * @throws Exception if the declaration is invalid
+	 */
+	@Benchmark
+	@Threads(4)
+	public EffectiveXmlStateMachine provideContended() throws Exception {
+		return new XmlDeclarationProvider().provide(new ByteArrayInputStream(declaration));
+	}
+
+	/**
+	 * @return the state machine declared
+	 */
+	@Benchmark
+	public EffectiveXmlStateMachine provideCompiled() {
+		return new CompiledDeclarationProvider().provide(ByteBuffer.wrap(compiled), declaration);
+	}
+
+	/**
+	 * @return the state machine declared
+	 * @throws Exception if the declaration is invalid
+	 */
+	@Benchmark
+	public EffectiveXmlStateMachine provideStreaming() throws Exception {
+		return new StreamingXmlDeclarationProvider().provide(new ByteArrayInputStream(declaration));
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jallaby.benchmarks.beans;
+
+import java.util.Map;
+
+/**
+ * A bean with a transition action, invoked in different ways by the benchmarks.
+ * 
+ * @author Matthias Rothe
+ */
+public class OrderActions {
+	private Map<String, Map<String, Object>> lastEventData;
+	
+	/**
+	 * Ships the order.
+	 * 
+	 * @param eventData the data of the events triggering the transition
+	 */
+	public void ship(final Map<String, Map<String, Object>> eventData) {
+		lastEventData = eventData;
+	}
+
+	/**
+	 * @return the event data the action has been invoked with last
+	 */
+	public Map<String, Map<String, Object>> getLastEventData() {
+		return lastEventData;
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jallaby.execution.InstanceSnapshot;
+import org.jallaby.execution.StateMachine;
+import org.jallaby.persistence.EventJournal;
+import org.jallaby.persistence.SnapshotStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically writes checkpoints of the instances to a {@link SnapshotStore} and truncates the
+ * {@link EventJournal} behind them, so recovering an instance only replays the events journaled
+ * after its last snapshot.
+ * <p>
+ * Each instance takes its snapshot in between processing two events, so taking a checkpoint
+ * never pauses event processing. Usually only the instances which processed events since the
+ * previous checkpoint are written; every <code>snapshot.full-every</code>th checkpoint holds all
+ * instances, superseding the checkpoints before it. A journal segment is deleted once all the
+ * records in it are covered by a checkpoint: records of state machines which haven't been
+ * recovered yet after a restart or which have been unregistered since are kept.
+ * <p>
+ * Checkpoints are configured by the settings <code>snapshot.interval-seconds</code>,
+ * <code>snapshot.full-every</code> and <code>snapshot.directory</code>. They are disabled unless
+ * the interval is set and the event journal is enabled.
+ * 
+ * @author Matthias Rothe
+ */
+final class InstanceCheckpointer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(InstanceCheckpointer.class);
+	
+	private final SnapshotStore store;
+	private final EventJournal journal;
+	private final int fullEvery;
+	private final Map<String, Long> uncovered = new ConcurrentHashMap<>();
+	
+	private long checkpoints;
+	private boolean failed;
+	private volatile long coveredPosition;
+	
+	InstanceCheckpointer(final SnapshotStore store, final EventJournal journal, final int fullEvery)
+			throws IOException {
+		this.store = store;
+		this.journal = journal;
+		this.fullEvery = Math.max(1, fullEvery);
+		
+		for (String stateMachineName : journal.getStateMachineNames()) {
+			uncovered.put(stateMachineName, 0L);
+		}
+	}
+
+	/**
+	 * Creates the checkpointer described by the given configuration.
+	 * 
+	 * @param configuration the configuration
+	 * @param journal the event journal or {@code null} if it's disabled
+	 * @return the checkpointer or {@code null} if checkpoints aren't configured
+	 */
+	static InstanceCheckpointer from(final JallabyConfiguration configuration, final EventJournal journal) {
+		if (journal == null || configuration.getLong("snapshot.interval-seconds", 0) <= 0) {
+			return null;
+		}
+		
+		SnapshotStore store = new SnapshotStore(Paths.get(configuration.getString("snapshot.directory",
+				Paths.get(System.getProperty("user.dir"), "data", "snapshots").toString())));
+		
+		try {
+			return new InstanceCheckpointer(store, journal, configuration.getInt("snapshot.full-every", 10));
+		} catch (IOException e) {
+			LOGGER.error("Unable to read the event journal. No checkpoints will be written.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the checkpoints periodically on a daemon thread.
+	 * 
+	 * @param registry the registry holding the instances
+	 * @param intervalMillis the time between two checkpoints
+	 */
+	void start(final JallabyRegistry registry, final long intervalMillis) {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "jallaby-checkpointer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				checkpoint(registry);
+			} catch (RuntimeException e) {
+				LOGGER.warn("Unable to write a checkpoint.", e);
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Reads the latest snapshots of the instances of the given state machine.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @return the snapshots by instance id
+	 * @throws IOException in case the checkpoints couldn't be read
+	 */
+	Map<UUID, InstanceSnapshot> read(final String stateMachineName) throws IOException {
+		return store.read(stateMachineName);
+	}
+
+	/**
+	 * Keeps the journal records of the given state machine, which haven't been covered by a
+	 * checkpoint, from being truncated while the state machine isn't registered.
+	 * 
+	 * @param stateMachineName the name of the unregistered state machine
+	 */
+	synchronized void unregistered(final String stateMachineName) {
+		uncovered.merge(stateMachineName, coveredPosition, Math::min);
+	}
+
+	/**
+	 * Writes a checkpoint of the instances of all registered state machines and truncates the
+	 * journal if it succeeded for all of them.
+	 * 
+	 * @param registry the registry holding the instances
+	 */
+	void checkpoint(final JallabyRegistry registry) {
+		long position = journal.getPosition();
+		Map<String, InstanceTable<StateMachine>> tables = registry.getInstanceTables();
+		boolean full = failed || ++checkpoints % fullEvery == 0;
+		boolean succeeded = true;
+		
+		for (Map.Entry<String, InstanceTable<StateMachine>> entry : tables.entrySet()) {
+			succeeded &= checkpoint(entry.getKey(), entry.getValue(), position, full);
+		}
+		
+		failed = !succeeded;
+		
+		if (succeeded) {
+			truncate(registry, tables, position);
+		}
+	}
+
+	private boolean checkpoint(final String stateMachineName, final InstanceTable<StateMachine> table,
+			final long position, final boolean full) {
+		Map<UUID, CompletableFuture<InstanceSnapshot>> captures = new HashMap<>();
+		
+		table.forEach((instanceId, instance) -> {
+			CompletionStage<InstanceSnapshot> capture = instance.checkpoint(!full);
+			
+			if (capture != null) {
+				captures.put(instanceId, capture.toCompletableFuture());
+			}
+		});
+		
+		Map<UUID, InstanceSnapshot> snapshots = new HashMap<>();
+		
+		try {
+			for (Map.Entry<UUID, CompletableFuture<InstanceSnapshot>> capture : captures.entrySet()) {
+				InstanceSnapshot snapshot = capture.getValue().get();
+				
+				if (snapshot != null) {
+					snapshots.put(capture.getKey(), snapshot);
+				}
+			}
+			
+			if (full || !snapshots.isEmpty()) {
+				store.write(stateMachineName, position, snapshots, full);
+			}
+			
+			return true;
+		} catch (IOException | ExecutionException e) {
+			LOGGER.warn(String.format("Unable to write a checkpoint of state machine [%s].",
+					stateMachineName), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		return false;
+	}
+
+	private synchronized void truncate(final JallabyRegistry registry,
+			final Map<String, InstanceTable<StateMachine>> tables, final long position) {
+		Map<String, InstanceTable<StateMachine>> registered = registry.getInstanceTables();
+		
+		uncovered.keySet().removeIf(stateMachineName -> tables.containsKey(stateMachineName)
+				&& registered.get(stateMachineName) == tables.get(stateMachineName));
+		coveredPosition = position;
+		
+		long limit = uncovered.values().stream().mapToLong(Long::longValue).reduce(position, Math::min);
+		
+		try {
+			journal.truncateBefore(limit);
+		} catch (IOException e) {
+			LOGGER.warn("Unable to truncate the event journal.", e);
+		}
+	}
+}
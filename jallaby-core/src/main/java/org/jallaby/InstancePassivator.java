@@ -0,0 +1,262 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jallaby.execution.InstanceSnapshot;
+import org.jallaby.execution.StateMachine;
+import org.jallaby.persistence.FileInstanceStore;
+import org.jallaby.persistence.InstanceStore;
+import org.jallaby.persistence.OffHeapInstanceStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounds the number of state machine instances kept in memory. Instances which haven't processed
+ * an event for longer than the time to live, the least recently used instances exceeding the
+ * maximum cache size and, while the heap is fuller than allowed, the least recently used tenth of
+ * all instances are passivated to an {@link InstanceStore}. They are reactivated transparently on
+ * their next event.
+ * <p>
+ * The cache is configured by the settings <code>instance.cache.max-size</code>,
+ * <code>instance.cache.max-heap-percent</code>, <code>instance.cache.ttl-seconds</code>,
+ * <code>instance.cache.eviction-interval-millis</code> and <code>instance.store.directory</code>.
+ * It is disabled unless one of the first three is set.
+ * <p>
+ * Unless events are journaled, <code>instance.store.off-heap</code> keeps the snapshots in an
+ * {@link OffHeapInstanceStore} instead, so with a short time to live only the instances
+ * processing events occupy the heap.
+ * <p>
+ * While events are journaled, snapshots are kept in the store after reactivation, as the
+ * journal may have been truncated behind them. Later journal records and snapshots supersede
+ * them by their position.
+ * 
+ * @author Matthias Rothe
+ */
+final class InstancePassivator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(InstancePassivator.class);
+	
+	private final InstanceStore store;
+	private final long maxSize;
+	private final int maxHeapPercent;
+	private final long timeToLive;
+	private final boolean keepSnapshots;
+	
+	private InstancePassivator(final InstanceStore store, final long maxSize, final int maxHeapPercent,
+			final long timeToLive, final boolean keepSnapshots) {
+		this.store = store;
+		this.maxSize = maxSize;
+		this.maxHeapPercent = maxHeapPercent;
+		this.timeToLive = timeToLive;
+		this.keepSnapshots = keepSnapshots;
+	}
+
+	/**
+	 * Creates the passivator described by the given configuration.
+	 * 
+	 * @param configuration the configuration
+	 * @return the passivator or {@code null} if passivation isn't configured
+	 */
+	static InstancePassivator from(final JallabyConfiguration configuration) {
+		long maxSize = configuration.getLong("instance.cache.max-size", 0);
+		int maxHeapPercent = configuration.getInt("instance.cache.max-heap-percent", 0);
+		long ttlSeconds = configuration.getLong("instance.cache.ttl-seconds", 0);
+		
+		if (maxSize <= 0 && maxHeapPercent <= 0 && ttlSeconds <= 0) {
+			return null;
+		}
+		
+		InstanceStore store = new FileInstanceStore(Paths.get(configuration.getString(
+				"instance.store.directory",
+				Paths.get(System.getProperty("user.dir"), "data", "instances").toString())));
+		boolean journaled = configuration.getBoolean("journal.enabled", false);
+		
+		if (configuration.getBoolean("instance.store.off-heap", false)) {
+			if (journaled) {
+				LOGGER.warn("The off-heap instance store is ignored, as journaled instances must"
+						+ " survive a restart.");
+			} else {
+				store = new OffHeapInstanceStore(Math.max(2,
+						configuration.getInt("instance.store.off-heap.initial-capacity", 1 << 16)), store);
+			}
+		}
+		
+		return new InstancePassivator(store, maxSize, maxHeapPercent,
+				TimeUnit.SECONDS.toNanos(ttlSeconds), journaled);
+	}
+
+	/**
+	 * Runs the eviction periodically on a daemon thread.
+	 * 
+	 * @param registry the registry holding the instances
+	 * @param intervalMillis the time between two evictions
+	 */
+	void start(final JallabyRegistry registry, final long intervalMillis) {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "jallaby-passivator");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				evict(registry.getInstanceTables());
+			} catch (RuntimeException e) {
+				LOGGER.warn("Unable to evict state machine instances.", e);
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Provides the snapshot of the given instance, if it has been passivated. The snapshot is
+	 * kept until the instance has been restored from it, see {@link #reactivated(String, UUID, Exception)}.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance
+	 * @return the snapshot or {@code null} if the instance hasn't been passivated
+	 * @throws IOException in case the snapshot couldn't be read
+	 */
+	InstanceSnapshot reactivate(final String stateMachineName, final UUID instanceId)
+			throws IOException {
+		return store.load(stateMachineName, instanceId);
+	}
+
+	/**
+	 * Removes the snapshot of the given instance once it has been restored from it, unless
+	 * snapshots are kept. A snapshot the instance couldn't be restored from is moved aside
+	 * instead, so it's neither lost nor restored again.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance
+	 * @param failure the exception restoring the instance failed with or {@code null}
+	 */
+	void reactivated(final String stateMachineName, final UUID instanceId, final Exception failure) {
+		try {
+			if (failure != null) {
+				store.quarantine(stateMachineName, instanceId);
+			} else if (!keepSnapshots) {
+				store.take(stateMachineName, instanceId);
+			}
+		} catch (IOException e) {
+			LOGGER.warn(String.format("Unable to release the snapshot of the instance [%s/%s].",
+					stateMachineName, instanceId), e);
+		}
+	}
+
+	/**
+	 * Provides the last snapshot stored for the given instance, without reactivating it.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance
+	 * @return the snapshot or {@code null} if there is none
+	 * @throws IOException in case the snapshot couldn't be read
+	 */
+	InstanceSnapshot snapshotOf(final String stateMachineName, final UUID instanceId)
+			throws IOException {
+		return store.load(stateMachineName, instanceId);
+	}
+
+	/**
+	 * Passivates the instances which exceed the limits of the cache.
+	 * 
+	 * @param tables the instance tables by state machine name
+	 */
+	void evict(final Map<String, InstanceTable<StateMachine>> tables) {
+		long size = tables.values().stream().mapToLong(InstanceTable::size).sum();
+		long excess = maxSize > 0 ? size - maxSize : 0;
+		
+		if (maxHeapPercent > 0 && usedHeapPercent() > maxHeapPercent) {
+			excess = Math.max(excess, size / 10);
+		}
+		
+		long now = System.nanoTime();
+		PriorityQueue<Candidate> leastRecentlyUsed = new PriorityQueue<>(
+				Comparator.comparingLong((Candidate candidate) -> candidate.lastAccess).reversed());
+		long limit = excess;
+		
+		tables.forEach((stateMachineName, table) -> table.forEach((instanceId, instance) -> {
+			long lastAccess = instance.getLastAccess();
+			
+			if (timeToLive > 0 && now - lastAccess > timeToLive) {
+				passivate(stateMachineName, instanceId, instance, table);
+			} else if (limit > 0) {
+				leastRecentlyUsed.add(new Candidate(stateMachineName, instanceId, instance, table, lastAccess));
+				
+				if (leastRecentlyUsed.size() > limit) {
+					leastRecentlyUsed.poll();
+				}
+			}
+		}));
+		
+		for (Candidate candidate : leastRecentlyUsed) {
+			passivate(candidate.stateMachineName, candidate.instanceId, candidate.instance, candidate.table);
+		}
+	}
+
+	private void passivate(final String stateMachineName, final UUID instanceId,
+			final StateMachine instance, final InstanceTable<StateMachine> table) {
+		instance.passivate(snapshot -> {
+			try {
+				store.store(stateMachineName, instanceId, snapshot);
+			} catch (IOException e) {
+				LOGGER.warn(String.format("Unable to passivate the instance [%s/%s].",
+						stateMachineName, instanceId), e);
+				return false;
+			}
+			
+			table.remove(instanceId, instance);
+			return true;
+		});
+	}
+
+	private static long usedHeapPercent() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		
+		return used * 100 / runtime.maxMemory();
+	}
+
+	/**
+	 * An instance which may be passivated.
+	 */
+	private static final class Candidate {
+		private final String stateMachineName;
+		private final UUID instanceId;
+		private final StateMachine instance;
+		private final InstanceTable<StateMachine> table;
+		private final long lastAccess;
+		
+		private Candidate(final String stateMachineName, final UUID instanceId,
+				final StateMachine instance, final InstanceTable<StateMachine> table,
+				final long lastAccess) {
+			this.stateMachineName = stateMachineName;
+			this.instanceId = instanceId;
+			this.instance = instance;
+			this.table = table;
+			this.lastAccess = lastAccess;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby;
+
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * An open addressing hash map from instance ids to values, keyed by the two longs of the
+ * {@link UUID} so that lookups neither allocate nor convert the id.
+ * <p>
+ * The map is split into segments. Reads are lock-free; writes lock the segment of the key.
+ * A slot is written once: its key longs are written before its value is published, and a
+ * removed value is replaced by a tombstone which is only dropped when the segment is rebuilt.
+ * That way a reader seeing a value always sees the key it belongs to.
+ * 
+ * @param <V> the type of the values
+ * @author Matthias Rothe
+ */
+final class InstanceTable<V> {
+	private static final Object TOMBSTONE = new Object();
+	private static final int SEGMENTS = 16;
+	private static final int INITIAL_CAPACITY = 16;
+	
+	@SuppressWarnings("unchecked")
+	private final Segment<V>[] segments = (Segment<V>[]) new Segment<?>[SEGMENTS];
+	
+	/**
+	 * Ctor.
+	 */
+	InstanceTable() {
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment<>();
+		}
+	}
+
+	/**
+	 * @param instanceId the instance id
+	 * @return the value stored for the given instance id or {@code null} if there is none
+	 */
+	V get(final UUID instanceId) {
+		long msb = instanceId.getMostSignificantBits();
+		long lsb = instanceId.getLeastSignificantBits();
+		int hash = hash(msb, lsb);
+		
+		return segmentFor(hash).get(msb, lsb, hash);
+	}
+
+	/**
+	 * Returns the value stored for the given instance id, atomically creating and storing it
+	 * if there is none yet.
+	 * 
+	 * @param instanceId the instance id
+	 * @param factory creates the value, called at most once per absent instance id
+	 * @return the value stored for the given instance id or {@code null} if the factory
+	 * returned {@code null}
+	 */
+	V computeIfAbsent(final UUID instanceId, final Supplier<? extends V> factory) {
+		long msb = instanceId.getMostSignificantBits();
+		long lsb = instanceId.getLeastSignificantBits();
+		int hash = hash(msb, lsb);
+		Segment<V> segment = segmentFor(hash);
+		V value = segment.get(msb, lsb, hash);
+		
+		if (value != null) {
+			return value;
+		}
+		
+		synchronized (segment) {
+			value = segment.get(msb, lsb, hash);
+			
+			if (value == null) {
+				value = factory.get();
+				
+				if (value != null) {
+					segment.insert(msb, lsb, hash, value);
+				}
+			}
+			
+			return value;
+		}
+	}
+
+	/**
+	 * Removes the given value if it is still the one stored for the given instance id.
+	 * 
+	 * @param instanceId the instance id
+	 * @param value the value expected to be stored
+	 * @return {@code true} if and only if the value has been removed
+	 */
+	boolean remove(final UUID instanceId, final V value) {
+		Objects.requireNonNull(value, "value must not be null");
+		
+		long msb = instanceId.getMostSignificantBits();
+		long lsb = instanceId.getLeastSignificantBits();
+		int hash = hash(msb, lsb);
+		Segment<V> segment = segmentFor(hash);
+		
+		synchronized (segment) {
+			return segment.remove(msb, lsb, hash, value);
+		}
+	}
+
+	/**
+	 * @return the number of values stored
+	 */
+	int size() {
+		int size = 0;
+		
+		for (Segment<V> segment : segments) {
+			size += segment.live;
+		}
+		
+		return size;
+	}
+
+	/**
+	 * Passes every instance id and its value to the given consumer. The iteration is weakly
+	 * consistent, it may or may not see concurrent changes.
+	 * 
+	 * @param consumer the consumer
+	 */
+	void forEach(final BiConsumer<UUID, ? super V> consumer) {
+		for (Segment<V> segment : segments) {
+			segment.forEach(consumer);
+		}
+	}
+
+	private Segment<V> segmentFor(final int hash) {
+		return segments[(hash >>> 28) & (SEGMENTS - 1)];
+	}
+
+	private static int hash(final long msb, final long lsb) {
+		long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return (int) (h ^ (h >>> 33));
+	}
+
+	/**
+	 * The slots of one segment; replaced as a whole when the segment is rebuilt.
+	 */
+	private static final class Slots {
+		private final long[] keys;
+		private final AtomicReferenceArray<Object> values;
+		private final int mask;
+		
+		private Slots(final int capacity) {
+			this.keys = new long[capacity << 1];
+			this.values = new AtomicReferenceArray<>(capacity);
+			this.mask = capacity - 1;
+		}
+	}
+
+	/**
+	 * A segment of the table, locked by writers.
+	 */
+	private static final class Segment<V> {
+		private volatile Slots slots = new Slots(INITIAL_CAPACITY);
+		private volatile int live;
+		private int used;
+		
+		@SuppressWarnings("unchecked")
+		private V get(final long msb, final long lsb, final int hash) {
+			Slots current = slots;
+			
+			for (int i = hash & current.mask;; i = (i + 1) & current.mask) {
+				Object value = current.values.get(i);
+				
+				if (value == null) {
+					return null;
+				}
+				
+				if (value != TOMBSTONE && current.keys[i << 1] == msb && current.keys[(i << 1) + 1] == lsb) {
+					return (V) value;
+				}
+			}
+		}
+
+		private void insert(final long msb, final long lsb, final int hash, final V value) {
+			if ((used + 1) << 1 > slots.values.length()) {
+				rebuild();
+			}
+			
+			Slots current = slots;
+			int i = hash & current.mask;
+			
+			while (current.values.get(i) != null) {
+				i = (i + 1) & current.mask;
+			}
+			
+			current.keys[i << 1] = msb;
+			current.keys[(i << 1) + 1] = lsb;
+			current.values.set(i, value);
+			live++;
+			used++;
+		}
+
+		private boolean remove(final long msb, final long lsb, final int hash, final V expected) {
+			Slots current = slots;
+			
+			for (int i = hash & current.mask;; i = (i + 1) & current.mask) {
+				Object value = current.values.get(i);
+				
+				if (value == null) {
+					return false;
+				}
+				
+				if (value == expected && current.keys[i << 1] == msb && current.keys[(i << 1) + 1] == lsb) {
+					current.values.set(i, TOMBSTONE);
+					live--;
+					return true;
+				}
+			}
+		}
+
+		private void rebuild() {
+			Slots current = slots;
+			int capacity = INITIAL_CAPACITY;
+			
+			while (capacity < (live + 1) << 2) {
+				capacity <<= 1;
+			}
+			
+			Slots rebuilt = new Slots(capacity);
+			
+			for (int i = 0; i < current.values.length(); i++) {
+				Object value = current.values.get(i);
+				
+				if (value != null && value != TOMBSTONE) {
+					long msb = current.keys[i << 1];
+					long lsb = current.keys[(i << 1) + 1];
+					int j = hash(msb, lsb) & rebuilt.mask;
+					
+					while (rebuilt.values.get(j) != null) {
+						j = (j + 1) & rebuilt.mask;
+					}
+					
+					rebuilt.keys[j << 1] = msb;
+					rebuilt.keys[(j << 1) + 1] = lsb;
+					rebuilt.values.lazySet(j, value);
+				}
+			}
+			
+			used = live;
+			slots = rebuilt;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void forEach(final BiConsumer<UUID, ? super V> consumer) {
+			Slots current = slots;
+			
+			for (int i = 0; i < current.values.length(); i++) {
+				Object value = current.values.get(i);
+				
+				if (value != null && value != TOMBSTONE) {
+					consumer.accept(new UUID(current.keys[i << 1], current.keys[(i << 1) + 1]), (V) value);
+				}
+			}
+		}
+	}
+}
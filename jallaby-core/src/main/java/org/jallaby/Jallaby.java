@@ -16,11 +16,23 @@
 
 package org.jallaby;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
 import org.jallaby.event.Event;
-import org.jallaby.event.EventError;
 import org.jallaby.event.EventProcessingException;
+import org.jallaby.event.EventRejection;
 import org.jallaby.event.EventResult;
 import org.jallaby.execution.StateMachine;
+import org.jallaby.jfr.EventReceived;
 
 /**
  * The central class for Jallaby.
@@ -31,42 +43,159 @@ public class Jallaby {
 	private JallabyRegistry registry = JallabyRegistry.getInstance();
 
 	/**
-	 * Receives an event for processing.
+	 * Receives an event for processing. The event is enqueued into the mailbox of the addressed
+	 * state machine instance, so the calling thread never blocks on a busy instance. If the
+	 * instance is being passivated meanwhile, the event is handed to its reactivated successor.
 	 * 
 	 * @param event The event to be received
-	 * @return the result of processing the event
-	 * @throws EventProcessingException in case of an error while processing the received event
+	 * @return the stage completed with the result of processing the event, or exceptionally with
+	 * an {@link EventProcessingException} in case of an error while processing the received event
 	 */
-	public EventResult receiveEvent(final Event event) throws EventProcessingException {
-		StateMachine stateMachine = registry.get(
-				event.getStateMachineName(), event.getInstanceId());
+	public CompletionStage<EventResult> receiveEvent(final Event event) {
+		EventReceived received = new EventReceived();
 		
-		if (stateMachine != null) {
-			if (stateMachine.isValidEvent(event)) {
-				return stateMachine.processEvent(event);
-			} else {
-				throw new EventProcessingException(eventInvalidError(event));
+		if (!received.isEnabled()) {
+			return submit(event);
+		}
+		
+		received.begin();
+		return observe(event, received, submit(event));
+	}
+
+	private CompletionStage<EventResult> submit(final Event event) {
+		StateMachine stateMachine = registry.get(event.getStateMachineName(), event.getInstanceId());
+		
+		if (stateMachine == null) {
+			return CompletableFuture.failedFuture(
+					EventRejection.UNKNOWN_STATE_MACHINE.toException(event));
+		} else if (!stateMachine.isValidEvent(event)) {
+			return CompletableFuture.failedFuture(
+					EventRejection.INVALID_EVENT.toException(event));
+		}
+		
+		CompletionStage<EventResult> result = stateMachine.submitEvent(event);
+		
+		if (result == null) {
+			return stateMachine.whenPassivated().thenCompose(retired -> submit(event));
+		}
+		
+		return result;
+	}
+
+	/**
+	 * Receives a batch of events for processing. The events are grouped by the addressed state
+	 * machine instance, so each instance is looked up once and its events are enqueued into its
+	 * mailbox as a single task, processed in the order they appear in the batch. Different
+	 * instances process their events in parallel.
+	 * 
+	 * @param events The events to be received
+	 * @return the stages completed with the results of processing the events, in the order of
+	 * the given events, see {@link #receiveEvent(Event)}
+	 */
+	public List<CompletionStage<EventResult>> receiveEvents(final List<Event> events) {
+		Objects.requireNonNull(events, "events must not be null");
+		
+		List<CompletionStage<EventResult>> results = new ArrayList<>(Collections.nCopies(events.size(), null));
+		Map<String, Map<UUID, List<Integer>>> groups = new LinkedHashMap<>();
+		
+		for (int i = 0; i < events.size(); i++) {
+			Event event = events.get(i);
+			groups.computeIfAbsent(event.getStateMachineName(), name -> new LinkedHashMap<>())
+			.computeIfAbsent(event.getInstanceId(), id -> new ArrayList<>()).add(i);
+		}
+		
+		EventReceived[] received = receive(events.size());
+		groups.forEach((stateMachineName, instances) -> instances.forEach((instanceId, indexes) ->
+				receiveEvents(stateMachineName, instanceId, events, indexes, results)));
+		
+		if (received != null) {
+			for (int i = 0; i < events.size(); i++) {
+				observe(events.get(i), received[i], results.get(i));
 			}
-		} else {
-			throw new EventProcessingException(stateMachineUnknownError(event));
 		}
+		
+		return results;
 	}
 
-	private EventError eventInvalidError(final Event event) {
-		return new EventError(
-				event.getStateMachineName(),
-				event.getInstanceId().toString(),
-				event.getEventName(),
-				"The given event is invalid for the given state machine.",
-				100);
+	private EventReceived[] receive(final int events) {
+		if (!new EventReceived().isEnabled()) {
+			return null;
+		}
+		
+		EventReceived[] received = new EventReceived[events];
+		
+		for (int i = 0; i < events; i++) {
+			received[i] = new EventReceived();
+			received[i].begin();
+		}
+		
+		return received;
+	}
+
+	private CompletionStage<EventResult> observe(final Event event, final EventReceived received,
+			final CompletionStage<EventResult> result) {
+		result.whenComplete((processed, throwable) -> received.complete(event.getStateMachineName(),
+				event.getInstanceId(), event.getEventName(),
+				processed == null ? null : processed.getCurrentStateName(), errorCode(throwable)));
+		return result;
 	}
 
-	private EventError stateMachineUnknownError(final Event event) {
-		return new EventError(
-				event.getStateMachineName(),
-				event.getInstanceId().toString(),
-				event.getEventName(),
-				"The given state machine is unknown.",
-				200);
+	private long errorCode(final Throwable throwable) {
+		Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+		
+		if (cause instanceof EventProcessingException) {
+			return ((EventProcessingException) cause).getError().getErrorCode();
+		}
+		
+		return cause == null ? 0 : -1;
+	}
+
+	private void receiveEvents(final String stateMachineName, final UUID instanceId,
+			final List<Event> events, final List<Integer> indexes,
+			final List<CompletionStage<EventResult>> results) {
+		StateMachine stateMachine = registry.get(stateMachineName, instanceId);
+		List<Event> validEvents = new ArrayList<>(indexes.size());
+		List<Integer> validIndexes = new ArrayList<>(indexes.size());
+		
+		for (int index : indexes) {
+			Event event = events.get(index);
+			
+			if (stateMachine == null) {
+				results.set(index, CompletableFuture.failedFuture(
+						EventRejection.UNKNOWN_STATE_MACHINE.toException(event)));
+			} else if (!stateMachine.isValidEvent(event)) {
+				results.set(index, CompletableFuture.failedFuture(
+						EventRejection.INVALID_EVENT.toException(event)));
+			} else {
+				validIndexes.add(index);
+				validEvents.add(event);
+			}
+		}
+		
+		if (validEvents.isEmpty()) {
+			return;
+		}
+		
+		List<CompletionStage<EventResult>> submitted = stateMachine.submitEvents(validEvents);
+		
+		if (submitted == null) {
+			CompletionStage<List<CompletionStage<EventResult>>> resubmitted = stateMachine.whenPassivated()
+					.thenApply(retired -> {
+						List<CompletionStage<EventResult>> retried = new ArrayList<>(
+								Collections.nCopies(events.size(), null));
+						receiveEvents(stateMachineName, instanceId, events, validIndexes, retried);
+						return retried;
+					});
+			
+			for (int index : validIndexes) {
+				results.set(index, resubmitted.thenCompose(retried -> retried.get(index)));
+			}
+			
+			return;
+		}
+		
+		for (int i = 0; i < validIndexes.size(); i++) {
+			results.set(validIndexes.get(i), submitted.get(i));
+		}
 	}
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gives typed access to the settings of the <code>config/jallaby.properties</code> file
+ * found in the working directory of the Jallaby container.
+ * <p>
+ * Every setting has a default, so a missing file or key never prevents the container
+ * from starting.
+ * 
+ * @author Matthias Rothe
+ */
+public final class JallabyConfiguration {
+	private static final Logger LOGGER = LoggerFactory.getLogger(JallabyConfiguration.class);
+	private static final JallabyConfiguration INSTANCE = new JallabyConfiguration(load());
+	
+	private final Properties properties;
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param properties the properties to read the settings from
+	 */
+	JallabyConfiguration(final Properties properties) {
+		this.properties = properties;
+	}
+
+	/**
+	 * @return the configuration read from the <code>config/jallaby.properties</code> file
+	 */
+	public static JallabyConfiguration getInstance() {
+		return INSTANCE;
+	}
+
+	private static Properties load() {
+		Properties properties = new Properties();
+		Path file = Paths.get(System.getProperty("user.dir"), "config", "jallaby.properties");
+		
+		if (Files.isReadable(file)) {
+			try (InputStream in = Files.newInputStream(file)) {
+				properties.load(in);
+			} catch (Exception e) {
+				LOGGER.warn(String.format("Couldn't read the configuration file [%s]."
+						+ " Using defaults.", file), e);
+			}
+		}
+		
+		return properties;
+	}
+
+	/**
+	 * @param key the key of the setting
+	 * @param defaultValue the value to return if the setting is missing or blank
+	 * @return the value of the setting or the given default
+	 */
+	public String getString(final String key, final String defaultValue) {
+		String value = properties.getProperty(key);
+		return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+	}
+
+	/**
+	 * @param key the key of the setting
+	 * @param defaultValue the value to return if the setting is missing or malformed
+	 * @return the value of the setting or the given default
+	 */
+	public int getInt(final String key, final int defaultValue) {
+		return (int) getLong(key, defaultValue);
+	}
+
+	/**
+	 * @param key the key of the setting
+	 * @param defaultValue the value to return if the setting is missing or malformed
+	 * @return the value of the setting or the given default
+	 */
+	public long getLong(final String key, final long defaultValue) {
+		String value = getString(key, null);
+		
+		if (value == null) {
+			return defaultValue;
+		}
+		
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			LOGGER.warn(String.format("The setting [%s] is not a number: [%s]. Using [%d].",
+					key, value, defaultValue));
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @param key the key of the setting
+	 * @param defaultValue the value to return if the setting is missing
+	 * @return the value of the setting or the given default
+	 */
+	public boolean getBoolean(final String key, final boolean defaultValue) {
+		String value = getString(key, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+}
@@ -16,25 +16,96 @@
 
 package org.jallaby;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.jallaby.event.Event;
+import org.jallaby.event.EventProcessingException;
+import org.jallaby.execution.InstanceSnapshot;
 import org.jallaby.execution.StateMachine;
+import org.jallaby.jfr.InstanceCreated;
+import org.jallaby.persistence.EventJournal;
+import org.jallaby.persistence.FsyncPolicy;
+import org.jallaby.persistence.JournalRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Holds the StateMachine instances by name and instance id.
+ * <p>
+ * Blueprints are indexed by their name. Each blueprint owns the table of its instances, which
+ * is keyed by the two longs of the instance id, so looking up an instance allocates nothing
+ * and unregistering a state machine drops exactly its own instances.
+ * <p>
+ * If an instance cache is configured, idle instances are passivated and reactivated on their
+ * next event, see {@link InstancePassivator}.
+ * <p>
+ * If the event journal is enabled by the <code>journal.enabled</code> setting, every event
+ * processed is appended to the {@link EventJournal}. When a state machine is registered, its
+ * instances are recovered from their latest snapshot and the events journaled after it, in
+ * parallel across instances, before any new event is accepted for it. Snapshots are written
+ * by the {@link InstanceCheckpointer} or when passivating an instance; passivated instances
+ * without later events stay passivated. Note that replaying runs the actions of the states
+ * and transitions again.
  * 
  * @author Matthias Rothe
  */
 public class JallabyRegistry {
+	private static final Logger LOGGER = LoggerFactory.getLogger(JallabyRegistry.class);
 	private static JallabyRegistry INSTANCE;
 	
-	private final Map<String, StateMachine> blueprints = new ConcurrentHashMap<>();
-	private final Map<String, StateMachine> instances = new ConcurrentHashMap<>();
+	private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+	private final InstancePassivator passivator;
+	private final EventJournal journal;
+	private final InstanceCheckpointer checkpointer;
+	private final int replayThreads;
 	
 	private JallabyRegistry() {
+		JallabyConfiguration configuration = JallabyConfiguration.getInstance();
+		passivator = InstancePassivator.from(configuration);
+		journal = openJournal(configuration);
+		checkpointer = InstanceCheckpointer.from(configuration, journal);
+		replayThreads = Math.max(1, configuration.getInt("journal.replay-threads",
+				Runtime.getRuntime().availableProcessors()));
+		
+		if (passivator != null) {
+			passivator.start(this, configuration.getLong("instance.cache.eviction-interval-millis", 1000));
+		}
+		
+		if (checkpointer != null) {
+			checkpointer.start(this, TimeUnit.SECONDS.toMillis(
+					configuration.getLong("snapshot.interval-seconds", 0)));
+		}
+	}
+
+	private static EventJournal openJournal(final JallabyConfiguration configuration) {
+		if (!configuration.getBoolean("journal.enabled", false)) {
+			return null;
+		}
+		
+		try {
+			return new EventJournal(
+					Paths.get(configuration.getString("journal.directory",
+							Paths.get(System.getProperty("user.dir"), "data", "journal").toString())),
+					configuration.getInt("journal.segment-size-mb", 64) << 20,
+					FsyncPolicy.by(configuration.getString("journal.fsync", "interval")),
+					configuration.getLong("journal.fsync-interval-millis", 10));
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.error("Unable to open the event journal. Events won't be journaled.", e);
+			return null;
+		}
 	}
 
 	public static JallabyRegistry getInstance() {
@@ -47,62 +118,211 @@ public class JallabyRegistry {
 	
 	/**
 	 * Returns the instance of a MetaStateMachine selected by the given state machine
-	 * name and instance id.
+	 * name and instance id. The instance is created atomically if it doesn't exist yet and
+	 * reactivated if it has been passivated.
 	 * 
 	 * @param stateMachineName The name of the state machine
 	 * @param instanceId The instance id of the state machine
-	 * @return the instance
+	 * @return the instance or {@code null} if no state machine with the given name is registered
 	 */
 	public StateMachine get(String stateMachineName, UUID instanceId) {
-		String key = crateKey(stateMachineName, instanceId);
+		Registration registration = registrations.get(stateMachineName);
 		
-		StateMachine instance =	instances.get(key);
+		if (registration == null) {
+			return null;
+		}
+		
+		StateMachine instance = registration.instances.get(instanceId);
 		
 		if (instance == null) {
-			StateMachine blueprint = blueprints.get(stateMachineName);
-			
-			if (blueprint != null) {
-				instance = blueprint.newInstance();
-				instances.put(key, instance);
-			}
+			instance = registration.instances.computeIfAbsent(instanceId,
+					() -> newInstance(registration, stateMachineName, instanceId));
 		}
 		
 		return instance;
 	}
 
+	private StateMachine newInstance(final Registration registration, final String stateMachineName,
+			final UUID instanceId) {
+		InstanceCreated created = new InstanceCreated();
+		created.begin();
+		StateMachine instance = registration.newInstance();
+		instance.setEventLog(journal);
+		
+		if (passivator != null) {
+			instance.restore(instanceId, () -> passivator.reactivate(stateMachineName, instanceId),
+					failure -> passivator.reactivated(stateMachineName, instanceId, failure))
+			.whenComplete((restored, throwable) -> {
+				if (throwable != null) {
+					LOGGER.warn(String.format("Unable to reactivate the instance [%s/%s]."
+							+ " Starting afresh, its snapshot has been moved aside.", stateMachineName,
+							instanceId), throwable);
+				}
+			});
+		}
+		
+		created.complete(stateMachineName, instanceId, false);
+		return instance;
+	}
+
 	/**
-	 * Registers a new StateMachine.
+	 * Registers a new StateMachine. The instances of a state machine registered before with
+	 * the same name are kept, otherwise they are recovered from the event journal, if enabled.
+	 * The recovery runs atomically with the registration, so concurrent registrations of the
+	 * same name replay the journal only once.
 	 * 
 	 * @param stateMachine The instance to be registered
 	 * @return the instance registered before with the given name and instance id, if any
 	 */
 	public StateMachine register(StateMachine stateMachine) {
-		return blueprints.put(stateMachine.getName(), stateMachine);
+		stateMachine.setEventRouter(event -> new Jallaby().receiveEvent(event));
+		Registration created = new Registration(stateMachine);
+		Registration registration = registrations.computeIfAbsent(stateMachine.getName(), name -> {
+			if (journal != null) {
+				recover(created, name);
+			}
+			
+			return created;
+		});
+		
+		if (registration != created) {
+			return registration.replaceBlueprint(stateMachine);
+		}
+		
+		return null;
 	}
-	
-	private String crateKey(String stateMachineName, UUID instanceId) {
-		return stateMachineName + "/" + instanceId;
+
+	private void recover(final Registration registration, final String stateMachineName) {
+		Map<UUID, Recovery> recoveries = new LinkedHashMap<>();
+		
+		try {
+			if (checkpointer != null) {
+				checkpointer.read(stateMachineName).forEach((instanceId, snapshot) ->
+						recoveries.put(instanceId, new Recovery(snapshot)));
+			}
+			
+			journal.read(stateMachineName, record -> recoveries.computeIfAbsent(
+					record.getEvent().getInstanceId(), id -> new Recovery(null)).records.add(record));
+		} catch (IOException e) {
+			LOGGER.error(String.format("Unable to read the journal of state machine [%s].",
+					stateMachineName), e);
+			return;
+		}
+		
+		if (recoveries.isEmpty()) {
+			return;
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(replayThreads);
+		
+		try {
+			List<Future<?>> replays = new ArrayList<>(recoveries.size());
+			
+			recoveries.forEach((instanceId, recovery) -> replays.add(executor.submit(() -> {
+				StateMachine instance = recover(registration, stateMachineName, instanceId, recovery);
+				return instance == null ? null : registration.instances.computeIfAbsent(instanceId, () -> instance);
+			})));
+			
+			for (Future<?> replay : replays) {
+				replay.get();
+			}
+			
+			LOGGER.info(String.format("Recovered %d instances of state machine [%s].",
+					recoveries.size(), stateMachineName));
+		} catch (ExecutionException e) {
+			LOGGER.error(String.format("Unable to recover the instances of state machine [%s].",
+					stateMachineName), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private StateMachine recover(final Registration registration, final String stateMachineName,
+			final UUID instanceId, final Recovery recovery) throws IOException, EventProcessingException {
+		InstanceSnapshot snapshot = recovery.snapshot;
+		InstanceSnapshot passivated = passivator == null ? null
+				: passivator.snapshotOf(stateMachineName, instanceId);
+		
+		if (passivated != null && passivated.getPosition() >= (snapshot == null ? 0 : snapshot.getPosition())) {
+			snapshot = passivated;
+		}
+		
+		long position = snapshot == null ? -1 : snapshot.getPosition();
+		List<Event> events = new ArrayList<>();
+		
+		for (JournalRecord record : recovery.records) {
+			if (record.getPosition() > position) {
+				events.add(record.getEvent());
+				position = record.getPosition();
+			}
+		}
+		
+		if (snapshot == passivated && events.isEmpty()) {
+			return null;
+		}
+		
+		InstanceCreated created = new InstanceCreated();
+		created.begin();
+		StateMachine instance = registration.newInstance();
+		instance.setEventLog(journal);
+		instance.recover(instanceId, snapshot, events, position);
+		created.complete(stateMachineName, instanceId, true);
+		return instance;
 	}
 
 	/**
-	 * Unregisters a StateMachine.
+	 * Unregisters a StateMachine together with all of its instances.
 	 * 
 	 * @param name The name of the state machine to be unregistered
 	 */
 	public void unregister(String name) {
-		blueprints.remove(name);
-		removeFromInstances(name);
+		if (registrations.remove(name) != null && checkpointer != null) {
+			checkpointer.unregistered(name);
+		}
 	}
 	
-	private void removeFromInstances(final String name) {
-		Iterator<String> iterator = instances.keySet().iterator();
+	/**
+	 * @return the tables of the instances by state machine name
+	 */
+	Map<String, InstanceTable<StateMachine>> getInstanceTables() {
+		Map<String, InstanceTable<StateMachine>> tables = new HashMap<>();
+		registrations.forEach((name, registration) -> tables.put(name, registration.instances));
+		return tables;
+	}
+
+	/**
+	 * The snapshot and the journal records an instance is recovered from.
+	 */
+	private static final class Recovery {
+		private final InstanceSnapshot snapshot;
+		private final List<JournalRecord> records = new ArrayList<>();
 		
-		while (iterator.hasNext()) {
-			String id = iterator.next();
-			
-			if (id.startsWith(name)) {
-				iterator.remove();
-			}
+		private Recovery(final InstanceSnapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+	}
+
+	/**
+	 * A registered blueprint and the table of its instances.
+	 */
+	private static final class Registration {
+		private final InstanceTable<StateMachine> instances = new InstanceTable<>();
+		private volatile StateMachine blueprint;
+		
+		private Registration(final StateMachine blueprint) {
+			this.blueprint = blueprint;
+		}
+
+		private StateMachine newInstance() {
+			return blueprint.newInstance();
+		}
+		
+		private synchronized StateMachine replaceBlueprint(final StateMachine newBlueprint) {
+			StateMachine previous = blueprint;
+			blueprint = newBlueprint;
+			return previous;
 		}
 	}
 }
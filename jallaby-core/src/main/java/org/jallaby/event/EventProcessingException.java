@@ -45,7 +45,23 @@ public class EventProcessingException extends Exception {
 	 * @param cause The cause of this exception
 	 */	
 	public EventProcessingException(final EventError error, final Throwable cause) {
-		super(cause);
+		this(error, cause, true);
+	}
+
+	/**
+	 * Ctor taking an EventError object containing error information, a causing Throwable
+	 * and whether to capture the stack trace. Exceptions signalling expected outcomes, like
+	 * rejected events, skip capturing the stack trace as it's by far the most expensive part
+	 * of creating them.
+	 * 
+	 * @param error The error object
+	 * @param cause The cause of this exception
+	 * @param writableStackTrace Whether to capture the stack trace
+	 * @see EventRejection
+	 */
+	public EventProcessingException(final EventError error, final Throwable cause,
+			final boolean writableStackTrace) {
+		super(cause == null ? null : cause.toString(), cause, true, writableStackTrace);
 		
 		Objects.requireNonNull(error, "error must not be null");
 		this.error = error;
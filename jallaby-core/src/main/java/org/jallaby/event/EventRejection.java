@@ -0,0 +1,109 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.event;
+
+/**
+ * The reasons for rejecting an event with a fixed error code and description.
+ * <p>
+ * Rejections are raised by misbehaving clients rather than by faults of the container, so the
+ * exceptions signalling them don't capture a stack trace. Their errors only carry the
+ * coordinates of the rejected event besides the constants of the rejection.
+ * 
+ * @author Matthias Rothe
+ */
+public enum EventRejection {
+	
+	/**
+	 * The event is invalid for the state machine or its current state.
+	 */
+	INVALID_EVENT(100, "The given event is invalid for the given state machine."),
+	
+	/**
+	 * The state machine addressed by the event isn't registered.
+	 */
+	UNKNOWN_STATE_MACHINE(200, "The given state machine is unknown."),
+	
+	/**
+	 * A guard of the transition triggered by the event refused to proceed.
+	 */
+	TRANSITION_GUARD(202, "A transition guard prevented the event from being processed."),
+	
+	/**
+	 * The transition triggered by the event exits more states than are active.
+	 */
+	CANNOT_EXIT_STATES(300, "The transition cannot exit more states than are active.");
+	
+	private static final EventRejection[] VALUES = values();
+	
+	private final long errorCode;
+	private final String errorDescription;
+	
+	EventRejection(final long errorCode, final String errorDescription) {
+		this.errorCode = errorCode;
+		this.errorDescription = errorDescription;
+	}
+
+	/**
+	 * @return the code number of the error
+	 */
+	public long getErrorCode() {
+		return errorCode;
+	}
+
+	/**
+	 * @return the textual description of the error
+	 */
+	public String getErrorDescription() {
+		return errorDescription;
+	}
+
+	/**
+	 * @param event the rejected event
+	 * @return the error describing the rejection of the given event
+	 */
+	public EventError toError(final Event event) {
+		return new EventError(
+				event.getStateMachineName(),
+				event.getInstanceId().toString(),
+				event.getEventName(),
+				errorDescription,
+				errorCode);
+	}
+
+	/**
+	 * @param event the rejected event
+	 * @return the exception signalling the rejection of the given event, without a stack trace
+	 */
+	public EventProcessingException toException(final Event event) {
+		return new EventProcessingException(toError(event), null, false);
+	}
+
+	/**
+	 * @param errorCode the code number of an error
+	 * @return the rejection with the given error code or {@code null} if the error code doesn't
+	 * denote a rejection
+	 */
+	public static EventRejection of(final long errorCode) {
+		for (EventRejection rejection : VALUES) {
+			if (rejection.errorCode == errorCode) {
+				return rejection;
+			}
+		}
+		
+		return null;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jallaby.JallabyConfiguration;
+
+/**
+ * Holds the pool of threads running the actions of concurrent {@link TransitionActionGroup}s
+ * for all state machine instances.
+ * <p>
+ * The pool is sized by the <code>actions.threads</code> setting, defaulting to the number of
+ * available processors, and queues up to <code>actions.queue-depth</code> actions. Once the
+ * queue is full, actions run on the thread processing the event instead. A group waits at most
+ * <code>actions.timeout-millis</code> for its actions to finish.
+ * 
+ * @author Matthias Rothe
+ */
+final class ActionExecutor {
+	private static final ActionExecutor INSTANCE = from(JallabyConfiguration.getInstance());
+	
+	private final ThreadPoolExecutor executor;
+	private final long timeoutNanos;
+	
+	ActionExecutor(final int threads, final int queueDepth, final long timeoutMillis) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueDepth), runnable -> {
+					Thread thread = new Thread(runnable, "jallaby-actions-" + threadNumber.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+
+	private static ActionExecutor from(final JallabyConfiguration configuration) {
+		return new ActionExecutor(
+				Math.max(1, configuration.getInt("actions.threads", Runtime.getRuntime().availableProcessors())),
+				Math.max(1, configuration.getInt("actions.queue-depth", 1024)),
+				Math.max(1, configuration.getLong("actions.timeout-millis", 30000)));
+	}
+
+	/**
+	 * @return the executor shared by all state machine instances
+	 */
+	static ActionExecutor getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Runs the given actions concurrently, the last one on the calling thread, and waits for all
+	 * of them to finish. Actions still running once the timeout has elapsed are interrupted, which
+	 * doesn't stop actions not reacting to interruption.
+	 * Forked actions may raise events for the instance processing an event on the calling thread.
+	 * 
+	 * @param actions the actions to run
+	 * @param eventData the event data to run the actions with
+	 * @return the failures of the actions which threw an exception or timed out, empty if all
+	 * actions succeeded
+	 */
+	List<Throwable> runConcurrently(final List<TransitionAction> actions,
+			final Map<String, Map<String, Object>> eventData) {
+		List<Throwable> failures = new ArrayList<>();
+		
+		if (actions.isEmpty()) {
+			return failures;
+		}
+		
+		long deadline = System.nanoTime() + timeoutNanos;
+		List<Future<?>> forked = new ArrayList<>(actions.size() - 1);
+		StateMachine instance = StateMachine.processing();
+		
+		for (TransitionAction action : actions.subList(0, actions.size() - 1)) {
+			forked.add(executor.submit(() -> StateMachine.runAs(instance, () -> action.run(eventData))));
+		}
+		
+		try {
+			actions.get(actions.size() - 1).run(eventData);
+		} catch (RuntimeException | Error e) {
+			failures.add(e);
+		}
+		
+		for (Future<?> action : forked) {
+			join(action, deadline, failures);
+		}
+		
+		return failures;
+	}
+
+	private void join(final Future<?> action, final long deadline, final List<Throwable> failures) {
+		try {
+			action.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (ExecutionException e) {
+			failures.add(e.getCause());
+		} catch (TimeoutException e) {
+			action.cancel(true);
+			failures.add(e);
+		} catch (InterruptedException e) {
+			action.cancel(true);
+			failures.add(e);
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.jallaby.JallabyConfiguration;
+
+/**
+ * Holds the pool of carrier threads draining the {@link Mailbox}es of all state machine instances.
+ * <p>
+ * The pool is sized by the <code>dispatcher.threads</code> setting and defaults to the number of
+ * available processors. The <code>dispatcher.throughput</code> setting limits the number of events
+ * an instance may process before it has to give its carrier thread to the next instance.
+ * 
+ * @author Matthias Rothe
+ */
+final class Dispatcher {
+	private static final Dispatcher INSTANCE = new Dispatcher(JallabyConfiguration.getInstance());
+	
+	private final Executor executor;
+	private final int throughput;
+	
+	private Dispatcher(final JallabyConfiguration configuration) {
+		int threads = Math.max(1, configuration.getInt("dispatcher.threads",
+				Runtime.getRuntime().availableProcessors()));
+		
+		this.executor = new ForkJoinPool(threads, pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("jallaby-dispatcher-" + thread.getPoolIndex());
+			return thread;
+		}, null, true);
+		this.throughput = Math.max(1, configuration.getInt("dispatcher.throughput", 16));
+	}
+
+	/**
+	 * @return the dispatcher shared by all state machine instances
+	 */
+	static Dispatcher getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return a new mailbox drained by this dispatcher
+	 */
+	Mailbox newMailbox() {
+		return new Mailbox(executor, throughput);
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionStage;
+
+import org.jallaby.event.Event;
+import org.jallaby.event.EventResult;
+
+/**
+ * Records the events processed by state machine instances, so their position can be
+ * recovered by processing the same events again.
+ * 
+ * @author Matthias Rothe
+ */
+public interface EventLog {
+	
+	/**
+	 * Appends a processed event. Called by the instance right after processing the event,
+	 * so the events of an instance are appended in the order they have been processed.
+	 * 
+	 * @param event the processed event
+	 * @param result the result of processing the event or {@code null} if processing failed
+	 * @return the position of the appended record, growing with every record appended
+	 * @throws IOException in case the event couldn't be appended
+	 */
+	long append(Event event, EventResult result) throws IOException;
+	
+	/**
+	 * @param position the position of an appended record
+	 * @return the stage completed once the record has been stored as durably as configured
+	 */
+	CompletionStage<Void> sync(long position);
+}
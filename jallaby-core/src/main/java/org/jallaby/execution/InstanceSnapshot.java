@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.jallaby.event.Event;
+
+/**
+ * The position of a state machine instance: its active states, the events offered to its
+ * current state which didn't trigger a transition yet and whether it has been initialized.
+ * A snapshot is all that's needed to bring an instance back to life.
+ * <p>
+ * If the instance logs its events, the snapshot also records the position of the last event
+ * log record it reflects, so later records can be told apart.
+ * 
+ * @author Matthias Rothe
+ */
+public final class InstanceSnapshot {
+	private final List<String> activeStateNames;
+	private final List<Event> pendingEvents;
+	private final boolean initialized;
+	private final long position;
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param activeStateNames the names of the active states, the outermost state first
+	 * @param pendingEvents the events offered to the current state, in the order they've been offered
+	 * @param initialized whether the instance has been initialized
+	 */
+	public InstanceSnapshot(final List<String> activeStateNames, final List<Event> pendingEvents,
+			final boolean initialized) {
+		this(activeStateNames, pendingEvents, initialized, -1);
+	}
+
+	/**
+	 * Ctor.
+	 * 
+	 * @param activeStateNames the names of the active states, the outermost state first
+	 * @param pendingEvents the events offered to the current state, in the order they've been offered
+	 * @param initialized whether the instance has been initialized
+	 * @param position the position of the last event log record reflected, {@code -1} if none
+	 */
+	public InstanceSnapshot(final List<String> activeStateNames, final List<Event> pendingEvents,
+			final boolean initialized, final long position) {
+		Objects.requireNonNull(activeStateNames, "activeStateNames must not be null");
+		Objects.requireNonNull(pendingEvents, "pendingEvents must not be null");
+		
+		this.activeStateNames = Collections.unmodifiableList(new ArrayList<>(activeStateNames));
+		this.pendingEvents = Collections.unmodifiableList(new ArrayList<>(pendingEvents));
+		this.initialized = initialized;
+		this.position = position;
+	}
+
+	/**
+	 * @return the names of the active states, the outermost state first
+	 */
+	public List<String> getActiveStateNames() {
+		return activeStateNames;
+	}
+
+	/**
+	 * @return the events offered to the current state, in the order they've been offered
+	 */
+	public List<Event> getPendingEvents() {
+		return pendingEvents;
+	}
+
+	/**
+	 * @return whether the instance has been initialized
+	 */
+	public boolean isInitialized() {
+		return initialized;
+	}
+
+	/**
+	 * @return the position of the last event log record reflected, {@code -1} if none
+	 */
+	public long getPosition() {
+		return position;
+	}
+}
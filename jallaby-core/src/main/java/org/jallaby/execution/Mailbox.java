@@ -0,0 +1,163 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free multi producer, single consumer mailbox. Tasks submitted to the mailbox
+ * are run one at a time in submission order on a thread of the given {@link Executor},
+ * so the owner of the mailbox never needs to be locked.
+ * <p>
+ * A mailbox can be closed from within one of its own tasks, once no other task is waiting.
+ * A closed mailbox rejects further tasks, which allows its owner to be retired safely.
+ * 
+ * @author Matthias Rothe
+ */
+final class Mailbox implements Runnable {
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final AtomicInteger submitting = new AtomicInteger();
+	private final Executor executor;
+	private final int throughput;
+	
+	private volatile boolean closed;
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param executor the executor draining the mailbox
+	 * @param throughput the maximum number of tasks to run before yielding the thread
+	 */
+	Mailbox(final Executor executor, final int throughput) {
+		Objects.requireNonNull(executor, "executor must not be null");
+		
+		if (throughput < 1) {
+			throw new IllegalArgumentException("throughput must be at least 1");
+		}
+		
+		this.executor = executor;
+		this.throughput = throughput;
+	}
+
+	/**
+	 * Enqueues the given task. It will be run after all tasks enqueued before it have finished.
+	 * 
+	 * @param <T> the type of the result of the task
+	 * @param task the task to enqueue
+	 * @return the stage completed with the result or the exception of the task, or {@code null}
+	 * if the mailbox has been closed
+	 */
+	<T> CompletionStage<T> submit(final Callable<T> task) {
+		Objects.requireNonNull(task, "task must not be null");
+		
+		submitting.incrementAndGet();
+		
+		try {
+			if (closed) {
+				return null;
+			}
+			
+			CompletableFuture<T> future = new CompletableFuture<>();
+			
+			tasks.add(() -> {
+				try {
+					future.complete(task.call());
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			});
+			
+			return future;
+		} finally {
+			submitting.decrementAndGet();
+			schedule();
+		}
+	}
+
+	/**
+	 * @return {@code true} if a task is running or waiting to be run, so a task submitted now
+	 * would have to wait
+	 */
+	boolean isBusy() {
+		return scheduled.get() || !tasks.isEmpty();
+	}
+
+	/**
+	 * Closes this mailbox, unless there are tasks waiting to be run. Must only be called from
+	 * within a task of this mailbox.
+	 * 
+	 * @return {@code true} if and only if the mailbox has been closed
+	 */
+	boolean close() {
+		closed = true;
+		
+		while (submitting.get() > 0) {
+			Thread.onSpinWait();
+		}
+		
+		if (!tasks.isEmpty()) {
+			closed = false;
+		}
+		
+		return closed;
+	}
+
+	/**
+	 * Reopens this mailbox after it has been closed.
+	 */
+	void reopen() {
+		closed = false;
+	}
+
+	private void schedule() {
+		if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this);
+			} catch (RuntimeException e) {
+				scheduled.set(false);
+				throw e;
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			for (int i = 0; i < throughput; i++) {
+				Runnable task = tasks.poll();
+				
+				if (task == null) {
+					break;
+				}
+				
+				task.run();
+			}
+		} finally {
+			scheduled.set(false);
+			schedule();
+		}
+	}
+}
@@ -16,6 +16,7 @@
 
 package org.jallaby.execution;
 
+import java.util.List;
 import java.util.Map;
 
 import org.jallaby.event.Event;
@@ -23,6 +24,10 @@ import org.jallaby.event.EventProcessingException;
 
 /**
  * States of a {@link StateMachine} implement this interface.
+ * <p>
+ * A state is a definition shared by all instances of its state machine, so it must not keep
+ * any state of a single instance. The events offered to it by an instance so far are kept by
+ * that instance and handed to {@link #offerEvent(Event, List)}.
  * 
  * @author Matthias Rothe
  */
@@ -33,15 +38,13 @@ public interface State {
 	 * to another state.
 	 * 
 	 * @param event the event to offer
-	 * @return the transition, if any
-	 * @throws EventProcessingException if an exception occurs while processing the event
+	 * @param offeredEvents the events offered to this state by the same instance since the last
+	 * transition, in the order they have been offered, which must not be modified
+	 * @return the transition referencing exactly the offered events and the given event, if any
+	 * @throws EventProcessingException if an exception occurs while processing the event, like
+	 * the event not being referenced by any transition together with the offered events
 	 */
-	Transition offerEvent(Event event) throws EventProcessingException;
-	
-	/**
-	 * @return the event data of all successfully offered states
-	 */
-	Map<String, Map<String, Object>> getEventData();
+	Transition offerEvent(Event event, List<Event> offeredEvents) throws EventProcessingException;
 	
 	/**
 	 * The entry action for the state.
@@ -63,4 +66,12 @@ public interface State {
 	 * @return the name of the state
 	 */
 	String getName();
+	
+	/**
+	 * @return the timeout of the state, started whenever the state is entered, or {@code null}
+	 * if the state has none
+	 */
+	default StateTimeout getTimeout() {
+		return null;
+	}
 }
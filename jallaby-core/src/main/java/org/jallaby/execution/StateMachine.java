@@ -16,39 +16,72 @@
 
 package org.jallaby.execution;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import org.jallaby.event.Event;
-import org.jallaby.event.EventError;
 import org.jallaby.event.EventProcessingException;
+import org.jallaby.event.EventRejection;
 import org.jallaby.event.EventResult;
 import org.jallaby.event.EventValidator;
+import org.jallaby.jfr.MonitorContended;
+import org.jallaby.jfr.TransitionPerformed;
+import org.jallaby.metrics.MachineMetrics;
+import org.jallaby.metrics.Metrics;
 import org.jallaby.util.Stack;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A state machine, consisting of {@link State}s and their {@link Transition}s.
+ * <p>
+ * The states and transitions are immutable definitions shared by all instances of a state
+ * machine, see {@link #newInstance()}. Each instance only keeps its active states and the
+ * events offered to its current state so far, so instances are cheap to create and may process
+ * their events in parallel.
  * 
  * @author Matthias Rothe
  */
 public class StateMachine {
 	private static final Logger LOGGER = LoggerFactory.getLogger(StateMachine.class);
 	private static final String STATE_PENDING = "STATE PENDING";
+	private static final String COMPLETION_EVENT = "finished";
+	private static final ThreadLocal<StateMachine> PROCESSING = new ThreadLocal<>();
+	private static final boolean METRICS_ENABLED = Metrics.getInstance().isEnabled();
 	
-	private final String name;
-	private final State initialState;
-	private final EventValidator validator;
+	private final Definition definition;
+	private final Mailbox mailbox = Dispatcher.getInstance().newMailbox();
+	private final ConcurrentLinkedQueue<Event> raisedEvents = new ConcurrentLinkedQueue<>();
 	
 	private Stack<State> currentStates = new Stack<>();
+	private List<Event> pendingEvents = new ArrayList<>();
+	private EventLog eventLog;
+	private Event completionEvent;
+	private boolean completionPending;
+	private volatile String processingInstanceId;
+	private UUID instanceId;
+	private Map<String, TimeoutTask> stateTimeouts;
+	private volatile CompletableFuture<Boolean> passivation = CompletableFuture.completedFuture(false);
+	private boolean recovering;
+	private long logPosition = -1;
 	private boolean initialized;
+	private volatile boolean dirty;
+	private volatile long lastAccess = System.nanoTime();
 	
 	/**
 	 * Ctor.
@@ -58,27 +91,53 @@ public class StateMachine {
 	 * @param validator the event validator
 	 */
 	public StateMachine(final String name, final State initialState, final EventValidator validator) {
-		Objects.requireNonNull(name, "name must not be null");
-		Objects.requireNonNull(initialState, "initialState must not be null");
-		Objects.requireNonNull(validator, "validator must not be null");
-		
-		this.name = name;
-		this.initialState = initialState;
-		this.validator = validator;
+		this(name, initialState, validator, stateName -> null);
+	}
+
+	/**
+	 * Ctor.
+	 * 
+	 * @param name the name of the state machine
+	 * @param initialState the initial state of the state machine
+	 * @param validator the event validator
+	 * @param stateResolver provides the state with the given name, or {@code null} if there is
+	 * none, for restoring snapshots naming states no instance has entered yet
+	 */
+	public StateMachine(final String name, final State initialState, final EventValidator validator,
+			final Function<String, State> stateResolver) {
+		this(name, initialState, validator, stateResolver, new ConcurrentHashMap<>());
+	}
+
+	private StateMachine(final String name, final State initialState, final EventValidator validator,
+			final Function<String, State> stateResolver, final Map<String, State> knownStates) {
+		this(new Definition(name, initialState, validator, stateResolver, knownStates));
+		remember(initialState);
+	}
+
+	private StateMachine(final Definition definition) {
+		this.definition = definition;
 	}
 	
 	/**
 	 * @return the name of the state machine
 	 */
 	public String getName() {
-		return name;
+		return definition.name;
 	}	
 
 	/**
 	 * @return a new instance of this state machine
 	 */
 	public StateMachine newInstance() {
-		return new StateMachine(name, initialState, validator);
+		return new StateMachine(definition);
+	}
+
+	/**
+	 * @return the value of {@link System#nanoTime()} when this instance last processed an event
+	 * or has been created
+	 */
+	public long getLastAccess() {
+		return lastAccess;
 	}
 	
 	/**
@@ -89,28 +148,303 @@ public class StateMachine {
 	 * {@code false} otherwise
 	 */
 	public boolean isValidEvent(Event event) {
-		return validator.isValidEvent(event);
+		return definition.validator.isValidEvent(event);
+	}
+
+	/**
+	 * Enqueues the given event into the mailbox of this state machine instance. The events of
+	 * an instance are processed one after the other in the order they have been submitted,
+	 * without blocking the submitting thread.
+	 * 
+	 * @param event the event to process
+	 * @return the stage completed with the result of processing the event, or exceptionally with
+	 * an {@link EventProcessingException} in case of an error while processing the event, or
+	 * {@code null} if this instance has been passivated and must be looked up again
+	 */
+	public CompletionStage<EventResult> submitEvent(final Event event) {
+		Objects.requireNonNull(event, "event must not be null");
+		
+		if (eventLog == null) {
+			return mailbox.submit(watch(event, () -> processEvent(event)));
+		}
+		
+		CompletionStage<CompletionStage<EventResult>> logged = mailbox.submit(
+				watch(event, () -> processAndLog(event)));
+		return logged == null ? null : logged.thenCompose(Function.identity());
+	}
+
+	/**
+	 * Enqueues the given events of this instance into its mailbox as a single task, so the
+	 * events are processed one after the other in the given order without giving the carrier
+	 * thread to another instance in between.
+	 * 
+	 * @param events the events to process
+	 * @return the stages completed with the results of processing the events, in the order of
+	 * the events, or {@code null} if this instance has been passivated and must be looked up
+	 * again, in which case none of the events has been processed
+	 */
+	public List<CompletionStage<EventResult>> submitEvents(final List<Event> events) {
+		Objects.requireNonNull(events, "events must not be null");
+		
+		List<CompletableFuture<EventResult>> results = new ArrayList<>(events.size());
+		
+		for (int i = 0; i < events.size(); i++) {
+			results.add(new CompletableFuture<>());
+		}
+		
+		Callable<Void> task = () -> {
+			for (int i = 0; i < events.size(); i++) {
+				process(events.get(i), results.get(i));
+			}
+			
+			return null;
+		};
+		CompletionStage<Void> submitted = mailbox.submit(events.isEmpty() ? task : watch(events.get(0), task));
+		
+		return submitted == null ? null : new ArrayList<>(results);
+	}
+
+	private <T> Callable<T> watch(final Event event, final Callable<T> task) {
+		MonitorContended contended = new MonitorContended();
+		
+		if (!contended.isEnabled() || !mailbox.isBusy()) {
+			return task;
+		}
+		
+		contended.begin();
+		
+		return () -> {
+			contended.complete(getName(), event.getInstanceId(), event.getEventName());
+			return task.call();
+		};
+	}
+
+	private void process(final Event event, final CompletableFuture<EventResult> result) {
+		try {
+			if (eventLog == null) {
+				result.complete(processEvent(event));
+			} else {
+				processAndLog(event).whenComplete((processed, throwable) -> {
+					if (throwable == null) {
+						result.complete(processed);
+					} else {
+						result.completeExceptionally(throwable);
+					}
+				});
+			}
+		} catch (Exception e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	private CompletionStage<EventResult> processAndLog(final Event event)
+			throws EventProcessingException, IOException {
+		EventResult result;
+		
+		try {
+			result = processEvent(event);
+		} catch (EventProcessingException | RuntimeException e) {
+			try {
+				log(event, null);
+			} catch (IOException logFailure) {
+				e.addSuppressed(logFailure);
+			}
+			
+			throw e;
+		}
+		
+		return eventLog.sync(log(event, result)).thenApply(synced -> result);
+	}
+
+	private long log(final Event event, final EventResult result) throws IOException {
+		logPosition = eventLog.append(event, result);
+		dirty = true;
+		return logPosition;
+	}
+
+	/**
+	 * Sets the log every event processed by this instance is appended to, once processed.
+	 * Must be called before the instance is shared with other threads.
+	 * 
+	 * @param eventLog the event log or {@code null} if events shouldn't be logged
+	 */
+	public void setEventLog(final EventLog eventLog) {
+		this.eventLog = eventLog;
 	}
 
 	/**
-	 * Processes the given event.
+	 * Processes the given event on the calling thread. This method isn't thread safe, so
+	 * callers sharing an instance must use {@link #submitEvent(Event)} instead.
+	 * <p>
+	 * Processing follows run-to-completion semantics: once the given event has been processed,
+	 * the completion event of a finished state and the events raised by the actions, see
+	 * {@link #raiseEvent(String, Map)}, are processed one after the other, before this method
+	 * returns. Completion events take precedence over raised events.
 	 * 
 	 * @param event the event to process
-	 * @return the result of processing the event
-	 * @throws EventProcessingException in case an exception occurs while processing the event
+	 * @return the result of processing the last event, that is the given event unless it caused
+	 * further events to be processed
+	 * @throws EventProcessingException in case an exception occurs while processing the given
+	 * event or the events it caused, in which case the events still queued are dropped
 	 */
-	public synchronized EventResult processEvent(Event event) throws EventProcessingException {
+	public EventResult processEvent(Event event) throws EventProcessingException {
 		Objects.requireNonNull(event, "event must not be null");
+		lastAccess = System.nanoTime();
+		
+		StateMachine outer = PROCESSING.get();
+		PROCESSING.set(this);
+		processingInstanceId = event.getInstanceId().toString();
+		instanceId = event.getInstanceId();
+		long start = METRICS_ENABLED ? System.nanoTime() : 0;
+		boolean failed = true;
+		
+		try {
+			EventResult result = step(event);
+			Event next = nextInternalEvent();
+			
+			while (next != null) {
+				result = step(next);
+				next = nextInternalEvent();
+			}
+			
+			failed = false;
+			return result;
+		} finally {
+			completionPending = false;
+			raisedEvents.clear();
+			processingInstanceId = null;
+			PROCESSING.set(outer);
+			
+			if (METRICS_ENABLED) {
+				definition.metrics.recordEvent(System.nanoTime() - start, failed);
+			}
+		}
+	}
+
+	/**
+	 * Raises an event for the state machine instance processing an event on the calling thread.
+	 * Meant to be called from within actions, including concurrent transition actions. The
+	 * event is queued and processed by that instance once the current event has been processed,
+	 * before any other event submitted to the instance.
+	 * 
+	 * @param eventName the name of the event
+	 * @param payload the payload of the event, may be {@code null}
+	 * @throws IllegalStateException if no state machine instance is processing an event on the
+	 * calling thread
+	 */
+	public static void raiseEvent(final String eventName, final Map<String, Object> payload) {
+		Objects.requireNonNull(eventName, "eventName must not be null");
+		StateMachine instance = PROCESSING.get();
+		
+		if (instance == null) {
+			throw new IllegalStateException(String.format("The event [%s] cannot be raised as no"
+					+ " state machine instance is processing an event on this thread.", eventName));
+		}
+		
+		String instanceId = instance.processingInstanceId;
+		
+		if (instanceId == null) {
+			LOGGER.warn(String.format("The event [%s] raised after state machine [%s] finished"
+					+ " processing its event is dropped.", eventName, instance.getName()));
+			return;
+		}
+		
+		instance.raisedEvents.add(new Event(instance.getName(), instanceId, eventName, payload));
+	}
+
+	/**
+	 * Schedules an event for the state machine instance processing an event on the calling
+	 * thread. Meant to be called from within actions. Once the delay has elapsed, the event is
+	 * submitted to the instance like any other event. Delayed events don't survive a restart.
+	 * 
+	 * @param eventName the name of the event
+	 * @param payload the payload of the event, may be {@code null}
+	 * @param delayMillis the delay in milliseconds
+	 * @return the timer of the event, to cancel it
+	 * @throws IllegalStateException if no state machine instance is processing an event on the
+	 * calling thread
+	 */
+	public static Timer scheduleEvent(final String eventName, final Map<String, Object> payload,
+			final long delayMillis) {
+		Objects.requireNonNull(eventName, "eventName must not be null");
+		StateMachine instance = PROCESSING.get();
+		String instanceId = instance == null ? null : instance.processingInstanceId;
+		
+		if (instanceId == null) {
+			throw new IllegalStateException(String.format("The event [%s] cannot be scheduled as no"
+					+ " state machine instance is processing an event on this thread.", eventName));
+		}
+		
+		Event event = new Event(instance.getName(), instanceId, eventName, payload);
+		return TimingWheel.getInstance().schedule(() -> instance.fire(event, null), delayMillis);
+	}
+
+	/**
+	 * Sets how events of timers are delivered once this instance has been passivated, usually
+	 * by looking up its reactivated successor. Applies to all instances of this state machine.
+	 * 
+	 * @param eventRouter delivers the given event to the current instance it addresses
+	 */
+	public void setEventRouter(final Function<Event, CompletionStage<EventResult>> eventRouter) {
+		Objects.requireNonNull(eventRouter, "eventRouter must not be null");
+		definition.eventRouter = eventRouter;
+	}
+
+	/**
+	 * @return the id of the instance processing an event on the calling thread, or {@code null}
+	 * if there is none
+	 */
+	public static UUID getProcessingInstanceId() {
+		StateMachine instance = PROCESSING.get();
+		return instance == null ? null : instance.instanceId;
+	}
+
+	/**
+	 * @return the state machine instance processing an event on the calling thread, or
+	 * {@code null} if there is none
+	 */
+	static StateMachine processing() {
+		return PROCESSING.get();
+	}
+
+	/**
+	 * Runs the given action as if the given instance were processing an event on the calling
+	 * thread, so the action may raise events for it.
+	 * 
+	 * @param instance the instance or {@code null}
+	 * @param action the action to run
+	 */
+	static void runAs(final StateMachine instance, final Runnable action) {
+		StateMachine outer = PROCESSING.get();
+		PROCESSING.set(instance);
+		
+		try {
+			action.run();
+		} finally {
+			PROCESSING.set(outer);
+		}
+	}
+
+	private Event nextInternalEvent() {
+		if (completionPending) {
+			completionPending = false;
+			return completionEvent;
+		}
 		
+		return raisedEvents.poll();
+	}
+
+	private EventResult step(final Event event) throws EventProcessingException {
 		if (!initialized) {
 			init();
 		}
 
 		State currentState = currentStates.peek();
-		Transition transition = currentState.offerEvent(event);
+		Transition transition = currentState.offerEvent(event, pendingEvents);
+		pendingEvents.add(event);
 		
 		if (transition != null) {
-			return performTransition(currentState, transition, event);
+			return performTransition(transition, event);
 		} else {
 			return new EventResult(
 					event.getStateMachineName(),
@@ -120,40 +454,266 @@ public class StateMachine {
 	}
 
 	private void init() {
-		currentStates.push(initialState);
-		currentStates.peek().performEntryAction(null);
+		currentStates.push(remember(definition.initialState));
+		performEntryAction(currentStates.peek(), null);
+		armTimeout(currentStates.peek());
 		initialized = true;
 	}
 	
-	private EventResult performTransition(State state, Transition transition, Event event)
+	private State remember(final State state) {
+		if (state.getName() != null && !definition.knownStates.containsKey(state.getName())) {
+			definition.knownStates.putIfAbsent(state.getName(), state);
+		}
+		
+		return state;
+	}
+
+	/**
+	 * Enqueues the passivation of this instance into its mailbox. Once all events submitted
+	 * before have been processed, the snapshot of this instance is handed to the given sink,
+	 * while no further events are accepted. If the sink accepts the snapshot, this instance
+	 * is retired for good and {@link #submitEvent(Event)} returns {@code null} from then on.
+	 * 
+	 * @param sink stores the snapshot, returning {@code true} if and only if it did so and
+	 * this instance may be retired
+	 * @return the stage completed with {@code true} if and only if this instance has been
+	 * retired, or {@code null} if it had been retired before
+	 */
+	public CompletionStage<Boolean> passivate(final Predicate<InstanceSnapshot> sink) {
+		Objects.requireNonNull(sink, "sink must not be null");
+		
+		return mailbox.submit(() -> {
+			CompletableFuture<Boolean> done = new CompletableFuture<>();
+			passivation = done;
+			
+			if (!mailbox.close()) {
+				done.complete(false);
+				return false;
+			}
+			
+			boolean passivated = false;
+			
+			try {
+				passivated = sink.test(snapshot());
+				
+				if (passivated) {
+					cancelTimeouts();
+				}
+				
+				return passivated;
+			} finally {
+				if (!passivated) {
+					mailbox.reopen();
+				}
+				
+				done.complete(passivated);
+			}
+		});
+	}
+
+	/**
+	 * Lets the submitters of events rejected by a closed mailbox wait for the passivation in
+	 * progress instead of spinning until the instance has been replaced.
+	 * 
+	 * @return the stage completed once the latest passivation has finished, with {@code true}
+	 * if and only if this instance has been retired by it
+	 */
+	public CompletionStage<Boolean> whenPassivated() {
+		return passivation;
+	}
+
+	/**
+	 * Enqueues the restoration of this instance from the snapshot provided by the given source.
+	 * Events submitted afterwards are processed by the restored instance. The timeouts of the
+	 * states active once restored start afresh.
+	 * 
+	 * @param instanceId the id of this instance
+	 * @param source provides the snapshot to restore this instance from, or {@code null} if
+	 * there is none, in which case this instance starts afresh
+	 * @param restored notified within the mailbox once the snapshot provided has been restored,
+	 * with {@code null}, or with the exception restoring it failed with, before any further
+	 * event is processed
+	 * @return the stage completed with {@code true} if and only if this instance has been
+	 * restored, or {@code null} if it has been retired
+	 */
+	public CompletionStage<Boolean> restore(final UUID instanceId, final Callable<InstanceSnapshot> source,
+			final Consumer<Exception> restored) {
+		Objects.requireNonNull(instanceId, "instanceId must not be null");
+		Objects.requireNonNull(source, "source must not be null");
+		Objects.requireNonNull(restored, "restored must not be null");
+		
+		return mailbox.submit(() -> {
+			InstanceSnapshot snapshot = source.call();
+			
+			if (snapshot == null) {
+				return false;
+			}
+			
+			try {
+				restore(snapshot);
+			} catch (EventProcessingException | RuntimeException e) {
+				restored.accept(e);
+				throw e;
+			}
+			
+			this.instanceId = instanceId;
+			armTimeouts();
+			restored.accept(null);
+			return true;
+		});
+	}
+
+	/**
+	 * Enqueues taking a snapshot of this instance into its mailbox, so it's taken in between
+	 * processing two events. Instances not logging their events are never dirty.
+	 * 
+	 * @param onlyIfDirty whether to skip taking the snapshot if this instance hasn't logged any
+	 * events since the last snapshot
+	 * @return the stage completed with the snapshot, or with {@code null} if it has been skipped,
+	 * or {@code null} if this instance has been retired
+	 */
+	public CompletionStage<InstanceSnapshot> checkpoint(final boolean onlyIfDirty) {
+		return mailbox.submit(() -> {
+			if (onlyIfDirty && !dirty) {
+				return null;
+			}
+			
+			dirty = false;
+			return snapshot();
+		});
+	}
+
+	/**
+	 * Brings this instance to the position given by a snapshot and the events logged after it,
+	 * processing the events again on the calling thread. Events failing again are skipped. Must
+	 * be called before the instance is shared with other threads.
+	 * 
+	 * <p>
+	 * The timeouts of the states active once recovered start afresh.
+	 * 
+	 * @param instanceId the id of this instance
+	 * @param snapshot the snapshot to start from or {@code null} to start afresh
+	 * @param events the events logged after the snapshot, in the order they have been logged
+	 * @param position the position of the last event log record to recover
+	 * @throws EventProcessingException in case the snapshot couldn't be restored
+	 */
+	public void recover(final UUID instanceId, final InstanceSnapshot snapshot, final List<Event> events,
+			final long position) throws EventProcessingException {
+		Objects.requireNonNull(instanceId, "instanceId must not be null");
+		Objects.requireNonNull(events, "events must not be null");
+		
+		if (snapshot != null) {
+			restore(snapshot);
+		}
+		
+		recovering = true;
+		
+		for (Event event : events) {
+			try {
+				processEvent(event);
+			} catch (EventProcessingException | RuntimeException e) {
+				LOGGER.debug(String.format("Recovered event [%s] of instance [%s] failed again.",
+						event.getEventName(), event.getInstanceId()), e);
+			}
+		}
+		
+		recovering = false;
+		this.instanceId = instanceId;
+		armTimeouts();
+		
+		logPosition = position;
+		dirty = !events.isEmpty();
+	}
+
+	private InstanceSnapshot snapshot() {
+		List<String> activeStateNames = new ArrayList<>(currentStates.size());
+		
+		for (int i = 0; i < currentStates.size(); i++) {
+			activeStateNames.add(currentStates.get(i).getName());
+		}
+		
+		return new InstanceSnapshot(activeStateNames, new ArrayList<>(pendingEvents), initialized,
+				logPosition);
+	}
+
+	private void restore(final InstanceSnapshot snapshot) throws EventProcessingException {
+		Stack<State> restoredStates = new Stack<>();
+		
+		for (String stateName : snapshot.getActiveStateNames()) {
+			State state = definition.knownStates.get(stateName);
+			
+			if (state == null) {
+				state = definition.stateResolver.apply(stateName);
+			}
+			
+			if (state == null) {
+				throw new IllegalStateException(String.format(
+						"The state [%s] of state machine [%s] is unknown.", stateName, getName()));
+			}
+			
+			restoredStates.push(remember(state));
+		}
+		
+		currentStates = restoredStates;
+		pendingEvents = new ArrayList<>(snapshot.getPendingEvents());
+		initialized = snapshot.isInitialized();
+		logPosition = snapshot.getPosition();
+	}
+
+	private EventResult performTransition(Transition transition, Event event)
 	throws EventProcessingException {
-		Map<String, Map<String, Object>> eventData = state.getEventData();
+		Map<String, Map<String, Object>> eventData = getEventData();
+		StateInfo stateInfo = transition.getTargetStateInfo();
+		String nameOfSourceState = currentStates.peek().getName();
+		String nameOfNewState = stateInfo.getStates().peekLast().getName();
+		long start = METRICS_ENABLED ? System.nanoTime() : 0;
+		boolean canProceed = canProceed(transition.getTransitionGuards(), eventData);
+		
+		if (METRICS_ENABLED) {
+			definition.metrics.recordGuards(nameOfSourceState, nameOfNewState, System.nanoTime() - start);
+		}
 		
-		if (canProceed(transition.getTransitionGuards(), eventData)) {
-			StateInfo stateInfo = transition.getTargetStateInfo();
-			String nameOfNewState = stateInfo.getStates().peekLast().getName();
+		if (canProceed) {
+			TransitionPerformed performed = new TransitionPerformed();
+			performed.begin();
+			pendingEvents.clear();
 			int statesToExit = stateInfo.getStatesToExit();
 			
 			if (statesToExit >= 1) {
 				exitStates(statesToExit, event, eventData);
 			}
 			
-			performTransitionActions(transition.getTransitionActionGroups(), eventData);
-			EventResult result = enterNewStates(stateInfo, eventData, event.getInstanceId());
+			start = METRICS_ENABLED ? System.nanoTime() : 0;
+			performTransitionActions(transition.getTransitionActionGroups(), event, eventData);
 			
-			if (result == null) {
-				result =  new EventResult(
-						getName(),
-						event.getInstanceId().toString(),
-						nameOfNewState);
+			if (METRICS_ENABLED) {
+				definition.metrics.recordTransitionActions(nameOfSourceState, nameOfNewState,
+						System.nanoTime() - start);
 			}
 			
-			return result;
+			enterNewStates(stateInfo, eventData, event.getInstanceId());
+			performed.complete(getName(), event.getInstanceId(), event.getEventName(), nameOfSourceState,
+					nameOfNewState);
+			
+			return new EventResult(
+					getName(),
+					event.getInstanceId().toString(),
+					nameOfNewState);
 		} else {
 			throw causedByTransitionGuard(event);
 		}
 	}
 
+	private Map<String, Map<String, Object>> getEventData() {
+		Map<String, Map<String, Object>> eventData = new HashMap<>();
+		
+		for (Event event : pendingEvents) {
+			eventData.put(event.getEventName(), event.getPayload());
+		}
+		
+		return eventData;
+	}
+
 	private boolean canProceed(final List<TransitionGuard> transitionGuards,
 			final Map<String, Map<String, Object>> eventData) {
 		for (TransitionGuard guard : transitionGuards) {
@@ -166,53 +726,55 @@ public class StateMachine {
 	}
 
 	private EventProcessingException causedByTransitionGuard(Event event) {
-		return new EventProcessingException(
-				new EventError(
-						event.getStateMachineName(),
-						event.getInstanceId().toString(),
-						event.getEventName(),
-						"A transition guard prevented the event from being processed.",
-						202));
+		return EventRejection.TRANSITION_GUARD.toException(event);
 	}
 
 	private void exitStates(int statesToExit, Event event,
 			Map<String, Map<String, Object>> eventData)
 	throws EventProcessingException {
 		if (statesToExit > currentStates.size()) {
-			throw new EventProcessingException(new EventError(
-					event.getStateMachineName(),
-					event.getInstanceId().toString(),
-					event.getEventName(),
-					"Cannot exit " + statesToExit + " states, as there are only "
-					+ currentStates.size() + " states available.",
-					300));
+			throw EventRejection.CANNOT_EXIT_STATES.toException(event);
 		}
 		
 		for (int i = 0; i < statesToExit; i++) {
-			currentStates.pop().performExitAction(eventData);
+			State state = currentStates.pop();
+			cancelTimeout(state);
+			long start = METRICS_ENABLED ? System.nanoTime() : 0;
+			state.performExitAction(eventData);
+			
+			if (METRICS_ENABLED) {
+				definition.metrics.recordExitAction(state.getName(), System.nanoTime() - start);
+			}
 		}
 	}
 
 	private void performTransitionActions(final List<TransitionActionGroup> transitionActionGroups,
-			final Map<String, Map<String, Object>> eventData) {
+			final Event event, final Map<String, Map<String, Object>> eventData) {
 		for (TransitionActionGroup group : transitionActionGroups) {
 			if (group.isConcurrent()) {
-				performTransitionActionsConcurrently(group, eventData);
+				performTransitionActionsConcurrently(group, event, eventData);
 			} else if (group.isSequential()) {
 				performTransitionActionsSequentially(group, eventData);
 			}
 		}
 	}
 
+	/**
+	 * Runs the actions of the given group concurrently. Just like the failures of sequential
+	 * actions, failed or timed out actions don't abort the transition, which has already exited
+	 * its source states, but are logged. A timed out action is only interrupted, so an action not
+	 * reacting to interruption keeps running into the transitions following this one.
+	 */
 	private void performTransitionActionsConcurrently(final TransitionActionGroup group,
-			Map<String, Map<String, Object>> eventData) {
-		ExecutorService service = Executors.newCachedThreadPool();
+			final Event event, final Map<String, Map<String, Object>> eventData) {
+		List<Throwable> failures = ActionExecutor.getInstance().runConcurrently(
+				group.getTransitionActions(), eventData);
 		
-		for (TransitionAction action : group.getTransitionActions()) {
-			service.execute(() -> action.run(eventData));
+		for (Throwable failure : failures) {
+			LOGGER.warn(String.format("A concurrent transition action failed or timed out while processing"
+					+ " the event [%s] of instance [%s]. Timed out actions not reacting to interruption keep"
+					+ " running.", event.getEventName(), event.getInstanceId()), failure);
 		}
-		
-		service.shutdown();
 	}
 
 	private void performTransitionActionsSequentially(final TransitionActionGroup group,
@@ -222,26 +784,170 @@ public class StateMachine {
 		}
 	}
 
-	private EventResult enterNewStates(StateInfo stateInfo,
-			Map<String, Map<String, Object>> eventData, UUID instanceId) throws EventProcessingException {
+	private void enterNewStates(StateInfo stateInfo,
+			Map<String, Map<String, Object>> eventData, UUID instanceId) {
 		Iterator<State> stateIterator = stateInfo.getStates().iterator();
 		
 		while (stateIterator.hasNext()) {
 			State state = stateIterator.next();
-			currentStates.push(state);
-			FinishState finishState = state.performEntryAction(eventData);
+			currentStates.push(remember(state));
+			FinishState finishState = performEntryAction(state, eventData);
+			armTimeout(state);
 			
 			if (finishState == FinishState.FINISHED) {
 				if (!stateIterator.hasNext()) {
-					return processEvent(new Event(getName(), instanceId.toString(),
-							"finished", new HashMap<>()));
+					completionPending = true;
+					
+					if (completionEvent == null || !completionEvent.getInstanceId().equals(instanceId)) {
+						completionEvent = new Event(getName(), instanceId.toString(), COMPLETION_EVENT,
+								Collections.emptyMap());
+					}
 				} else {
 					LOGGER.warn(String.format("State [%s] cannot be finished as"
 							+ " there are more states to enter!", state.getName()));
 				}
 			}
 		}
+	}
+
+	private FinishState performEntryAction(final State state,
+			final Map<String, Map<String, Object>> eventData) {
+		long start = METRICS_ENABLED ? System.nanoTime() : 0;
+		FinishState finishState = state.performEntryAction(eventData);
+		
+		if (METRICS_ENABLED) {
+			definition.metrics.recordEntryAction(state.getName(), System.nanoTime() - start);
+		}
 		
-		return null;
+		return finishState;
+	}
+
+	private void armTimeout(final State state) {
+		StateTimeout timeout = state.getTimeout();
+		
+		if (timeout == null || recovering || instanceId == null) {
+			return;
+		}
+		
+		if (stateTimeouts == null) {
+			stateTimeouts = new HashMap<>();
+		}
+		
+		TimeoutTask task = new TimeoutTask(state.getName(), new Event(getName(), instanceId.toString(),
+				timeout.getEventName(), Collections.emptyMap()));
+		TimeoutTask replaced = stateTimeouts.put(state.getName(), task);
+		
+		if (replaced != null) {
+			replaced.timer.cancel();
+		}
+		
+		task.timer = TimingWheel.getInstance().schedule(task, timeout.getDelayMillis());
+	}
+
+	private void armTimeouts() {
+		for (int i = 0; i < currentStates.size(); i++) {
+			armTimeout(currentStates.get(i));
+		}
+	}
+
+	private void cancelTimeouts() {
+		if (stateTimeouts != null) {
+			for (TimeoutTask task : stateTimeouts.values()) {
+				task.timer.cancel();
+			}
+			
+			stateTimeouts.clear();
+		}
+	}
+
+	private void cancelTimeout(final State state) {
+		TimeoutTask task = stateTimeouts == null ? null : stateTimeouts.remove(state.getName());
+		
+		if (task != null && task.timer != null) {
+			task.timer.cancel();
+		}
+	}
+
+	/**
+	 * Submits the event of an expired timer to this instance, unless it's a state timeout which
+	 * has been cancelled meanwhile. Once this instance has been passivated, a delayed event is
+	 * handed to the event router instead, while a state timeout is dropped, as the timeouts of
+	 * the states active once restored are armed afresh by the reactivated successor.
+	 */
+	private void fire(final Event event, final TimeoutTask task) {
+		CompletionStage<CompletionStage<EventResult>> fired = mailbox.submit(() -> {
+			if (task != null) {
+				if (stateTimeouts == null || stateTimeouts.get(task.stateName) != task) {
+					return CompletableFuture.completedFuture(null);
+				}
+				
+				stateTimeouts.remove(task.stateName);
+			}
+			
+			return eventLog == null ? CompletableFuture.completedFuture(processEvent(event))
+					: processAndLog(event);
+		});
+		
+		if (fired == null && task != null) {
+			return;
+		}
+		
+		CompletionStage<EventResult> result = fired == null ? definition.eventRouter.apply(event)
+				: fired.thenCompose(Function.identity());
+		
+		result.whenComplete((processed, throwable) -> {
+			if (throwable != null) {
+				LOGGER.debug(String.format("The timed event [%s] of instance [%s] failed.",
+						event.getEventName(), event.getInstanceId()), throwable);
+			}
+		});
+	}
+
+	/**
+	 * The timer of the timeout of an active state.
+	 */
+	private final class TimeoutTask implements Runnable {
+		private final String stateName;
+		private final Event event;
+		private Timer timer;
+		
+		private TimeoutTask(final String stateName, final Event event) {
+			this.stateName = stateName;
+			this.event = event;
+		}
+
+		@Override
+		public void run() {
+			fire(event, this);
+		}
+	}
+
+	/**
+	 * The parts of a state machine shared by all of its instances.
+	 */
+	private static final class Definition {
+		private final String name;
+		private final State initialState;
+		private final EventValidator validator;
+		private final Function<String, State> stateResolver;
+		private final Map<String, State> knownStates;
+		private final MachineMetrics metrics;
+		private volatile Function<Event, CompletionStage<EventResult>> eventRouter =
+				event -> CompletableFuture.completedFuture(null);
+		
+		private Definition(final String name, final State initialState, final EventValidator validator,
+				final Function<String, State> stateResolver, final Map<String, State> knownStates) {
+			Objects.requireNonNull(name, "name must not be null");
+			Objects.requireNonNull(initialState, "initialState must not be null");
+			Objects.requireNonNull(validator, "validator must not be null");
+			Objects.requireNonNull(stateResolver, "stateResolver must not be null");
+			
+			this.name = name;
+			this.initialState = initialState;
+			this.validator = validator;
+			this.stateResolver = stateResolver;
+			this.knownStates = knownStates;
+			this.metrics = METRICS_ENABLED ? Metrics.getInstance().forMachine(name) : null;
+		}
 	}
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+import java.util.Objects;
+
+/**
+ * The timeout of a state: once the state has been active for the given delay, the given event
+ * is sent to the state machine instance. The timeout is cancelled when the state is exited.
+ * 
+ * @author Matthias Rothe
+ */
+public final class StateTimeout {
+	private final long delayMillis;
+	private final String eventName;
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param delayMillis the time the state may be active before the event is sent
+	 * @param eventName the name of the event to send
+	 */
+	public StateTimeout(final long delayMillis, final String eventName) {
+		Objects.requireNonNull(eventName, "eventName must not be null");
+		
+		this.delayMillis = delayMillis;
+		this.eventName = eventName;
+	}
+
+	/**
+	 * @return the time the state may be active before the event is sent
+	 */
+	public long getDelayMillis() {
+		return delayMillis;
+	}
+
+	/**
+	 * @return the name of the event to send
+	 */
+	public String getEventName() {
+		return eventName;
+	}
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+/**
+ * A pending timer, which may be cancelled before it expires.
+ * 
+ * @author Matthias Rothe
+ */
+public interface Timer {
+	
+	/**
+	 * Cancels this timer, unless it has expired or has been cancelled before.
+	 * 
+	 * @return {@code true} if and only if this call cancelled the timer
+	 */
+	boolean cancel();
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jallaby.JallabyConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the timers of all state machine instances on a single thread, using a hierarchical
+ * timing wheel: {@value #LEVELS} wheels of {@value #SLOTS} slots each, every slot of a wheel
+ * spanning a full turn of the wheel below. Scheduling and cancelling a timer as well as
+ * advancing the wheels by a tick take constant time, however many timers are pending.
+ * <p>
+ * The tick is set by <code>timers.tick-millis</code>, defaulting to 10 milliseconds, so the
+ * wheels span about 46 hours. Timers expiring later are moved down as the wheels turn. Timers
+ * run on the thread of the wheel, so they must only hand work over to other threads.
+ * 
+ * @author Matthias Rothe
+ */
+final class TimingWheel {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TimingWheel.class);
+	private static final TimingWheel INSTANCE = from(JallabyConfiguration.getInstance());
+	
+	static final int LEVELS = 4;
+	static final int SLOTS = 64;
+	private static final int SLOT_BITS = 6;
+	
+	private final long tickNanos;
+	private final long startNanos = System.nanoTime();
+	private final Entry[][] wheels = new Entry[LEVELS][SLOTS];
+	private final Queue<Entry> scheduled = new ConcurrentLinkedQueue<>();
+	private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<>();
+	
+	private long tick;
+	
+	TimingWheel(final long tickMillis) {
+		this(tickMillis, true);
+	}
+
+	/**
+	 * Ctor.
+	 * 
+	 * @param tickMillis the tick
+	 * @param ticking whether the wheel advances on a thread of its own, or only by calls of
+	 * {@link #advance()}
+	 */
+	TimingWheel(final long tickMillis, final boolean ticking) {
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		
+		if (ticking) {
+			Thread thread = new Thread(this::run, "jallaby-timers");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private static TimingWheel from(final JallabyConfiguration configuration) {
+		return new TimingWheel(Math.max(1, configuration.getLong("timers.tick-millis", 10)));
+	}
+
+	/**
+	 * @return the timing wheel shared by all state machine instances
+	 */
+	static TimingWheel getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Schedules the given task to run on the thread of the wheel once the given delay has
+	 * elapsed, rounded up to the next tick.
+	 * 
+	 * @param task the task to run
+	 * @param delayMillis the delay
+	 * @return the timer, to cancel the task
+	 */
+	Timer schedule(final Runnable task, final long delayMillis) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+		Entry entry = new Entry(this, task, (deadline - startNanos + tickNanos - 1) / tickNanos);
+		
+		scheduled.add(entry);
+		return entry;
+	}
+
+	private void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			long now = System.nanoTime();
+			long currentTick = (now - startNanos) / tickNanos;
+			
+			while (tick < currentTick) {
+				advance();
+			}
+			
+			LockSupport.parkNanos(startNanos + (tick + 1) * tickNanos - now);
+		}
+	}
+
+	/**
+	 * Moves the wheels on by one tick, running the timers expiring at the new tick.
+	 */
+	void advance() {
+		removeCancelled();
+		addScheduled();
+		tick++;
+		
+		for (int level = 1; level < LEVELS && (tick & ((1L << (SLOT_BITS * level)) - 1)) == 0; level++) {
+			int slot = (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+			Entry entry = wheels[level][slot];
+			wheels[level][slot] = null;
+			
+			while (entry != null) {
+				Entry next = entry.next;
+				entry.previous = null;
+				entry.next = null;
+				entry.level = -1;
+				place(entry);
+				entry = next;
+			}
+		}
+		
+		int slot = (int) tick & (SLOTS - 1);
+		Entry entry = wheels[0][slot];
+		wheels[0][slot] = null;
+		
+		while (entry != null) {
+			Entry next = entry.next;
+			entry.next = null;
+			entry.level = -1;
+			expire(entry);
+			entry = next;
+		}
+	}
+
+	private void removeCancelled() {
+		Entry entry = cancelled.poll();
+		
+		while (entry != null) {
+			if (entry.level >= 0) {
+				unlink(entry);
+			}
+			
+			entry = cancelled.poll();
+		}
+	}
+
+	private void addScheduled() {
+		Entry entry = scheduled.poll();
+		
+		while (entry != null) {
+			if (entry.state == Entry.PENDING) {
+				place(entry);
+			}
+			
+			entry = scheduled.poll();
+		}
+	}
+
+	private void place(final Entry entry) {
+		long delta = entry.deadlineTick - tick;
+		
+		if (delta <= 0) {
+			expire(entry);
+			return;
+		}
+		
+		int level = 0;
+		
+		while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+			level++;
+		}
+		
+		long position = delta >= 1L << (SLOT_BITS * LEVELS)
+				? tick + (1L << (SLOT_BITS * LEVELS)) - (1L << (SLOT_BITS * level))
+				: entry.deadlineTick;
+		int slot = (int) (position >>> (SLOT_BITS * level)) & (SLOTS - 1);
+		
+		entry.level = level;
+		entry.slot = slot;
+		entry.next = wheels[level][slot];
+		
+		if (entry.next != null) {
+			entry.next.previous = entry;
+		}
+		
+		wheels[level][slot] = entry;
+	}
+
+	private void unlink(final Entry entry) {
+		if (entry.previous == null) {
+			wheels[entry.level][entry.slot] = entry.next;
+		} else {
+			entry.previous.next = entry.next;
+		}
+		
+		if (entry.next != null) {
+			entry.next.previous = entry.previous;
+		}
+		
+		entry.previous = null;
+		entry.next = null;
+		entry.level = -1;
+	}
+
+	private void expire(final Entry entry) {
+		entry.previous = null;
+		
+		if (Entry.STATE.compareAndSet(entry, Entry.PENDING, Entry.EXPIRED)) {
+			try {
+				entry.task.run();
+			} catch (RuntimeException e) {
+				LOGGER.warn("A timer failed.", e);
+			}
+		}
+	}
+
+	/**
+	 * A timer, linked into the slot of a wheel.
+	 */
+	private static final class Entry implements Timer {
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+		private static final AtomicIntegerFieldUpdater<Entry> STATE =
+				AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+		
+		private final TimingWheel wheel;
+		private final Runnable task;
+		private final long deadlineTick;
+		private volatile int state = PENDING;
+		private Entry previous;
+		private Entry next;
+		private int level = -1;
+		private int slot;
+		
+		private Entry(final TimingWheel wheel, final Runnable task, final long deadlineTick) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadlineTick = deadlineTick;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+				wheel.cancelled.add(this);
+				return true;
+			}
+			
+			return false;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.jfr;
+
+import java.util.UUID;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans executing a single entry, exit or transition action.
+ * 
+ * @author Matthias Rothe
+ */
+@Name("org.jallaby.ActionExecuted")
+@Label("Action Executed")
+@Description("An entry, exit or transition action executed by a state machine instance.")
+@Category("Jallaby")
+@StackTrace(false)
+public final class ActionExecuted extends Event {
+	@Label("State Machine")
+	private String stateMachineName;
+	
+	@Label("Instance Id")
+	private String instanceId;
+	
+	@Label("Kind")
+	private String kind;
+	
+	@Label("State or Transition")
+	private String location;
+	
+	@Label("Bean Class")
+	private Class<?> beanClass;
+	
+	@Label("Method")
+	private String method;
+	
+	/**
+	 * Ends this event and commits it with the given values, if it should be committed at all.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance, may be {@code null}
+	 * @param kind the kind of the action, that is <code>entry</code>, <code>exit</code> or <code>transition</code>
+	 * @param location the name of the state of an entry or exit action, the source and target state of a transition action otherwise
+	 * @param beanClass the class declaring the action
+	 * @param method the name of the action method
+	 */
+	public void complete(final String stateMachineName, final UUID instanceId, final String kind,
+			final String location, final Class<?> beanClass, final String method) {
+		end();
+		
+		if (shouldCommit()) {
+			this.stateMachineName = stateMachineName;
+			this.instanceId = instanceId == null ? null : instanceId.toString();
+			this.kind = kind;
+			this.location = location;
+			this.beanClass = beanClass;
+			this.method = method;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.jfr;
+
+import java.util.UUID;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans receiving an event by the container until the addressed instance has processed it,
+ * including the time the event waited in the mailbox of the instance.
+ * 
+ * @author Matthias Rothe
+ */
+@Name("org.jallaby.EventReceived")
+@Label("Event Received")
+@Description("An event received by the container, from its receipt until it has been processed.")
+@Category("Jallaby")
+@StackTrace(false)
+public final class EventReceived extends Event {
+	@Label("State Machine")
+	private String stateMachineName;
+	
+	@Label("Instance Id")
+	private String instanceId;
+	
+	@Label("Event")
+	private String eventName;
+	
+	@Label("Current State")
+	private String currentState;
+	
+	@Label("Error Code")
+	private long errorCode;
+	
+	/**
+	 * Ends this event and commits it with the given values, if it should be committed at all.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance, may be {@code null}
+	 * @param eventName the name of the event
+	 * @param currentState the name of the state the instance is in afterwards, {@code null} if processing failed
+	 * @param errorCode the error code if processing failed with an error, -1 if it failed otherwise, 0 if it succeeded
+	 */
+	public void complete(final String stateMachineName, final UUID instanceId,
+			final String eventName, final String currentState, final long errorCode) {
+		end();
+		
+		if (shouldCommit()) {
+			this.stateMachineName = stateMachineName;
+			this.instanceId = instanceId == null ? null : instanceId.toString();
+			this.eventName = eventName;
+			this.currentState = currentState;
+			this.errorCode = errorCode;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.jfr;
+
+import java.util.UUID;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans evaluating a single transition guard.
+ * 
+ * @author Matthias Rothe
+ */
+@Name("org.jallaby.GuardEvaluated")
+@Label("Guard Evaluated")
+@Description("A transition guard evaluated by a state machine instance.")
+@Category("Jallaby")
+@StackTrace(false)
+public final class GuardEvaluated extends Event {
+	@Label("State Machine")
+	private String stateMachineName;
+	
+	@Label("Instance Id")
+	private String instanceId;
+	
+	@Label("Source State")
+	private String sourceState;
+	
+	@Label("Target State")
+	private String targetState;
+	
+	@Label("Bean Class")
+	private Class<?> beanClass;
+	
+	@Label("Method")
+	private String method;
+	
+	@Label("Result")
+	private boolean result;
+	
+	/**
+	 * Ends this event and commits it with the given values, if it should be committed at all.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance, may be {@code null}
+	 * @param sourceState the name of the state the transition leaves
+	 * @param targetState the name of the state the transition enters
+	 * @param beanClass the class declaring the guard
+	 * @param method the name of the guard method
+	 * @param result whether the guard lets the transition proceed
+	 */
+	public void complete(final String stateMachineName, final UUID instanceId,
+			final String sourceState, final String targetState, final Class<?> beanClass,
+			final String method, final boolean result) {
+		end();
+		
+		if (shouldCommit()) {
+			this.stateMachineName = stateMachineName;
+			this.instanceId = instanceId == null ? null : instanceId.toString();
+			this.sourceState = sourceState;
+			this.targetState = targetState;
+			this.beanClass = beanClass;
+			this.method = method;
+			this.result = result;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.jfr;
+
+import java.util.UUID;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans creating a state machine instance, be it a new or a recovered one. Reactivating a
+ * passivated instance starts with creating it afresh as well.
+ * 
+ * @author Matthias Rothe
+ */
+@Name("org.jallaby.InstanceCreated")
+@Label("Instance Created")
+@Description("A state machine instance created or recovered by the container.")
+@Category("Jallaby")
+@StackTrace(false)
+public final class InstanceCreated extends Event {
+	@Label("State Machine")
+	private String stateMachineName;
+	
+	@Label("Instance Id")
+	private String instanceId;
+	
+	@Label("Recovered")
+	private boolean recovered;
+	
+	/**
+	 * Ends this event and commits it with the given values, if it should be committed at all.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance
+	 * @param recovered whether the instance has been recovered from the event journal
+	 */
+	public void complete(final String stateMachineName, final UUID instanceId,
+			final boolean recovered) {
+		end();
+		
+		if (shouldCommit()) {
+			this.stateMachineName = stateMachineName;
+			this.instanceId = instanceId == null ? null : instanceId.toString();
+			this.recovered = recovered;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.jfr;
+
+import java.util.UUID;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans the time an event waited in the mailbox of a busy state machine instance. Instances
+ * aren't locked, their mailbox serializes the events instead, so a busy mailbox is where
+ * threads would otherwise contend for the monitor of the instance.
+ * 
+ * @author Matthias Rothe
+ */
+@Name("org.jallaby.MonitorContended")
+@Label("Monitor Contended")
+@Description("An event which had to wait for the instance it addresses to finish its previous tasks.")
+@Category("Jallaby")
+@StackTrace(false)
+public final class MonitorContended extends Event {
+	@Label("State Machine")
+	private String stateMachineName;
+	
+	@Label("Instance Id")
+	private String instanceId;
+	
+	@Label("Event")
+	private String eventName;
+	
+	/**
+	 * Ends this event and commits it with the given values, if it should be committed at all.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance, may be {@code null}
+	 * @param eventName the name of the waiting event
+	 */
+	public void complete(final String stateMachineName, final UUID instanceId,
+			final String eventName) {
+		end();
+		
+		if (shouldCommit()) {
+			this.stateMachineName = stateMachineName;
+			this.instanceId = instanceId == null ? null : instanceId.toString();
+			this.eventName = eventName;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.jfr;
+
+import java.util.UUID;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Spans performing a transition, from running the exit actions of the states left until the
+ * entry actions of the states entered have run. Guards aren't included, see {@link GuardEvaluated}.
+ * 
+ * @author Matthias Rothe
+ */
+@Name("org.jallaby.TransitionPerformed")
+@Label("Transition Performed")
+@Description("A transition of a state machine instance, from exiting its source state until its target state has been entered.")
+@Category("Jallaby")
+@StackTrace(false)
+public final class TransitionPerformed extends Event {
+	@Label("State Machine")
+	private String stateMachineName;
+	
+	@Label("Instance Id")
+	private String instanceId;
+	
+	@Label("Event")
+	private String eventName;
+	
+	@Label("Source State")
+	private String sourceState;
+	
+	@Label("Target State")
+	private String targetState;
+	
+	/**
+	 * Ends this event and commits it with the given values, if it should be committed at all.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance, may be {@code null}
+	 * @param eventName the name of the event triggering the transition
+	 * @param sourceState the name of the state the transition leaves
+	 * @param targetState the name of the state the transition enters
+	 */
+	public void complete(final String stateMachineName, final UUID instanceId,
+			final String eventName, final String sourceState, final String targetState) {
+		end();
+		
+		if (shouldCommit()) {
+			this.stateMachineName = stateMachineName;
+			this.instanceId = instanceId == null ? null : instanceId.toString();
+			this.eventName = eventName;
+			this.sourceState = sourceState;
+			this.targetState = targetState;
+			commit();
+		}
+	}
+}
@@ -20,12 +20,10 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
-import java.util.NoSuchElementException;
-import java.util.Properties;
 
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
+import org.jallaby.JallabyConfiguration;
 import org.jallaby.JallabyRegistry;
 import org.jallaby.spi.LifecycleHook;
 import org.slf4j.Logger;
@@ -66,25 +64,8 @@ public class Launcher {
 	}
 
 	private static URI getHttpBaseUri() {
-		String httpBase;
-		
-		try {
-			URL jallabyPropertiesUrl = new URL(String.format("file:///%1$s%2$sconfig%2$sjallaby"
-					+ ".properties", System.getProperty("user.dir"),
-					System.getProperty("file.separator")));
-			Properties jallabyProperties = new Properties();
-			jallabyProperties.load(jallabyPropertiesUrl.openStream());
-			httpBase = jallabyProperties.getProperty("http.base.url");
-			
-			if (httpBase == null || httpBase.trim().equals("")) {
-				throw new NoSuchElementException("Properties file doesn't contain a key value pair"
-						+ " for http.base.url");
-			}
-		} catch (Exception e) {
-			LOGGER.warn("Couldn't find http base url property. "
-					+ "Defaulting to http://localhost:8081/.", e);
-			httpBase = "http://localhost:8081/";
-		}
+		String httpBase = JallabyConfiguration.getInstance().getString("http.base.url",
+				"http://localhost:8081/");
 		
 		try {
 			return new URI(httpBase);
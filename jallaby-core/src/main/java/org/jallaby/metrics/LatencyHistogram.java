@@ -0,0 +1,166 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets in the style of HdrHistogram.
+ * <p>
+ * Values up to 16 nanoseconds get a bucket each, every power of two above is split into 16
+ * linear sub-buckets, so each recorded value is off by at most 1/16 of its magnitude. Values
+ * beyond roughly 73 minutes are recorded in the last bucket. Recording costs one atomic
+ * increment and one {@link LongAdder} update, without any allocation.
+ * 
+ * @author Matthias Rothe
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_MAGNITUDE = 41;
+	private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+	private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder sumNanos = new LongAdder();
+	
+	/**
+	 * Records the given latency.
+	 * 
+	 * @param nanos the latency in nanoseconds, negative values count as 0
+	 */
+	public void record(final long nanos) {
+		long value = clamp(nanos);
+		counts.incrementAndGet(indexOf(value));
+		sumNanos.add(value);
+	}
+
+	/**
+	 * @return the sum of all latencies recorded so far, in nanoseconds
+	 */
+	public long getSumNanos() {
+		return sumNanos.sum();
+	}
+
+	/**
+	 * Counts the latencies recorded so far which are less than or equal to each of the given
+	 * bounds. Latencies sharing a bucket with a bound count as equal to it. The last element of
+	 * the result is the total count of recorded latencies.
+	 * 
+	 * @param boundsNanos the bounds in nanoseconds, in ascending order
+	 * @return the cumulative counts, one per bound plus the total count
+	 */
+	public long[] getCumulativeCounts(final long[] boundsNanos) {
+		long[] cumulative = new long[boundsNanos.length + 1];
+		int index = 0;
+		long count = 0;
+		
+		for (int bound = 0; bound < boundsNanos.length; bound++) {
+			int last = indexOf(clamp(boundsNanos[bound]));
+			
+			for (; index <= last; index++) {
+				count += counts.get(index);
+			}
+			
+			cumulative[bound] = count;
+		}
+		
+		for (; index < BUCKETS; index++) {
+			count += counts.get(index);
+		}
+		
+		cumulative[boundsNanos.length] = count;
+		return cumulative;
+	}
+
+	/**
+	 * @return the number of latencies recorded so far
+	 */
+	public long getCount() {
+		long count = 0;
+		
+		for (int index = 0; index < BUCKETS; index++) {
+			count += counts.get(index);
+		}
+		
+		return count;
+	}
+
+	/**
+	 * Finds the latency at the given quantile of the latencies recorded so far. The result is
+	 * the highest value of the bucket holding that latency, so it never understates it.
+	 * 
+	 * @param quantile the quantile, between 0 and 1
+	 * @return the latency at the quantile in nanoseconds, 0 if nothing has been recorded yet
+	 * @throws IllegalArgumentException if the quantile is out of range
+	 */
+	public long getValueAtQuantile(final double quantile) {
+		if (quantile < 0 || quantile > 1) {
+			throw new IllegalArgumentException(String.format("quantile [%s] must be between 0 and 1",
+					quantile));
+		}
+		
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		
+		for (int index = 0; index < BUCKETS; index++) {
+			snapshot[index] = counts.get(index);
+			total += snapshot[index];
+		}
+		
+		if (total == 0) {
+			return 0;
+		}
+		
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long count = 0;
+		
+		for (int index = 0; index < BUCKETS - 1; index++) {
+			count += snapshot[index];
+			
+			if (count >= rank) {
+				return lowestValueAt(index + 1) - 1;
+			}
+		}
+		
+		return MAX_VALUE;
+	}
+
+	private static long clamp(final long nanos) {
+		return Math.min(Math.max(nanos, 0), MAX_VALUE);
+	}
+
+	static int indexOf(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	static long lowestValueAt(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		return (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+	}
+}
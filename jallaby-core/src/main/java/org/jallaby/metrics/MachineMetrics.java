@@ -0,0 +1,167 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of a single state machine: the number of events it processed and failed to
+ * process, the latency of processing them, and the latencies of the guards, exit actions,
+ * transition actions and entry actions run meanwhile, per state and per transition.
+ * <p>
+ * A transition is identified by the names of its source and target states. Histograms are
+ * created once per state or transition, recording into them doesn't allocate.
+ * 
+ * @author Matthias Rothe
+ */
+public final class MachineMetrics {
+	private static final String UNNAMED = "";
+	
+	private final String machineName;
+	private final LongAdder events = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LatencyHistogram eventLatency = new LatencyHistogram();
+	private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> guards =
+			new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> transitionActions =
+			new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LatencyHistogram> exitActions = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LatencyHistogram> entryActions = new ConcurrentHashMap<>();
+	
+	MachineMetrics(final String machineName) {
+		this.machineName = machineName;
+	}
+
+	/**
+	 * Records the processing of an event, including the completion and raised events it caused.
+	 * 
+	 * @param nanos the time it took to process the event
+	 * @param failed whether processing the event failed
+	 */
+	public void recordEvent(final long nanos, final boolean failed) {
+		events.increment();
+		
+		if (failed) {
+			failures.increment();
+		}
+		
+		eventLatency.record(nanos);
+	}
+
+	/**
+	 * Records the evaluation of the guards of a transition.
+	 * 
+	 * @param sourceState the name of the state the transition leaves
+	 * @param targetState the name of the state the transition enters
+	 * @param nanos the time it took to evaluate the guards
+	 */
+	public void recordGuards(final String sourceState, final String targetState, final long nanos) {
+		histogram(guards, sourceState, targetState).record(nanos);
+	}
+
+	/**
+	 * Records running the transition actions of a transition.
+	 * 
+	 * @param sourceState the name of the state the transition leaves
+	 * @param targetState the name of the state the transition enters
+	 * @param nanos the time it took to run the transition actions
+	 */
+	public void recordTransitionActions(final String sourceState, final String targetState,
+			final long nanos) {
+		histogram(transitionActions, sourceState, targetState).record(nanos);
+	}
+
+	/**
+	 * Records running the exit action of a state.
+	 * 
+	 * @param state the name of the state
+	 * @param nanos the time it took to run the exit action
+	 */
+	public void recordExitAction(final String state, final long nanos) {
+		histogram(exitActions, state).record(nanos);
+	}
+
+	/**
+	 * Records running the entry action of a state.
+	 * 
+	 * @param state the name of the state
+	 * @param nanos the time it took to run the entry action
+	 */
+	public void recordEntryAction(final String state, final long nanos) {
+		histogram(entryActions, state).record(nanos);
+	}
+
+	String getMachineName() {
+		return machineName;
+	}
+
+	long getEvents() {
+		return events.sum();
+	}
+
+	long getFailures() {
+		return failures.sum();
+	}
+
+	LatencyHistogram getEventLatency() {
+		return eventLatency;
+	}
+
+	Map<String, ConcurrentMap<String, LatencyHistogram>> getGuards() {
+		return guards;
+	}
+
+	Map<String, ConcurrentMap<String, LatencyHistogram>> getTransitionActions() {
+		return transitionActions;
+	}
+
+	Map<String, LatencyHistogram> getExitActions() {
+		return exitActions;
+	}
+
+	Map<String, LatencyHistogram> getEntryActions() {
+		return entryActions;
+	}
+
+	private static LatencyHistogram histogram(final ConcurrentMap<String, LatencyHistogram> histograms,
+			final String state) {
+		String key = state == null ? UNNAMED : state;
+		LatencyHistogram histogram = histograms.get(key);
+		
+		if (histogram == null) {
+			histogram = histograms.computeIfAbsent(key, name -> new LatencyHistogram());
+		}
+		
+		return histogram;
+	}
+
+	private static LatencyHistogram histogram(
+			final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> histograms,
+			final String sourceState, final String targetState) {
+		String key = sourceState == null ? UNNAMED : sourceState;
+		ConcurrentMap<String, LatencyHistogram> bySource = histograms.get(key);
+		
+		if (bySource == null) {
+			bySource = histograms.computeIfAbsent(key, name -> new ConcurrentHashMap<>());
+		}
+		
+		return histogram(bySource, targetState);
+	}
+}
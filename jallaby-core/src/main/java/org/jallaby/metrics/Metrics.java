@@ -0,0 +1,192 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.metrics;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import org.jallaby.JallabyConfiguration;
+
+/**
+ * Holds the {@link MachineMetrics} of all state machines and renders them in the Prometheus
+ * text exposition format.
+ * <p>
+ * Metrics are only recorded if the <code>metrics.enabled</code> setting is {@code true}.
+ * Otherwise state machines don't even read the clock, see {@link #isEnabled()}.
+ * 
+ * @author Matthias Rothe
+ */
+public final class Metrics {
+	private static final Metrics INSTANCE = from(JallabyConfiguration.getInstance());
+	private static final String[] BUCKET_LABELS = {
+		"0.000001", "0.00001", "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01",
+		"0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"
+	};
+	private static final long[] BUCKET_BOUNDS_NANOS = {
+		1000L, 10000L, 100000L, 250000L, 500000L, 1000000L, 2500000L, 5000000L, 10000000L,
+		25000000L, 50000000L, 100000000L, 250000000L, 500000000L, 1000000000L, 2500000000L,
+		5000000000L, 10000000000L
+	};
+	private static final double NANOS_PER_SECOND = 1e9;
+	
+	private final boolean enabled;
+	private final ConcurrentMap<String, MachineMetrics> machines = new ConcurrentHashMap<>();
+	
+	Metrics(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	private static Metrics from(final JallabyConfiguration configuration) {
+		return new Metrics(configuration.getBoolean("metrics.enabled", false));
+	}
+
+	/**
+	 * @return the metrics of the container
+	 */
+	public static Metrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Tells whether metrics are recorded at all. Callers are meant to keep the result in a
+	 * <code>static final</code> field guarding all recording, so the JIT compiler removes the
+	 * recording altogether if metrics are disabled.
+	 * 
+	 * @return {@code true} if and only if metrics are recorded
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the metrics of the given state machine, creating them if need be.
+	 * 
+	 * @param machineName the name of the state machine
+	 * @return the metrics of the state machine
+	 */
+	public MachineMetrics forMachine(final String machineName) {
+		Objects.requireNonNull(machineName, "machineName must not be null");
+		return machines.computeIfAbsent(machineName, MachineMetrics::new);
+	}
+
+	/**
+	 * Drops the metrics of the given state machine, so they're no longer rendered.
+	 * 
+	 * @param machineName the name of the state machine
+	 */
+	public void remove(final String machineName) {
+		Objects.requireNonNull(machineName, "machineName must not be null");
+		machines.remove(machineName);
+	}
+
+	/**
+	 * Renders all metrics recorded so far in the Prometheus text exposition format, version
+	 * 0.0.4. Latencies are rendered as histograms in seconds.
+	 * 
+	 * @return the rendered metrics
+	 */
+	public String toPrometheusText() {
+		StringBuilder text = new StringBuilder();
+		
+		writeFamily(text, "jallaby_events_total", "counter", "Events processed per state machine.");
+		machines.values().forEach(machine -> writeSample(text, "jallaby_events_total",
+				labels(machine), Long.toString(machine.getEvents())));
+		
+		writeFamily(text, "jallaby_event_failures_total", "counter",
+				"Events which failed to be processed per state machine.");
+		machines.values().forEach(machine -> writeSample(text, "jallaby_event_failures_total",
+				labels(machine), Long.toString(machine.getFailures())));
+		
+		writeFamily(text, "jallaby_event_duration_seconds", "histogram",
+				"Time spent processing an event, including the events it caused.");
+		machines.values().forEach(machine -> writeHistogram(text, "jallaby_event_duration_seconds",
+				labels(machine), machine.getEventLatency()));
+		
+		writeTransitionHistograms(text, "jallaby_guard_duration_seconds",
+				"Time spent evaluating the guards of a transition.", MachineMetrics::getGuards);
+		writeStateHistograms(text, "jallaby_exit_action_duration_seconds",
+				"Time spent running the exit action of a state.", MachineMetrics::getExitActions);
+		writeTransitionHistograms(text, "jallaby_transition_actions_duration_seconds",
+				"Time spent running the transition actions of a transition.",
+				MachineMetrics::getTransitionActions);
+		writeStateHistograms(text, "jallaby_entry_action_duration_seconds",
+				"Time spent running the entry action of a state.", MachineMetrics::getEntryActions);
+		
+		return text.toString();
+	}
+
+	private void writeStateHistograms(final StringBuilder text, final String name, final String help,
+			final Function<MachineMetrics, Map<String, LatencyHistogram>> histograms) {
+		writeFamily(text, name, "histogram", help);
+		
+		for (MachineMetrics machine : machines.values()) {
+			histograms.apply(machine).forEach((state, histogram) -> writeHistogram(text, name,
+					labels(machine) + ",state=\"" + escape(state) + "\"", histogram));
+		}
+	}
+
+	private void writeTransitionHistograms(final StringBuilder text, final String name,
+			final String help,
+			final Function<MachineMetrics, Map<String, ConcurrentMap<String, LatencyHistogram>>> histograms) {
+		writeFamily(text, name, "histogram", help);
+		
+		for (MachineMetrics machine : machines.values()) {
+			histograms.apply(machine).forEach((source, byTarget) -> byTarget.forEach(
+					(target, histogram) -> writeHistogram(text, name, labels(machine)
+							+ ",source=\"" + escape(source) + "\",target=\"" + escape(target) + "\"",
+							histogram)));
+		}
+	}
+
+	private static void writeFamily(final StringBuilder text, final String name, final String type,
+			final String help) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void writeHistogram(final StringBuilder text, final String name, final String labels,
+			final LatencyHistogram histogram) {
+		long[] counts = histogram.getCumulativeCounts(BUCKET_BOUNDS_NANOS);
+		
+		for (int i = 0; i < BUCKET_LABELS.length; i++) {
+			writeSample(text, name + "_bucket", labels + ",le=\"" + BUCKET_LABELS[i] + "\"",
+					Long.toString(counts[i]));
+		}
+		
+		String count = Long.toString(counts[BUCKET_LABELS.length]);
+		writeSample(text, name + "_bucket", labels + ",le=\"+Inf\"", count);
+		writeSample(text, name + "_sum", labels,
+				Double.toString(histogram.getSumNanos() / NANOS_PER_SECOND));
+		writeSample(text, name + "_count", labels, count);
+	}
+
+	private static void writeSample(final StringBuilder text, final String name, final String labels,
+			final String value) {
+		text.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+	}
+
+	private static String labels(final MachineMetrics machine) {
+		return "machine=\"" + escape(machine.getMachineName()) + "\"";
+	}
+
+	private static String escape(final String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
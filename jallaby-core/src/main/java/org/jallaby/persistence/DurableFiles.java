@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.persistence;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Replaces files such that they survive a power loss once replaced.
+ * <p>
+ * A file is written to a temporary sibling through a {@link FileChannel}, which is forced to
+ * disk before the sibling is atomically moved into place. The directory holding the file is
+ * forced afterwards, so the move itself is durable. Directories can't be opened on Windows,
+ * where forcing them is skipped.
+ * 
+ * @author Matthias Rothe
+ */
+final class DurableFiles {
+	private static final boolean WINDOWS = System.getProperty("os.name", "")
+			.toLowerCase(Locale.ROOT).startsWith("windows");
+	
+	private DurableFiles() {
+	}
+
+	/**
+	 * Writes the contents of a file.
+	 * 
+	 * @author Matthias Rothe
+	 */
+	@FunctionalInterface
+	interface Writer {
+		
+		/**
+		 * Writes the contents to the given stream, which may be closed when done.
+		 * 
+		 * @param out the stream to write the contents to
+		 * @throws IOException in case the contents couldn't be written
+		 */
+		void write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Durably replaces the given file with the contents written by the given writer, creating
+	 * the directory holding it if necessary.
+	 * 
+	 * @param file the file to replace
+	 * @param writer the writer of the contents
+	 * @throws IOException in case the file couldn't be written or moved into place
+	 */
+	static void replace(final Path file, final Writer writer) throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.createDirectories(directory);
+		
+		try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			writer.write(new FilterOutputStream(Channels.newOutputStream(channel)) {
+				
+				@Override
+				public void write(final byte[] b, final int off, final int len) throws IOException {
+					out.write(b, off, len);
+				}
+
+				@Override
+				public void close() throws IOException {
+					// the channel is forced and closed once written
+					flush();
+				}
+			});
+			channel.force(true);
+		}
+		
+		Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		force(directory);
+	}
+
+	/**
+	 * Forces the entries of the given directory to disk, such as files moved into it or
+	 * deleted from it.
+	 * 
+	 * @param directory the directory
+	 * @throws IOException in case the directory couldn't be forced
+	 */
+	static void force(final Path directory) throws IOException {
+		if (WINDOWS) {
+			return;
+		}
+		
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+}
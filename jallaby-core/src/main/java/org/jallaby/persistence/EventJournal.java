@@ -0,0 +1,630 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.jallaby.event.Event;
+import org.jallaby.event.EventResult;
+import org.jallaby.execution.EventLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An append-only journal of processed events, written to memory-mapped segment files of a
+ * fixed size. Each record consists of its length, the CRC32 of its body and the body itself;
+ * a zero length or a checksum mismatch marks the end of the journal, so a record torn by a
+ * crash is simply ignored.
+ * <p>
+ * Appending only copies the record into the mapped segment. Forcing the segments to the disk
+ * is left to a flusher thread according to the {@link FsyncPolicy}: with
+ * {@link FsyncPolicy#ALWAYS} all records appended while the previous force was running are
+ * forced together, and each of them is acknowledged once it is on the disk.
+ * 
+ * @author Matthias Rothe
+ */
+public final class EventJournal implements EventLog, Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(EventJournal.class);
+	private static final TypeReference<Map<String, Object>> PAYLOAD_TYPE =
+			new TypeReference<Map<String, Object>>() {};
+	private static final String SUFFIX = ".journal";
+	private static final int HEADER_SIZE = 8;
+	private static final int FORMAT = 1;
+	
+	private final Path directory;
+	private final int segmentSize;
+	private final FsyncPolicy fsyncPolicy;
+	private final long fsyncIntervalNanos;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final Queue<Commit> commits = new ConcurrentLinkedQueue<>();
+	private final Deque<Segment> unforced = new ArrayDeque<>();
+	private final Thread flusher;
+	
+	private final Map<String, Positions> index = new HashMap<>();
+	
+	private Segment current;
+	private volatile boolean closed;
+	private long indexed;
+	
+	/**
+	 * Ctor. Opens the journal in the given directory, continuing after its last intact record.
+	 * 
+	 * @param directory the directory holding the segment files
+	 * @param segmentSize the size of a segment file in bytes
+	 * @param fsyncPolicy defines when records are forced to the disk
+	 * @param fsyncIntervalMillis the time between two forces for {@link FsyncPolicy#INTERVAL}
+	 * @throws IOException in case the journal couldn't be opened
+	 */
+	public EventJournal(final Path directory, final int segmentSize, final FsyncPolicy fsyncPolicy,
+			final long fsyncIntervalMillis) throws IOException {
+		Objects.requireNonNull(directory, "directory must not be null");
+		Objects.requireNonNull(fsyncPolicy, "fsyncPolicy must not be null");
+		
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.fsyncPolicy = fsyncPolicy;
+		this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, fsyncIntervalMillis));
+		
+		Files.createDirectories(directory);
+		List<Path> files = segmentFiles();
+		
+		if (files.isEmpty()) {
+			current = new Segment(0, directory.resolve(fileName(0)), segmentSize);
+		} else {
+			Path last = files.get(files.size() - 1);
+			current = new Segment(baseOf(last), last, segmentSize);
+			current.position = endOf(current.buffer, current.capacity);
+		}
+		
+		if (fsyncPolicy == FsyncPolicy.NEVER) {
+			flusher = null;
+		} else {
+			flusher = new Thread(this::flushContinuously, "jallaby-journal-flusher");
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+	}
+
+	@Override
+	public long append(final Event event, final EventResult result) throws IOException {
+		byte[] body = encode(event, result);
+		
+		synchronized (this) {
+			return write(body);
+		}
+	}
+
+	@Override
+	public CompletionStage<Void> sync(final long position) {
+		if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		CompletableFuture<Void> commit = new CompletableFuture<>();
+		commits.add(new Commit(position, commit));
+		LockSupport.unpark(flusher);
+		return commit;
+	}
+
+	private long write(final byte[] body) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("The journal has been closed.");
+		}
+		
+		if (HEADER_SIZE + body.length > Math.max(segmentSize, current.capacity)) {
+			throw new IOException(String.format("A record of %d bytes doesn't fit into a segment.",
+					body.length));
+		}
+		
+		if (current.position + HEADER_SIZE + body.length > current.capacity) {
+			roll();
+		}
+		
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		
+		MappedByteBuffer buffer = current.buffer;
+		int position = current.position;
+		
+		buffer.putInt(position + 4, (int) crc.getValue());
+		buffer.position(position + HEADER_SIZE);
+		buffer.put(body);
+		buffer.putInt(position, body.length);
+		
+		current.position = position + HEADER_SIZE + body.length;
+		
+		if (unforced.peekLast() != current) {
+			unforced.addLast(current);
+		}
+		
+		return current.base + position;
+	}
+
+	private void roll() throws IOException {
+		long base = current.base + current.capacity;
+		
+		if (current.position + 4 <= current.capacity) {
+			current.buffer.putInt(current.position, 0);
+		}
+		
+		current.channel.close();
+		current = new Segment(base, directory.resolve(fileName(base)), segmentSize);
+	}
+
+	/**
+	 * Forces all records appended so far to the disk.
+	 * 
+	 * @throws IOException in case the records couldn't be forced
+	 */
+	public void flush() throws IOException {
+		List<Segment> segments;
+		long end;
+		
+		synchronized (this) {
+			segments = new ArrayList<>(unforced);
+			unforced.clear();
+			end = current.base + current.position;
+		}
+		
+		try {
+			for (Segment segment : segments) {
+				segment.buffer.force();
+			}
+		} catch (RuntimeException e) {
+			completeCommits(end, new IOException("Unable to force the journal to the disk.", e));
+			throw new IOException("Unable to force the journal to the disk.", e);
+		}
+		
+		completeCommits(end, null);
+	}
+
+	private void completeCommits(final long end, final Throwable failure) {
+		List<Commit> later = new ArrayList<>();
+		
+		for (Commit commit = commits.poll(); commit != null; commit = commits.poll()) {
+			if (commit.position >= end) {
+				later.add(commit);
+			} else if (failure == null) {
+				commit.future.complete(null);
+			} else {
+				commit.future.completeExceptionally(failure);
+			}
+		}
+		
+		commits.addAll(later);
+	}
+
+	private void flushContinuously() {
+		while (!closed) {
+			if (fsyncPolicy == FsyncPolicy.ALWAYS && commits.isEmpty()) {
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+				continue;
+			} else if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+				LockSupport.parkNanos(this, fsyncIntervalNanos);
+			}
+			
+			try {
+				flush();
+			} catch (IOException e) {
+				LOGGER.warn("Unable to force the journal to the disk.", e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the records of the given state machine, in the order they have been appended. Only
+	 * the records appended since the previous read are scanned to index them by state machine,
+	 * so recovering many state machines one after the other reads the journal about once.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param consumer receives the records
+	 * @throws IOException in case the journal couldn't be read
+	 */
+	public void read(final String stateMachineName, final Consumer<JournalRecord> consumer)
+			throws IOException {
+		long[] positions;
+		
+		synchronized (index) {
+			updateIndex();
+			Positions indexed = index.get(stateMachineName);
+			positions = indexed == null ? new long[0] : indexed.toArray();
+		}
+		
+		read(positions, (position, body) -> {
+			JournalRecord record = decode(body, position, stateMachineName);
+			
+			if (record != null) {
+				consumer.accept(record);
+			}
+		});
+	}
+
+	/**
+	 * @return the names of the state machines having records in the journal
+	 * @throws IOException in case the journal couldn't be read
+	 */
+	public Set<String> getStateMachineNames() throws IOException {
+		synchronized (index) {
+			updateIndex();
+			return new HashSet<>(index.keySet());
+		}
+	}
+
+	private void updateIndex() throws IOException {
+		indexed = scan(indexed, (position, body) -> {
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+				checkFormat(in, position);
+				index.computeIfAbsent(in.readUTF(), name -> new Positions()).add(position);
+			}
+		});
+	}
+
+	private long scan(final long from, final BodyConsumer consumer) throws IOException {
+		Segment last;
+		int end;
+		
+		synchronized (this) {
+			last = current;
+			end = current.position;
+		}
+		
+		for (Path file : segmentFiles()) {
+			long base = baseOf(file);
+			int start = (int) Math.max(0, from - base);
+			
+			if (base == last.base) {
+				scan(last.buffer.duplicate(), base, start, end, consumer);
+			} else if (base < last.base && base + Files.size(file) > from) {
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+					ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+					scan(buffer, base, start, endOf(buffer, (int) channel.size()), consumer);
+				}
+			}
+		}
+		
+		return Math.max(from, last.base + end);
+	}
+
+	private void scan(final ByteBuffer buffer, final long base, final int start, final int end,
+			final BodyConsumer consumer) throws IOException {
+		int position = start;
+		
+		while (position < end) {
+			int length = buffer.getInt(position);
+			consumer.accept(base + position, body(buffer, position, length));
+			position += HEADER_SIZE + length;
+		}
+	}
+
+	private void read(final long[] positions, final BodyConsumer consumer) throws IOException {
+		Segment last;
+		
+		synchronized (this) {
+			last = current;
+		}
+		
+		List<Path> files = segmentFiles();
+		int next = 0;
+		
+		for (int i = 0; i < files.size() && next < positions.length; i++) {
+			long base = baseOf(files.get(i));
+			long limit = i + 1 < files.size() ? baseOf(files.get(i + 1)) : Long.MAX_VALUE;
+			
+			while (next < positions.length && positions[next] < base) {
+				next++;
+			}
+			
+			if (next == positions.length || positions[next] >= limit) {
+				continue;
+			}
+			
+			if (base == last.base) {
+				next = read(last.buffer.duplicate(), base, limit, positions, next, consumer);
+			} else {
+				try (FileChannel channel = FileChannel.open(files.get(i), StandardOpenOption.READ)) {
+					next = read(channel.map(MapMode.READ_ONLY, 0, channel.size()), base, limit, positions,
+							next, consumer);
+				}
+			}
+		}
+	}
+
+	private int read(final ByteBuffer buffer, final long base, final long limit, final long[] positions,
+			final int first, final BodyConsumer consumer) throws IOException {
+		int next = first;
+		
+		while (next < positions.length && positions[next] < limit) {
+			int position = (int) (positions[next] - base);
+			consumer.accept(positions[next], body(buffer, position, buffer.getInt(position)));
+			next++;
+		}
+		
+		return next;
+	}
+
+	private static byte[] body(final ByteBuffer buffer, final int position, final int length) {
+		byte[] body = new byte[length];
+		
+		buffer.position(position + HEADER_SIZE);
+		buffer.get(body);
+		
+		return body;
+	}
+
+	/**
+	 * Deletes the segments holding only records before the given position.
+	 * 
+	 * @param position the position of the first record to keep
+	 * @throws IOException in case a segment couldn't be deleted
+	 */
+	public void truncateBefore(final long position) throws IOException {
+		long currentBase;
+		
+		synchronized (this) {
+			currentBase = current.base;
+		}
+		
+		for (Path file : segmentFiles()) {
+			long base = baseOf(file);
+			
+			if (base + Files.size(file) <= position && base < currentBase) {
+				Files.delete(file);
+			}
+		}
+		
+		List<Path> files = segmentFiles();
+		long first = files.isEmpty() ? currentBase : baseOf(files.get(0));
+		
+		synchronized (index) {
+			index.values().removeIf(positions -> positions.dropBefore(first));
+		}
+	}
+
+	/**
+	 * @return the position the next record will be appended at
+	 */
+	public synchronized long getPosition() {
+		return current.base + current.position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		
+		if (flusher != null) {
+			LockSupport.unpark(flusher);
+			
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		flush();
+		
+		synchronized (this) {
+			current.channel.close();
+		}
+	}
+
+	private byte[] encode(final Event event, final EventResult result) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			byte[] payload = mapper.writeValueAsBytes(event.getPayload());
+			
+			out.writeByte(FORMAT);
+			out.writeUTF(event.getStateMachineName());
+			out.writeLong(event.getInstanceId().getMostSignificantBits());
+			out.writeLong(event.getInstanceId().getLeastSignificantBits());
+			out.writeUTF(event.getEventName());
+			out.writeInt(payload.length);
+			out.write(payload);
+			out.writeBoolean(result != null);
+			
+			if (result != null) {
+				out.writeUTF(result.getCurrentStateName());
+			}
+		}
+		
+		return bytes.toByteArray();
+	}
+
+	private JournalRecord decode(final byte[] body, final long position, final String stateMachineName)
+			throws IOException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+			checkFormat(in, position);
+			
+			if (!in.readUTF().equals(stateMachineName)) {
+				return null;
+			}
+			
+			UUID instanceId = new UUID(in.readLong(), in.readLong());
+			String eventName = in.readUTF();
+			byte[] payload = new byte[in.readInt()];
+			in.readFully(payload);
+			String resultStateName = in.readBoolean() ? in.readUTF() : null;
+			
+			Event event = new Event(stateMachineName, instanceId.toString(), eventName,
+					mapper.readValue(payload, PAYLOAD_TYPE));
+			return new JournalRecord(position, event, resultStateName);
+		}
+	}
+
+	private static void checkFormat(final DataInputStream in, final long position) throws IOException {
+		if (in.readByte() != FORMAT) {
+			throw new IOException(String.format("Unknown record format at position %d.", position));
+		}
+	}
+
+	private static int endOf(final ByteBuffer buffer, final int size) {
+		int position = 0;
+		
+		while (position + HEADER_SIZE <= size) {
+			int length = buffer.getInt(position);
+			
+			if (length <= 0 || position + HEADER_SIZE + length > size) {
+				break;
+			}
+			
+			byte[] body = new byte[length];
+			buffer.position(position + HEADER_SIZE);
+			buffer.get(body);
+			
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			
+			if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+				break;
+			}
+			
+			position += HEADER_SIZE + length;
+		}
+		
+		return position;
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+					.sorted().collect(Collectors.toList());
+		}
+	}
+
+	private static String fileName(final long base) {
+		return String.format("%020d%s", base, SUFFIX);
+	}
+
+	private static long baseOf(final Path file) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+	}
+
+	/**
+	 * A segment file mapped into memory.
+	 */
+	private static final class Segment {
+		private final long base;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private final int capacity;
+		private int position;
+		
+		private Segment(final long base, final Path file, final int size) throws IOException {
+			this.base = base;
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			this.capacity = (int) Math.max(size, channel.size());
+			this.buffer = channel.map(MapMode.READ_WRITE, 0, capacity);
+		}
+	}
+
+	/**
+	 * The positions of the records of a state machine, in ascending order.
+	 */
+	private static final class Positions {
+		private long[] values = new long[16];
+		private int size;
+		
+		private void add(final long position) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			
+			values[size++] = position;
+		}
+
+		private long[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+
+		/**
+		 * Drops the positions before the given one.
+		 * 
+		 * @return {@code true} if and only if no position is left
+		 */
+		private boolean dropBefore(final long position) {
+			int dropped = 0;
+			
+			while (dropped < size && values[dropped] < position) {
+				dropped++;
+			}
+			
+			System.arraycopy(values, dropped, values, 0, size - dropped);
+			size -= dropped;
+			return size == 0;
+		}
+	}
+
+	/**
+	 * Receives the body of each record read.
+	 */
+	@FunctionalInterface
+	private interface BodyConsumer {
+		void accept(long position, byte[] body) throws IOException;
+	}
+
+	/**
+	 * An appended record waiting to be forced to the disk.
+	 */
+	private static final class Commit {
+		private final long position;
+		private final CompletableFuture<Void> future;
+		
+		private Commit(final long position, final CompletableFuture<Void> future) {
+			this.position = position;
+			this.future = future;
+		}
+	}
+}
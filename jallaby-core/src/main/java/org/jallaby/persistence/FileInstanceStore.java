@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.persistence;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import org.jallaby.event.Event;
+import org.jallaby.execution.InstanceSnapshot;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Stores every snapshot as a small JSON file. The files of a state machine are spread over
+ * 256 directories by the first byte of the instance id, so no directory grows too large. A
+ * snapshot is on disk once stored.
+ * 
+ * @author Matthias Rothe
+ */
+public class FileInstanceStore implements InstanceStore {
+	private static final TypeReference<Map<String, Object>> PAYLOAD_TYPE =
+			new TypeReference<Map<String, Object>>() {};
+	
+	private final Path directory;
+	private final ObjectMapper mapper = new ObjectMapper();
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param directory the directory to keep the snapshots in
+	 */
+	public FileInstanceStore(final Path directory) {
+		Objects.requireNonNull(directory, "directory must not be null");
+		this.directory = directory;
+	}
+
+	@Override
+	public void store(final String stateMachineName, final UUID instanceId,
+			final InstanceSnapshot snapshot) throws IOException {
+		ObjectNode root = mapper.createObjectNode();
+		ArrayNode activeStates = root.putArray("activeStates");
+		ArrayNode pendingEvents = root.putArray("pendingEvents");
+		
+		snapshot.getActiveStateNames().forEach(activeStates::add);
+		
+		for (Event event : snapshot.getPendingEvents()) {
+			ObjectNode pendingEvent = pendingEvents.addObject();
+			pendingEvent.put("eventName", event.getEventName());
+			pendingEvent.set("payload", mapper.valueToTree(event.getPayload()));
+		}
+		
+		root.put("initialized", snapshot.isInitialized());
+		root.put("position", snapshot.getPosition());
+		
+		DurableFiles.replace(fileOf(stateMachineName, instanceId), out -> mapper.writeValue(out, root));
+	}
+
+	@Override
+	public InstanceSnapshot take(final String stateMachineName, final UUID instanceId)
+			throws IOException {
+		InstanceSnapshot snapshot = load(stateMachineName, instanceId);
+		
+		if (snapshot != null) {
+			Files.delete(fileOf(stateMachineName, instanceId));
+		}
+		
+		return snapshot;
+	}
+
+	@Override
+	public void quarantine(final String stateMachineName, final UUID instanceId) throws IOException {
+		Path file = fileOf(stateMachineName, instanceId);
+		
+		try {
+			Files.move(file, file.resolveSibling(file.getFileName() + ".failed"),
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (NoSuchFileException e) {
+			return;
+		}
+	}
+
+	@Override
+	public InstanceSnapshot load(final String stateMachineName, final UUID instanceId)
+			throws IOException {
+		Path file = fileOf(stateMachineName, instanceId);
+		JsonNode root;
+		
+		try {
+			root = mapper.readTree(Files.readAllBytes(file));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		
+		List<String> activeStateNames = new ArrayList<>();
+		List<Event> pendingEvents = new ArrayList<>();
+		
+		root.get("activeStates").forEach(state -> activeStateNames.add(state.asText()));
+		
+		for (JsonNode pendingEvent : root.get("pendingEvents")) {
+			Map<String, Object> payload = mapper.convertValue(pendingEvent.get("payload"), PAYLOAD_TYPE);
+			pendingEvents.add(new Event(stateMachineName, instanceId.toString(),
+					pendingEvent.get("eventName").asText(), payload));
+		}
+		
+		return new InstanceSnapshot(activeStateNames, pendingEvents, root.get("initialized").asBoolean(),
+				root.path("position").asLong(-1));
+	}
+
+	private Path fileOf(final String stateMachineName, final UUID instanceId) {
+		String id = instanceId.toString();
+		
+		return directory
+				.resolve(URLEncoder.encode(stateMachineName, StandardCharsets.UTF_8))
+				.resolve(id.substring(0, 2))
+				.resolve(id + ".json");
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.persistence;
+
+/**
+ * Defines when the {@link EventJournal} forces its records to the disk.
+ * 
+ * @author Matthias Rothe
+ */
+public enum FsyncPolicy {
+	/**
+	 * An event is only acknowledged once its record has been forced to the disk. Records
+	 * appended concurrently are forced together.
+	 */
+	ALWAYS,
+	
+	/**
+	 * Records are forced periodically; events are acknowledged right after being appended.
+	 */
+	INTERVAL,
+	
+	/**
+	 * Records are never forced explicitly, the operating system writes them eventually.
+	 */
+	NEVER;
+	
+	/**
+	 * @param policy the name of the policy, ignoring case
+	 * @return the policy with the given name
+	 */
+	public static FsyncPolicy by(final String policy) {
+		return valueOf(policy.trim().toUpperCase());
+	}
+}
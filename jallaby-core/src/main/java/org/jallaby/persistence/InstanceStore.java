@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.persistence;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import org.jallaby.execution.InstanceSnapshot;
+
+/**
+ * Keeps the snapshots of passivated state machine instances until they are reactivated.
+ * 
+ * @author Matthias Rothe
+ */
+public interface InstanceStore {
+	
+	/**
+	 * Stores the snapshot of a passivated instance, replacing any snapshot stored before.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance
+	 * @param snapshot the snapshot of the instance
+	 * @throws IOException in case the snapshot couldn't be stored
+	 */
+	void store(String stateMachineName, UUID instanceId, InstanceSnapshot snapshot) throws IOException;
+	
+	/**
+	 * Retrieves the snapshot of a passivated instance, keeping it stored.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance
+	 * @return the snapshot of the instance or {@code null} if there is none
+	 * @throws IOException in case the snapshot couldn't be read
+	 */
+	InstanceSnapshot load(String stateMachineName, UUID instanceId) throws IOException;
+	
+	/**
+	 * Retrieves and removes the snapshot of a passivated instance.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance
+	 * @return the snapshot of the instance or {@code null} if there is none
+	 * @throws IOException in case the snapshot couldn't be read
+	 */
+	InstanceSnapshot take(String stateMachineName, UUID instanceId) throws IOException;
+	
+	/**
+	 * Moves the snapshot of an instance, which couldn't be restored from it, aside. It's neither
+	 * retrieved nor replaced anymore, but kept for inspection.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param instanceId the id of the instance
+	 * @throws IOException in case the snapshot couldn't be moved
+	 */
+	void quarantine(String stateMachineName, UUID instanceId) throws IOException;
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.persistence;
+
+import java.util.Objects;
+
+import org.jallaby.event.Event;
+
+/**
+ * A processed event read back from the {@link EventJournal}.
+ * 
+ * @author Matthias Rothe
+ */
+public final class JournalRecord {
+	private final long position;
+	private final Event event;
+	private final String resultStateName;
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param position the position of the record in the journal
+	 * @param event the processed event
+	 * @param resultStateName the name of the state the event led to or {@code null} if
+	 * processing the event failed
+	 */
+	public JournalRecord(final long position, final Event event, final String resultStateName) {
+		Objects.requireNonNull(event, "event must not be null");
+		
+		this.position = position;
+		this.event = event;
+		this.resultStateName = resultStateName;
+	}
+
+	/**
+	 * @return the position of the record in the journal, growing with every record appended
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the processed event
+	 */
+	public Event getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return the name of the state the event led to or {@code null} if processing the event failed
+	 */
+	public String getResultStateName() {
+		return resultStateName;
+	}
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jallaby.event.Event;
+import org.jallaby.execution.InstanceSnapshot;
+
+/**
+ * Keeps the snapshots of passivated instances outside of the heap, so millions of dormant
+ * instances neither occupy the heap nor add to the work of the garbage collector.
+ * <p>
+ * The snapshots of each state machine are kept in a hash table of fixed size slots, spread over
+ * direct byte buffers and keyed by instance id. A slot holds the ids of up to
+ * {@value #MAX_DEPTH} active states and of up to {@value #MAX_PENDING} pending events without
+ * payload, the names being kept once per state machine. Snapshots exceeding a slot are handed
+ * to the overflow store instead.
+ * <p>
+ * The snapshots don't survive a restart of the container.
+ * 
+ * @author Matthias Rothe
+ */
+public final class OffHeapInstanceStore implements InstanceStore {
+	static final int MAX_DEPTH = 7;
+	static final int MAX_PENDING = 3;
+	
+	private final int initialCapacity;
+	private final InstanceStore overflow;
+	private final Map<String, Table> tables = new ConcurrentHashMap<>();
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param initialCapacity the initial number of slots of the table of each state machine,
+	 * which is doubled whenever it's three quarters full
+	 * @param overflow the store keeping the snapshots which exceed a slot
+	 */
+	public OffHeapInstanceStore(final int initialCapacity, final InstanceStore overflow) {
+		Objects.requireNonNull(overflow, "overflow must not be null");
+		
+		this.initialCapacity = initialCapacity;
+		this.overflow = overflow;
+	}
+
+	@Override
+	public void store(final String stateMachineName, final UUID instanceId,
+			final InstanceSnapshot snapshot) throws IOException {
+		Table table = tables.computeIfAbsent(stateMachineName, name -> new Table(initialCapacity));
+		
+		if (table.put(instanceId, snapshot)) {
+			if (table.overflowed.remove(instanceId)) {
+				overflow.take(stateMachineName, instanceId);
+			}
+		} else {
+			table.remove(instanceId);
+			overflow.store(stateMachineName, instanceId, snapshot);
+			table.overflowed.add(instanceId);
+		}
+	}
+
+	@Override
+	public InstanceSnapshot load(final String stateMachineName, final UUID instanceId)
+			throws IOException {
+		return get(stateMachineName, instanceId, false);
+	}
+
+	@Override
+	public InstanceSnapshot take(final String stateMachineName, final UUID instanceId)
+			throws IOException {
+		return get(stateMachineName, instanceId, true);
+	}
+
+	/**
+	 * Hands the snapshot to the overflow store to be moved aside there, as the snapshots kept
+	 * outside of the heap don't survive a restart.
+	 */
+	@Override
+	public void quarantine(final String stateMachineName, final UUID instanceId) throws IOException {
+		Table table = tables.get(stateMachineName);
+		
+		if (table == null) {
+			return;
+		}
+		
+		if (!table.overflowed.remove(instanceId)) {
+			InstanceSnapshot snapshot = table.get(stateMachineName, instanceId, true);
+			
+			if (snapshot == null) {
+				return;
+			}
+			
+			overflow.store(stateMachineName, instanceId, snapshot);
+		}
+		
+		overflow.quarantine(stateMachineName, instanceId);
+	}
+
+	private InstanceSnapshot get(final String stateMachineName, final UUID instanceId,
+			final boolean remove) throws IOException {
+		Table table = tables.get(stateMachineName);
+		
+		if (table == null) {
+			return null;
+		}
+		
+		InstanceSnapshot snapshot = table.get(stateMachineName, instanceId, remove);
+		
+		if (snapshot != null || !table.overflowed.contains(instanceId)) {
+			return snapshot;
+		} else if (remove) {
+			table.overflowed.remove(instanceId);
+			return overflow.take(stateMachineName, instanceId);
+		} else {
+			return overflow.load(stateMachineName, instanceId);
+		}
+	}
+
+	/**
+	 * @param stateMachineName the name of a state machine
+	 * @return the number of snapshots of the state machine kept outside of the heap
+	 */
+	public long size(final String stateMachineName) {
+		Table table = tables.get(stateMachineName);
+		return table == null ? 0 : table.size();
+	}
+
+	/**
+	 * An open addressing hash table with linear probing, keeping the snapshots of one state
+	 * machine in slots of 48 bytes.
+	 */
+	private static final class Table {
+		private static final int SLOT_SIZE = 48;
+		private static final int SEGMENT_SHIFT = 16;
+		private static final int SEGMENT_SLOTS = 1 << SEGMENT_SHIFT;
+		private static final int MAX_NAMES = 1 << Short.SIZE;
+		private static final int MAX_CAPACITY = 1 << 30;
+		
+		private static final int MOST_SIGNIFICANT_BITS = 0;
+		private static final int LEAST_SIGNIFICANT_BITS = 8;
+		private static final int POSITION = 16;
+		private static final int FLAGS = 24;
+		private static final int DEPTH = 25;
+		private static final int PENDING = 26;
+		private static final int STATE_IDS = 28;
+		private static final int EVENT_IDS = STATE_IDS + MAX_DEPTH * Short.BYTES;
+		
+		private static final int OCCUPIED = 1;
+		private static final int INITIALIZED = 2;
+		private static final int NULL_PAYLOAD = 4;
+		
+		private final Map<String, Integer> nameIds = new HashMap<>();
+		private final List<String> names = new ArrayList<>();
+		private final Set<UUID> overflowed = ConcurrentHashMap.newKeySet();
+		private final short[] ids = new short[MAX_DEPTH + MAX_PENDING];
+		
+		private ByteBuffer[] segments;
+		private int mask;
+		private int size;
+		
+		private Table(final int capacity) {
+			allocate(Integer.highestOneBit(Math.max(2, capacity - 1)) << 1);
+		}
+
+		private void allocate(final int capacity) {
+			segments = new ByteBuffer[Math.max(1, capacity >>> SEGMENT_SHIFT)];
+			
+			for (int i = 0; i < segments.length; i++) {
+				segments[i] = ByteBuffer.allocateDirect(Math.min(capacity, SEGMENT_SLOTS) * SLOT_SIZE);
+			}
+			
+			mask = capacity - 1;
+			size = 0;
+		}
+
+		private synchronized long size() {
+			return size;
+		}
+
+		private synchronized boolean put(final UUID instanceId, final InstanceSnapshot snapshot) {
+			List<String> activeStateNames = snapshot.getActiveStateNames();
+			List<Event> pendingEvents = snapshot.getPendingEvents();
+			
+			if (activeStateNames.size() > MAX_DEPTH || pendingEvents.size() > MAX_PENDING
+					|| !collectIds(activeStateNames, pendingEvents)) {
+				return false;
+			}
+			
+			int slot = find(instanceId.getMostSignificantBits(), instanceId.getLeastSignificantBits());
+			
+			if (slot < 0) {
+				if (size + 1 > (mask + 1) / 4 * 3) {
+					if (mask + 1 == MAX_CAPACITY) {
+						return false;
+					}
+					
+					grow();
+					slot = find(instanceId.getMostSignificantBits(), instanceId.getLeastSignificantBits());
+				}
+				
+				slot = -slot - 1;
+				size++;
+			}
+			
+			ByteBuffer segment = segments[slot >>> SEGMENT_SHIFT];
+			int offset = (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+			int flags = OCCUPIED | (snapshot.isInitialized() ? INITIALIZED : 0);
+			
+			for (int i = 0; i < pendingEvents.size(); i++) {
+				if (pendingEvents.get(i).getPayload() == null) {
+					flags |= NULL_PAYLOAD << i;
+				}
+			}
+			
+			segment.putLong(offset + MOST_SIGNIFICANT_BITS, instanceId.getMostSignificantBits());
+			segment.putLong(offset + LEAST_SIGNIFICANT_BITS, instanceId.getLeastSignificantBits());
+			segment.putLong(offset + POSITION, snapshot.getPosition());
+			segment.put(offset + FLAGS, (byte) flags);
+			segment.put(offset + DEPTH, (byte) activeStateNames.size());
+			segment.put(offset + PENDING, (byte) pendingEvents.size());
+			
+			for (int i = 0; i < activeStateNames.size(); i++) {
+				segment.putShort(offset + STATE_IDS + i * Short.BYTES, ids[i]);
+			}
+			
+			for (int i = 0; i < pendingEvents.size(); i++) {
+				segment.putShort(offset + EVENT_IDS + i * Short.BYTES, ids[MAX_DEPTH + i]);
+			}
+			
+			return true;
+		}
+
+		private boolean collectIds(final List<String> activeStateNames, final List<Event> pendingEvents) {
+			for (int i = 0; i < activeStateNames.size(); i++) {
+				int id = idOf(activeStateNames.get(i));
+				
+				if (id < 0) {
+					return false;
+				}
+				
+				ids[i] = (short) id;
+			}
+			
+			for (int i = 0; i < pendingEvents.size(); i++) {
+				Event event = pendingEvents.get(i);
+				int id = idOf(event.getEventName());
+				
+				if (id < 0 || event.getPayload() != null && !event.getPayload().isEmpty()) {
+					return false;
+				}
+				
+				ids[MAX_DEPTH + i] = (short) id;
+			}
+			
+			return true;
+		}
+
+		private int idOf(final String name) {
+			Integer id = nameIds.get(name);
+			
+			if (id == null) {
+				if (names.size() == MAX_NAMES) {
+					return -1;
+				}
+				
+				id = names.size();
+				names.add(name);
+				nameIds.put(name, id);
+			}
+			
+			return id;
+		}
+
+		private synchronized InstanceSnapshot get(final String stateMachineName, final UUID instanceId,
+				final boolean remove) {
+			int slot = find(instanceId.getMostSignificantBits(), instanceId.getLeastSignificantBits());
+			
+			if (slot < 0) {
+				return null;
+			}
+			
+			ByteBuffer segment = segments[slot >>> SEGMENT_SHIFT];
+			int offset = (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+			int flags = segment.get(offset + FLAGS);
+			List<String> activeStateNames = new ArrayList<>(segment.get(offset + DEPTH));
+			List<Event> pendingEvents = new ArrayList<>(segment.get(offset + PENDING));
+			
+			for (int i = 0; i < segment.get(offset + DEPTH); i++) {
+				activeStateNames.add(names.get(segment.getShort(offset + STATE_IDS + i * Short.BYTES) & 0xFFFF));
+			}
+			
+			for (int i = 0; i < segment.get(offset + PENDING); i++) {
+				String eventName = names.get(segment.getShort(offset + EVENT_IDS + i * Short.BYTES) & 0xFFFF);
+				pendingEvents.add(new Event(stateMachineName, instanceId.toString(), eventName,
+						(flags & NULL_PAYLOAD << i) != 0 ? null : new HashMap<>()));
+			}
+			
+			InstanceSnapshot snapshot = new InstanceSnapshot(activeStateNames, pendingEvents,
+					(flags & INITIALIZED) != 0, segment.getLong(offset + POSITION));
+			
+			if (remove) {
+				delete(slot);
+			}
+			
+			return snapshot;
+		}
+
+		private synchronized void remove(final UUID instanceId) {
+			int slot = find(instanceId.getMostSignificantBits(), instanceId.getLeastSignificantBits());
+			
+			if (slot >= 0) {
+				delete(slot);
+			}
+		}
+
+		/**
+		 * @return the slot holding the given key or, if there is none, {@code -slot - 1} of the
+		 * free slot to put it into
+		 */
+		private int find(final long mostSignificantBits, final long leastSignificantBits) {
+			int slot = hash(mostSignificantBits, leastSignificantBits) & mask;
+			
+			while (isOccupied(slot)) {
+				ByteBuffer segment = segments[slot >>> SEGMENT_SHIFT];
+				int offset = (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+				
+				if (segment.getLong(offset + MOST_SIGNIFICANT_BITS) == mostSignificantBits
+						&& segment.getLong(offset + LEAST_SIGNIFICANT_BITS) == leastSignificantBits) {
+					return slot;
+				}
+				
+				slot = (slot + 1) & mask;
+			}
+			
+			return -slot - 1;
+		}
+
+		/**
+		 * Frees the given slot, moving later slots of the same probe sequence back, so lookups
+		 * never need to skip deleted slots.
+		 */
+		private void delete(final int slot) {
+			int free = slot;
+			int next = (free + 1) & mask;
+			
+			while (isOccupied(next)) {
+				int home = homeOf(next);
+				
+				if (((next - home) & mask) >= ((next - free) & mask)) {
+					copy(next, free);
+					free = next;
+				}
+				
+				next = (next + 1) & mask;
+			}
+			
+			segments[free >>> SEGMENT_SHIFT].put((free & (SEGMENT_SLOTS - 1)) * SLOT_SIZE + FLAGS, (byte) 0);
+			size--;
+		}
+
+		private void grow() {
+			ByteBuffer[] oldSegments = segments;
+			int oldCapacity = mask + 1;
+			
+			allocate(oldCapacity << 1);
+			
+			for (int slot = 0; slot < oldCapacity; slot++) {
+				ByteBuffer segment = oldSegments[slot >>> SEGMENT_SHIFT];
+				int offset = (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+				
+				if ((segment.get(offset + FLAGS) & OCCUPIED) != 0) {
+					int target = -find(segment.getLong(offset + MOST_SIGNIFICANT_BITS),
+							segment.getLong(offset + LEAST_SIGNIFICANT_BITS)) - 1;
+					ByteBuffer targetSegment = segments[target >>> SEGMENT_SHIFT];
+					int targetOffset = (target & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+					
+					for (int i = 0; i < SLOT_SIZE; i += Long.BYTES) {
+						targetSegment.putLong(targetOffset + i, segment.getLong(offset + i));
+					}
+					
+					size++;
+				}
+			}
+		}
+
+		private void copy(final int from, final int to) {
+			ByteBuffer fromSegment = segments[from >>> SEGMENT_SHIFT];
+			ByteBuffer toSegment = segments[to >>> SEGMENT_SHIFT];
+			int fromOffset = (from & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+			int toOffset = (to & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+			
+			for (int i = 0; i < SLOT_SIZE; i += Long.BYTES) {
+				toSegment.putLong(toOffset + i, fromSegment.getLong(fromOffset + i));
+			}
+		}
+
+		private boolean isOccupied(final int slot) {
+			return (segments[slot >>> SEGMENT_SHIFT].get((slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE + FLAGS)
+					& OCCUPIED) != 0;
+		}
+
+		private int homeOf(final int slot) {
+			ByteBuffer segment = segments[slot >>> SEGMENT_SHIFT];
+			int offset = (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+			
+			return hash(segment.getLong(offset + MOST_SIGNIFICANT_BITS),
+					segment.getLong(offset + LEAST_SIGNIFICANT_BITS)) & mask;
+		}
+
+		private static int hash(final long mostSignificantBits, final long leastSignificantBits) {
+			long hash = mostSignificantBits * 0x9E3779B97F4A7C15L ^ leastSignificantBits;
+			hash ^= hash >>> 33;
+			hash *= 0xFF51AFD7ED558CCDL;
+			hash ^= hash >>> 33;
+			
+			return (int) hash;
+		}
+	}
+}
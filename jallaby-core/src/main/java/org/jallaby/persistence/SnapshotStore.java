@@ -0,0 +1,295 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jallaby.event.Event;
+import org.jallaby.execution.InstanceSnapshot;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Stores the snapshots of the instances of each state machine as a chain of compressed binary
+ * files, one per checkpoint. A full checkpoint holds all instances of a state machine and
+ * supersedes the files before it, an incremental checkpoint only holds the instances changed
+ * since the previous one.
+ * <p>
+ * Each file starts with a table of the state and event names it uses; instances refer to them
+ * by their index only, so a snapshot takes a few bytes besides the payloads of its pending
+ * events.
+ * 
+ * @author Matthias Rothe
+ */
+public final class SnapshotStore {
+	private static final TypeReference<Map<String, Object>> PAYLOAD_TYPE =
+			new TypeReference<Map<String, Object>>() {};
+	private static final String SUFFIX = ".snapshot";
+	private static final int MAGIC = 0x4A534E50;
+	private static final int FORMAT = 1;
+	
+	private final Path directory;
+	private final ObjectMapper mapper = new ObjectMapper();
+	
+	/**
+	 * Ctor.
+	 * 
+	 * @param directory the directory to keep the checkpoints in
+	 */
+	public SnapshotStore(final Path directory) {
+		Objects.requireNonNull(directory, "directory must not be null");
+		this.directory = directory;
+	}
+
+	/**
+	 * Writes a checkpoint of the given state machine. A full checkpoint deletes the checkpoints
+	 * written before it. The checkpoint is on disk once this method returns, so the journal may be
+	 * truncated up to its position.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @param position the journal position the checkpoint has been started at
+	 * @param snapshots the snapshots by instance id
+	 * @param full whether the snapshots are those of all instances
+	 * @throws IOException in case the checkpoint couldn't be written
+	 */
+	public void write(final String stateMachineName, final long position,
+			final Map<UUID, InstanceSnapshot> snapshots, final boolean full) throws IOException {
+		Path machineDirectory = directoryOf(stateMachineName);
+		Path file = machineDirectory.resolve(String.format("%020d%s", position, SUFFIX));
+		Map<UUID, InstanceSnapshot> content = snapshots;
+		
+		if (!full && Files.exists(file)) {
+			Checkpoint existing = readFile(stateMachineName, file);
+			existing.snapshots.putAll(snapshots);
+			content = existing.snapshots;
+		}
+		
+		Map<UUID, InstanceSnapshot> written = content;
+		
+		DurableFiles.replace(file, stream -> {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new GZIPOutputStream(stream)))) {
+				writeCheckpoint(out, written, full);
+			}
+		});
+		
+		if (full) {
+			for (Path older : checkpointFiles(machineDirectory)) {
+				if (older.getFileName().toString().compareTo(file.getFileName().toString()) < 0) {
+					Files.delete(older);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the latest snapshot of every instance of the given state machine, starting with the
+	 * last full checkpoint.
+	 * 
+	 * @param stateMachineName the name of the state machine
+	 * @return the snapshots by instance id
+	 * @throws IOException in case a checkpoint couldn't be read
+	 */
+	public Map<UUID, InstanceSnapshot> read(final String stateMachineName) throws IOException {
+		Path machineDirectory = directoryOf(stateMachineName);
+		
+		if (!Files.isDirectory(machineDirectory)) {
+			return new HashMap<>();
+		}
+		
+		List<Checkpoint> checkpoints = new ArrayList<>();
+		
+		for (Path file : checkpointFiles(machineDirectory)) {
+			Checkpoint checkpoint = readFile(stateMachineName, file);
+			
+			if (checkpoint.full) {
+				checkpoints.clear();
+			}
+			
+			checkpoints.add(checkpoint);
+		}
+		
+		Map<UUID, InstanceSnapshot> snapshots = new HashMap<>();
+		checkpoints.forEach(checkpoint -> snapshots.putAll(checkpoint.snapshots));
+		return snapshots;
+	}
+
+	private void writeCheckpoint(final DataOutputStream out, final Map<UUID, InstanceSnapshot> snapshots,
+			final boolean full) throws IOException {
+		Map<String, Integer> names = new LinkedHashMap<>();
+		
+		for (InstanceSnapshot snapshot : snapshots.values()) {
+			snapshot.getActiveStateNames().forEach(name -> names.putIfAbsent(name, names.size()));
+			snapshot.getPendingEvents().forEach(event -> names.putIfAbsent(event.getEventName(), names.size()));
+		}
+		
+		out.writeInt(MAGIC);
+		out.writeByte(FORMAT);
+		out.writeBoolean(full);
+		writeVarInt(out, names.size());
+		
+		for (String name : names.keySet()) {
+			out.writeUTF(name);
+		}
+		
+		writeVarInt(out, snapshots.size());
+		
+		for (Map.Entry<UUID, InstanceSnapshot> entry : snapshots.entrySet()) {
+			InstanceSnapshot snapshot = entry.getValue();
+			
+			out.writeLong(entry.getKey().getMostSignificantBits());
+			out.writeLong(entry.getKey().getLeastSignificantBits());
+			out.writeLong(snapshot.getPosition());
+			out.writeBoolean(snapshot.isInitialized());
+			writeVarInt(out, snapshot.getActiveStateNames().size());
+			
+			for (String stateName : snapshot.getActiveStateNames()) {
+				writeVarInt(out, names.get(stateName));
+			}
+			
+			writeVarInt(out, snapshot.getPendingEvents().size());
+			
+			for (Event event : snapshot.getPendingEvents()) {
+				byte[] payload = mapper.writeValueAsBytes(event.getPayload());
+				
+				writeVarInt(out, names.get(event.getEventName()));
+				writeVarInt(out, payload.length);
+				out.write(payload);
+			}
+		}
+	}
+
+	private Checkpoint readFile(final String stateMachineName, final Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(Files.newInputStream(file))))) {
+			if (in.readInt() != MAGIC || in.readByte() != FORMAT) {
+				throw new IOException(String.format("The file [%s] is no checkpoint.", file));
+			}
+			
+			boolean full = in.readBoolean();
+			String[] names = new String[readVarInt(in)];
+			
+			for (int i = 0; i < names.length; i++) {
+				names[i] = in.readUTF();
+			}
+			
+			int count = readVarInt(in);
+			Map<UUID, InstanceSnapshot> snapshots = new HashMap<>(count * 2);
+			
+			for (int i = 0; i < count; i++) {
+				UUID instanceId = new UUID(in.readLong(), in.readLong());
+				snapshots.put(instanceId, readSnapshot(in, names, stateMachineName, instanceId));
+			}
+			
+			return new Checkpoint(full, snapshots);
+		}
+	}
+
+	private InstanceSnapshot readSnapshot(final DataInputStream in, final String[] names,
+			final String stateMachineName, final UUID instanceId) throws IOException {
+		long position = in.readLong();
+		boolean initialized = in.readBoolean();
+		List<String> activeStateNames = new ArrayList<>();
+		
+		for (int count = readVarInt(in); count > 0; count--) {
+			activeStateNames.add(names[readVarInt(in)]);
+		}
+		
+		List<Event> pendingEvents = new ArrayList<>();
+		
+		for (int count = readVarInt(in); count > 0; count--) {
+			String eventName = names[readVarInt(in)];
+			byte[] payload = new byte[readVarInt(in)];
+			in.readFully(payload);
+			
+			pendingEvents.add(new Event(stateMachineName, instanceId.toString(), eventName,
+					mapper.readValue(payload, PAYLOAD_TYPE)));
+		}
+		
+		return new InstanceSnapshot(activeStateNames, pendingEvents, initialized, position);
+	}
+
+	private static void writeVarInt(final DataOutputStream out, final int value) throws IOException {
+		int remaining = value;
+		
+		while ((remaining & ~0x7F) != 0) {
+			out.writeByte((remaining & 0x7F) | 0x80);
+			remaining >>>= 7;
+		}
+		
+		out.writeByte(remaining);
+	}
+
+	private static int readVarInt(final DataInputStream in) throws IOException {
+		int value = 0;
+		
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		
+		throw new IOException("Malformed variable length integer.");
+	}
+
+	private Path directoryOf(final String stateMachineName) {
+		return directory.resolve(URLEncoder.encode(stateMachineName, StandardCharsets.UTF_8));
+	}
+
+	private static List<Path> checkpointFiles(final Path machineDirectory) throws IOException {
+		try (Stream<Path> files = Files.list(machineDirectory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+					.sorted().collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * The content of a checkpoint file.
+	 */
+	private static final class Checkpoint {
+		private final boolean full;
+		private final Map<UUID, InstanceSnapshot> snapshots;
+		
+		private Checkpoint(final boolean full, final Map<UUID, InstanceSnapshot> snapshots) {
+			this.full = full;
+			this.snapshots = snapshots;
+		}
+	}
+}
@@ -17,16 +17,22 @@
 package org.jallaby.transport.http;
 
 import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.jallaby.Jallaby;
+import org.jallaby.JallabyConfiguration;
 import org.jallaby.event.Event;
+import org.jallaby.event.EventError;
 import org.jallaby.event.EventProcessingException;
+import org.jallaby.event.EventRejection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,32 +43,64 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 @Path("/{stateMachineName}")
 public class JallabyResource {
 	private static final Logger LOGGER = LoggerFactory.getLogger(JallabyResource.class);
+	private static final RejectionLog REJECTIONS = RejectionLog.from(LOGGER,
+			JallabyConfiguration.getInstance());
 	
 	private final Jallaby jallaby = new Jallaby();
 	private final ObjectMapper mapper = new ObjectMapper();
 
 	@PUT
 	@Path("/{instanceId}/{eventName}")
-	public Response receiveEvent(@PathParam("stateMachineName") String stateMachineName,
+	public void receiveEvent(@PathParam("stateMachineName") String stateMachineName,
 			@PathParam("instanceId") String instanceId,
 			@PathParam("eventName") String eventName,
-			String entityString) {
+			String entityString,
+			@Suspended AsyncResponse asyncResponse) {
 		try {
 			Map<String, Object> entity = mapper.readValue(entityString.getBytes(),
 					new TypeReference<Map<String, Object>>() {});
 			
 			Event event = new Event(stateMachineName, instanceId, eventName, entity);
-			return Response.ok(toJson(jallaby.receiveEvent(event)), MediaType.APPLICATION_JSON).build();
-		} catch (EventProcessingException e) {
-			LOGGER.warn(String.format("An exception occurred while processing the event [%s]"
-					+ " on state machine [%s/%s].",
-					eventName, stateMachineName, instanceId), e);
-			return Response.status(900).type(MediaType.APPLICATION_JSON)
-					.entity(toJson(e.getError())).build();
+			jallaby.receiveEvent(event).whenComplete((result, throwable) -> {
+				if (throwable == null) {
+					asyncResponse.resume(Response.ok(toJson(result), MediaType.APPLICATION_JSON).build());
+				} else {
+					asyncResponse.resume(toErrorResponse(unwrap(throwable), stateMachineName,
+							instanceId, eventName));
+				}
+			});
 		} catch (Exception e) {
-			LOGGER.error("An unexpected exception occurred.", e);
+			asyncResponse.resume(toErrorResponse(e, stateMachineName, instanceId, eventName));
+		}
+	}
+
+	private Throwable unwrap(final Throwable throwable) {
+		if (throwable instanceof CompletionException && throwable.getCause() != null) {
+			return throwable.getCause();
+		}
+		
+		return throwable;
+	}
+
+	private Response toErrorResponse(final Throwable throwable, final String stateMachineName,
+			final String instanceId, final String eventName) {
+		if (throwable instanceof EventProcessingException) {
+			EventError error = ((EventProcessingException) throwable).getError();
+			
+			if (EventRejection.of(error.getErrorCode()) != null) {
+				REJECTIONS.log(error);
+			} else {
+				LOGGER.warn(String.format("An exception occurred while processing the event [%s]"
+						+ " on state machine [%s/%s].",
+						eventName, stateMachineName, instanceId), throwable);
+			}
+			
+			return Response.status(900).type(MediaType.APPLICATION_JSON).entity(toJson(error)).build();
+		} else {
+			LOGGER.error("An unexpected exception occurred.", throwable);
 			return Response.status(901).type(MediaType.APPLICATION_JSON).entity(
-					toJson(new GenericError(e.getClass().getCanonicalName(), e.getMessage()))).build();
+					toJson(new GenericError(throwable.getClass().getCanonicalName(),
+							throwable.getMessage()))).build();
 		}
 	}
 	
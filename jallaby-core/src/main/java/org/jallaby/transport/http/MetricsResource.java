@@ -0,0 +1,48 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.transport.http;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+
+import org.jallaby.metrics.Metrics;
+
+/**
+ * Exposes the metrics of all state machines in the Prometheus text exposition format. Responds
+ * with 404 if metrics are disabled, see the <code>metrics.enabled</code> setting.
+ * 
+ * @author Matthias Rothe
+ */
+@Path("/metrics")
+public class MetricsResource {
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	
+	private final Metrics metrics = Metrics.getInstance();
+	
+	/**
+	 * @return the metrics of all state machines
+	 */
+	@GET
+	public Response getMetrics() {
+		if (!metrics.isEnabled()) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		
+		return Response.ok(metrics.toPrometheusText(), CONTENT_TYPE).build();
+	}
+}
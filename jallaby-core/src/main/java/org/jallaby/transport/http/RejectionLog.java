@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.transport.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jallaby.JallabyConfiguration;
+import org.jallaby.event.EventError;
+import org.slf4j.Logger;
+
+/**
+ * Logs rejected events, sampled and rate limited, so a client flooding the container with
+ * invalid events can't flood the log as well.
+ * <p>
+ * Only every <code>rejections.log-sample-rate</code>th rejection is considered for logging,
+ * and at most <code>rejections.log-per-second</code> of those are logged per second. Each
+ * logged rejection reports the number of rejections skipped since the previous one.
+ * 
+ * @author Matthias Rothe
+ */
+final class RejectionLog {
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+	
+	private final Logger logger;
+	private final int sampleRate;
+	private final int maxPerSecond;
+	private final AtomicLong rejections = new AtomicLong();
+	private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+	private final AtomicInteger loggedInWindow = new AtomicInteger();
+	private final LongAdder skipped = new LongAdder();
+	
+	RejectionLog(final Logger logger, final int sampleRate, final int maxPerSecond) {
+		this.logger = logger;
+		this.sampleRate = sampleRate;
+		this.maxPerSecond = maxPerSecond;
+	}
+
+	static RejectionLog from(final Logger logger, final JallabyConfiguration configuration) {
+		return new RejectionLog(logger,
+				Math.max(1, configuration.getInt("rejections.log-sample-rate", 10)),
+				Math.max(0, configuration.getInt("rejections.log-per-second", 10)));
+	}
+
+	/**
+	 * Logs the given rejection unless it's skipped by sampling or rate limiting.
+	 * 
+	 * @param error the error the event has been rejected with
+	 */
+	void log(final EventError error) {
+		if (!logger.isWarnEnabled()) {
+			return;
+		}
+		
+		if (rejections.getAndIncrement() % sampleRate != 0 || !acquire()) {
+			skipped.increment();
+			return;
+		}
+		
+		logger.warn(String.format("Rejected the event [%s] on state machine [%s/%s] with error %d: %s"
+				+ " Skipped %d similar rejections since the last one logged.",
+				error.getEventName(), error.getStateMachineName(), error.getInstanceId(),
+				error.getErrorCode(), error.getErrorDescription(), skipped.sumThenReset()));
+	}
+
+	private boolean acquire() {
+		long now = System.nanoTime();
+		long start = windowStart.get();
+		
+		if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+			loggedInWindow.set(0);
+		}
+		
+		return loggedInWindow.incrementAndGet() <= maxPerSecond;
+	}
+}
@@ -159,6 +159,34 @@ public class Stack<E> {
 		return size();
 	}
 	
+	/**
+	 * Retrieves the element at the given position, counted from the bottom of this stack,
+	 * without removing it.
+	 * <p>
+	 * This method is unsynchronized and therefore not thread-safe. If you need thread-safe access to this stack,
+	 * use {@link #getSynchronized(int)} instead.
+	 * 
+	 * @param index The position of the element, <code>0</code> being the bottommost element
+	 * @return The element at the given position
+	 */
+	public E get(int index) {
+		return store.get(index);
+	}
+
+	/**
+	 * Retrieves the element at the given position, counted from the bottom of this stack,
+	 * without removing it.
+	 * <p>
+	 * This method is synchronized and therefore thread-safe. If you don't need thread-safe access to this stack,
+	 * use {@link #get(int)} instead to increase performance.
+	 * 
+	 * @param index The position of the element, <code>0</code> being the bottommost element
+	 * @return The element at the given position
+	 */
+	public synchronized E getSynchronized(int index) {
+		return get(index);
+	}
+
 	private int getIndex() {
 		int index = store.size() - 1;
 
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.jallaby.event.Event;
+import org.jallaby.execution.InstanceSnapshot;
+import org.jallaby.execution.State;
+import org.jallaby.execution.StateMachine;
+import org.jallaby.persistence.FileInstanceStore;
+import org.testng.annotations.Test;
+
+public class InstancePassivatorTest {
+	
+	@Test
+	public void shouldPassivateLeastRecentlyUsedInstanceAndRestoreIt() throws Exception {
+		Path directory = Files.createTempDirectory("jallaby-instances");
+		Properties properties = new Properties();
+		properties.setProperty("instance.cache.max-size", "1");
+		properties.setProperty("instance.store.directory", directory.toString());
+		
+		InstancePassivator passivator = InstancePassivator.from(new JallabyConfiguration(properties));
+		assertNotNull(passivator);
+		
+		State initialState = mock(State.class);
+		when(initialState.getName()).thenReturn("waiting");
+		when(initialState.offerEvent(any(), any())).thenReturn(null);
+		
+		StateMachine blueprint = new StateMachine("Passivated", initialState, event -> true);
+		InstanceTable<StateMachine> table = new InstanceTable<>();
+		UUID oldId = UUID.randomUUID();
+		UUID newId = UUID.randomUUID();
+		Map<String, Object> payload = new HashMap<>();
+		payload.put("amount", 3);
+		
+		StateMachine oldInstance = table.computeIfAbsent(oldId, blueprint::newInstance);
+		oldInstance.submitEvent(new Event("Passivated", oldId.toString(), "pay", payload))
+		.toCompletableFuture().get();
+		Thread.sleep(5);
+		StateMachine newInstance = table.computeIfAbsent(newId, blueprint::newInstance);
+		newInstance.submitEvent(new Event("Passivated", newId.toString(), "pay", payload))
+		.toCompletableFuture().get();
+		
+		passivator.evict(Collections.singletonMap("Passivated", table));
+		
+		for (int i = 0; i < 100 && table.size() > 1; i++) {
+			Thread.sleep(10);
+		}
+		
+		assertNull(table.get(oldId));
+		assertSame(table.get(newId), newInstance);
+		assertNull(oldInstance.submitEvent(new Event("Passivated", oldId.toString(), "pay", payload)));
+		
+		InstanceSnapshot snapshot = passivator.reactivate("Passivated", oldId);
+		
+		assertEquals(snapshot.getActiveStateNames(), Arrays.asList("waiting"));
+		assertEquals(snapshot.getPendingEvents().size(), 1);
+		assertEquals(snapshot.getPendingEvents().get(0).getPayload(), payload);
+		assertTrue(snapshot.isInitialized());
+		
+		StateMachine reactivated = blueprint.newInstance();
+		assertTrue(reactivated.restore(oldId, () -> passivator.reactivate("Passivated", oldId),
+				failure -> passivator.reactivated("Passivated", oldId, failure)).toCompletableFuture().get());
+		assertNull(passivator.reactivate("Passivated", oldId));
+	}
+
+	@Test
+	public void shouldMoveSnapshotAsideWhichCannotBeRestored() throws Exception {
+		Path directory = Files.createTempDirectory("jallaby-instances");
+		Properties properties = new Properties();
+		properties.setProperty("instance.cache.ttl-seconds", "1");
+		properties.setProperty("instance.store.directory", directory.toString());
+		
+		InstancePassivator passivator = InstancePassivator.from(new JallabyConfiguration(properties));
+		UUID instanceId = UUID.randomUUID();
+		new FileInstanceStore(directory).store("Redeployed", instanceId, new InstanceSnapshot(
+				Arrays.asList("removed"), Collections.emptyList(), true, -1));
+		
+		State initialState = mock(State.class);
+		when(initialState.getName()).thenReturn("waiting");
+		StateMachine reactivated = new StateMachine("Redeployed", initialState, event -> true).newInstance();
+		
+		assertTrue(reactivated.restore(instanceId, () -> passivator.reactivate("Redeployed", instanceId),
+				failure -> passivator.reactivated("Redeployed", instanceId, failure))
+				.handle((restored, throwable) -> throwable != null).toCompletableFuture().get());
+		assertNull(passivator.reactivate("Redeployed", instanceId));
+		
+		try (Stream<Path> files = Files.walk(directory)) {
+			assertEquals(files.filter(file -> file.getFileName().toString().endsWith(".failed")).count(), 1L);
+		}
+	}
+}
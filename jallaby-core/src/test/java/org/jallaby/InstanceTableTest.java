@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class InstanceTableTest {
+	
+	@Test
+	public void shouldStoreGrowAndRemove() {
+		InstanceTable<String> table = new InstanceTable<>();
+		List<UUID> ids = new ArrayList<>();
+		
+		for (int i = 0; i < 10_000; i++) {
+			UUID id = UUID.randomUUID();
+			ids.add(id);
+			assertEquals(table.computeIfAbsent(id, id::toString), id.toString());
+		}
+		
+		assertEquals(table.size(), 10_000);
+		
+		for (int i = 0; i < ids.size(); i += 2) {
+			UUID id = ids.get(i);
+			assertFalse(table.remove(id, "something else"));
+			assertTrue(table.remove(id, table.get(id)));
+		}
+		
+		assertEquals(table.size(), 5_000);
+		
+		for (int i = 0; i < ids.size(); i++) {
+			UUID id = ids.get(i);
+			
+			if (i % 2 == 0) {
+				assertNull(table.get(id));
+			} else {
+				assertEquals(table.get(id), id.toString());
+			}
+		}
+		
+		Set<UUID> iterated = new HashSet<>();
+		table.forEach((id, value) -> iterated.add(id));
+		assertEquals(iterated.size(), 5_000);
+	}
+
+	@Test
+	public void shouldCreateEachValueOnceUnderContention() throws Exception {
+		InstanceTable<Object> table = new InstanceTable<>();
+		UUID id = UUID.randomUUID();
+		AtomicInteger created = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		
+		try {
+			List<Future<Object>> results = new ArrayList<>();
+			Callable<Object> task = () -> {
+				start.await();
+				return table.computeIfAbsent(id, () -> {
+					created.incrementAndGet();
+					return new Object();
+				});
+			};
+			
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(task));
+			}
+			
+			start.countDown();
+			
+			for (Future<Object> result : results) {
+				assertSame(result.get(), results.get(0).get());
+			}
+			
+			assertEquals(created.get(), 1);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
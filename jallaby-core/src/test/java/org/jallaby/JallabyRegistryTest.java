@@ -19,6 +19,7 @@ import static org.mockito.Mockito.mock;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotEquals;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 
 import java.util.UUID;
 
@@ -57,4 +58,20 @@ public class JallabyRegistryTest {
 		
 		assertNull(stateMachine);
 	}
+
+	@Test
+	public void testUnregisterKeepsStateMachinesSharingNamePrefix() {
+		registry.register(new StateMachine("Tea", mock(State.class), event -> true));
+		registry.register(new StateMachine("TeaMachine", mock(State.class), event -> true));
+		
+		UUID uuid = UUID.randomUUID();
+		StateMachine teaMachine = registry.get("TeaMachine", uuid);
+		
+		registry.unregister("Tea");
+		
+		assertNull(registry.get("Tea", uuid));
+		assertSame(registry.get("TeaMachine", uuid), teaMachine);
+		
+		registry.unregister("TeaMachine");
+	}
 }
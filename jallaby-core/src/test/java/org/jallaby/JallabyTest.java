@@ -16,18 +16,24 @@
 
 package org.jallaby;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 
 import org.jallaby.event.Event;
+import org.jallaby.event.EventProcessingException;
 import org.jallaby.event.EventResult;
 import org.jallaby.execution.State;
 import org.jallaby.execution.StateInfo;
@@ -47,19 +53,53 @@ public class JallabyTest {
 		Map<String, Object> payload = new HashMap<>();
 		Event event = new Event(stateMachineName, instanceId, eventName, payload);
 		
-		State initialState = buildInitialState(event);
+		State initialState = buildInitialState();
 		
 		JallabyRegistry registry = JallabyRegistry.getInstance();
 		registry.register(new StateMachine(stateMachineName, initialState, e -> true));
 		
-		EventResult actualResult = jallaby.receiveEvent(event);
+		EventResult actualResult = jallaby.receiveEvent(event).toCompletableFuture().get();
 		
 		EventResult expectedResult = new EventResult(stateMachineName, instanceId, "started");
 		
 		assertEquals(actualResult, expectedResult);
 	}
 	
-	private State buildInitialState(final Event event) throws Exception {
+	@Test
+	public void shouldReceiveEventsInInputOrder() throws Exception {
+		Jallaby jallaby = new Jallaby();
+		
+		String stateMachineName = "jallaby-batch";
+		String first = UUID.randomUUID().toString();
+		String second = UUID.randomUUID().toString();
+		List<Event> events = List.of(
+				new Event(stateMachineName, first, "start", new HashMap<>()),
+				new Event(stateMachineName, second, "start", new HashMap<>()),
+				new Event("jallaby-unknown", first, "start", new HashMap<>()),
+				new Event(stateMachineName, first, "start", new HashMap<>()));
+		
+		JallabyRegistry.getInstance().register(new StateMachine(stateMachineName,
+				buildInitialState(), e -> true));
+		
+		List<CompletionStage<EventResult>> results = jallaby.receiveEvents(events);
+		
+		assertEquals(results.size(), 4);
+		assertEquals(results.get(0).toCompletableFuture().get(),
+				new EventResult(stateMachineName, first, "started"));
+		assertEquals(results.get(1).toCompletableFuture().get(),
+				new EventResult(stateMachineName, second, "started"));
+		assertEquals(results.get(3).toCompletableFuture().get(),
+				new EventResult(stateMachineName, first, "STATE PENDING"));
+		
+		try {
+			results.get(2).toCompletableFuture().get();
+			fail("The state machine should be unknown.");
+		} catch (ExecutionException e) {
+			assertEquals(((EventProcessingException) e.getCause()).getError().getErrorCode(), 200L);
+		}
+	}
+
+	private State buildInitialState() throws Exception {
 		State initialState = mock(State.class);
 		State startedState = mock(State.class);
 		Transition initialToStartedTransition = mock(Transition.class);
@@ -69,7 +109,7 @@ public class JallabyTest {
 		targetStates.add(startedState);
 		
 		when(initialState.getName()).thenReturn("initial");
-		when(initialState.offerEvent(event)).thenReturn(initialToStartedTransition);
+		when(initialState.offerEvent(any(), any())).thenReturn(initialToStartedTransition);
 		
 		when(initialToStartedTransition.getTransitionActionGroups())
 		.thenReturn(new ArrayList<>());
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class ActionExecutorTest {
+	
+	@Test
+	public void shouldWaitForAllActionsAndCollectTheirFailures() {
+		ActionExecutor executor = new ActionExecutor(2, 1, 5000);
+		AtomicInteger finished = new AtomicInteger();
+		List<TransitionAction> actions = new ArrayList<>();
+		
+		for (int i = 0; i < 8; i++) {
+			actions.add(eventData -> {
+				sleep(20);
+				finished.incrementAndGet();
+			});
+		}
+		
+		actions.add(eventData -> {
+			throw new IllegalStateException("failed");
+		});
+		
+		List<Throwable> failures = executor.runConcurrently(actions, Collections.emptyMap());
+		
+		assertEquals(finished.get(), 8);
+		assertEquals(failures.size(), 1);
+		assertTrue(failures.get(0) instanceof IllegalStateException);
+	}
+
+	@Test
+	public void shouldReportActionsExceedingTheTimeout() {
+		ActionExecutor executor = new ActionExecutor(2, 16, 50);
+		List<TransitionAction> actions = new ArrayList<>();
+		
+		actions.add(eventData -> sleep(5000));
+		actions.add(eventData -> { });
+		
+		List<Throwable> failures = executor.runConcurrently(actions, Collections.emptyMap());
+		
+		assertEquals(failures.size(), 1);
+		assertTrue(failures.get(0) instanceof TimeoutException);
+	}
+
+	private static void sleep(final long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
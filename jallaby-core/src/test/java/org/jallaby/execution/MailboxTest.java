@@ -0,0 +1,103 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class MailboxTest {
+	private ExecutorService executor;
+	
+	@BeforeClass
+	public void startExecutor() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@AfterClass
+	public void stopExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void shouldRunTasksInSubmissionOrderOneAtATime() throws Exception {
+		Mailbox mailbox = new Mailbox(executor, 3);
+		List<Integer> processed = new ArrayList<>();
+		AtomicInteger running = new AtomicInteger();
+		AtomicBoolean overlapped = new AtomicBoolean();
+		List<CompletableFuture<Integer>> results = new ArrayList<>();
+		
+		for (int i = 0; i < 1000; i++) {
+			final int number = i;
+			
+			results.add(mailbox.submit(() -> {
+				if (running.incrementAndGet() > 1) {
+					overlapped.set(true);
+				}
+				
+				processed.add(number);
+				running.decrementAndGet();
+				return number;
+			}).toCompletableFuture());
+		}
+		
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+		
+		assertFalse(overlapped.get());
+		assertEquals(processed.size(), 1000);
+		
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(processed.get(i).intValue(), i);
+			assertEquals(results.get(i).get().intValue(), i);
+		}
+	}
+
+	@Test
+	public void shouldCompleteExceptionallyAndKeepDraining() throws Exception {
+		Mailbox mailbox = new Mailbox(executor, 1);
+		IllegalStateException failure = new IllegalStateException("failed");
+		
+		CompletableFuture<Object> failed = mailbox.submit(() -> {
+			throw failure;
+		}).toCompletableFuture();
+		CompletableFuture<String> succeeded = mailbox.submit(() -> "next").toCompletableFuture();
+		
+		assertEquals(succeeded.get(10, TimeUnit.SECONDS), "next");
+		assertTrue(failed.isCompletedExceptionally());
+		
+		try {
+			failed.get();
+		} catch (ExecutionException e) {
+			assertSame(e.getCause(), failure);
+		}
+	}
+}
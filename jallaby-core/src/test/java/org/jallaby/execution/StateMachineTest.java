@@ -0,0 +1,323 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+import static org.testng.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.jallaby.event.Event;
+import org.testng.annotations.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class StateMachineTest {
+	private static final String NAME = "RunToCompletion";
+	
+	@Test
+	public void shouldProcessLongChainsOfCompletionEventsIteratively() throws Exception {
+		TestState last = new TestState("last", FinishState.ONGOING);
+		TestState next = last;
+		
+		for (int i = 0; i < 100000; i++) {
+			TestState state = new TestState("step" + i, FinishState.FINISHED);
+			state.addTransition("finished", next, Collections.emptyList());
+			next = state;
+		}
+		
+		TestState initial = new TestState("initial", FinishState.ONGOING);
+		initial.addTransition("start", next, Collections.emptyList());
+		
+		StateMachine instance = new StateMachine(NAME, initial, event -> true).newInstance();
+		
+		assertEquals(instance.processEvent(event("start")).getCurrentStateName(), "last");
+	}
+
+	@Test
+	public void shouldProcessEventsRaisedByActionsAfterTheCurrentEvent() throws Exception {
+		List<String> processed = new ArrayList<>();
+		TestState done = new TestState("done", FinishState.ONGOING);
+		TestState raised = new TestState("raised", FinishState.ONGOING);
+		raised.addTransition("second", done, List.of(eventData -> processed.add("second")));
+		
+		TestState initial = new TestState("initial", FinishState.ONGOING);
+		initial.addTransition("first", raised, List.of(eventData -> {
+			StateMachine.raiseEvent("second", Collections.emptyMap());
+			processed.add("first");
+		}));
+		
+		StateMachine instance = new StateMachine(NAME, initial, event -> true).newInstance();
+		
+		assertEquals(instance.processEvent(event("first")).getCurrentStateName(), "done");
+		assertEquals(processed, List.of("first", "second"));
+	}
+
+	@Test
+	public void shouldKeepTheOfferedEventsOfEachInstanceApart() throws Exception {
+		TestState shipped = new TestState("shipped", FinishState.ONGOING);
+		TestState initial = new TestState("initial", FinishState.ONGOING);
+		initial.addTransition("label+pack", shipped, Collections.emptyList());
+		
+		StateMachine stateMachine = new StateMachine(NAME, initial, event -> true);
+		StateMachine first = stateMachine.newInstance();
+		StateMachine second = stateMachine.newInstance();
+		Event firstPack = event("pack");
+		Event secondLabel = event("label");
+		
+		assertEquals(first.processEvent(firstPack).getCurrentStateName(), "STATE PENDING");
+		assertEquals(second.processEvent(secondLabel).getCurrentStateName(), "STATE PENDING");
+		assertEquals(first.processEvent(new Event(NAME, firstPack.getInstanceId().toString(), "label",
+				Collections.emptyMap())).getCurrentStateName(), "shipped");
+		assertEquals(second.processEvent(new Event(NAME, secondLabel.getInstanceId().toString(), "pack",
+				Collections.emptyMap())).getCurrentStateName(), "shipped");
+	}
+
+	@Test
+	public void shouldSendTheTimeoutEventOfAStateNotExitedMeanwhile() throws Exception {
+		TestState expired = new TestState("expired", FinishState.ONGOING);
+		TestState left = new TestState("left", FinishState.ONGOING);
+		TestState waiting = new TestState("waiting", FinishState.ONGOING);
+		waiting.timeout = new StateTimeout(50, "expire");
+		waiting.addTransition("expire", expired, Collections.emptyList());
+		waiting.addTransition("leave", left, Collections.emptyList());
+		left.addTransition("expire", expired, Collections.emptyList());
+		
+		TestState initial = new TestState("initial", FinishState.ONGOING);
+		initial.addTransition("wait", waiting, Collections.emptyList());
+		
+		StateMachine stateMachine = new StateMachine(NAME, initial, event -> true);
+		StateMachine timedOut = stateMachine.newInstance();
+		StateMachine exited = stateMachine.newInstance();
+		Event timedOutWait = event("wait");
+		Event exitedWait = event("wait");
+		
+		timedOut.submitEvent(timedOutWait).toCompletableFuture().get();
+		exited.submitEvent(exitedWait).toCompletableFuture().get();
+		exited.submitEvent(new Event(NAME, exitedWait.getInstanceId().toString(), "leave",
+				Collections.emptyMap())).toCompletableFuture().get();
+		Thread.sleep(500);
+		
+		assertEquals(timedOut.checkpoint(false).toCompletableFuture().get().getActiveStateNames(),
+				List.of("expired"));
+		assertEquals(exited.checkpoint(false).toCompletableFuture().get().getActiveStateNames(),
+				List.of("left"));
+	}
+
+	@Test
+	public void shouldRearmTheTimeoutsOfAPassivatedInstanceOnlyOnceRestored() throws Exception {
+		TestState expired = new TestState("expired", FinishState.ONGOING);
+		TestState waiting = new TestState("waiting", FinishState.ONGOING);
+		waiting.timeout = new StateTimeout(50, "expire");
+		waiting.addTransition("expire", expired, Collections.emptyList());
+		
+		TestState initial = new TestState("initial", FinishState.ONGOING);
+		initial.addTransition("wait", waiting, Collections.emptyList());
+		
+		StateMachine stateMachine = new StateMachine(NAME, initial, event -> true);
+		List<Event> routed = Collections.synchronizedList(new ArrayList<>());
+		stateMachine.setEventRouter(event -> {
+			routed.add(event);
+			return CompletableFuture.completedFuture(null);
+		});
+		
+		StateMachine passivated = stateMachine.newInstance();
+		Event wait = event("wait");
+		passivated.submitEvent(wait).toCompletableFuture().get();
+		
+		List<InstanceSnapshot> snapshots = new ArrayList<>();
+		passivated.passivate(snapshots::add).toCompletableFuture().get();
+		Thread.sleep(500);
+		
+		assertEquals(routed, List.of());
+		
+		StateMachine restored = stateMachine.newInstance();
+		restored.restore(wait.getInstanceId(), () -> snapshots.get(0), failure -> { }).toCompletableFuture().get();
+		Thread.sleep(500);
+		
+		assertEquals(restored.checkpoint(false).toCompletableFuture().get().getActiveStateNames(),
+				List.of("expired"));
+	}
+
+	@Test
+	public void shouldRecordTheTransitionsPerformed() throws Exception {
+		TestState done = new TestState("done", FinishState.ONGOING);
+		TestState initial = new TestState("initial", FinishState.ONGOING);
+		initial.addTransition("go", done, Collections.emptyList());
+		
+		StateMachine instance = new StateMachine(NAME, initial, event -> true).newInstance();
+		Event go = event("go");
+		Path file = Files.createTempFile("jallaby", ".jfr");
+		
+		try (Recording recording = new Recording()) {
+			recording.enable("org.jallaby.TransitionPerformed");
+			recording.start();
+			instance.processEvent(go);
+			recording.stop();
+			recording.dump(file);
+		}
+		
+		List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+				.filter(event -> event.getEventType().getName().equals("org.jallaby.TransitionPerformed"))
+				.collect(Collectors.toList());
+		Files.delete(file);
+		
+		assertEquals(events.size(), 1);
+		assertEquals(events.get(0).getString("instanceId"), go.getInstanceId().toString());
+		assertEquals(events.get(0).getString("sourceState"), "initial");
+		assertEquals(events.get(0).getString("targetState"), "done");
+	}
+
+	@Test
+	public void shouldCompleteTheTransitionWhenAConcurrentActionFails() throws Exception {
+		List<String> performed = Collections.synchronizedList(new ArrayList<>());
+		TestState done = new TestState("done", FinishState.ONGOING);
+		TestState working = new TestState("working", FinishState.ONGOING);
+		working.addTransition("finish", done, Collections.emptyList());
+		
+		TestState initial = new TestState("initial", FinishState.ONGOING);
+		initial.addTransition("work", working, List.of(eventData -> {
+			throw new IllegalStateException("failed");
+		}, eventData -> performed.add("work")), true);
+		
+		StateMachine instance = new StateMachine(NAME, initial, event -> true).newInstance();
+		Event work = event("work");
+		
+		assertEquals(instance.processEvent(work).getCurrentStateName(), "working");
+		assertEquals(instance.processEvent(new Event(NAME, work.getInstanceId().toString(), "finish",
+				Collections.emptyMap())).getCurrentStateName(), "done");
+		assertEquals(performed, List.of("work"));
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void shouldNotRaiseEventsOutsideOfProcessing() {
+		StateMachine.raiseEvent("second", Collections.emptyMap());
+	}
+
+	private static Event event(final String eventName) {
+		return new Event(NAME, UUID.randomUUID().toString(), eventName, Collections.emptyMap());
+	}
+
+	private static final class TestState implements State {
+		private final String name;
+		private final FinishState finishState;
+		private final Map<String, Transition> transitions = new HashMap<>();
+		private StateTimeout timeout;
+		
+		private TestState(final String name, final FinishState finishState) {
+			this.name = name;
+			this.finishState = finishState;
+		}
+
+		private void addTransition(final String eventName, final State target,
+				final List<TransitionAction> actions) {
+			addTransition(eventName, target, actions, false);
+		}
+
+		private void addTransition(final String eventName, final State target,
+				final List<TransitionAction> actions, final boolean concurrent) {
+			Deque<State> states = new ArrayDeque<>(List.of(target));
+			TransitionActionGroup group = new TransitionActionGroup() {
+				
+				@Override
+				public boolean isSequential() {
+					return !concurrent;
+				}
+
+				@Override
+				public boolean isConcurrent() {
+					return concurrent;
+				}
+
+				@Override
+				public List<TransitionAction> getTransitionActions() {
+					return actions;
+				}
+			};
+			
+			transitions.put(eventName, new Transition() {
+				
+				@Override
+				public List<TransitionGuard> getTransitionGuards() {
+					return Collections.emptyList();
+				}
+
+				@Override
+				public List<TransitionActionGroup> getTransitionActionGroups() {
+					return List.of(group);
+				}
+
+				@Override
+				public StateInfo getTargetStateInfo() {
+					return new StateInfo() {
+						
+						@Override
+						public int getStatesToExit() {
+							return 1;
+						}
+
+						@Override
+						public Deque<State> getStates() {
+							return states;
+						}
+					};
+				}
+			});
+		}
+
+		@Override
+		public Transition offerEvent(final Event event, final List<Event> offeredEvents) {
+			Set<String> eventNames = new TreeSet<>();
+			offeredEvents.forEach(offered -> eventNames.add(offered.getEventName()));
+			eventNames.add(event.getEventName());
+			return transitions.get(String.join("+", eventNames));
+		}
+
+		@Override
+		public FinishState performEntryAction(final Map<String, Map<String, Object>> eventData) {
+			return finishState;
+		}
+
+		@Override
+		public void performExitAction(final Map<String, Map<String, Object>> eventData) {
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public StateTimeout getTimeout() {
+			return timeout;
+		}
+	}
+}
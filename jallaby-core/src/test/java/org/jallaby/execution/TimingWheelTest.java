@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.execution;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class TimingWheelTest {
+	
+	@Test
+	public void shouldRunOnlyTimersNotCancelled() {
+		long start = System.nanoTime();
+		TimingWheel wheel = new TimingWheel(1, false);
+		int timers = 100000;
+		AtomicInteger expiredRuns = new AtomicInteger();
+		AtomicInteger cancelledRuns = new AtomicInteger();
+		List<Timer> cancelled = new ArrayList<>();
+		
+		for (int i = 0; i < timers; i++) {
+			long delay = ThreadLocalRandom.current().nextLong(200);
+			
+			if (i % 2 == 0) {
+				wheel.schedule(expiredRuns::incrementAndGet, delay);
+			} else {
+				cancelled.add(wheel.schedule(cancelledRuns::incrementAndGet, delay + 100));
+			}
+		}
+		
+		cancelled.forEach(timer -> assertTrue(timer.cancel()));
+		long ticks = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + 300 + 2;
+		
+		for (long tick = 0; tick < ticks; tick++) {
+			wheel.advance();
+		}
+		
+		assertEquals(expiredRuns.get(), timers / 2);
+		assertEquals(cancelledRuns.get(), 0);
+		assertFalse(cancelled.get(0).cancel());
+	}
+
+	@Test
+	public void shouldRunTimersSpanningSeveralWheelsNotTooEarly() throws Exception {
+		TimingWheel wheel = new TimingWheel(1);
+		CountDownLatch expired = new CountDownLatch(1);
+		long start = System.nanoTime();
+		
+		wheel.schedule(expired::countDown, 300);
+		
+		assertTrue(expired.await(10, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+	}
+}
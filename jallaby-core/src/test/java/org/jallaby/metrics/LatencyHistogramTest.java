@@ -0,0 +1,74 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+	
+	@Test
+	public void shouldKeepEachValueWithinASixteenthOfItsBucket() {
+		int previous = -1;
+		
+		for (long value = 0; value < (1L << 40); value = value * 9 / 8 + 1) {
+			int index = LatencyHistogram.indexOf(value);
+			long lowest = LatencyHistogram.lowestValueAt(index);
+			
+			assertTrue(index >= previous);
+			assertTrue(lowest <= value);
+			assertTrue(value - lowest <= Math.max(lowest / 16, 0));
+			previous = index;
+		}
+	}
+
+	@Test
+	public void shouldCountValuesUpToEachBound() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(500);
+		histogram.record(1000);
+		histogram.record(2000000);
+		histogram.record(-1);
+		
+		long[] counts = histogram.getCumulativeCounts(new long[] {1000, 1000000, 10000000});
+		
+		assertEquals(counts[0], 3);
+		assertEquals(counts[1], 3);
+		assertEquals(counts[2], 4);
+		assertEquals(counts[3], 4);
+		assertEquals(histogram.getSumNanos(), 2001500);
+	}
+
+	@Test
+	public void shouldFindTheValuesAtQuantilesWithoutUnderstatingThem() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(histogram.getValueAtQuantile(0.99), 0);
+		
+		for (long value = 1; value <= 1000; value++) {
+			histogram.record(value * 1000);
+		}
+		
+		long median = histogram.getValueAtQuantile(0.5);
+		long max = histogram.getValueAtQuantile(1);
+		
+		assertEquals(histogram.getCount(), 1000);
+		assertTrue(median >= 500000 && median <= 500000 + 500000 / 16);
+		assertTrue(max >= 1000000 && max <= 1000000 + 1000000 / 16);
+	}
+}
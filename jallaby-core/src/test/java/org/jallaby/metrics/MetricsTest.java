@@ -0,0 +1,60 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.metrics;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class MetricsTest {
+	
+	@Test
+	public void shouldRenderTheMetricsInPrometheusTextFormat() {
+		Metrics metrics = new Metrics(true);
+		MachineMetrics machine = metrics.forMachine("Order");
+		machine.recordEvent(2000000, false);
+		machine.recordEvent(3000000, true);
+		machine.recordGuards("waiting", "paid", 5000);
+		machine.recordEntryAction("pa\"id", 40000);
+		
+		String text = metrics.toPrometheusText();
+		
+		assertTrue(text.contains("# TYPE jallaby_events_total counter\njallaby_events_total{machine=\"Order\"} 2\n"));
+		assertTrue(text.contains("jallaby_event_failures_total{machine=\"Order\"} 1\n"));
+		assertTrue(text.contains("jallaby_event_duration_seconds_bucket{machine=\"Order\",le=\"0.001\"} 0\n"));
+		assertTrue(text.contains("jallaby_event_duration_seconds_bucket{machine=\"Order\",le=\"+Inf\"} 2\n"));
+		assertTrue(text.contains("jallaby_event_duration_seconds_sum{machine=\"Order\"} 0.005\n"));
+		assertTrue(text.contains("jallaby_guard_duration_seconds_count{machine=\"Order\",source=\"waiting\","
+				+ "target=\"paid\"} 1\n"));
+		assertTrue(text.contains("jallaby_entry_action_duration_seconds_bucket{machine=\"Order\","
+				+ "state=\"pa\\\"id\",le=\"0.0001\"} 1\n"));
+	}
+
+	@Test
+	public void shouldNoLongerRenderRemovedMachines() {
+		Metrics metrics = new Metrics(true);
+		metrics.forMachine("Order").recordEvent(2000000, false);
+		metrics.forMachine("Order/warm-up").recordEvent(2000000, false);
+		
+		metrics.remove("Order/warm-up");
+		String text = metrics.toPrometheusText();
+		
+		assertTrue(text.contains("jallaby_events_total{machine=\"Order\"} 1\n"));
+		assertFalse(text.contains("warm-up"));
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.persistence;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.jallaby.event.Event;
+import org.jallaby.event.EventResult;
+import org.testng.annotations.Test;
+
+public class EventJournalTest {
+	
+	@Test
+	public void shouldReadBackRecordsAcrossSegmentsAfterReopening() throws Exception {
+		Path directory = Files.createTempDirectory("jallaby-journal");
+		UUID instanceId = UUID.randomUUID();
+		
+		try (EventJournal journal = new EventJournal(directory, 4096, FsyncPolicy.ALWAYS, 1)) {
+			List<CompletableFuture<Void>> commits = new ArrayList<>();
+			
+			for (int i = 0; i < 200; i++) {
+				Event event = new Event("Journaled", instanceId.toString(), "event" + i,
+						Collections.singletonMap("number", i));
+				long position = journal.append(event, i % 2 == 0
+						? new EventResult("Journaled", instanceId.toString(), "state" + i) : null);
+				commits.add(journal.sync(position).toCompletableFuture());
+				journal.append(new Event("Other", instanceId.toString(), "other", null), null);
+			}
+			
+			CompletableFuture.allOf(commits.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+		}
+		
+		assertTrue(segments(directory).size() > 1);
+		
+		try (EventJournal journal = new EventJournal(directory, 4096, FsyncPolicy.NEVER, 1)) {
+			List<JournalRecord> records = read(journal, "Journaled");
+			
+			assertEquals(records.size(), 200);
+			
+			for (int i = 0; i < 200; i++) {
+				JournalRecord record = records.get(i);
+				assertEquals(record.getEvent().getEventName(), "event" + i);
+				assertEquals(record.getEvent().getInstanceId(), instanceId);
+				assertEquals(record.getEvent().getPayload().get("number"), i);
+				
+				if (i % 2 == 0) {
+					assertEquals(record.getResultStateName(), "state" + i);
+				} else {
+					assertNull(record.getResultStateName());
+				}
+			}
+			
+			journal.truncateBefore(records.get(199).getPosition());
+			assertTrue(read(journal, "Journaled").get(0).getPosition() > records.get(0).getPosition());
+			assertEquals(journal.getStateMachineNames(), Set.of("Journaled", "Other"));
+		}
+	}
+
+	@Test
+	public void shouldIgnoreTornRecordAtTheEnd() throws Exception {
+		Path directory = Files.createTempDirectory("jallaby-journal");
+		UUID instanceId = UUID.randomUUID();
+		long end;
+		
+		try (EventJournal journal = new EventJournal(directory, 4096, FsyncPolicy.NEVER, 1)) {
+			journal.append(new Event("Journaled", instanceId.toString(), "first", null), null);
+			end = journal.getPosition();
+			journal.append(new Event("Journaled", instanceId.toString(), "second", null), null);
+		}
+		
+		try (RandomAccessFile file = new RandomAccessFile(segments(directory).get(0).toFile(), "rw")) {
+			file.seek(end + 20);
+			int original = file.readByte();
+			file.seek(end + 20);
+			file.writeByte(~original);
+		}
+		
+		try (EventJournal journal = new EventJournal(directory, 4096, FsyncPolicy.NEVER, 1)) {
+			assertEquals(journal.getPosition(), end);
+			
+			journal.append(new Event("Journaled", instanceId.toString(), "third", null), null);
+			
+			List<String> eventNames = read(journal, "Journaled").stream()
+					.map(record -> record.getEvent().getEventName()).collect(Collectors.toList());
+			assertEquals(eventNames, List.of("first", "third"));
+		}
+	}
+
+	@Test
+	public void shouldReadRecordsAppendedAfterThePreviousRead() throws Exception {
+		Path directory = Files.createTempDirectory("jallaby-journal");
+		UUID instanceId = UUID.randomUUID();
+		
+		try (EventJournal journal = new EventJournal(directory, 4096, FsyncPolicy.NEVER, 1)) {
+			for (int i = 0; i < 50; i++) {
+				journal.append(new Event("Journaled", instanceId.toString(), "early" + i, null), null);
+			}
+			
+			assertEquals(read(journal, "Journaled").size(), 50);
+			assertEquals(journal.getStateMachineNames(), Set.of("Journaled"));
+			
+			for (int i = 0; i < 50; i++) {
+				journal.append(new Event("Journaled", instanceId.toString(), "late" + i, null), null);
+				journal.append(new Event("Other", instanceId.toString(), "other", null), null);
+			}
+			
+			List<JournalRecord> records = read(journal, "Journaled");
+			
+			assertEquals(records.size(), 100);
+			assertEquals(records.get(99).getEvent().getEventName(), "late49");
+			assertEquals(read(journal, "Other").size(), 50);
+			assertEquals(journal.getStateMachineNames(), Set.of("Journaled", "Other"));
+		}
+	}
+
+	private List<JournalRecord> read(final EventJournal journal, final String stateMachineName)
+			throws Exception {
+		List<JournalRecord> records = new ArrayList<>();
+		journal.read(stateMachineName, records::add);
+		return records;
+	}
+
+	private List<Path> segments(final Path directory) throws Exception {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.sorted().collect(Collectors.toList());
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.persistence;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.jallaby.event.Event;
+import org.jallaby.execution.InstanceSnapshot;
+import org.testng.annotations.Test;
+
+public class OffHeapInstanceStoreTest {
+	private static final String NAME = "Dormant";
+	
+	@Test
+	public void shouldKeepSnapshotsWhileGrowingAndShrinking() throws Exception {
+		OffHeapInstanceStore store = new OffHeapInstanceStore(16,
+				new FileInstanceStore(Files.createTempDirectory("jallaby-instances")));
+		List<UUID> instanceIds = new ArrayList<>();
+		
+		for (int i = 0; i < 100000; i++) {
+			UUID instanceId = UUID.randomUUID();
+			instanceIds.add(instanceId);
+			store.store(NAME, instanceId, new InstanceSnapshot(List.of("outer", "state" + i % 100),
+					List.of(), true, i));
+		}
+		
+		assertEquals(store.size(NAME), 100000);
+		
+		for (int i = 0; i < instanceIds.size(); i += 2) {
+			InstanceSnapshot snapshot = store.take(NAME, instanceIds.get(i));
+			assertEquals(snapshot.getActiveStateNames(), List.of("outer", "state" + i % 100));
+			assertEquals(snapshot.getPosition(), i);
+			assertNull(store.take(NAME, instanceIds.get(i)));
+		}
+		
+		assertEquals(store.size(NAME), 50000);
+		
+		for (int i = 1; i < instanceIds.size(); i += 2) {
+			assertEquals(store.load(NAME, instanceIds.get(i)).getPosition(), i);
+		}
+	}
+
+	@Test
+	public void shouldKeepPendingEventsWithoutPayload() throws Exception {
+		OffHeapInstanceStore store = new OffHeapInstanceStore(16,
+				new FileInstanceStore(Files.createTempDirectory("jallaby-instances")));
+		UUID instanceId = UUID.randomUUID();
+		
+		store.store(NAME, instanceId, new InstanceSnapshot(List.of("waiting"), List.of(
+				new Event(NAME, instanceId.toString(), "pack", null),
+				new Event(NAME, instanceId.toString(), "label", Collections.emptyMap())), false, -1));
+		
+		InstanceSnapshot snapshot = store.take(NAME, instanceId);
+		
+		assertEquals(snapshot.getPendingEvents().size(), 2);
+		assertEquals(snapshot.getPendingEvents().get(0).getEventName(), "pack");
+		assertNull(snapshot.getPendingEvents().get(0).getPayload());
+		assertTrue(snapshot.getPendingEvents().get(1).getPayload().isEmpty());
+		assertEquals(snapshot.isInitialized(), false);
+	}
+
+	@Test
+	public void shouldHandSnapshotsExceedingASlotToTheOverflowStore() throws Exception {
+		OffHeapInstanceStore store = new OffHeapInstanceStore(16,
+				new FileInstanceStore(Files.createTempDirectory("jallaby-instances")));
+		UUID instanceId = UUID.randomUUID();
+		Event paid = new Event(NAME, instanceId.toString(), "pay", Collections.singletonMap("amount", 3));
+		
+		store.store(NAME, instanceId, new InstanceSnapshot(List.of("waiting"), List.of(paid), true, 7));
+		
+		assertEquals(store.size(NAME), 0);
+		assertEquals(store.load(NAME, instanceId).getPendingEvents().get(0).getPayload().get("amount"), 3);
+		
+		store.store(NAME, instanceId, new InstanceSnapshot(List.of("paid"), List.of(), true, 8));
+		
+		assertEquals(store.size(NAME), 1);
+		assertEquals(store.take(NAME, instanceId).getActiveStateNames(), List.of("paid"));
+		assertNull(store.take(NAME, instanceId));
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.persistence;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.jallaby.event.Event;
+import org.jallaby.execution.InstanceSnapshot;
+import org.testng.annotations.Test;
+
+public class SnapshotStoreTest {
+	
+	@Test
+	public void shouldMergeIncrementalCheckpointsIntoTheLastFullOne() throws Exception {
+		Path directory = Files.createTempDirectory("jallaby-snapshots");
+		SnapshotStore store = new SnapshotStore(directory);
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+		Event pending = new Event("Snapshotted", second.toString(), "pay",
+				Collections.singletonMap("amount", 3));
+		
+		Map<UUID, InstanceSnapshot> snapshots = new HashMap<>();
+		snapshots.put(first, new InstanceSnapshot(List.of("outer", "waiting"), List.of(), true, 10));
+		snapshots.put(second, new InstanceSnapshot(List.of("outer"), List.of(), false, 20));
+		store.write("Snapshotted", 100, snapshots, true);
+		store.write("Snapshotted", 200, Collections.singletonMap(second,
+				new InstanceSnapshot(List.of("outer", "paying"), List.of(pending), true, 150)), false);
+		
+		Map<UUID, InstanceSnapshot> read = store.read("Snapshotted");
+		
+		assertEquals(read.size(), 2);
+		assertEquals(read.get(first).getActiveStateNames(), List.of("outer", "waiting"));
+		assertEquals(read.get(first).getPosition(), 10);
+		assertTrue(read.get(first).isInitialized());
+		assertEquals(read.get(second).getActiveStateNames(), List.of("outer", "paying"));
+		assertEquals(read.get(second).getPosition(), 150);
+		assertEquals(read.get(second).getPendingEvents().get(0).getEventName(), "pay");
+		assertEquals(read.get(second).getPendingEvents().get(0).getInstanceId(), second);
+		assertEquals(read.get(second).getPendingEvents().get(0).getPayload().get("amount"), 3);
+		
+		store.write("Snapshotted", 300, Collections.singletonMap(first,
+				new InstanceSnapshot(List.of("done"), List.of(), true, 250)), true);
+		
+		read = store.read("Snapshotted");
+		
+		assertEquals(read.keySet(), Collections.singleton(first));
+		assertEquals(read.get(first).getActiveStateNames(), List.of("done"));
+		
+		try (Stream<Path> files = Files.list(directory.resolve("Snapshotted"))) {
+			assertEquals(files.count(), 1);
+		}
+	}
+
+	@Test
+	public void shouldReadNothingForUnknownStateMachine() throws Exception {
+		SnapshotStore store = new SnapshotStore(Files.createTempDirectory("jallaby-snapshots"));
+		assertTrue(store.read("Unknown").isEmpty());
+	}
+}
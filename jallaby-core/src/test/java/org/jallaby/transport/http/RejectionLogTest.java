@@ -0,0 +1,60 @@
+/*
+ * Copyright 2022, The Jallaby Development Team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jallaby.transport.http;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import org.jallaby.event.Event;
+import org.jallaby.event.EventProcessingException;
+import org.jallaby.event.EventRejection;
+import org.slf4j.Logger;
+import org.testng.annotations.Test;
+
+public class RejectionLogTest {
+	
+	@Test
+	public void shouldLogSampledRejectionsUpToTheRateLimit() {
+		Logger logger = mock(Logger.class);
+		when(logger.isWarnEnabled()).thenReturn(true);
+		RejectionLog log = new RejectionLog(logger, 10, 3);
+		Event event = new Event("Flooded", UUID.randomUUID().toString(), "unknown", Collections.emptyMap());
+		
+		for (int i = 0; i < 1000; i++) {
+			log.log(EventRejection.INVALID_EVENT.toError(event));
+		}
+		
+		verify(logger, times(3)).warn(anyString());
+	}
+
+	@Test
+	public void shouldRejectWithoutStackTrace() {
+		Event event = new Event("Flooded", UUID.randomUUID().toString(), "unknown", Collections.emptyMap());
+		EventProcessingException exception = EventRejection.TRANSITION_GUARD.toException(event);
+		
+		assertEquals(exception.getStackTrace().length, 0);
+		assertEquals(exception.getError().getErrorCode(), 202);
+		assertEquals(EventRejection.of(202), EventRejection.TRANSITION_GUARD);
+	}
+}